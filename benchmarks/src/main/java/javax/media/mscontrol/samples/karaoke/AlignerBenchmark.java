@@ -0,0 +1,116 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ * 
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.karaoke;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Alignment of the recording of one singer of a four minute chorus on the
+ * backing track, on one thread: the correlation of the start of the
+ * recording, and the copy of the whole recording, shifted. Four minutes
+ * divided by 16 times the time of an alignment is how much faster than
+ * real time one core aligns a 16 singer chorus.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AlignerBenchmark {
+
+	private static final int SECONDS = 240;
+
+	/** Lag of the singer, in ms */
+	private static final int LAG = 150;
+
+	@Param({ "8000", "16000" })
+	public int sampleRate;
+
+	@Param({ "5000", "10000" })
+	public int windowMillis;
+
+	private File root;
+	private Aligner aligner;
+	private File recording;
+	private File output;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		root = Files.createTempDirectory(new File(System.getProperty("bench.tmpfs", "/dev/shm")).toPath(), "aligner")
+				.toFile();
+		short[] music = new short[sampleRate * SECONDS];
+		Random random = new Random(1);
+		for (int i = 0; i < music.length; i++)
+			music[i] = (short) (6000 * Math.sin(2 * Math.PI * 220 * i / sampleRate) + 3000 * random.nextGaussian());
+		File backingTrack = write(new File(root, "music.wav"), music);
+		// The music picked up by the microphone, late, over the voice
+		short[] voice = new short[music.length];
+		int lag = LAG * sampleRate / 1000;
+		for (int i = 0; i < voice.length; i++)
+			voice[i] = (short) ((i >= lag ? music[i - lag] / 5 : 0) + 4000 * Math.sin(i / 9.0));
+		recording = write(new File(root, "voice.wav"), voice);
+		output = new File(root, "aligned.wav");
+		aligner = new Aligner(backingTrack, windowMillis, 1000, 0.1f);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		File[] files = root.listFiles();
+		if (files != null) {
+			for (File file : files)
+				file.delete();
+		}
+		root.delete();
+	}
+
+	@Benchmark
+	public Aligner.Result align() throws IOException {
+		return aligner.align(recording, output);
+	}
+
+	private File write(File file, short[] samples) throws IOException {
+		byte[] data = new byte[2 * samples.length];
+		for (int i = 0; i < samples.length; i++) {
+			data[2 * i] = (byte) samples[i];
+			data[2 * i + 1] = (byte) (samples[i] >> 8);
+		}
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(Mixdown.header(1, sampleRate, data.length));
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
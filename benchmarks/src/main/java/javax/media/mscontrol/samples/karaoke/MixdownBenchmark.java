@@ -0,0 +1,113 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ * 
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.karaoke;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mixdown of a one minute karaoke replay: the music and 1 to 3 voices, on
+ * one thread. One minute divided by the time of a mixdown is the number of
+ * replays one core can mix in real time; run with <code>-t</code> set to
+ * the number of cores to see how it scales.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MixdownBenchmark {
+
+	private static final int SECONDS = 60;
+
+	@Param({ "8000", "16000" })
+	public int sampleRate;
+
+	@Param({ "2", "4" })
+	public int tracks;
+
+	@Param({ "1024", "4096", "16384" })
+	public int chunkFrames;
+
+	private File root;
+	private Mixdown mixdown;
+	private File output;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		root = Files.createTempDirectory(new File(System.getProperty("bench.tmpfs", "/dev/shm")).toPath(), "mixdown")
+				.toFile();
+		List<Mixdown.Track> list = new ArrayList<Mixdown.Track>();
+		for (int i = 0; i < tracks; i++)
+			list.add(new Mixdown.Track(write(new File(root, "track" + i + ".wav"), 220 * (i + 1)), i == 0 ? 0.7f
+					: 1f));
+		mixdown = new Mixdown(list, chunkFrames);
+		output = new File(root, "mix.wav");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		File[] files = root.listFiles();
+		if (files != null) {
+			for (File file : files)
+				file.delete();
+		}
+		root.delete();
+	}
+
+	@Benchmark
+	public Mixdown.Result mix() throws IOException {
+		return mixdown.mix(output);
+	}
+
+	/**
+	 * @return a mono WAV file of a loud tone, so that the limiter works
+	 */
+	private File write(File file, int frequency) throws IOException {
+		int samples = sampleRate * SECONDS;
+		byte[] data = new byte[2 * samples];
+		for (int i = 0; i < samples; i++) {
+			int s = (int) (20000 * Math.sin(2 * Math.PI * frequency * i / sampleRate));
+			data[2 * i] = (byte) s;
+			data[2 * i + 1] = (byte) (s >> 8);
+		}
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(Mixdown.header(1, sampleRate, data.length));
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
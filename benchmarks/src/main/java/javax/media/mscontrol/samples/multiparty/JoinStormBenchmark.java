@@ -0,0 +1,138 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ * 
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.multiparty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.media.mscontrol.samples.loadtest.SipStandIns;
+import javax.media.mscontrol.samples.simulator.SimConfig;
+import javax.media.mscontrol.samples.simulator.SimDriver;
+import javax.servlet.ServletException;
+import javax.servlet.sip.SipApplicationSession;
+import javax.servlet.sip.SipServletRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Join storm: hundreds of callers entering the same conference identifier
+ * at once, e.g. at the start of a scheduled call, on the simulated media
+ * server. Each invocation times all the callers joining the room from a
+ * pool of threads, the first one opening it; the room is destroyed by the
+ * last leave before the next invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 10)
+@Measurement(iterations = 50)
+public class JoinStormBenchmark {
+
+	private static final String ROOM = "storm";
+
+	@Param({ "100", "500" })
+	public int callers;
+
+	@Param({ "8", "64" })
+	public int threads;
+
+	private SipStandIns sip;
+	private ConferenceServlet servlet;
+	private ExecutorService pool;
+	private List<Participant> participants;
+	private ConferenceSession room;
+
+	@Setup(Level.Trial)
+	public void setUp() throws ServletException {
+		SimDriver.install(new SimConfig());
+		sip = new SipStandIns();
+		servlet = new ConferenceServlet();
+		servlet.init(sip.createServletConfig("conference"));
+		pool = Executors.newFixedThreadPool(threads);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		pool.shutdown();
+		servlet.destroy();
+	}
+
+	@Setup(Level.Invocation)
+	public void call() throws ServletException {
+		participants = new ArrayList<Participant>(callers);
+		SipApplicationSession app = sip.createApplicationSession();
+		// No endpoint: the answers of the servlet go nowhere
+		for (int i = 0; i < callers; i++) {
+			SipServletRequest invite = sip.createRequest(sip.createSession(app, null, "sip:caller" + i
+					+ "@example.com", "sip:conference@example.com"), "INVITE", true, sdp(i));
+			participants.add(new Participant(invite, servlet));
+		}
+	}
+
+	@TearDown(Level.Invocation)
+	public void hangUp() {
+		for (Participant participant : participants) {
+			room.removeParticipant(participant);
+			participant.release();
+		}
+		if (ConferenceServlet.getConferences().get(ROOM) != null)
+			throw new IllegalStateException("Room " + ROOM + " not destroyed by its last participant");
+	}
+
+	@Benchmark
+	public ConferenceSession join() throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<ConferenceSession>> joins = new ArrayList<Future<ConferenceSession>>(callers);
+		for (final Participant participant : participants) {
+			joins.add(pool.submit(new Callable<ConferenceSession>() {
+				public ConferenceSession call() throws Exception {
+					start.await();
+					return servlet.addParticipant(ROOM, participant);
+				}
+			}));
+		}
+		start.countDown();
+		room = null;
+		for (Future<ConferenceSession> join : joins) {
+			ConferenceSession joined = join.get();
+			if (room != null && joined != room)
+				throw new IllegalStateException("Callers of " + ROOM + " split over two rooms");
+			room = joined;
+		}
+		room.getMixer();
+		return room;
+	}
+
+	private static byte[] sdp(int caller) {
+		return ("v=0\r\no=caller" + caller + " 1 1 IN IP4 127.0.0.1\r\ns=-\r\nc=IN IP4 127.0.0.1\r\nt=0 0\r\n"
+				+ "m=audio " + (10000 + 2 * caller) + " RTP/AVP 0\r\na=rtpmap:0 PCMU/8000\r\n").getBytes();
+	}
+}
@@ -0,0 +1,71 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.voicemail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CoreMailboxMgr.copyMessage, used to deposit a message in the second and
+ * next destination mailboxes, on recordings from 64 KB to 10 MB
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CopyMessageBenchmark {
+
+	@Param({ "tmpfs", "disk" })
+	public String storage;
+
+	@Param({ "65536", "1048576", "10485760" })
+	public long size;
+
+	private File root;
+	private URI from;
+	private URI to;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		root = MailboxStorage.create(storage);
+		from = URI.create(MailboxStorage.write(new File(root, "message1"), size).getPath());
+		to = URI.create(new File(root, "message2").getPath());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		MailboxStorage.delete(root);
+	}
+
+	@Benchmark
+	public void copyMessage() {
+		CoreMailboxMgr.copyMessage(from, to);
+	}
+}
@@ -0,0 +1,72 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.voicemail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CoreMailbox.getMessages, which lists the mailbox directory on each call
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class GetMessagesBenchmark {
+
+	@Param({ "tmpfs", "disk" })
+	public String storage;
+
+	@Param({ "10", "100", "1000", "10000", "100000" })
+	public int entries;
+
+	private File root;
+	private CoreMailbox mailbox;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		root = MailboxStorage.create(storage);
+		File messages = new File(root, "1000/messages");
+		messages.mkdirs();
+		for (int i = 1; i <= entries; i++)
+			new File(messages, "message" + i).createNewFile();
+		mailbox = new CoreMailbox("1000");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		MailboxStorage.delete(root);
+	}
+
+	@Benchmark
+	public URI[] getMessages() {
+		return mailbox.getMessages();
+	}
+}
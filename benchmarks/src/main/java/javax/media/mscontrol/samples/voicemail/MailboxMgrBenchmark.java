@@ -0,0 +1,84 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.voicemail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CoreMailboxMgr.getMailbox and releaseMailbox, from several threads. The
+ * manager is a single lock; a mailbox nobody holds is read again from the
+ * storage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(8)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MailboxMgrBenchmark {
+
+	@Param({ "tmpfs", "disk" })
+	public String storage;
+
+	/** all the threads on one mailbox, or one mailbox per thread */
+	@Param({ "shared", "distinct" })
+	public String users;
+
+	private File root;
+	private final AtomicInteger threads = new AtomicInteger();
+
+	@State(Scope.Thread)
+	public static class User {
+		String id;
+
+		@Setup(Level.Trial)
+		public void setUp(MailboxMgrBenchmark benchmark) {
+			id = benchmark.users.equals("shared") ? "1000" : Integer.toString(1000 + benchmark.threads.getAndIncrement());
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		root = MailboxStorage.create(storage);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		MailboxStorage.delete(root);
+	}
+
+	@Benchmark
+	public int getAndRelease(User user) {
+		int messages = CoreMailboxMgr.getMailbox(user.id).getMessageNumber();
+		CoreMailboxMgr.releaseMailbox(user.id);
+		return messages;
+	}
+}
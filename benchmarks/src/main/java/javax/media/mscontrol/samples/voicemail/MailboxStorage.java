@@ -0,0 +1,74 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.voicemail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+/**
+ * Temporary mailbox roots for the benchmarks, on tmpfs or on disk.
+ * <br>
+ * <code>tmpfs</code> uses <code>bench.tmpfs</code> (default /dev/shm) and
+ * <code>disk</code> uses <code>bench.disk</code> (default the working
+ * directory), so that both can be pointed at the devices of the target
+ * host.
+ */
+class MailboxStorage {
+
+	/**
+	 * Create an empty mailbox root and make the mailboxes use it
+	 *
+	 * @param storage
+	 *            "tmpfs" or "disk"
+	 */
+	static File create(String storage) throws IOException {
+		String base;
+		if (storage.equals("tmpfs"))
+			base = System.getProperty("bench.tmpfs", "/dev/shm");
+		else if (storage.equals("disk"))
+			base = System.getProperty("bench.disk", System.getProperty("user.dir"));
+		else
+			throw new IllegalArgumentException("Unknown storage " + storage);
+		File root = Files.createTempDirectory(new File(base).toPath(), "mailboxes").toFile();
+		System.setProperty(CoreMailbox.ROOT_PROPERTY, root.getPath());
+		return root;
+	}
+
+	/**
+	 * @return a file of the given size, as a recording would be
+	 */
+	static File write(File file, long size) throws IOException {
+		byte[] buffer = new byte[8192];
+		for (int i = 0; i < buffer.length; i++)
+			buffer[i] = (byte) i;
+		OutputStream out = new FileOutputStream(file);
+		try {
+			for (long left = size; left > 0; left -= buffer.length)
+				out.write(buffer, 0, (int) Math.min(left, buffer.length));
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children)
+				delete(child);
+		}
+		file.delete();
+	}
+}
@@ -37,7 +37,7 @@ public class AddressBookServlet extends SipServlet {
 	@Override
 	protected void doInvite(SipServletRequest req) throws ServletException, IOException {
 		if(req.isInitial()){
-			SipApplicationSession sipApp = factory.createApplicationSession();
+			SipApplicationSession sipApp = req.getApplicationSession();
 			// This service uses 3 legs, so to be sure of the persistence of the service
 			// the AddressBookSession is stocked as an attribute of the SipApplicationSession 
 			// instead of the SipSession
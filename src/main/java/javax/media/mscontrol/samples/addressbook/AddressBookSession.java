@@ -22,6 +22,8 @@ import javax.media.mscontrol.join.Joinable;
 import javax.media.mscontrol.networkconnection.NetworkConnection;
 import javax.media.mscontrol.networkconnection.SdpPortManager;
 import javax.media.mscontrol.networkconnection.SdpPortManagerEvent;
+import javax.media.mscontrol.samples.common.MediaSessionRegistry;
+import javax.media.mscontrol.spi.DriverManager;
 import javax.media.mscontrol.vxml.VxmlDialog;
 import javax.media.mscontrol.vxml.VxmlDialogEvent;
 import javax.servlet.ServletException;
@@ -50,6 +52,14 @@ public class AddressBookSession  {
 	private static String VXML_URL = "http://vxmlserver/addressbook.vxml";
 	static Logger log = Logger.getLogger(AddressBookSession.class);
 	
+	static {
+		try {
+			myMsControlFactory = DriverManager.getDrivers().next().getFactory(null);
+		} catch (Exception e) {
+			log.fatal("Cannot create MsControlFactory :", e);
+		}
+	}
+	
 	
 	public AddressBookSession(SipSession aSipSession, SipFactory aFactory) {
 		mySipSession = aSipSession;
@@ -59,7 +69,7 @@ public class AddressBookSession  {
 	public void init(final SipServletRequest req) throws ServletException {
 		try {
 			// First, create a MediaSession that will host the media objects
-			myMediaSession = myMsControlFactory.createMediaSession();
+			myMediaSession = MediaSessionRegistry.getInstance().create(myMsControlFactory, mySipSession);
 
 			// Create a NetworkConnection that will handle the UA's RTP streams
 			myNetworkConnection = myMediaSession.createNetworkConnection(NetworkConnection.BASIC);
@@ -82,7 +92,7 @@ public class AddressBookSession  {
 							req.createResponse(500, "Unsupported Media Type").send();
 						}
 					} catch (Exception e) {
-						myMediaSession.release();
+						MediaSessionRegistry.getInstance().release(myMediaSession);
 					}
 				}
 			};
@@ -152,7 +162,7 @@ public class AddressBookSession  {
 			} 
 			else if (anEvent.getEventType().equals(VxmlDialogEvent.EXITED)) {
 				setState(DialogState.TERMINATED);
-				myMediaSession.release();
+				MediaSessionRegistry.getInstance().release(myMediaSession);
 			} 
 			else if (anEvent.getEventType().equals(VxmlDialogEvent.MIDCALL_EVENT_RECEIVED)) {
 				// FIXME Need to fix the transfer event informations
@@ -20,6 +20,7 @@ import javax.media.mscontrol.networkconnection.SdpException;
 import javax.media.mscontrol.networkconnection.SdpPortManagerEvent;
 import javax.media.mscontrol.networkconnection.SdpPortManagerException;
 import javax.media.mscontrol.resource.RTC;
+import javax.media.mscontrol.samples.common.MediaSessionRegistry;
 import javax.media.mscontrol.spi.DriverManager;
 import javax.servlet.ServletException;
 import javax.servlet.sip.SipServlet;
@@ -88,7 +89,7 @@ public class PlayerServlet extends SipServlet
 			try {
 
 				// Create new media session and store in SipSession
-				MediaSession mediaSession = msControlFactory.createMediaSession();
+				MediaSession mediaSession = MediaSessionRegistry.getInstance().create(msControlFactory, sipSession);
 				sipSession.setAttribute("MEDIA_SESSION", mediaSession);
 				mediaSession.setAttribute("SIP_SESSION", sipSession);
 
@@ -176,7 +177,7 @@ public class PlayerServlet extends SipServlet
 	protected void doCancel(SipServletRequest req) throws ServletException,
 			IOException {
 		MediaSession mediaSession = (MediaSession) req.getSession().getAttribute("MEDIA_SESSION");
-		mediaSession.release();
+		MediaSessionRegistry.getInstance().release(mediaSession);
 		req.getApplicationSession().invalidate();
 	}
 
@@ -185,7 +186,7 @@ public class PlayerServlet extends SipServlet
 		throws ServletException,IOException
 	{
 		MediaSession mediaSession = (MediaSession) req.getSession().getAttribute("MEDIA_SESSION");
-		mediaSession.release();
+		MediaSessionRegistry.getInstance().release(mediaSession);
 		req.createResponse(SipServletResponse.SC_OK).send();
 		req.getApplicationSession().invalidate();
 	}
@@ -240,13 +241,13 @@ public class PlayerServlet extends SipServlet
 					}
 					// Clean up media session
 					sipSession.removeAttribute("MEDIA_SESSION");
-					mediaSession.release();
+					MediaSessionRegistry.getInstance().release(mediaSession);
 				} 
 			} catch (Exception e) {
 				e.printStackTrace();
 				// Clean up
 				sipSession.getApplicationSession().invalidate();
-				mediaSession.release();
+				MediaSessionRegistry.getInstance().release(mediaSession);
 			}
 		}
 	}
@@ -302,7 +303,7 @@ public class PlayerServlet extends SipServlet
 		try {
 			bye.send();
 			// Clean up media session
-			mediaSession.release();
+			MediaSessionRegistry.getInstance().release(mediaSession);
 			sipSession.removeAttribute("MEDIA_SESSION");
 			setState(sipSession, BYE_SENT);
 		} catch (Exception e1) {
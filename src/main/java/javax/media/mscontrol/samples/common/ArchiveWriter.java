@@ -0,0 +1,272 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ * 
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.common;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Hands files off to an archive directory, e.g. the complete segments of a
+ * recording, on a thread of its own: the media event threads submit and
+ * go on.
+ * <br>
+ * The queue is bounded. A task submitted while it is full is not queued
+ * but deferred, and retried in order on a timer, so that submitting never
+ * blocks; the submitter is expected to batch its work into one task at a
+ * time, e.g. all the segments of a recording waiting to be archived, so
+ * that what waits is bounded too. On shutdown, the queued and deferred
+ * tasks still run; the tasks submitted after it are dropped, and counted.
+ * A file is moved by a rename when the archive is on
+ * the same file system, and else streamed into a temporary file, synced
+ * and renamed: the archive never holds a partial file.
+ * <br>
+ * The settings are the <code>archive.queue</code> (tasks, 16) and
+ * <code>archive.retry</code> (ms, 1000) system properties.
+ */
+public class ArchiveWriter {
+
+	private static Logger log = Logger.getLogger(ArchiveWriter.class);
+
+	/** Bytes streamed at a time when copying */
+	private static final long CHUNK = 1 << 20;
+
+	private final ThreadPoolExecutor writer;
+	private final ScheduledExecutorService retries;
+	private final long retryMillis;
+
+	private final LongAdder files = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder deferred = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+
+	/** Tasks refused by the full queue, in order; guarded by itself */
+	private final Queue<Runnable> waiting = new ArrayDeque<Runnable>();
+	private boolean retrying;
+	private boolean closed;
+
+	private final Runnable retry = new Runnable() {
+		public void run() {
+			retry();
+		}
+	};
+
+	/**
+	 * @param capacity
+	 *            tasks waiting to be written
+	 * @param retryMillis
+	 *            delay before a task refused by the full queue is submitted
+	 *            again
+	 */
+	public ArchiveWriter(int capacity, long retryMillis) {
+		this.retryMillis = retryMillis;
+		writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(capacity),
+				daemon("archive-writer"));
+		retries = Executors.newSingleThreadScheduledExecutor(daemon("archive-retries"));
+	}
+
+	public static ArchiveWriter fromSystemProperties() {
+		return new ArchiveWriter(Integer.getInteger("archive.queue", 16), Long.getLong("archive.retry", 1000));
+	}
+
+	/**
+	 * Run a task on the writer thread, now or, if the queue is full, after
+	 * a retry delay; never blocks
+	 *
+	 * @return false if the writer is shut down: the task is dropped
+	 */
+	public boolean submit(Runnable task) {
+		synchronized (waiting) {
+			if (closed) {
+				dropped.increment();
+				log.warn("Archive shut down, task dropped: " + task);
+				return false;
+			}
+			// After the tasks deferred already
+			if (waiting.isEmpty()) {
+				try {
+					writer.execute(task);
+					return true;
+				} catch (RejectedExecutionException e) {
+					// Full
+				}
+			}
+			deferred.increment();
+			waiting.add(task);
+			if (!retrying) {
+				retrying = true;
+				retries.schedule(retry, retryMillis, TimeUnit.MILLISECONDS);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Queue the deferred tasks there is room for, on the timer
+	 */
+	private void retry() {
+		synchronized (waiting) {
+			if (closed)
+				return;
+			try {
+				while (!waiting.isEmpty()) {
+					writer.execute(waiting.peek());
+					waiting.poll();
+				}
+				retrying = false;
+			} catch (RejectedExecutionException e) {
+				retries.schedule(retry, retryMillis, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Move a file into the archive, on the writer thread, i.e. from a
+	 * submitted task
+	 *
+	 * @throws IOException
+	 *             if the file cannot be archived; it is left where it is
+	 */
+	public void move(File source, File target) throws IOException {
+		File dir = target.getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create the archive directory " + dir);
+		long length = source.length();
+		try {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			// Another file system
+			File part = new File(target.getPath() + ".part");
+			copy(source, part);
+			Files.move(part.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			if (!source.delete())
+				log.warn("Cannot delete " + source + ", archived as " + target);
+		}
+		files.increment();
+		bytes.add(length);
+	}
+
+	/**
+	 * Count a file that could not be archived
+	 */
+	public void failed(File source, Exception e) {
+		failed.increment();
+		log.error("Cannot archive " + source + ", left in place", e);
+	}
+
+	/**
+	 * Run the tasks queued and deferred, then stop: waits for room in the
+	 * queue for the deferred ones, not for the tasks to complete. The tasks
+	 * submitted from now on are dropped.
+	 */
+	public void shutdown() {
+		Queue<Runnable> deferredTasks;
+		synchronized (waiting) {
+			closed = true;
+			retries.shutdownNow();
+			deferredTasks = new ArrayDeque<Runnable>(waiting);
+			waiting.clear();
+		}
+		// Not under the lock: a running task may submit, and be dropped
+		writer.prestartCoreThread();
+		try {
+			while (!deferredTasks.isEmpty()) {
+				writer.getQueue().put(deferredTasks.peek());
+				deferredTasks.poll();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			dropped.add(deferredTasks.size());
+			log.warn("Archive shut down, " + deferredTasks.size() + " deferred tasks dropped");
+		}
+		writer.shutdown();
+	}
+
+	public long getFiles() {
+		return files.sum();
+	}
+
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	/**
+	 * @return tasks delayed by a full queue
+	 */
+	public long getDeferred() {
+		return deferred.sum();
+	}
+
+	public long getFailed() {
+		return failed.sum();
+	}
+
+	/**
+	 * @return tasks submitted after the shutdown, never run
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "Archive: files=" + getFiles() + " bytes=" + getBytes() + " queued=" + writer.getQueue().size()
+				+ " deferred=" + getDeferred() + " failed=" + getFailed() + " dropped=" + getDropped();
+	}
+
+	private static void copy(File source, File target) throws IOException {
+		FileInputStream in = new FileInputStream(source);
+		try {
+			FileOutputStream out = new FileOutputStream(target);
+			try {
+				FileChannel from = in.getChannel();
+				FileChannel to = out.getChannel();
+				long size = from.size();
+				for (long done = 0; done < size;)
+					done += from.transferTo(done, Math.min(CHUNK, size - done), to);
+				to.force(true);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static ThreadFactory daemon(final String name) {
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+}
@@ -0,0 +1,357 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.media.mscontrol.Configuration;
+import javax.media.mscontrol.MediaEventListener;
+import javax.media.mscontrol.MediaSession;
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.Parameters;
+import javax.media.mscontrol.join.Joinable;
+import javax.media.mscontrol.join.TooManyJoineesException;
+import javax.media.mscontrol.mixer.MediaMixer;
+import javax.media.mscontrol.mixer.MixerAdapter;
+import javax.media.mscontrol.mixer.MixerEvent;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The mixer of a room, not limited to the ports of one MediaMixer of the
+ * media server: a root MediaMixer, and child MediaMixers (leaves) joined to
+ * it, created as the room grows. Everyone hears everyone, whatever the
+ * mixer it is joined to; the members of a leaf go through one more mixing
+ * stage.
+ * <br>
+ * The members are joined to the root until half of its ports are used,
+ * the other half being kept for the links to the leaves, then to the
+ * leaves: with P ports per mixer, a room holds up to
+ * P / 2 + P / 2 x (P - 1) members. A new member goes to the fullest mixer
+ * with a free port, so that as members leave the least used leaves drain,
+ * and a leaf is released as soon as it is empty. Members are never moved
+ * from a mixer to another, which would cut their audio.
+ * <br>
+ * The ports per mixer are given by the <code>mixer.ports</code> system
+ * property, 0 (the default) for a single mixer without limit; a mixer that
+ * refuses a member (TooManyJoineesException) is also taken as full, until
+ * one of its members leaves. Leaves are created and joined under the lock
+ * of the cascade, at most once every P - 1 members; the members themselves
+ * are joined outside of it.
+ * <br>
+ * Every mixer of the cascade gets the same configuration and parameters,
+ * e.g. <code>MAX_ACTIVE_INPUTS</code>, and the same listeners, see
+ * {@link #addListener(MediaEventListener)}.
+ */
+public class CascadedMixer {
+
+	private static Logger log = Logger.getLogger(CascadedMixer.class);
+
+	public static final String PORTS_PROPERTY = "mixer.ports";
+
+	/**
+	 * A MediaMixer of the cascade, and its ports used
+	 */
+	private static class Node {
+		final MediaMixer mixer;
+		/** Members, joined or being joined, and link(s) to the other mixers */
+		int used;
+		/** Ports, lower than configured while the mixer refuses members */
+		int capacity;
+		final int configured;
+
+		Node(MediaMixer mixer, int used, int capacity) {
+			this.mixer = mixer;
+			this.used = used;
+			this.capacity = capacity;
+			configured = capacity;
+		}
+	}
+
+	private final MediaSession mediaSession;
+	private final Configuration<MediaMixer> config;
+	private final int ports;
+	private final Parameters params;
+	private final List<MediaEventListener<MixerEvent>> listeners = new CopyOnWriteArrayList<MediaEventListener<MixerEvent>>();
+	private final Node root;
+	private final List<Node> leaves = new ArrayList<Node>();
+	private final Map<Joinable, Node> members = new HashMap<Joinable, Node>();
+
+	/**
+	 * @param ports
+	 *            ports of each mixer, 0 for a single mixer without limit
+	 * @param params
+	 *            parameters of each mixer, or null
+	 */
+	public CascadedMixer(MediaSession ms, Configuration<MediaMixer> config, int ports, Parameters params)
+			throws MsControlException {
+		mediaSession = ms;
+		this.config = config;
+		this.ports = ports;
+		this.params = params;
+		root = new Node(createMixer(), 0, ports > 0 ? ports : Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param ports
+	 *            ports of each mixer, 0 for a single mixer without limit
+	 */
+	public CascadedMixer(MediaSession ms, Configuration<MediaMixer> config, int ports) throws MsControlException {
+		this(ms, config, ports, null);
+	}
+
+	/**
+	 * Cascade of the ports given by the system property
+	 *
+	 * @param params
+	 *            parameters of each mixer, or null
+	 */
+	public CascadedMixer(MediaSession ms, Configuration<MediaMixer> config, Parameters params)
+			throws MsControlException {
+		this(ms, config, Integer.getInteger(PORTS_PROPERTY, 0), params);
+	}
+
+	/**
+	 * Cascade of the ports given by the system property
+	 */
+	public CascadedMixer(MediaSession ms, Configuration<MediaMixer> config) throws MsControlException {
+		this(ms, config, (Parameters) null);
+	}
+
+	/**
+	 * Listen to the events of every mixer of the cascade, the leaves created
+	 * later included
+	 */
+	public void addListener(MediaEventListener<MixerEvent> listener) {
+		synchronized (this) {
+			listeners.add(listener);
+		}
+		root.mixer.addListener(listener);
+		for (MediaMixer leaf : getLeaves())
+			leaf.addListener(listener);
+	}
+
+	public void removeListener(MediaEventListener<MixerEvent> listener) {
+		synchronized (this) {
+			listeners.remove(listener);
+		}
+		root.mixer.removeListener(listener);
+		for (MediaMixer leaf : getLeaves())
+			leaf.removeListener(listener);
+	}
+
+	/**
+	 * @return the leaf mixers, joined to the root
+	 */
+	public synchronized List<MediaMixer> getLeaves() {
+		List<MediaMixer> mixers = new ArrayList<MediaMixer>(leaves.size());
+		for (Node leaf : leaves)
+			mixers.add(leaf.mixer);
+		return mixers;
+	}
+
+	/**
+	 * @return the root mixer, which hears all the room
+	 */
+	public MediaMixer getRoot() {
+		return root.mixer;
+	}
+
+	/**
+	 * Join a member to a mixer of the cascade with a free port
+	 *
+	 * @throws MsControlException
+	 *             if the room is full, or the join fails
+	 */
+	public void join(Joinable.Direction direction, Joinable member) throws MsControlException {
+		while (true) {
+			Node node = reserve();
+			try {
+				node.mixer.join(direction, member);
+			} catch (TooManyJoineesException e) {
+				if (!full(node))
+					throw e;
+				continue;
+			} catch (MsControlException e) {
+				leave(node, false);
+				throw e;
+			}
+			synchronized (this) {
+				members.put(member, node);
+			}
+			return;
+		}
+	}
+
+	/**
+	 * Create a MixerAdapter on a mixer of the cascade with a free port
+	 *
+	 * @throws MsControlException
+	 *             if the room is full, or the creation fails
+	 */
+	public MixerAdapter createMixerAdapter(Configuration<MixerAdapter> cfg) throws MsControlException {
+		while (true) {
+			Node node = reserve();
+			MixerAdapter adapter;
+			try {
+				adapter = node.mixer.createMixerAdapter(cfg);
+			} catch (TooManyJoineesException e) {
+				if (!full(node))
+					throw e;
+				continue;
+			} catch (MsControlException e) {
+				leave(node, false);
+				throw e;
+			}
+			synchronized (this) {
+				members.put(adapter, node);
+			}
+			return adapter;
+		}
+	}
+
+	/**
+	 * Remove a member, joined by {@link #join(Joinable.Direction, Joinable)}
+	 * or created by {@link #createMixerAdapter(Configuration)}, from the
+	 * cascade; its leaf is released if it was the last member of it
+	 */
+	public void leave(Joinable member) {
+		Node node;
+		synchronized (this) {
+			node = members.remove(member);
+		}
+		if (node == null)
+			return;
+		try {
+			if (member instanceof MixerAdapter)
+				((MixerAdapter) member).release();
+			else
+				node.mixer.unjoin(member);
+		} catch (MsControlException e) {
+			// Already unjoined, e.g. its MediaSession released
+			log.debug("Cannot unjoin " + member + " from " + node.mixer + ": " + e);
+		}
+		leave(node, true);
+	}
+
+	/**
+	 * @return the members of the room
+	 */
+	public synchronized int size() {
+		return members.size();
+	}
+
+	/**
+	 * @return the MediaMixers used, the root included
+	 */
+	public synchronized int getMixerCount() {
+		return 1 + leaves.size();
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder("cascade of " + getMixerCount() + " mixers, " + members.size()
+				+ " members: root " + (root.used - leaves.size()));
+		for (Node leaf : leaves)
+			sb.append(", ").append(leaf.used - 1);
+		return sb.toString();
+	}
+
+	/**
+	 * Take a port for a new member, on the fullest mixer with one free, or
+	 * else on a new leaf
+	 */
+	private synchronized Node reserve() throws MsControlException {
+		Node best = null;
+		// Half of the ports of the root are kept for the leaves
+		if (root.used - leaves.size() < root.capacity - root.capacity / 2 && root.used < root.capacity)
+			best = root;
+		for (Node leaf : leaves) {
+			if (leaf.used < leaf.capacity && (best == null || leaf.used > best.used))
+				best = leaf;
+		}
+		if (best == null) {
+			if (root.used >= root.capacity)
+				throw new MsControlException("Room full: " + this);
+			MediaMixer mixer = createMixer();
+			for (MediaEventListener<MixerEvent> listener : listeners)
+				mixer.addListener(listener);
+			try {
+				mixer.join(Joinable.Direction.DUPLEX, root.mixer);
+			} catch (MsControlException e) {
+				mixer.release();
+				throw e;
+			}
+			root.used++;
+			best = new Node(mixer, 1, ports);
+			leaves.add(best);
+			log.info("New leaf mixer, " + this);
+		}
+		best.used++;
+		return best;
+	}
+
+	/**
+	 * Give back the port of a member, and release its leaf if empty
+	 *
+	 * @param departed
+	 *            a joined member left, rather than a join failed: a mixer
+	 *            found full has a free port again
+	 */
+	private void leave(Node node, boolean departed) {
+		synchronized (this) {
+			node.used--;
+			if (departed && node.capacity < node.configured) {
+				node.capacity = node.configured;
+				log.info("Mixer back to " + node.capacity + " ports, " + this);
+			}
+			if (node == root || node.used > 1)
+				return;
+			leaves.remove(node);
+			root.used--;
+		}
+		node.mixer.release();
+		log.info("Released an empty leaf mixer, " + this);
+	}
+
+	/**
+	 * A mixer refused a member: no more members there until one leaves
+	 *
+	 * @return false if the mixer had no other member: retrying elsewhere
+	 *         would not help
+	 */
+	private boolean full(Node node) {
+		boolean others;
+		synchronized (this) {
+			node.capacity = node.used - 1;
+			others = node.capacity > (node == root ? 0 : 1);
+			log.warn("Mixer full at " + node.capacity + " ports, " + this);
+		}
+		leave(node, false);
+		return others;
+	}
+
+	private MediaMixer createMixer() throws MsControlException {
+		if (ports <= 0 && params == null)
+			return mediaSession.createMediaMixer(config);
+		Parameters p = mediaSession.createParameters();
+		if (params != null)
+			p.putAll(params);
+		if (ports > 0)
+			p.put(MediaMixer.MAX_PORTS, Integer.valueOf(ports));
+		return mediaSession.createMediaMixer(config, p);
+	}
+}
@@ -0,0 +1,407 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.common;
+
+import java.lang.StackWalker.StackFrame;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import javax.media.mscontrol.MediaSession;
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.MsControlFactory;
+import javax.servlet.sip.SipSession;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Tracks the MediaSessions of the samples, to find and reclaim the leaked
+ * ones. A leaked MediaSession keeps its media server ports until the server
+ * runs out of them.
+ * <br>
+ * Each MediaSession is recorded with its owning SipSession and the code
+ * that created it. A MediaSession is an orphan once its owner is
+ * invalidated, or if no owner was set, see
+ * {@link #setOwner(MediaSession, SipSession)}; the reaper releases it once
+ * it has been an orphan for longer than the TTL. A MediaSession whose owner
+ * is valid is never reaped, however quiet the call. MediaSessions shared by
+ * several calls, such as a conference mixer, are registered as shared
+ * ({@link #createShared(MsControlFactory)}): they are counted but never
+ * reaped.
+ * <br>
+ * Creating and releasing cost a hash map update and a few counter
+ * increments. The registry entry is kept as an attribute of the
+ * MediaSession, so that releasing needs no search. The reaper scans the
+ * MediaSessions on its own thread.
+ * <br>
+ * The TTL, in seconds, is given by the <code>mediasession.ttl</code>
+ * system property (one hour by default).
+ */
+public class MediaSessionRegistry {
+
+	private static Logger log = Logger.getLogger(MediaSessionRegistry.class);
+
+	public static final String TTL_PROPERTY = "mediasession.ttl";
+
+	static final String ENTRY_ATTRIBUTE = MediaSessionRegistry.class.getName();
+
+	private static final MediaSessionRegistry theRegistry = new MediaSessionRegistry(
+			Long.getLong(TTL_PROPERTY, 3600) * 1000);
+
+	/**
+	 * @return the registry shared by the samples
+	 */
+	public static MediaSessionRegistry getInstance() {
+		return theRegistry;
+	}
+
+	/**
+	 * Counters of the MediaSessions created at one place of the code
+	 */
+	public static class Site {
+		private final String name;
+		private final LongAdder created = new LongAdder();
+		private final LongAdder released = new LongAdder();
+		private final LongAdder reaped = new LongAdder();
+		private final AtomicInteger live = new AtomicInteger();
+
+		Site(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * @return class, method and line of the creation
+		 */
+		public String getName() {
+			return name;
+		}
+
+		public long getCreated() {
+			return created.sum();
+		}
+
+		public long getReleased() {
+			return released.sum();
+		}
+
+		/**
+		 * @return MediaSessions released by the reaper, i.e. leaks
+		 */
+		public long getReaped() {
+			return reaped.sum();
+		}
+
+		/**
+		 * @return MediaSessions not released yet
+		 */
+		public int getLive() {
+			return live.get();
+		}
+
+		@Override
+		public String toString() {
+			return name + ": created=" + getCreated() + " released=" + getReleased() + " reaped=" + getReaped()
+					+ " live=" + getLive();
+		}
+	}
+
+	private static class Entry {
+		final MediaSession mediaSession;
+		final Site site;
+		final boolean shared;
+		volatile SipSession owner;
+		/** Since when the owner is invalid or not set, 0 while it is valid */
+		volatile long orphanSince;
+
+		Entry(MediaSession mediaSession, Site site, SipSession owner, boolean shared) {
+			this.mediaSession = mediaSession;
+			this.site = site;
+			this.owner = owner;
+			this.shared = shared;
+			orphanSince = owner == null ? System.currentTimeMillis() : 0;
+		}
+
+		/**
+		 * @return true if the owner is set and valid
+		 */
+		boolean owned() {
+			SipSession sipSession = owner;
+			try {
+				return sipSession != null && sipSession.isValid();
+			} catch (IllegalStateException e) {
+				// invalidated in the meantime
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Skip the frames of the registry and of the createMediaSession helpers
+	 */
+	private static final Function<Stream<StackFrame>, StackFrame> CALLER = new Function<Stream<StackFrame>, StackFrame>() {
+		public StackFrame apply(Stream<StackFrame> frames) {
+			for (Iterator<StackFrame> i = frames.iterator(); i.hasNext();) {
+				StackFrame frame = i.next();
+				if (!frame.getClassName().equals(MediaSessionRegistry.class.getName())
+						&& !frame.getMethodName().equals("createMediaSession"))
+					return frame;
+			}
+			return null;
+		}
+	};
+
+	private final StackWalker walker = StackWalker.getInstance();
+	private final Set<Entry> entries = ConcurrentHashMap.<Entry> newKeySet();
+	private final Map<String, Site> sites = new ConcurrentHashMap<String, Site>();
+	private volatile long ttlMillis;
+	private volatile ScheduledExecutorService reaper;
+
+	MediaSessionRegistry(long ttlMillis) {
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * Create and register a MediaSession
+	 *
+	 * @param owner
+	 *            SipSession of the call using the MediaSession, null if it is
+	 *            set later
+	 */
+	public MediaSession create(MsControlFactory factory, SipSession owner) throws MsControlException {
+		MediaSession mediaSession = factory.createMediaSession();
+		register(mediaSession, owner, false);
+		return mediaSession;
+	}
+
+	/**
+	 * Create and register a MediaSession shared by several calls, never
+	 * reaped
+	 */
+	public MediaSession createShared(MsControlFactory factory) throws MsControlException {
+		MediaSession mediaSession = factory.createMediaSession();
+		register(mediaSession, null, true);
+		return mediaSession;
+	}
+
+	/**
+	 * Register a MediaSession. The creation site is the first caller outside
+	 * of the registry and of methods named <code>createMediaSession</code>.
+	 *
+	 * @param owner
+	 *            SipSession of the call using the MediaSession, null if it is
+	 *            set later
+	 */
+	public void register(MediaSession mediaSession, SipSession owner) {
+		register(mediaSession, owner, false);
+	}
+
+	/**
+	 * Register a MediaSession shared by several calls, never reaped
+	 */
+	public void registerShared(MediaSession mediaSession) {
+		register(mediaSession, null, true);
+	}
+
+	private void register(MediaSession mediaSession, SipSession owner, boolean shared) {
+		StackFrame frame = walker.walk(CALLER);
+		String name = frame == null ? "unknown"
+				: frame.getClassName() + "." + frame.getMethodName() + ":" + frame.getLineNumber();
+		Site site = sites.get(name);
+		if (site == null)
+			site = sites.computeIfAbsent(name, new Function<String, Site>() {
+				public Site apply(String name) {
+					return new Site(name);
+				}
+			});
+		Entry entry = new Entry(mediaSession, site, owner, shared);
+		mediaSession.setAttribute(ENTRY_ATTRIBUTE, entry);
+		entries.add(entry);
+		site.created.increment();
+		site.live.incrementAndGet();
+		if (reaper == null)
+			startReaper();
+	}
+
+	/**
+	 * Set the owner of a MediaSession created before its SipSession, e.g. for
+	 * an outgoing call
+	 */
+	public void setOwner(MediaSession mediaSession, SipSession owner) {
+		Entry entry = entry(mediaSession);
+		if (entry != null) {
+			entry.owner = owner;
+			entry.orphanSince = owner == null ? System.currentTimeMillis() : 0;
+		}
+	}
+
+	/**
+	 * Unregister and release a MediaSession. Releasing it twice is harmless.
+	 */
+	public void release(MediaSession mediaSession) {
+		if (unregister(mediaSession))
+			mediaSession.release();
+	}
+
+	/**
+	 * @return false if the MediaSession was not registered, or already
+	 *         unregistered
+	 */
+	private boolean unregister(MediaSession mediaSession) {
+		Entry entry = entry(mediaSession);
+		if (entry == null) {
+			// not created through the registry: release it anyway
+			return true;
+		}
+		if (!entries.remove(entry))
+			return false;
+		mediaSession.removeAttribute(ENTRY_ATTRIBUTE);
+		entry.site.released.increment();
+		entry.site.live.decrementAndGet();
+		return true;
+	}
+
+	private static Entry entry(MediaSession mediaSession) {
+		Object entry = mediaSession.getAttribute(ENTRY_ATTRIBUTE);
+		return entry instanceof Entry ? (Entry) entry : null;
+	}
+
+	public long getTtl() {
+		return ttlMillis;
+	}
+
+	/**
+	 * @param ttlMillis
+	 *            time after which an orphan MediaSession is reaped
+	 */
+	public void setTtl(long ttlMillis) {
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * Release the orphans, i.e. the MediaSessions whose owner has been
+	 * invalid, or not set, for longer than the TTL. An invalidated owner is
+	 * noticed by the first scan after the invalidation.
+	 *
+	 * @return number of MediaSessions released
+	 */
+	public int reap() {
+		long now = System.currentTimeMillis();
+		int count = 0;
+		for (Entry entry : entries) {
+			if (entry.shared)
+				continue;
+			if (entry.owned()) {
+				entry.orphanSince = 0;
+				continue;
+			}
+			long since = entry.orphanSince;
+			if (since == 0) {
+				entry.orphanSince = now;
+				continue;
+			}
+			if (since > now - ttlMillis || !entries.remove(entry))
+				continue;
+			entry.site.reaped.increment();
+			entry.site.live.decrementAndGet();
+			count++;
+			log.warn("Reaping MediaSession created at " + entry.site.getName() + ", owned by " + entry.owner
+					+ ", orphan for " + (now - since) / 1000 + " s");
+			try {
+				entry.mediaSession.release();
+			} catch (RuntimeException e) {
+				log.error("Cannot release MediaSession", e);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the creation sites, the leakiest (reaped, then still live) first
+	 */
+	public List<Site> getSites() {
+		List<Site> list = new ArrayList<Site>(sites.values());
+		Collections.sort(list, new Comparator<Site>() {
+			public int compare(Site a, Site b) {
+				int c = Long.compare(b.getReaped(), a.getReaped());
+				return c != 0 ? c : Integer.compare(b.getLive(), a.getLive());
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * @return number of MediaSessions registered and not released
+	 */
+	public int getLive() {
+		return entries.size();
+	}
+
+	/**
+	 * Start the periodic reaping, once, on a daemon thread
+	 */
+	private synchronized void startReaper() {
+		if (reaper != null)
+			return;
+		reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "mediasession-reaper");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long period = Math.max(1000, Math.min(ttlMillis / 4, 60000));
+		reaper.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					reap();
+				} catch (RuntimeException e) {
+					log.error("MediaSession reaper failed", e);
+				}
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop the periodic reaping, e.g. when the application is undeployed
+	 */
+	public synchronized void shutdown() {
+		if (reaper != null) {
+			reaper.shutdownNow();
+			reaper = null;
+		}
+	}
+
+	/**
+	 * @return the leak report, one line per creation site
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("MediaSessions: live=").append(getLive()).append(" ttl=")
+				.append(ttlMillis / 1000).append("s");
+		for (Site site : getSites())
+			sb.append("\n  ").append(site);
+		return sb.toString();
+	}
+}
@@ -0,0 +1,364 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.common;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.media.mscontrol.MediaEventListener;
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.Parameters;
+import javax.media.mscontrol.mediagroup.Recorder;
+import javax.media.mscontrol.mediagroup.RecorderEvent;
+import javax.media.mscontrol.resource.RTC;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A long recording, e.g. of a chorus or a conference room, split into
+ * segments: the Recorder moves to a new file every N seconds or M bytes.
+ * A crash loses the current segment only, and the complete segments can
+ * be mixed or archived while the session goes on.
+ * <br>
+ * The duration bound is the <code>MAX_DURATION</code> of each record, so
+ * the media server rotates on time by itself; the size bound is checked on
+ * the file of the current segment (file URIs only), once it has changed
+ * from its preallocated length, and the Recorder is stopped to rotate. The
+ * next segment is recorded as soon as the previous one completes: the gap
+ * between two segments is one event and one command, and the manifest
+ * gives the start and end of each segment to account for it.
+ * <br>
+ * The manifest is a text file, rewritten atomically at each boundary, with
+ * one line per segment: index, start and end (ms since the epoch, 0 while
+ * recording), bytes, state (recording, complete or last) and URI.
+ * <br>
+ * The bounds are given by the <code>recording.segment.duration</code> (s,
+ * 300) and <code>recording.segment.bytes</code> (0: no bound) system
+ * properties.
+ */
+public class SegmentedRecording implements MediaEventListener<RecorderEvent> {
+
+	private static Logger log = Logger.getLogger(SegmentedRecording.class);
+
+	/** How often the size of the current segment is checked, in ms */
+	private static final long SIZE_CHECK_PERIOD = 1000;
+
+	/**
+	 * Where the segments and the manifest go
+	 */
+	public interface Storage {
+		/**
+		 * @return the URI to record a segment into
+		 */
+		URI getSegment(int index) throws IOException;
+
+		/**
+		 * @return the manifest file, null for none
+		 */
+		File getManifest() throws IOException;
+	}
+
+	/**
+	 * Told of the complete segments, e.g. to archive them
+	 */
+	public interface Listener {
+		/**
+		 * A segment is complete: its file does not change any more
+		 */
+		void segmentCompleted(SegmentedRecording recording, Segment segment);
+	}
+
+	/**
+	 * A file of the recording
+	 */
+	public static class Segment {
+		final int index;
+		final URI uri;
+		final long start;
+		/** Length of the file before recording, e.g. preallocated */
+		final long initialBytes;
+		volatile long end;
+		volatile long bytes;
+		volatile boolean last;
+
+		Segment(int index, URI uri, long start) {
+			this.index = index;
+			this.uri = uri;
+			this.start = start;
+			initialBytes = size(uri);
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public URI getURI() {
+			return uri;
+		}
+
+		public long getStart() {
+			return start;
+		}
+
+		/**
+		 * @return end of the segment, 0 while recording
+		 */
+		public long getEnd() {
+			return end;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public boolean isComplete() {
+			return end != 0;
+		}
+
+		/**
+		 * @return true for the last segment of the recording
+		 */
+		public boolean isLast() {
+			return last;
+		}
+
+		@Override
+		public String toString() {
+			return index + "\t" + start + "\t" + end + "\t" + bytes + "\t"
+					+ (last ? "last" : end != 0 ? "complete" : "recording") + "\t" + uri;
+		}
+	}
+
+	private static final ScheduledExecutorService sizeChecker = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "recording-segments");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	private final Recorder recorder;
+	private final Storage storage;
+	private final long maxMillis;
+	private final long maxBytes;
+	private final List<Segment> segments = new ArrayList<Segment>();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	private RTC[] rtc;
+	private Parameters params;
+	private boolean stopping;
+	private boolean rotating;
+	private ScheduledFuture<?> sizeCheck;
+
+	/**
+	 * @param maxMillis
+	 *            duration of a segment, 0 for no bound
+	 * @param maxBytes
+	 *            size of a segment, 0 for no bound
+	 */
+	public SegmentedRecording(Recorder recorder, Storage storage, long maxMillis, long maxBytes) {
+		this.recorder = recorder;
+		this.storage = storage;
+		this.maxMillis = maxMillis;
+		this.maxBytes = maxBytes;
+		recorder.addListener(this);
+	}
+
+	/**
+	 * Recording bounded by the system properties
+	 */
+	public SegmentedRecording(Recorder recorder, Storage storage) {
+		this(recorder, storage, Long.getLong("recording.segment.duration", 300) * 1000, Long.getLong(
+				"recording.segment.bytes", 0));
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Record the first segment
+	 *
+	 * @param rtc
+	 *            RTCs of each segment
+	 * @param params
+	 *            parameters of each segment; START_IN_PAUSED_MODE applies
+	 *            to the first one only
+	 */
+	public synchronized void start(RTC[] rtc, Parameters params) throws MsControlException {
+		this.rtc = rtc;
+		this.params = recorder.getContainer().createParameters();
+		if (params != null)
+			this.params.putAll(params);
+		this.params.remove(Recorder.START_IN_PAUSED_MODE);
+		stopping = false;
+		record(params);
+		if (maxBytes > 0 && sizeCheck == null) {
+			sizeCheck = sizeChecker.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					checkSize();
+				}
+			}, SIZE_CHECK_PERIOD, SIZE_CHECK_PERIOD, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stop recording: the current segment is the last one
+	 */
+	public void stop() {
+		synchronized (this) {
+			stopping = true;
+			cancelSizeCheck();
+		}
+		recorder.stop();
+	}
+
+	/**
+	 * @return the segments so far
+	 */
+	public synchronized List<Segment> getSegments() {
+		return new ArrayList<Segment>(segments);
+	}
+
+	/**
+	 * @return the URIs of the segments so far, in order, to play them as one
+	 */
+	public synchronized URI[] getURIs() {
+		URI[] uris = new URI[segments.size()];
+		for (int i = 0; i < uris.length; i++)
+			uris[i] = segments.get(i).uri;
+		return uris;
+	}
+
+	public void onEvent(RecorderEvent event) {
+		if (!event.getEventType().equals(RecorderEvent.RECORD_COMPLETED))
+			return;
+		Segment done;
+		synchronized (this) {
+			if (segments.isEmpty())
+				return;
+			done = segments.get(segments.size() - 1);
+			if (done.end != 0)
+				return;
+			done.end = System.currentTimeMillis();
+			done.bytes = size(done.uri);
+			boolean next = !stopping && event.isSuccessful()
+					&& (rotating || RecorderEvent.DURATION_EXCEEDED.equals(event.getQualifier()));
+			rotating = false;
+			if (next) {
+				try {
+					record(params);
+				} catch (MsControlException e) {
+					log.error("Cannot record segment " + segments.size() + ", recording ends", e);
+					next = false;
+				}
+			}
+			if (!next) {
+				done.last = true;
+				cancelSizeCheck();
+				writeManifest();
+			}
+		}
+		log.debug("Segment complete: " + done);
+		for (Listener listener : listeners)
+			listener.segmentCompleted(this, done);
+	}
+
+	/**
+	 * Record the next segment, and add it to the manifest
+	 */
+	private void record(Parameters segmentParams) throws MsControlException {
+		int index = segments.size();
+		URI uri;
+		try {
+			uri = storage.getSegment(index);
+		} catch (IOException e) {
+			throw new MsControlException("Cannot store segment " + index, e);
+		}
+		Segment segment = new Segment(index, uri, System.currentTimeMillis());
+		Parameters p = recorder.getContainer().createParameters();
+		if (segmentParams != null)
+			p.putAll(segmentParams);
+		if (maxMillis > 0)
+			p.put(Recorder.MAX_DURATION, Integer.valueOf((int) maxMillis));
+		recorder.record(uri, rtc, p);
+		segments.add(segment);
+		writeManifest();
+	}
+
+	/**
+	 * Rotate once the current segment is over its size
+	 */
+	private void checkSize() {
+		synchronized (this) {
+			if (stopping || rotating || segments.isEmpty())
+				return;
+			Segment current = segments.get(segments.size() - 1);
+			long size = size(current.uri);
+			if (current.end != 0 || size < maxBytes || size == current.initialBytes)
+				return;
+			rotating = true;
+		}
+		recorder.stop();
+	}
+
+	private void cancelSizeCheck() {
+		if (sizeCheck != null) {
+			sizeCheck.cancel(false);
+			sizeCheck = null;
+		}
+	}
+
+	private static long size(URI uri) {
+		return "file".equals(uri.getScheme()) ? new File(uri).length() : 0;
+	}
+
+	/**
+	 * Replace the manifest, so that a reader sees either the previous one or
+	 * the new one
+	 */
+	private void writeManifest() {
+		try {
+			File manifest = storage.getManifest();
+			if (manifest == null)
+				return;
+			File tmp = new File(manifest.getPath() + ".tmp");
+			Writer out = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8);
+			try {
+				out.write("# index\tstart\tend\tbytes\tstate\turi\n");
+				for (Segment segment : segments)
+					out.write(segment + "\n");
+			} finally {
+				out.close();
+			}
+			Files.move(tmp.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.warn("Cannot write the manifest of " + segments + ": " + e);
+		}
+	}
+}
@@ -0,0 +1,298 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.karaoke;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Aligns the recordings of the singers of a chorus on the backing track,
+ * before they are mixed, see {@link Mixdown}.
+ * <br>
+ * Each recording lags the backing track by the network and jitter delays
+ * of its singer, whose microphone also picks up the backing track. The lag
+ * is estimated by cross-correlating the start of the recording with the
+ * start of the backing track, through FFTs; the recording is then trimmed
+ * (late singer) or padded with silence (early singer), and cut or padded
+ * to the length of the backing track. The spectrum of the backing track is
+ * computed once and shared by all the singers: an Aligner can align several
+ * recordings in parallel.
+ * <br>
+ * The recordings are 16 bit PCM WAV files of the format of the backing
+ * track.
+ */
+public class Aligner {
+
+	/**
+	 * Alignment of one recording
+	 */
+	public static class Result {
+		final File aligned;
+		final int offset;
+		final double correlation;
+
+		Result(File aligned, int offset, double correlation) {
+			this.aligned = aligned;
+			this.offset = offset;
+			this.correlation = correlation;
+		}
+
+		public File getAligned() {
+			return aligned;
+		}
+
+		/**
+		 * @return frames the recording lagged the backing track, negative
+		 *         if it was ahead
+		 */
+		public int getOffset() {
+			return offset;
+		}
+
+		/**
+		 * @return normalized correlation at the offset, from 0 to 1: close to
+		 *         0, the offset is a guess
+		 */
+		public double getCorrelation() {
+			return correlation;
+		}
+
+		@Override
+		public String toString() {
+			return aligned.getName() + ": offset " + offset + " frames, correlation "
+					+ String.format("%.2f", correlation);
+		}
+	}
+
+	private final File backingTrack;
+	private final int windowFrames;
+	private final int maxLagFrames;
+	private final float minCorrelation;
+	private final int channels;
+	private final int sampleRate;
+	private final long backingFrames;
+	private final int fftSize;
+	/** Spectrum of the start of the backing track */
+	private final double[] refRe;
+	private final double[] refIm;
+	private final double refEnergy;
+
+	/**
+	 * Analyse the backing track
+	 *
+	 * @param windowMillis
+	 *            length of the start of the recordings correlated
+	 * @param maxLagMillis
+	 *            largest offset looked for, either way
+	 * @param minCorrelation
+	 *            below it, the recording is left as is
+	 */
+	public Aligner(File backingTrack, int windowMillis, int maxLagMillis, float minCorrelation) throws IOException {
+		this.backingTrack = backingTrack;
+		this.minCorrelation = minCorrelation;
+		Mixdown.WavInput input = new Mixdown.WavInput(backingTrack);
+		try {
+			channels = input.channels;
+			sampleRate = input.sampleRate;
+			backingFrames = input.remaining / (2 * channels);
+			windowFrames = (int) ((long) windowMillis * sampleRate / 1000);
+			maxLagFrames = (int) ((long) maxLagMillis * sampleRate / 1000);
+			int size = 1;
+			while (size < windowFrames + 2 * maxLagFrames)
+				size <<= 1;
+			fftSize = size;
+			refRe = new double[fftSize];
+			refIm = new double[fftSize];
+			double[] mono = readMono(input, windowFrames);
+			double energy = 0;
+			for (int i = 0; i < mono.length; i++) {
+				refRe[i] = mono[i];
+				energy += mono[i] * mono[i];
+			}
+			refEnergy = energy;
+			fft(refRe, refIm, false);
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Align a recording on the backing track
+	 *
+	 * @param output
+	 *            aligned recording, the length of the backing track
+	 */
+	public Result align(File recording, File output) throws IOException {
+		int offset;
+		double correlation;
+		Mixdown.WavInput input = new Mixdown.WavInput(recording);
+		try {
+			checkFormat(recording, input);
+			double[] re = new double[fftSize];
+			double[] im = new double[fftSize];
+			double[] mono = readMono(input, windowFrames + maxLagFrames);
+			System.arraycopy(mono, 0, re, 0, mono.length);
+			fft(re, im, false);
+			// Cross-spectrum: conj(reference) x recording
+			for (int i = 0; i < fftSize; i++) {
+				double r = refRe[i] * re[i] + refIm[i] * im[i];
+				double j = refRe[i] * im[i] - refIm[i] * re[i];
+				re[i] = r;
+				im[i] = j;
+			}
+			fft(re, im, true);
+			// re[k] correlates the recording from k with the reference: a late
+			// recording peaks at its lag, an early one wraps around to the end
+			int best = 0;
+			for (int k = 1; k <= maxLagFrames; k++) {
+				if (re[k] > re[best])
+					best = k;
+				if (re[fftSize - k] > re[best])
+					best = fftSize - k;
+			}
+			offset = best > maxLagFrames ? best - fftSize : best;
+			double energy = 0;
+			for (int i = Math.max(0, offset); i < Math.min(mono.length, offset + windowFrames); i++)
+				energy += mono[i] * mono[i];
+			correlation = energy > 0 && refEnergy > 0 ? Math.max(0, re[best]) / fftSize
+					/ Math.sqrt(energy * refEnergy) : 0;
+			if (correlation < minCorrelation)
+				offset = 0;
+		} finally {
+			input.close();
+		}
+		write(recording, output, offset);
+		return new Result(output, offset, correlation);
+	}
+
+	private void checkFormat(File recording, Mixdown.WavInput input) throws IOException {
+		if (input.channels != channels || input.sampleRate != sampleRate)
+			throw new IOException("Cannot align " + recording + " (" + input.sampleRate + " Hz, " + input.channels
+					+ " channels) on " + backingTrack + " (" + sampleRate + " Hz, " + channels + " channels)");
+	}
+
+	/**
+	 * Copy a recording, shifted by an offset, and cut or padded to the
+	 * length of the backing track
+	 */
+	private void write(File recording, File output, int offset) throws IOException {
+		int frameBytes = 2 * channels;
+		Mixdown.WavInput input = new Mixdown.WavInput(recording);
+		RandomAccessFile out = new RandomAccessFile(output, "rw");
+		try {
+			long dataBytes = backingFrames * frameBytes;
+			out.write(Mixdown.header(channels, sampleRate, dataBytes));
+			byte[] buffer = new byte[Mixdown.DEFAULT_CHUNK_FRAMES * frameBytes];
+			byte[] silence = new byte[buffer.length];
+			long written = 0;
+			// Early singer: silence first
+			for (long pad = Math.min(dataBytes, (long) -offset * frameBytes); written < pad;) {
+				int n = (int) Math.min(buffer.length, pad - written);
+				out.write(silence, 0, n);
+				written += n;
+			}
+			// Late singer: skip the start
+			for (long skip = (long) offset * frameBytes; skip > 0;) {
+				int n = input.read(buffer, (int) Math.min(buffer.length, skip));
+				if (n == 0)
+					break;
+				skip -= n;
+			}
+			while (written < dataBytes) {
+				int n = input.read(buffer, (int) Math.min(buffer.length, dataBytes - written));
+				if (n == 0)
+					break;
+				out.write(buffer, 0, n);
+				written += n;
+			}
+			// Recording shorter than the backing track
+			while (written < dataBytes) {
+				int n = (int) Math.min(buffer.length, dataBytes - written);
+				out.write(silence, 0, n);
+				written += n;
+			}
+			out.setLength(Mixdown.HEADER_SIZE + dataBytes);
+		} finally {
+			input.close();
+			out.close();
+		}
+	}
+
+	/**
+	 * @return up to the given number of frames, averaged over the channels
+	 */
+	private static double[] readMono(Mixdown.WavInput input, int frames) throws IOException {
+		int frameBytes = 2 * input.channels;
+		byte[] buffer = new byte[frames * frameBytes];
+		byte[] chunk = new byte[Mixdown.DEFAULT_CHUNK_FRAMES * frameBytes];
+		int read = 0;
+		while (read < buffer.length) {
+			int n = input.read(chunk, Math.min(chunk.length, buffer.length - read));
+			if (n == 0)
+				break;
+			System.arraycopy(chunk, 0, buffer, read, n);
+			read += n;
+		}
+		double[] mono = new double[read / frameBytes];
+		for (int f = 0; f < mono.length; f++) {
+			int sum = 0;
+			for (int c = 0; c < input.channels; c++) {
+				int i = f * frameBytes + 2 * c;
+				sum += (short) ((buffer[i] & 0xff) | (buffer[i + 1] << 8));
+			}
+			mono[f] = (double) sum / input.channels;
+		}
+		return mono;
+	}
+
+	/**
+	 * In-place radix 2 FFT; the inverse is not scaled
+	 */
+	static void fft(double[] re, double[] im, boolean inverse) {
+		int n = re.length;
+		for (int i = 1, j = 0; i < n; i++) {
+			int bit = n >> 1;
+			for (; (j & bit) != 0; bit >>= 1)
+				j ^= bit;
+			j ^= bit;
+			if (i < j) {
+				double t = re[i];
+				re[i] = re[j];
+				re[j] = t;
+				t = im[i];
+				im[i] = im[j];
+				im[j] = t;
+			}
+		}
+		for (int len = 2; len <= n; len <<= 1) {
+			double angle = 2 * Math.PI / len * (inverse ? 1 : -1);
+			double wRe = Math.cos(angle), wIm = Math.sin(angle);
+			int half = len >> 1;
+			for (int i = 0; i < n; i += len) {
+				double uRe = 1, uIm = 0;
+				for (int k = 0; k < half; k++) {
+					int a = i + k, b = a + half;
+					double xRe = re[b] * uRe - im[b] * uIm;
+					double xIm = re[b] * uIm + im[b] * uRe;
+					re[b] = re[a] - xRe;
+					im[b] = im[a] - xIm;
+					re[a] += xRe;
+					im[a] += xIm;
+					double t = uRe * wRe - uIm * wIm;
+					uIm = uRe * wIm + uIm * wRe;
+					uRe = t;
+				}
+			}
+		}
+	}
+}
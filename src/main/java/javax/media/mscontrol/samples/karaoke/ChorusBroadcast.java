@@ -0,0 +1,368 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ * 
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.karaoke;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.media.mscontrol.EventType;
+import javax.media.mscontrol.MsControlException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Issues a command to all the singers of a chorus at the same time, e.g.
+ * to start or stop their recordings, so that the recordings are not offset
+ * from each other by the latency of the commands issued before them.
+ * <br>
+ * The singers are split over the broadcast threads, which wait behind a
+ * gate and issue their commands as soon as it opens. The time each command
+ * is issued, and acknowledged by its media event, is recorded: the skew of
+ * a round is the spread of these times, to be compared with a media frame
+ * (20 ms by default).
+ * <br>
+ * A round whose acknowledgements do not all come, e.g. from a recorder that
+ * was not recording, can be given up after a timeout, see
+ * {@link #expireAfterTimeout(Round, Expiry)}.
+ * <br>
+ * The settings are the <code>karaoke.broadcast.threads</code> (16),
+ * <code>karaoke.broadcast.timeout</code> (ms to wait for the threads, 1000),
+ * <code>karaoke.broadcast.frame</code> (ms, 20) and
+ * <code>karaoke.broadcast.ackTimeout</code> (ms to wait for the
+ * acknowledgements, 10000) system properties.
+ */
+public class ChorusBroadcast {
+
+	private static Logger log = Logger.getLogger(ChorusBroadcast.class);
+
+	/**
+	 * A command to one singer
+	 */
+	public interface Command {
+		void issue(Singer singer) throws MsControlException;
+	}
+
+	/**
+	 * The command of the chorus the singers are aligned on, e.g. playing the
+	 * backing track
+	 */
+	public interface Reference {
+		void issue() throws MsControlException;
+	}
+
+	/**
+	 * Told of a round given up, see {@link ChorusBroadcast#expireAfterTimeout(Round, Expiry)}
+	 */
+	public interface Expiry {
+		/**
+		 * @param missing
+		 *            singers whose command was issued but not acknowledged;
+		 *            the commands not issued yet are not listed, see
+		 *            {@link Round#getAcked()}
+		 */
+		void expired(Round round, List<Singer> missing);
+	}
+
+	/**
+	 * Issue and acknowledgement times of a command to all the singers
+	 */
+	public class Round {
+		private final String name;
+		private final EventType ackType;
+		private final Map<Singer, Long> issued = new ConcurrentHashMap<Singer, Long>();
+		private final Map<Singer, Long> acked = new ConcurrentHashMap<Singer, Long>();
+		private final List<Singer> failed = new ArrayList<Singer>();
+		private volatile long gate;
+		/** issue time of the reference, 0 if none */
+		private volatile long reference;
+		private volatile boolean allIssued;
+		private final AtomicBoolean reported = new AtomicBoolean();
+
+		Round(String name, EventType ackType) {
+			this.name = name;
+			this.ackType = ackType;
+		}
+
+		/**
+		 * Record the media event acknowledging the command of a singer
+		 *
+		 * @return true if the round is now complete, see {@link #complete()}
+		 */
+		public boolean ack(Singer singer, EventType type) {
+			if (!ackType.equals(type) || !issued.containsKey(singer)
+					|| acked.putIfAbsent(singer, System.nanoTime()) != null)
+				return false;
+			return complete();
+		}
+
+		/**
+		 * @return true, once, when all the commands are issued and
+		 *         acknowledged: the skew of the round is final
+		 */
+		boolean complete() {
+			return allIssued && acked.size() == issued.size() && reported.compareAndSet(false, true);
+		}
+
+		/**
+		 * @return true, once, if the round was not complete: it never will be
+		 */
+		boolean expire() {
+			return reported.compareAndSet(false, true);
+		}
+
+		/**
+		 * @return the singers whose command is issued and not acknowledged
+		 */
+		public List<Singer> getMissing() {
+			List<Singer> missing = new ArrayList<Singer>();
+			for (Singer singer : issued.keySet()) {
+				if (!acked.containsKey(singer))
+					missing.add(singer);
+			}
+			return missing;
+		}
+
+		/**
+		 * @return the singers whose command is acknowledged
+		 */
+		public List<Singer> getAcked() {
+			return new ArrayList<Singer>(acked.keySet());
+		}
+
+		/**
+		 * @return spread of the issue times, the reference included, in ns
+		 */
+		public long getIssueSkew() {
+			Map<Object, Long> times = new HashMap<Object, Long>(issued);
+			if (reference != 0)
+				times.put(this, reference);
+			return spread(times);
+		}
+
+		/**
+		 * @return spread of the acknowledgement times, in ns, of the commands
+		 *         acknowledged so far
+		 */
+		public long getAckSkew() {
+			return spread(acked);
+		}
+
+		/**
+		 * @return the longest time from the opening of the gate to an
+		 *         acknowledgement, in ns
+		 */
+		public long getMaxLatency() {
+			long max = 0;
+			for (long t : acked.values())
+				max = Math.max(max, t - gate);
+			return max;
+		}
+
+		/**
+		 * @return true if the commands were issued and acknowledged within a
+		 *         frame of each other
+		 */
+		public boolean isAligned() {
+			return Math.max(getIssueSkew(), getAckSkew()) < frameNanos;
+		}
+
+		private long spread(Map<?, Long> times) {
+			long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+			for (long t : times.values()) {
+				min = Math.min(min, t);
+				max = Math.max(max, t);
+			}
+			return times.isEmpty() ? 0 : max - min;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %d singers, issue skew %.3f ms, ack skew %.3f ms (%d/%d acked), "
+					+ "max latency %.3f ms, %s%s", name, issued.size(), getIssueSkew() / 1e6, getAckSkew() / 1e6,
+					acked.size(), issued.size(), getMaxLatency() / 1e6, isAligned() ? "within a frame" : "NOT within a frame",
+					failed.isEmpty() ? "" : ", failed: " + failed);
+		}
+	}
+
+	private final ExecutorService pool;
+	private final ScheduledExecutorService timer;
+	private final int threads;
+	private final long timeoutMillis;
+	private final long frameNanos;
+	private final long ackTimeoutMillis;
+
+	/**
+	 * @param ackTimeoutMillis
+	 *            time to wait for the acknowledgements of a round, see
+	 *            {@link #expireAfterTimeout(Round, Expiry)}
+	 */
+	public ChorusBroadcast(int threads, long timeoutMillis, long frameMillis, long ackTimeoutMillis) {
+		this.threads = threads;
+		this.timeoutMillis = timeoutMillis;
+		this.frameNanos = frameMillis * 1000000;
+		this.ackTimeoutMillis = ackTimeoutMillis;
+		timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "karaoke-broadcast-timeouts");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "karaoke-broadcast-" + count.incrementAndGet());
+				t.setDaemon(true);
+				t.setPriority(Thread.MAX_PRIORITY);
+				return t;
+			}
+		});
+	}
+
+	public ChorusBroadcast(int threads, long timeoutMillis, long frameMillis) {
+		this(threads, timeoutMillis, frameMillis, 10000);
+	}
+
+	/**
+	 * Broadcast configured by the system properties
+	 */
+	public ChorusBroadcast() {
+		this(Integer.getInteger("karaoke.broadcast.threads", 16), Long.getLong("karaoke.broadcast.timeout", 1000),
+				Long.getLong("karaoke.broadcast.frame", 20), Long.getLong("karaoke.broadcast.ackTimeout", 10000));
+	}
+
+	/**
+	 * @param ackType
+	 *            type of the media event acknowledging the command of a singer
+	 */
+	public Round newRound(String name, EventType ackType) {
+		return new Round(name, ackType);
+	}
+
+	/**
+	 * Issue a command to the singers at once, and to the chorus itself, on
+	 * the calling thread, when the gate opens. Returns once the commands
+	 * are issued, or after the timeout: the round then completes only once
+	 * the last command is issued and acknowledged.
+	 *
+	 * @param round
+	 *            new round, see {@link #newRound(String, EventType)}
+	 * @param reference
+	 *            command the singers are aligned on, null if none
+	 * @return true if the commands are already all acknowledged
+	 * @throws MsControlException
+	 *             if the reference fails
+	 */
+	public boolean broadcast(final Round round, Collection<Singer> singers, final Command command, Reference reference)
+			throws MsControlException {
+		String name = round.name;
+		// One share of the singers per thread, at most
+		int shares = Math.max(1, Math.min(threads, singers.size()));
+		final List<List<Singer>> parts = new ArrayList<List<Singer>>();
+		for (int i = 0; i < shares; i++)
+			parts.add(new ArrayList<Singer>());
+		int i = 0;
+		for (Singer singer : singers)
+			parts.get(i++ % shares).add(singer);
+
+		final CountDownLatch ready = new CountDownLatch(shares);
+		final CountDownLatch go = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(shares);
+		for (final List<Singer> part : parts) {
+			pool.execute(new Runnable() {
+				public void run() {
+					try {
+						ready.countDown();
+						go.await();
+						for (Singer singer : part) {
+							// Before the command, which may be acknowledged at once
+							round.issued.put(singer, System.nanoTime());
+							try {
+								command.issue(singer);
+							} catch (Exception e) {
+								round.issued.remove(singer);
+								log.error(round.name + " failed for " + singer, e);
+								synchronized (round.failed) {
+									round.failed.add(singer);
+								}
+							}
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						done.countDown();
+						// The last share issued after the wait below gave up
+						if (done.getCount() == 0)
+							round.allIssued = true;
+					}
+				}
+			});
+		}
+		try {
+			if (!ready.await(timeoutMillis, TimeUnit.MILLISECONDS))
+				log.warn(name + ": broadcast threads busy, the commands may be skewed");
+			round.gate = System.nanoTime();
+			go.countDown();
+			if (reference != null) {
+				round.reference = System.nanoTime();
+				reference.issue();
+			}
+			if (!done.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				// Not complete before the last command is issued, or else
+				// reported by the acknowledgement timeout
+				log.warn(name + ": commands still being issued after " + timeoutMillis + " ms");
+				return false;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MsControlException(name + " interrupted");
+		} finally {
+			go.countDown();
+		}
+		round.allIssued = true;
+		return round.complete();
+	}
+
+	/**
+	 * Give up a round not complete after the acknowledgement timeout: the
+	 * singers still missing are reported, and the round never completes
+	 */
+	public void expireAfterTimeout(final Round round, final Expiry expiry) {
+		timer.schedule(new Runnable() {
+			public void run() {
+				List<Singer> missing = round.getMissing();
+				if (!round.expire())
+					return;
+				log.warn(round.name + ": no acknowledgement after " + ackTimeoutMillis + " ms from " + missing);
+				expiry.expired(round, missing);
+			}
+		}, ackTimeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public void shutdown() {
+		pool.shutdownNow();
+		timer.shutdownNow();
+	}
+}
@@ -12,7 +12,10 @@
 package javax.media.mscontrol.samples.karaoke;
 
 import java.net.URI;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 
 import javax.media.mscontrol.MediaConfigException;
 import javax.media.mscontrol.MediaEventListener;
@@ -24,9 +27,13 @@ import javax.media.mscontrol.mediagroup.MediaGroup;
 import javax.media.mscontrol.mediagroup.Player;
 import javax.media.mscontrol.mediagroup.PlayerEvent;
 import javax.media.mscontrol.mediagroup.Recorder;
+import javax.media.mscontrol.mediagroup.RecorderEvent;
 import javax.media.mscontrol.mixer.MediaMixer;
 import javax.media.mscontrol.networkconnection.NetworkConnection;
 import javax.media.mscontrol.resource.RTC;
+import javax.media.mscontrol.samples.common.CascadedMixer;
+import javax.media.mscontrol.samples.common.MediaSessionRegistry;
+import javax.media.mscontrol.samples.common.SegmentedRecording;
 
 import org.apache.log4j.Logger;
 
@@ -38,16 +45,32 @@ public class ChorusSession {
 
 	private static Logger log = Logger.getLogger(ChorusSession.class);
 
-	private Vector<Singer> allSingers;
+	private final SingerRegistry allSingers = KaraokeServlet.getSingers();
 
 	// JSR 309 core objects associated to the karaoke session
 	private final MediaSession chorusMediaSession;
-	private final MediaMixer chorusMediaMixer;
+	private final CascadedMixer chorusMixer;
 	private final MediaGroup chorusMediaGroup;
+	private final SegmentedRecording chorusRecording;
 
 	private RTC[] rtcPlayRecord = { new RTC(Player.PLAY_COMPLETION,
 			Recorder.STOP) };
 
+	// The intro is played once, to the first singer
+	private boolean introPlayed;
+	// The backing track is played: its end, not the intro's, stops the chorus
+	private volatile boolean songStarted;
+
+	// Set once started or released: no more friends are invited
+	private volatile boolean invitationsClosed;
+
+	// Start or stop of the singers in progress, see ChorusBroadcast
+	private volatile ChorusBroadcast.Round myRound;
+	private volatile ChorusBroadcast.Round myStopRound;
+
+	// Singers recorded, whose recordings make the chorus mix
+	private volatile List<Singer> recordedSingers = Collections.<Singer> emptyList();
+
 	/**
 	 * Constructor
 	 * 
@@ -57,50 +80,147 @@ public class ChorusSession {
 	public ChorusSession(MediaSession ms)
 			throws MsControlException, MediaConfigException {
 		chorusMediaSession = ms;
-		chorusMediaMixer = chorusMediaSession
-				.createMediaMixer(MediaMixer.AUDIO);
+		// Several mixers once the chorus outgrows one
+		chorusMixer = new CascadedMixer(chorusMediaSession, MediaMixer.AUDIO);
 		chorusMediaGroup = chorusMediaSession
 				.createMediaGroup(MediaGroup.PLAYER_RECORDER_SIGNALDETECTOR);
 		chorusMediaGroup.getPlayer().addListener(
 				(new ChorusMediaGroupPlayerListener()));
-		chorusMediaMixer.join(Joinable.Direction.DUPLEX, chorusMediaGroup);
-		allSingers = new Vector<Singer>();
+		// In segments, that can be processed while the chorus goes on
+		chorusRecording = new SegmentedRecording(chorusMediaGroup.getRecorder(),
+				StorageManager.getConfKaraokeRecordStorage(this));
+		chorusMixer.join(Joinable.Direction.DUPLEX, chorusMediaGroup);
+	}
+
+	/**
+	 * @return the recording of the whole chorus session
+	 */
+	public SegmentedRecording getRecording() {
+		return chorusRecording;
+	}
+
+	/**
+	 * @return false once the chorus is started or released: friends are no
+	 *         longer invited
+	 */
+	boolean isInviting() {
+		return !invitationsClosed;
 	}
 
 	/**
 	 * Join ChorusSession
 	 */
 	public void join(NetworkConnection nc, Singer s) throws MsControlException {
-		chorusMediaMixer.join(Joinable.Direction.DUPLEX, nc);
+		chorusMixer.join(Joinable.Direction.DUPLEX, nc);
+		allSingers.joinChorus(s, this);
+		// The chorus player is heard by all the singers: restarting the intro
+		// for each new singer would interrupt it for the others
+		synchronized (this) {
+			if (introPlayed)
+				return;
+			introPlayed = true;
+		}
 		chorusMediaGroup.getPlayer().play(
 				URI.create("/prompt/chorusIntro.3gp"), RTC.NO_RTC,
 				Parameters.NO_PARAMETER);
-		allSingers.add(s);
 	}
 
 	/**
-	 * Start chorus
+	 * Start chorus. The backing track is played once, by the chorus player,
+	 * and heard by all the singers through the mixer: the singers do not
+	 * need a player of their own during the song. The recorders of the
+	 * singers are armed first, then started together with the backing track.
 	 */
 	public void start() throws MsControlException {
-		// Launch karaoke for each Singer of this ChorusSession
-		for (Singer aSinger : allSingers)
-			aSinger.recordMeInChorusSession();
-		// Start playing and recording for the whole chorus session
-		chorusMediaGroup.getPlayer().play(
-				URI.create("/prompt/karaokeData.3gp"), rtcPlayRecord,
-				Parameters.NO_PARAMETER);
-		chorusMediaGroup.getRecorder().record(
-				StorageManager.getConfKaraokeRecordURI(this), RTC.NO_RTC,
-				Parameters.NO_PARAMETER);
+		// Too late for the friends not there yet
+		invitationsClosed = true;
+		ChorusSessionManager.getDialer().cancel(this);
+		List<Singer> singers = new ArrayList<Singer>();
+		for (Singer aSinger : allSingers.getSingers(this)) {
+			try {
+				aSinger.recordMeInChorusSession();
+				singers.add(aSinger);
+			} catch (MsControlException e) {
+				log.error("Cannot record singer " + aSinger + ", singing without recording", e);
+			}
+		}
+		recordedSingers = singers;
+		ChorusBroadcast broadcast = ChorusSessionManager.getBroadcast();
+		myRound = broadcast.newRound("chorus start", RecorderEvent.RESUMED);
+		boolean acked = broadcast.broadcast(myRound, singers, new ChorusBroadcast.Command() {
+			public void issue(Singer singer) {
+				singer.resumeRecordingMe();
+			}
+		}, new ChorusBroadcast.Reference() {
+			public void issue() throws MsControlException {
+				// Start playing and recording for the whole chorus session
+				songStarted = true;
+				chorusMediaGroup.getPlayer().play(
+						URI.create("/prompt/karaokeData.3gp"), rtcPlayRecord,
+						Parameters.NO_PARAMETER);
+				chorusRecording.start(RTC.NO_RTC, Parameters.NO_PARAMETER);
+			}
+		});
+		if (acked)
+			log.info(myRound);
 	}
 
 	/**
-	 * Stop chorus
+	 * Stop chorus: all the recordings together, then the prompts. Once all
+	 * the recordings are complete, they are aligned and mixed; a recording
+	 * that does not complete in time is left out of the mix.
 	 */
 	public void stop() throws MsControlException {
-		chorusMediaGroup.stop();
-		for (Singer aSinger : allSingers)
-			aSinger.stopRecordingMe();
+		Set<Singer> present = allSingers.getSingers(this);
+		// Only the recorders armed at the start complete on stop
+		List<Singer> singers = new ArrayList<Singer>();
+		for (Singer aSinger : recordedSingers) {
+			if (present.contains(aSinger))
+				singers.add(aSinger);
+		}
+		ChorusBroadcast broadcast = ChorusSessionManager.getBroadcast();
+		myRound = myStopRound = broadcast.newRound("chorus stop", RecorderEvent.RECORD_COMPLETED);
+		boolean acked = broadcast.broadcast(myRound, singers, new ChorusBroadcast.Command() {
+			public void issue(Singer singer) throws MsControlException {
+				singer.stopRecordingMe();
+			}
+		}, new ChorusBroadcast.Reference() {
+			public void issue() throws MsControlException {
+				chorusRecording.stop();
+				chorusMediaGroup.getPlayer().stop(true);
+			}
+		});
+		if (acked)
+			roundCompleted(myRound);
+		else
+			broadcast.expireAfterTimeout(myRound, new ChorusBroadcast.Expiry() {
+				public void expired(ChorusBroadcast.Round round, List<Singer> missing) {
+					log.info(round);
+					// Those whose stop was issued late, or never, are left out
+					List<Singer> complete = new ArrayList<Singer>(recordedSingers);
+					complete.retainAll(round.getAcked());
+					StorageManager.mixdown(ChorusSession.this, complete);
+				}
+			});
+		for (Singer aSinger : present)
+			aSinger.promptChorusListening();
+	}
+
+	/**
+	 * A recorder event of a singer, which may acknowledge its start or stop
+	 * command. The skew of the round is logged once all the singers have
+	 * acknowledged it.
+	 */
+	void recorderEvent(Singer s, RecorderEvent event) {
+		ChorusBroadcast.Round round = myRound;
+		if (round != null && round.ack(s, event.getEventType()))
+			roundCompleted(round);
+	}
+
+	private void roundCompleted(ChorusBroadcast.Round round) {
+		log.info(round);
+		if (round == myStopRound)
+			StorageManager.mixdown(this, recordedSingers);
 	}
 
 	/**
@@ -112,7 +232,7 @@ public class ChorusSession {
 	public void terminate(Exception e) {
 		log.fatal("Terminate chorus session due to internal service error", e);
 		// Release each Singer
-		for (Singer aSinger : allSingers)
+		for (Singer aSinger : allSingers.getSingers(this))
 			aSinger.release("Release due to unexcepted error");
 		// Release ChorusSession
 		release("Unexpected error in chorus session");
@@ -125,8 +245,8 @@ public class ChorusSession {
 	 *            member leaving chorus session
 	 */
 	public void bye(Singer s) {
-		allSingers.remove(s);
-		if (allSingers.isEmpty()) {
+		chorusMixer.leave(s.myNetworkConnection);
+		if (allSingers.leaveChorus(s, this)) {
 			release("No more singers in chorus");
 		}
 	}
@@ -139,7 +259,10 @@ public class ChorusSession {
 	 */
 	public void release(String msg) {
 		log.info("Releasing chorus session: " + msg);
-		chorusMediaSession.release();
+		invitationsClosed = true;
+		ChorusSessionManager.getDialer().cancel(this);
+		MediaSessionRegistry.getInstance().release(chorusMediaSession);
+		StorageManager.release(this);
 	}
 
 	/**
@@ -149,7 +272,7 @@ public class ChorusSession {
 		public void onEvent(PlayerEvent event) {
 			log.debug(event);
 			try {
-				if (event.getQualifier().equals(PlayerEvent.END_OF_PLAY_LIST)) {
+				if (event.getQualifier().equals(PlayerEvent.END_OF_PLAY_LIST) && songStarted) {
 					stop();
 				}
 			} catch (MsControlException msce) {
@@ -11,12 +11,12 @@
  */
 package javax.media.mscontrol.samples.karaoke;
 
-import java.util.Iterator;
-import java.util.Vector;
+import java.util.Collection;
 
 import javax.media.mscontrol.MediaConfigException;
 import javax.media.mscontrol.MediaSession;
 import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.samples.common.MediaSessionRegistry;
 
 import org.apache.log4j.Logger;
 
@@ -29,6 +29,24 @@ public class ChorusSessionManager {
 
 	private static Logger log = Logger.getLogger(ChorusSessionManager.class);
 
+	/**
+	 * Calls the friends of the singers
+	 */
+	private static final FriendDialer theDialer = new FriendDialer();
+
+	static FriendDialer getDialer() {
+		return theDialer;
+	}
+
+	/**
+	 * Starts and stops the singers of a chorus together
+	 */
+	private static final ChorusBroadcast theBroadcast = new ChorusBroadcast();
+
+	static ChorusBroadcast getBroadcast() {
+		return theBroadcast;
+	}
+
 	/**
 	 * ChorusSession factory
 	 * 
@@ -37,9 +55,10 @@ public class ChorusSessionManager {
 	 */
 	public static ChorusSession createChorusSession()
 			throws MsControlException, MediaConfigException {
-		// One MediaSession per ChorusSession
-		MediaSession chorusMediaSession = MediaSessionManager
-				.createMediaSession();
+		// One MediaSession per ChorusSession, shared by its singers: never
+		// reaped, released by the ChorusSession
+		MediaSession chorusMediaSession = MediaSessionRegistry.getInstance().createShared(
+				MediaSessionManager.theMsControlFactory);
 		ChorusSession newConf = new ChorusSession(chorusMediaSession);
 		return newConf;
 	}
@@ -51,18 +70,14 @@ public class ChorusSessionManager {
 	 *            user SIP address of available friends (suppose retrieved from
 	 *            a presence server for instance)
 	 */
-	public static void inviteFriends(Vector<String> availableFriendsIpAddress,
+	public static void inviteFriends(Collection<String> availableFriendsIpAddress,
 			KaraokeServlet karaokeServlet, ChorusSession chorusSession) {
-		Iterator<String> i = availableFriendsIpAddress.iterator();
-		while (i.hasNext()) {
-			try {
-				String friendAddress = i.next();
-				new OutgoingCallSinger(friendAddress, karaokeServlet,
-						chorusSession);
-			} catch (Exception e) {
-				log.error("Error while creating a new OutgoingCallSinger", e);
-			}
+		if (availableFriendsIpAddress == null || availableFriendsIpAddress.isEmpty()) {
+			log.warn("No friend to invite");
+			return;
 		}
+		// Dialed in parallel, paced, see FriendDialer
+		theDialer.dial(chorusSession, availableFriendsIpAddress, karaokeServlet);
 	}
 
 }
@@ -0,0 +1,222 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.karaoke;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Calls the friends of a singer to a chorus.
+ * <br>
+ * Each friend costs a MediaSession and an SDP offer before its phone rings:
+ * the invitations are dialed in parallel, on a bounded pool, so that a
+ * large chorus neither waits for the setups one after the other nor takes
+ * all the media server at once. The invitations of a chorus are paced,
+ * an invitation not answered in time is cancelled, and so are the pending
+ * ones once the chorus starts.
+ * <br>
+ * The settings are the <code>karaoke.dialer.threads</code> (8),
+ * <code>karaoke.dialer.pace</code> (ms between two invitations of a
+ * chorus, 50) and <code>karaoke.dialer.answerTimeout</code> (ms, 30000)
+ * system properties.
+ */
+public class FriendDialer {
+
+	private static Logger log = Logger.getLogger(FriendDialer.class);
+
+	/**
+	 * Invitations of a chorus
+	 */
+	private static class Dialing {
+		/** when the next invitation may be dialed, in ms since the epoch */
+		long nextDial;
+		boolean cancelled;
+		final List<Future<?>> pending = new ArrayList<Future<?>>();
+		final Set<OutgoingCallSinger> ringing = new HashSet<OutgoingCallSinger>();
+	}
+
+	private final ScheduledThreadPoolExecutor pool;
+	private final long paceMillis;
+	private final long answerTimeoutMillis;
+	private final Map<ChorusSession, Dialing> dialings = new ConcurrentHashMap<ChorusSession, Dialing>();
+
+	public FriendDialer(int threads, long paceMillis, long answerTimeoutMillis) {
+		this.paceMillis = paceMillis;
+		this.answerTimeoutMillis = answerTimeoutMillis;
+		pool = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "karaoke-dialer-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		pool.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Dialer configured by the system properties
+	 */
+	public FriendDialer() {
+		this(Integer.getInteger("karaoke.dialer.threads", 8), Long.getLong("karaoke.dialer.pace", 50),
+				Long.getLong("karaoke.dialer.answerTimeout", 30000));
+	}
+
+	/**
+	 * Invite friends to a chorus. Returns at once: the invitations are
+	 * dialed in the background. A chorus already started or released, e.g.
+	 * while the presence of the friends was looked up, is not dialed.
+	 *
+	 * @param friends
+	 *            SIP addresses of the friends
+	 */
+	public void dial(final ChorusSession chorus, Collection<String> friends, final KaraokeServlet servlet) {
+		if (friends == null || friends.isEmpty())
+			return;
+		Dialing dialing = dialings.get(chorus);
+		if (dialing == null) {
+			Dialing created = new Dialing();
+			dialing = dialings.putIfAbsent(chorus, created);
+			if (dialing == null)
+				dialing = created;
+		}
+		synchronized (dialing) {
+			if (dialing.cancelled)
+				return;
+			// Checked once the Dialing is in the map: a cancel() after this
+			// finds it, one before has closed the chorus already
+			if (!chorus.isInviting()) {
+				dialing.cancelled = true;
+				dialings.remove(chorus, dialing);
+				return;
+			}
+			long now = System.currentTimeMillis();
+			for (final String friend : friends) {
+				dialing.nextDial = Math.max(dialing.nextDial, now);
+				dialing.pending.add(pool.schedule(new Runnable() {
+					public void run() {
+						invite(chorus, friend, servlet);
+					}
+				}, dialing.nextDial - now, TimeUnit.MILLISECONDS));
+				dialing.nextDial += paceMillis;
+			}
+		}
+	}
+
+	/**
+	 * Create the OutgoingCallSinger of a friend, which sends the INVITE once
+	 * its SDP offer is ready, see {@link #inviteSent(OutgoingCallSinger)}
+	 */
+	private void invite(ChorusSession chorus, String friend, KaraokeServlet servlet) {
+		Dialing dialing = dialings.get(chorus);
+		if (dialing == null)
+			return;
+		final OutgoingCallSinger singer;
+		try {
+			singer = new OutgoingCallSinger(friend, servlet, chorus);
+		} catch (Exception e) {
+			log.error("Error while creating a new OutgoingCallSinger for " + friend, e);
+			return;
+		}
+		synchronized (dialing) {
+			if (!dialing.cancelled) {
+				dialing.ringing.add(singer);
+				return;
+			}
+		}
+		// The chorus started while this friend was being set up
+		singer.cancel("Chorus already started");
+	}
+
+	/**
+	 * Called once the INVITE of an invitation is sent: the friend has the
+	 * answer timeout from now on, whatever the time its SDP offer took
+	 */
+	public void inviteSent(final OutgoingCallSinger singer) {
+		pool.schedule(new Runnable() {
+			public void run() {
+				timeout(singer);
+			}
+		}, answerTimeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void timeout(OutgoingCallSinger singer) {
+		if (forget(singer))
+			singer.cancel("No answer after " + answerTimeoutMillis + " ms");
+	}
+
+	/**
+	 * Called on the 200 OK of an invitation
+	 *
+	 * @return false if the invitation is already cancelled: the friend must
+	 *         be hung up
+	 */
+	public boolean answered(OutgoingCallSinger singer) {
+		return forget(singer);
+	}
+
+	/**
+	 * @return true if the singer was ringing
+	 */
+	private boolean forget(OutgoingCallSinger singer) {
+		Dialing dialing = dialings.get(singer.myChorusSession);
+		if (dialing == null)
+			return false;
+		synchronized (dialing) {
+			return dialing.ringing.remove(singer);
+		}
+	}
+
+	/**
+	 * Stop inviting friends to a chorus, e.g. once it starts: the invitations
+	 * not dialed yet are dropped, the ones ringing are cancelled.
+	 *
+	 * @return number of invitations dropped or cancelled
+	 */
+	public int cancel(ChorusSession chorus) {
+		Dialing dialing = dialings.remove(chorus);
+		if (dialing == null)
+			return 0;
+		List<OutgoingCallSinger> stragglers;
+		int dropped = 0;
+		synchronized (dialing) {
+			dialing.cancelled = true;
+			for (Future<?> f : dialing.pending) {
+				if (f.cancel(false))
+					dropped++;
+			}
+			dialing.pending.clear();
+			stragglers = new ArrayList<OutgoingCallSinger>(dialing.ringing);
+			dialing.ringing.clear();
+		}
+		for (OutgoingCallSinger singer : stragglers)
+			singer.cancel("Chorus started");
+		return dropped + stragglers.size();
+	}
+
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+}
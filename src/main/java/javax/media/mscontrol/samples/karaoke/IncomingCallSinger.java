@@ -12,12 +12,15 @@
 package javax.media.mscontrol.samples.karaoke;
 
 import java.net.URI;
+import java.util.List;
+import java.util.function.BiConsumer;
 
 import javax.media.mscontrol.MediaEventListener;
 import javax.media.mscontrol.MsControlException;
 import javax.media.mscontrol.Parameters;
 import javax.media.mscontrol.networkconnection.SdpPortManagerEvent;
 import javax.media.mscontrol.resource.RTC;
+import javax.media.mscontrol.samples.common.MediaSessionRegistry;
 import javax.servlet.ServletException;
 import javax.servlet.sip.SipServletMessage;
 import javax.servlet.sip.SipServletRequest;
@@ -40,6 +43,7 @@ public class IncomingCallSinger extends Singer {
 		try {
 
 			mySipSession = request.getSession();
+			MediaSessionRegistry.getInstance().setOwner(myMediaSession, mySipSession);
 
 			// Set a specific SdpPortManager listener for handling SDP
 			// negotiation for an incoming call
@@ -59,7 +63,7 @@ public class IncomingCallSinger extends Singer {
 						}
 					} catch (Exception e) {
 						log.error("Cannot handle IncomingCallSinger SdpPortManagerEvent",e);
-						myMediaSession.release();
+						MediaSessionRegistry.getInstance().release(myMediaSession);
 					}
 				}
 			});
@@ -67,13 +71,14 @@ public class IncomingCallSinger extends Singer {
 			mySDPPortSet.processSdpOffer(request.getRawContent());
 		} catch (Exception e) {
 			log.fatal("Cannot create singer as answer to incoming call", e);
-			myMediaSession.release();
+			MediaSessionRegistry.getInstance().release(myMediaSession);
 			throw new ServletException();
 		}
 	}
 
 	@Override
 	public void startService() throws MsControlException {
+		StorageManager.prefetchFriends(this);
 		setMyState(State.PlayingIntro);
 		playPrompt(URI.create("/prompt/intro.3gp"));
 	}
@@ -98,6 +103,14 @@ public class IncomingCallSinger extends Singer {
 	public void createNewChorusSession() throws Exception {
 		myChorusSession = ChorusSessionManager.createChorusSession();
 		joinMyChorusSession();
-		ChorusSessionManager.inviteFriends(StorageManager.getAvailableFriends(this), myKaraokeServlet, myChorusSession);
+		// The friends are invited once the presence server answers
+		StorageManager.getAvailableFriends(this).whenComplete(new BiConsumer<List<String>, Throwable>() {
+			public void accept(List<String> friends, Throwable t) {
+				if (t != null)
+					log.error("Cannot get the available friends, no friend invited", t);
+				else
+					ChorusSessionManager.inviteFriends(friends, myKaraokeServlet, myChorusSession);
+			}
+		});
 	}
 }
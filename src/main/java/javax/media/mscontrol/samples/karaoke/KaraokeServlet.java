@@ -12,8 +12,6 @@
 package javax.media.mscontrol.samples.karaoke;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 
 import javax.servlet.ServletException;
 import javax.servlet.sip.SipFactory;
@@ -37,13 +35,21 @@ public class KaraokeServlet extends SipServlet {
 	/**
 	 * Factory for outgoing SIP requests objects
 	 */
-	private final SipFactory sipFactory = (SipFactory) this.getServletContext()
-			.getAttribute("javax.servlet.sip.SipFactory");
+	private SipFactory sipFactory;
 
 	/**
-	 * Karaoke participants map
+	 * Karaoke participants, by SipSession and by chorus
 	 */
-	private static Map<SipSession, Singer> allSingers = new HashMap<SipSession, Singer>();
+	private static final SingerRegistry allSingers = new SingerRegistry();
+
+	/**
+	 * Get the SipFactory, once the servlet context is available
+	 */
+	@Override
+	public void init() throws ServletException {
+		super.init();
+		sipFactory = (SipFactory) getServletContext().getAttribute("javax.servlet.sip.SipFactory");
+	}
 
 	// Incoming call use-case
 	/**
@@ -54,7 +60,7 @@ public class KaraokeServlet extends SipServlet {
 		try {
 			// Create a new singer and add it to the singers map
 			Singer singer = new IncomingCallSinger(request, this);
-			allSingers.put(request.getSession(), singer);
+			allSingers.bind(singer, request.getSession());
 		} catch (Exception e) {
 			log.fatal("Error while handling doInvite request");
 			throw new ServletException();
@@ -69,7 +75,10 @@ public class KaraokeServlet extends SipServlet {
 			IOException {
 		try {
 			// Start karaoke service
-			allSingers.get(req.getSession()).startService();
+			Singer singer = allSingers.get(req.getSession());
+			if (singer == null)
+				throw new IllegalStateException("No singer for " + req.getSession());
+			singer.startService();
 		} catch (Exception e) {
 			log.fatal("Error while starting service");
 			throw new ServletException();
@@ -77,6 +86,13 @@ public class KaraokeServlet extends SipServlet {
 		
 	}
 
+	/**
+	 * @return the singers of all the instances of this servlet
+	 */
+	static SingerRegistry getSingers() {
+		return allSingers;
+	}
+
 	/**
 	 * Send a SIP BYE to the UA
 	 */
@@ -90,18 +106,23 @@ public class KaraokeServlet extends SipServlet {
 	/**
 	 * Initiate an outgoing call
 	 * 
+	 * @param singer
+	 *            the invited friend, found by its SipSession when answering
 	 * @param friendIpAddress
 	 * @param localSDP
+	 * @return the INVITE sent, to cancel it
 	 * @throws Exception
 	 */
-	public void sendInvite(String friendIpAddress, byte[] localSDP)
+	public SipServletRequest sendInvite(OutgoingCallSinger singer, String friendIpAddress, byte[] localSDP)
 			throws Exception {
 		SipServletRequest request = sipFactory.createRequest(sipFactory
 				.createApplicationSession(), "INVITE", sipFactory
 				.createAddress("sip:karaoke@as_sipservlet:5060"), sipFactory
 				.createAddress(friendIpAddress));
 		request.setContent(localSDP, "application/sdp");
+		allSingers.bind(singer, request.getSession());
 		request.send();
+		return request;
 	}
 
 	/**
@@ -111,19 +132,35 @@ public class KaraokeServlet extends SipServlet {
 	protected void doSuccessResponse(SipServletResponse response)
 			throws ServletException {
 		// 200 OK success response corresponds to end of SDP negotiation
-		if (allSingers.containsKey(response.getSession())) {
+		Singer singer = allSingers.get(response.getSession());
+		if (singer == null && response.getRequest() != null)
+			// answered on a derived SipSession: the INVITE's one is known
+			singer = allSingers.get(response.getRequest().getSession());
+		if (singer instanceof OutgoingCallSinger
+				&& ChorusSessionManager.getDialer().answered((OutgoingCallSinger) singer)) {
 			// Suppose that SIP 200 OK message has only one body, containing the
 			// negotiated SDP
 			try {
+				// The call leg is now this SipSession
+				allSingers.bind(singer, response.getSession());
 				// Set response as SipSession attribute to answer it later
 				response.getSession().setAttribute("UNACK_RESPONSE",response);
-				((OutgoingCallSinger) allSingers.get(response.getSession()))
-						.setSdpAnswer(response.getRawContent(), response.getSession());
+				((OutgoingCallSinger) singer).setSdpAnswer(response.getRawContent(), response.getSession());
 			} catch (Exception ioe) {
 				log.error("Error while modifying SDP while handling success response", ioe);
 				throw new ServletException();
 			}
 		}
+		else if ("INVITE".equals(response.getMethod())) {
+			// the invitation has been cancelled, or the singer released: the
+			// friend answered too late, hang up
+			try {
+				response.createAck().send();
+				response.getSession().createRequest("BYE").send();
+			} catch (IOException e) {
+				log.error("Cannot hang up a late answer", e);
+			}
+		}
 		// else 200 OK success response arrives after a BYE has been sent:
 		// nothing to do, media session has already been released
 	}
@@ -136,10 +173,9 @@ public class KaraokeServlet extends SipServlet {
 	 */
 	public void sendAck(Singer outgoingCallSinger)
 			throws IOException {
-		SipServletResponse response = (SipServletResponse)((SipSession)allSingers.get(outgoingCallSinger)).getAttribute("UNACK_RESPONSE");
+		SipServletResponse response = (SipServletResponse) allSingers.getSipSession(outgoingCallSinger).getAttribute("UNACK_RESPONSE");
 		SipServletMessage ackMessage = response.createAck();
 		ackMessage.send();
-		allSingers.put(response.getSession(), outgoingCallSinger);
 	}
 
 	// For both incoming and outgoing calls use-cases
@@ -149,16 +185,16 @@ public class KaraokeServlet extends SipServlet {
 	@Override
 	protected void doBye(SipServletRequest req) throws ServletException,
 			IOException {
-		// Release singer
-		allSingers.get(req.getSession()).release("User Agent hangs up");
-		// Remove it from allSingers map
-		removeSinger(req.getSession());
+		// Release singer, which removes it from allSingers
+		Singer singer = allSingers.get(req.getSession());
+		if (singer != null)
+			singer.release("User Agent hangs up");
 		SipServletMessage msg = req.createResponse(200, "OK");
 		msg.send();
 	}
 
 	/**
-	 * Remove Singer from the singers map
+	 * Remove Singer from the singers registry
 	 * 
 	 * @param key
 	 */
@@ -166,4 +202,11 @@ public class KaraokeServlet extends SipServlet {
 		allSingers.remove(key);
 	}
 
+	/**
+	 * Remove Singer from the singers registry, whatever its call leg state
+	 */
+	public void removeSinger(Singer singer) {
+		allSingers.remove(singer);
+	}
+
 }
@@ -0,0 +1,104 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ * 
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.karaoke;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory stand-in for a presence service, e.g. for the load harness.
+ * <br>
+ * A round-trip can be simulated with the <code>karaoke.presence.latency</code>
+ * system property (ms, 0 by default). The friends can be given with the
+ * <code>karaoke.presence.friends</code> system property, e.g.
+ * <code>sip:alice@example.com=sip:bob@example.com|sip:carol@example.com;sip:bob@example.com=sip:alice@example.com</code>,
+ * everybody being available until told otherwise.
+ */
+public class LocalPresence implements PresenceBackend {
+
+	private final Map<String, List<String>> friends = new ConcurrentHashMap<String, List<String>>();
+	private final Map<String, Boolean> availability = new ConcurrentHashMap<String, Boolean>();
+	private final long latencyMillis;
+	private final AtomicLong roundTrips = new AtomicLong();
+
+	public LocalPresence(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	/**
+	 * Stand-in configured by the system properties
+	 */
+	public static LocalPresence fromSystemProperties() {
+		LocalPresence presence = new LocalPresence(Long.getLong("karaoke.presence.latency", 0));
+		String config = System.getProperty("karaoke.presence.friends", "");
+		for (String user : config.split(";")) {
+			int i = user.indexOf('=');
+			if (i <= 0)
+				continue;
+			List<String> list = new ArrayList<String>();
+			for (String friend : user.substring(i + 1).split("\\|")) {
+				if (friend.trim().length() > 0)
+					list.add(friend.trim());
+			}
+			presence.setFriends(user.substring(0, i).trim(), list);
+		}
+		return presence;
+	}
+
+	public void setFriends(String user, List<String> userFriends) {
+		friends.put(user, Collections.unmodifiableList(new ArrayList<String>(userFriends)));
+	}
+
+	public void setAvailable(String user, boolean available) {
+		availability.put(user, available);
+	}
+
+	/**
+	 * @return number of queries answered so far
+	 */
+	public long getRoundTrips() {
+		return roundTrips.get();
+	}
+
+	public List<String> getFriends(String user) {
+		roundTrip();
+		List<String> list = friends.get(user);
+		return list == null ? Collections.<String> emptyList() : list;
+	}
+
+	public Map<String, Boolean> getAvailability(Collection<String> users) {
+		roundTrip();
+		Map<String, Boolean> result = new HashMap<String, Boolean>();
+		for (String user : users) {
+			Boolean available = availability.get(user);
+			result.put(user, available == null || available);
+		}
+		return result;
+	}
+
+	private void roundTrip() {
+		roundTrips.incrementAndGet();
+		if (latencyMillis > 0) {
+			try {
+				Thread.sleep(latencyMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
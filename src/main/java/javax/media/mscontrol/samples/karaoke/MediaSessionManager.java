@@ -14,6 +14,7 @@ package javax.media.mscontrol.samples.karaoke;
 import javax.media.mscontrol.MediaSession;
 import javax.media.mscontrol.MsControlFactory;
 import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.samples.common.MediaSessionRegistry;
 import javax.media.mscontrol.spi.DriverManager;
 import javax.servlet.ServletException;
 
@@ -41,13 +42,14 @@ public class MediaSessionManager {
 	}
 
 	/**
-	 * MediaSession factory
+	 * MediaSession factory. The MediaSession is registered without owner: the
+	 * SipSession of a Singer is set once known.
 	 * 
 	 * @return new MediaSession
 	 * @throws ServletException
 	 */
 	public static MediaSession createMediaSession() throws MsControlException {
-		return theMsControlFactory.createMediaSession();
+		return MediaSessionRegistry.getInstance().create(theMsControlFactory, null);
 	}
 
 }
@@ -0,0 +1,362 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.karaoke;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Offline mix of a karaoke replay: the backing track and the recorded
+ * voices mixed into a single file, that one Player can replay without a
+ * MediaMixer nor a second MediaGroup on the media server.
+ * <br>
+ * The tracks are 16 bit PCM WAV files of the same sample rate and number of
+ * channels. They are streamed in chunks of a fixed number of frames, so
+ * that the memory used does not depend on their length; a track that ends
+ * first is mixed as silence. Each track has its own gain, and the sum goes
+ * through a soft limiter: above 80% of the full scale the peaks are
+ * compressed instead of clipped.
+ */
+public class Mixdown {
+
+	/** Frames read from each track at a time */
+	public static final int DEFAULT_CHUNK_FRAMES = 4096;
+
+	/** Start of the soft limiter, 80% of the full scale */
+	static final int KNEE = 26214;
+	private static final int HEADROOM = Short.MAX_VALUE - KNEE;
+
+	static final int HEADER_SIZE = 44;
+
+	/**
+	 * An input of the mix
+	 */
+	public static class Track {
+		final File file;
+		final float gain;
+
+		/**
+		 * @param gain
+		 *            linear, 1 to mix the track as is
+		 */
+		public Track(File file, float gain) {
+			this.file = file;
+			this.gain = gain;
+		}
+
+		@Override
+		public String toString() {
+			return file + " x" + gain;
+		}
+	}
+
+	/**
+	 * What a mixdown produced
+	 */
+	public static class Result {
+		final long frames;
+		final long limited;
+		final int sampleRate;
+
+		Result(long frames, long limited, int sampleRate) {
+			this.frames = frames;
+			this.limited = limited;
+			this.sampleRate = sampleRate;
+		}
+
+		public long getFrames() {
+			return frames;
+		}
+
+		/**
+		 * @return samples that went through the limiter
+		 */
+		public long getLimited() {
+			return limited;
+		}
+
+		/**
+		 * @return duration of the mix, in ms
+		 */
+		public long getDuration() {
+			return frames * 1000 / sampleRate;
+		}
+
+		@Override
+		public String toString() {
+			return frames + " frames (" + getDuration() + " ms), " + limited + " samples limited";
+		}
+	}
+
+	/**
+	 * Format of a WAV file, and its data stream positioned on the samples
+	 */
+	static class WavInput {
+		final InputStream in;
+		final int channels;
+		final int sampleRate;
+		long remaining;
+
+		WavInput(File file) throws IOException {
+			in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+			try {
+				byte[] header = new byte[12];
+				readFully(header, 12);
+				if (!ascii(header, 0, "RIFF") || !ascii(header, 8, "WAVE"))
+					throw new IOException(file + " is not a WAV file");
+				int format = 0, bits = 0, rate = 0, count = 0;
+				byte[] chunk = new byte[8];
+				while (true) {
+					readFully(chunk, 8);
+					long size = le32(chunk, 4) & 0xffffffffL;
+					if (ascii(chunk, 0, "fmt ")) {
+						byte[] fmt = new byte[(int) size];
+						readFully(fmt, fmt.length);
+						format = le16(fmt, 0);
+						count = le16(fmt, 2);
+						rate = le32(fmt, 4);
+						bits = le16(fmt, 14);
+					} else if (ascii(chunk, 0, "data")) {
+						remaining = size;
+						break;
+					} else {
+						skip(size + (size & 1));
+					}
+				}
+				if (format != 1 || bits != 16)
+					throw new IOException(file + ": only 16 bit PCM can be mixed (format " + format + ", " + bits
+							+ " bits)");
+				channels = count;
+				sampleRate = rate;
+			} catch (EOFException e) {
+				in.close();
+				throw new IOException(file + ": truncated WAV header");
+			} catch (IOException e) {
+				in.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * @return bytes read, whole frames up to length, 0 once the data is
+		 *         exhausted
+		 */
+		int read(byte[] buffer, int length) throws IOException {
+			int wanted = (int) Math.min(length, remaining);
+			int done = 0;
+			while (done < wanted) {
+				int n = in.read(buffer, done, wanted - done);
+				if (n < 0)
+					break;
+				done += n;
+			}
+			remaining -= done;
+			return done - done % (2 * channels);
+		}
+
+		void close() {
+			try {
+				in.close();
+			} catch (IOException e) {
+			}
+		}
+
+		private void readFully(byte[] buffer, int length) throws IOException {
+			for (int done = 0; done < length;) {
+				int n = in.read(buffer, done, length - done);
+				if (n < 0)
+					throw new EOFException();
+				done += n;
+			}
+		}
+
+		private void skip(long n) throws IOException {
+			while (n > 0) {
+				long skipped = in.skip(n);
+				if (skipped <= 0)
+					throw new EOFException();
+				n -= skipped;
+			}
+		}
+	}
+
+	private final List<Track> tracks;
+	private final int chunkFrames;
+
+	public Mixdown(List<Track> tracks, int chunkFrames) {
+		this.tracks = new ArrayList<Track>(tracks);
+		this.chunkFrames = chunkFrames;
+	}
+
+	public Mixdown(List<Track> tracks) {
+		this(tracks, DEFAULT_CHUNK_FRAMES);
+	}
+
+	/**
+	 * Mix the tracks into a WAV file, of the format of the tracks
+	 *
+	 * @throws IOException
+	 *             if a track cannot be read, or the tracks have different
+	 *             formats
+	 */
+	public Result mix(File output) throws IOException {
+		List<WavInput> inputs = new ArrayList<WavInput>();
+		RandomAccessFile out = null;
+		try {
+			for (Track track : tracks) {
+				WavInput input = new WavInput(track.file);
+				inputs.add(input);
+				WavInput first = inputs.get(0);
+				if (input.channels != first.channels || input.sampleRate != first.sampleRate)
+					throw new IOException("Cannot mix " + track.file + " (" + input.sampleRate + " Hz, "
+							+ input.channels + " channels) with " + tracks.get(0).file + " (" + first.sampleRate
+							+ " Hz, " + first.channels + " channels)");
+			}
+			if (inputs.isEmpty())
+				throw new IOException("No track to mix");
+			int channels = inputs.get(0).channels;
+			int sampleRate = inputs.get(0).sampleRate;
+			int chunkBytes = chunkFrames * channels * 2;
+			byte[] in = new byte[chunkBytes];
+			byte[] mixed = new byte[chunkBytes];
+			int[] sum = new int[chunkFrames * channels];
+			float[] gains = new float[tracks.size()];
+			for (int i = 0; i < gains.length; i++)
+				gains[i] = tracks.get(i).gain;
+
+			// Written in place, so that the blocks of a preallocated file are
+			// kept
+			out = new RandomAccessFile(output, "rw");
+			out.write(new byte[HEADER_SIZE]);
+			long dataBytes = 0;
+			long limited = 0;
+			while (true) {
+				int longest = 0;
+				Arrays.fill(sum, 0);
+				for (int t = 0; t < inputs.size(); t++) {
+					int n = inputs.get(t).read(in, chunkBytes);
+					longest = Math.max(longest, n);
+					accumulate(in, n / 2, gains[t], sum);
+				}
+				if (longest == 0)
+					break;
+				limited += limit(sum, longest / 2, mixed);
+				out.write(mixed, 0, longest);
+				dataBytes += longest;
+			}
+			out.setLength(HEADER_SIZE + dataBytes);
+			out.seek(0);
+			out.write(header(channels, sampleRate, dataBytes));
+			return new Result(dataBytes / (2 * channels), limited, sampleRate);
+		} finally {
+			for (WavInput input : inputs)
+				input.close();
+			if (out != null)
+				out.close();
+		}
+	}
+
+	/**
+	 * Add samples, scaled by the gain, to the sum
+	 */
+	static void accumulate(byte[] pcm, int samples, float gain, int[] sum) {
+		if (gain == 1f) {
+			for (int i = 0; i < samples; i++)
+				sum[i] += (short) ((pcm[2 * i] & 0xff) | (pcm[2 * i + 1] << 8));
+		} else {
+			for (int i = 0; i < samples; i++)
+				sum[i] += (int) (gain * (short) ((pcm[2 * i] & 0xff) | (pcm[2 * i + 1] << 8)));
+		}
+	}
+
+	/**
+	 * Soft-limit the sum into 16 bit PCM
+	 *
+	 * @return samples above the knee
+	 */
+	static int limit(int[] sum, int samples, byte[] pcm) {
+		int limited = 0;
+		for (int i = 0; i < samples; i++) {
+			int s = sum[i];
+			if (s > KNEE) {
+				s = KNEE + (int) ((long) (s - KNEE) * HEADROOM / (s - KNEE + HEADROOM));
+				limited++;
+			} else if (s < -KNEE) {
+				s = -KNEE - (int) ((long) (-s - KNEE) * HEADROOM / (-s - KNEE + HEADROOM));
+				limited++;
+			}
+			pcm[2 * i] = (byte) s;
+			pcm[2 * i + 1] = (byte) (s >> 8);
+		}
+		return limited;
+	}
+
+	/**
+	 * @return the header of a 16 bit PCM WAV file
+	 */
+	static byte[] header(int channels, int sampleRate, long dataBytes) {
+		byte[] h = new byte[HEADER_SIZE];
+		putAscii(h, 0, "RIFF");
+		putLe32(h, 4, (int) (36 + dataBytes));
+		putAscii(h, 8, "WAVE");
+		putAscii(h, 12, "fmt ");
+		putLe32(h, 16, 16);
+		putLe16(h, 20, 1);
+		putLe16(h, 22, channels);
+		putLe32(h, 24, sampleRate);
+		putLe32(h, 28, sampleRate * channels * 2);
+		putLe16(h, 32, channels * 2);
+		putLe16(h, 34, 16);
+		putAscii(h, 36, "data");
+		putLe32(h, 40, (int) dataBytes);
+		return h;
+	}
+
+	private static boolean ascii(byte[] b, int offset, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (b[offset + i] != s.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	private static int le16(byte[] b, int offset) {
+		return (b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8;
+	}
+
+	private static int le32(byte[] b, int offset) {
+		return le16(b, offset) | le16(b, offset + 2) << 16;
+	}
+
+	private static void putAscii(byte[] b, int offset, String s) {
+		for (int i = 0; i < s.length(); i++)
+			b[offset + i] = (byte) s.charAt(i);
+	}
+
+	private static void putLe16(byte[] b, int offset, int v) {
+		b[offset] = (byte) v;
+		b[offset + 1] = (byte) (v >> 8);
+	}
+
+	private static void putLe32(byte[] b, int offset, int v) {
+		putLe16(b, offset, v);
+		putLe16(b, offset + 2, v >> 16);
+	}
+}
@@ -0,0 +1,291 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ * 
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.karaoke;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Mixes the karaoke replays offline, see {@link Mixdown}, as soon as the
+ * recordings are complete, so that a replay with music is one Player
+ * playing one file. Mixed live, a replay costs the media server a second
+ * MediaGroup, a MediaMixer and three joins for its whole duration; a replay
+ * asked for before its mix is ready is still mixed live.
+ * <br>
+ * The settings are the <code>karaoke.mixdown.backingTrack</code> (16 bit
+ * PCM WAV version of the karaoke music,
+ * /mediafiles/karaoke/karaokeData.wav), <code>karaoke.mixdown.musicGain</code>
+ * (0.7) and <code>karaoke.mixdown.threads</code> (half the processors)
+ * system properties. Without the backing track, every replay is mixed live.
+ * <br>
+ * A chorus is mixed from the recordings of its singers, each one first
+ * aligned on the backing track, see {@link Aligner}, rather than from the
+ * recording of the chorus mixer, which holds the delay of every singer.
+ * The singers are aligned in parallel. The alignment settings are the
+ * <code>karaoke.align.window</code> (ms correlated, 10000),
+ * <code>karaoke.align.maxLag</code> (ms, 1000) and
+ * <code>karaoke.align.minCorrelation</code> (0.1) system properties.
+ */
+public class MixdownService {
+
+	private static Logger log = Logger.getLogger(MixdownService.class);
+
+	static final String MIX = "mix";
+	static final String ALIGNED = "aligned";
+
+	private final RecordingStore store;
+	private final File backingTrack;
+	private final float musicGain;
+	private final ExecutorService executor;
+	private final int alignWindowMillis;
+	private final int alignMaxLagMillis;
+	private final float alignMinCorrelation;
+	private volatile Aligner aligner;
+	/** By owner (Singer or ChorusSession) */
+	private final ConcurrentHashMap<Object, CompletableFuture<URI>> mixes = new ConcurrentHashMap<Object, CompletableFuture<URI>>();
+	private final LongAdder offlineReplays = new LongAdder();
+	private final LongAdder liveReplays = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+
+	public MixdownService(RecordingStore store, File backingTrack, float musicGain, int threads,
+			int alignWindowMillis, int alignMaxLagMillis, float alignMinCorrelation) {
+		this.store = store;
+		this.backingTrack = backingTrack;
+		this.musicGain = musicGain;
+		this.alignWindowMillis = alignWindowMillis;
+		this.alignMaxLagMillis = alignMaxLagMillis;
+		this.alignMinCorrelation = alignMinCorrelation;
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "karaoke-mixdown-" + count.incrementAndGet());
+				t.setDaemon(true);
+				// Not to delay the call processing
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Service configured by the system properties
+	 */
+	public static MixdownService fromSystemProperties(RecordingStore store) {
+		float gain = Float.parseFloat(System.getProperty("karaoke.mixdown.musicGain", "0.7"));
+		return new MixdownService(store, new File(System.getProperty("karaoke.mixdown.backingTrack",
+				"/mediafiles/karaoke/karaokeData.wav")), gain, Integer.getInteger("karaoke.mixdown.threads",
+				Math.max(1, Runtime.getRuntime().availableProcessors() / 2)), Integer.getInteger(
+				"karaoke.align.window", 10000), Integer.getInteger("karaoke.align.maxLag", 1000), Float
+				.parseFloat(System.getProperty("karaoke.align.minCorrelation", "0.1")));
+	}
+
+	/**
+	 * Mix the music with the recording of a singer, or of a chorus, once
+	 * the recording is complete. Mixing an owner twice is harmless.
+	 *
+	 * @param owner
+	 *            Singer or ChorusSession
+	 * @param kind
+	 *            kind of the recording in the {@link RecordingStore}
+	 */
+	public void mix(final Object owner, final String kind) {
+		final File voice = store.getFile(owner, kind);
+		if (voice == null || !backingTrack.isFile())
+			return;
+		mixes.computeIfAbsent(owner, new Function<Object, CompletableFuture<URI>>() {
+			public CompletableFuture<URI> apply(Object o) {
+				final CompletableFuture<URI> future = new CompletableFuture<URI>();
+				executor.execute(new Runnable() {
+					public void run() {
+						List<Mixdown.Track> tracks = new ArrayList<Mixdown.Track>();
+						tracks.add(new Mixdown.Track(backingTrack, musicGain));
+						tracks.add(new Mixdown.Track(voice, 1f));
+						mixInto(future, owner, tracks);
+					}
+				});
+				return future;
+			}
+		});
+	}
+
+	/**
+	 * Align the recordings of the singers of a chorus on the music, and mix
+	 * them with it, once the recordings are complete. A singer whose
+	 * recording cannot be aligned, e.g. gone and deleted already, is left out
+	 * of the mix.
+	 *
+	 * @param owner
+	 *            ChorusSession
+	 * @param singers
+	 *            owners of the recordings
+	 * @param kind
+	 *            kind of the recordings in the {@link RecordingStore}
+	 */
+	public void mixAligned(final Object owner, final List<?> singers, final String kind) {
+		if (singers.isEmpty() || !backingTrack.isFile())
+			return;
+		mixes.computeIfAbsent(owner, new Function<Object, CompletableFuture<URI>>() {
+			public CompletableFuture<URI> apply(Object o) {
+				final CompletableFuture<URI> future = new CompletableFuture<URI>();
+				final List<CompletableFuture<Aligner.Result>> alignments = new ArrayList<CompletableFuture<Aligner.Result>>();
+				for (final Object singer : singers) {
+					alignments.add(CompletableFuture.supplyAsync(new Supplier<Aligner.Result>() {
+						public Aligner.Result get() {
+							return align(future, singer, kind);
+						}
+					}, executor));
+				}
+				CompletableFuture.allOf(alignments.toArray(new CompletableFuture<?>[0])).whenCompleteAsync(
+						new BiConsumer<Void, Throwable>() {
+							public void accept(Void v, Throwable t) {
+								List<Mixdown.Track> tracks = new ArrayList<Mixdown.Track>();
+								tracks.add(new Mixdown.Track(backingTrack, musicGain));
+								for (CompletableFuture<Aligner.Result> alignment : alignments) {
+									Aligner.Result result = alignment.getNow(null);
+									if (result != null)
+										tracks.add(new Mixdown.Track(result.getAligned(), 1f));
+								}
+								if (tracks.size() == 1)
+									future.completeExceptionally(new IOException("No recording aligned"));
+								else
+									mixInto(future, owner, tracks);
+							}
+						}, executor);
+				return future;
+			}
+		});
+	}
+
+	/**
+	 * @return the alignment of the recording of a singer, null if it cannot
+	 *         be aligned
+	 */
+	private Aligner.Result align(CompletableFuture<URI> mix, Object singer, String kind) {
+		File voice = store.getFile(singer, kind);
+		if (mix.isDone() || voice == null)
+			return null;
+		try {
+			store.getURI(singer, ALIGNED);
+			Aligner.Result result = getAligner().align(voice, store.getFile(singer, ALIGNED));
+			log.debug("Aligned " + voice + ", " + result);
+			if (store.getFile(singer, kind) == null) {
+				// Released while aligning
+				store.release(singer);
+				return null;
+			}
+			return result;
+		} catch (Exception e) {
+			log.warn("Cannot align " + voice + ", left out of the chorus mix: " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Mix tracks into the mix of an owner, unless released meanwhile
+	 */
+	private void mixInto(CompletableFuture<URI> future, Object owner, List<Mixdown.Track> tracks) {
+		if (future.isCancelled())
+			return;
+		try {
+			URI uri = store.getURI(owner, MIX);
+			File output = store.getFile(owner, MIX);
+			Mixdown.Result result = new Mixdown(tracks).mix(output);
+			log.debug("Mixed " + tracks + " into " + uri + ": " + result);
+			if (!future.complete(uri)) {
+				// Released while mixing
+				store.release(owner);
+				output.delete();
+			}
+		} catch (Exception e) {
+			failures.increment();
+			log.warn("Cannot mix " + tracks + " offline, its replays will be mixed live: " + e);
+			future.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * @return the aligner, which analyses the backing track once
+	 */
+	private Aligner getAligner() throws IOException {
+		Aligner a = aligner;
+		if (a == null) {
+			synchronized (this) {
+				if (aligner == null)
+					aligner = new Aligner(backingTrack, alignWindowMillis, alignMaxLagMillis, alignMinCorrelation);
+				a = aligner;
+			}
+		}
+		return a;
+	}
+
+	/**
+	 * @return the mix of an owner, null if not ready: the replay must be
+	 *         mixed live
+	 */
+	public URI getMix(Object owner) {
+		CompletableFuture<URI> future = mixes.get(owner);
+		URI mix = future != null && future.isDone() && !future.isCompletedExceptionally() ? future.join() : null;
+		if (mix != null)
+			offlineReplays.increment();
+		else
+			liveReplays.increment();
+		return mix;
+	}
+
+	/**
+	 * Forget the mix of a released owner, its file being deleted with its
+	 * recording
+	 */
+	public void release(Object owner) {
+		CompletableFuture<URI> future = mixes.remove(owner);
+		if (future != null)
+			future.cancel(false);
+	}
+
+	public long getOfflineReplays() {
+		return offlineReplays.sum();
+	}
+
+	public long getLiveReplays() {
+		return liveReplays.sum();
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return the replays and the media server resources saved
+	 */
+	@Override
+	public String toString() {
+		long offline = getOfflineReplays();
+		return "replays: offline=" + offline + " live=" + getLiveReplays() + " mixdown failures=" + failures.sum()
+				+ ", saved " + offline + " MediaGroups, " + offline + " MediaMixers and " + 3 * offline + " joins";
+	}
+}
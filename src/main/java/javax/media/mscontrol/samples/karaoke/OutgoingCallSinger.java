@@ -18,6 +18,8 @@ import javax.media.mscontrol.MediaEventListener;
 import javax.media.mscontrol.MsControlException;
 import javax.media.mscontrol.networkconnection.SdpPortManagerEvent;
 import javax.media.mscontrol.networkconnection.SdpPortManagerException;
+import javax.media.mscontrol.samples.common.MediaSessionRegistry;
+import javax.servlet.sip.SipServletRequest;
 import javax.servlet.sip.SipSession;
 
 import org.apache.log4j.Logger;
@@ -30,6 +32,12 @@ public class OutgoingCallSinger extends Singer {
 
 	private static Logger log = Logger.getLogger(OutgoingCallSinger.class);
 
+	/**
+	 * INVITE sent to the friend, null until the SDP offer is ready
+	 */
+	private SipServletRequest myInvite;
+	private boolean cancelled;
+
 	/**
 	 * Constructor
 	 * 
@@ -53,7 +61,15 @@ public class OutgoingCallSinger extends Singer {
 						setMyState(State.WaitingForRemoteSDP);
 						// Send SIP INVITE message with localSDP, get at
 						// the same time allocated SipSession
-						theServlet.sendInvite(myAddress, event.getMediaServerSdp());
+						boolean sent;
+						synchronized (OutgoingCallSinger.this) {
+							if (!cancelled)
+								myInvite = theServlet.sendInvite(OutgoingCallSinger.this, myAddress, event.getMediaServerSdp());
+							sent = myInvite != null;
+						}
+						// The friend's phone rings from now on
+						if (sent)
+							ChorusSessionManager.getDialer().inviteSent(OutgoingCallSinger.this);
 						
 					} else if (getMyState() == State.WaitingForRemoteSDP) {
 						setMyState(State.WaitOtherSingers);
@@ -73,6 +89,24 @@ public class OutgoingCallSinger extends Singer {
 		mySDPPortSet.generateSdpOffer();
 	}
 
+	/**
+	 * Give up calling this friend: CANCEL the INVITE if sent, and release
+	 * the Singer
+	 */
+	public void cancel(String reason) {
+		synchronized (this) {
+			cancelled = true;
+			if (myInvite != null) {
+				try {
+					myInvite.createCancel().send();
+				} catch (Exception e) {
+					log.warn("Cannot cancel the INVITE of " + myInvite.getTo() + ": " + e);
+				}
+			}
+		}
+		release(reason);
+	}
+
 	@Override
 	public void startService() throws MsControlException {
 		setMyState(State.WaitOtherSingers);
@@ -93,6 +127,7 @@ public class OutgoingCallSinger extends Singer {
 	 */
 	public void setSdpAnswer(byte[] remoteSDP, SipSession sipSession) throws SdpPortManagerException {
 		mySipSession = sipSession;
+		MediaSessionRegistry.getInstance().setOwner(myMediaSession, sipSession);
 		mySDPPortSet.processSdpAnswer(remoteSDP);
 		setMyState(State.WaitOtherSingers);
 		try {
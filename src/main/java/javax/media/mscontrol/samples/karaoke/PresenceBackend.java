@@ -0,0 +1,42 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ * 
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.karaoke;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Presence service queried for the friends of the singers, see
+ * {@link PresenceCache}. The calls may block for a network round-trip: they
+ * are only made from the presence threads.
+ */
+public interface PresenceBackend {
+
+	/**
+	 * @param user
+	 *            SIP address of a user
+	 * @return SIP addresses of the friends of the user, empty if none
+	 */
+	List<String> getFriends(String user) throws IOException;
+
+	/**
+	 * Bulk presence query, one round-trip for all the users
+	 * 
+	 * @param users
+	 *            SIP addresses
+	 * @return the availability of each user, an unknown user being
+	 *         unavailable
+	 */
+	Map<String, Boolean> getAvailability(Collection<String> users) throws IOException;
+}
@@ -0,0 +1,235 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ * 
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.karaoke;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Presence lookups of the karaoke, cached.
+ * <br>
+ * The friends and the availability of each user are kept for a TTL. A
+ * lookup returns at once with a future, completed from the cache or by the
+ * presence threads; concurrent lookups of the same user share a single
+ * query, and the availabilities missing from the cache are asked in one
+ * bulk query whatever the number of friends. A failed query is not cached.
+ * <br>
+ * The settings are the <code>karaoke.presence.ttl</code> (seconds, 30) and
+ * <code>karaoke.presence.threads</code> (4) system properties.
+ */
+public class PresenceCache {
+
+	private static Logger log = Logger.getLogger(PresenceCache.class);
+
+	/**
+	 * A cached value, pending until its query completes
+	 */
+	private static class Entry<V> {
+		final CompletableFuture<V> value = new CompletableFuture<V>();
+		/** set by the lookup that runs the query */
+		final AtomicBoolean queried = new AtomicBoolean();
+		/** in ms since the epoch, set once the value is known */
+		volatile long expires = Long.MAX_VALUE;
+	}
+
+	private final PresenceBackend backend;
+	private final long ttlMillis;
+	private final ExecutorService executor;
+	private final ConcurrentHashMap<String, Entry<List<String>>> friends = new ConcurrentHashMap<String, Entry<List<String>>>();
+	private final ConcurrentHashMap<String, Entry<Boolean>> availability = new ConcurrentHashMap<String, Entry<Boolean>>();
+
+	public PresenceCache(PresenceBackend backend, long ttlMillis, int threads) {
+		this.backend = backend;
+		this.ttlMillis = ttlMillis;
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "karaoke-presence-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Cache configured by the system properties
+	 */
+	public PresenceCache(PresenceBackend backend) {
+		this(backend, Long.getLong("karaoke.presence.ttl", 30) * 1000, Integer.getInteger("karaoke.presence.threads", 4));
+	}
+
+	public PresenceBackend getBackend() {
+		return backend;
+	}
+
+	/**
+	 * @return the friends of a user that are available, in the order of
+	 *         the friends list
+	 */
+	public CompletableFuture<List<String>> getAvailableFriends(String user) {
+		return getFriends(user).thenCompose(new Function<List<String>, CompletableFuture<List<String>>>() {
+			public CompletableFuture<List<String>> apply(final List<String> userFriends) {
+				return getAvailability(userFriends).thenApply(new Function<Map<String, Boolean>, List<String>>() {
+					public List<String> apply(Map<String, Boolean> available) {
+						List<String> result = new ArrayList<String>();
+						for (String friend : userFriends) {
+							if (Boolean.TRUE.equals(available.get(friend)))
+								result.add(friend);
+						}
+						return result;
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Warm the cache with the friends of some users and their availability,
+	 * e.g. when they call in, before they create a chorus
+	 */
+	public void prefetch(Collection<String> users) {
+		for (String user : users) {
+			getFriends(user).thenAccept(new Consumer<List<String>>() {
+				public void accept(List<String> userFriends) {
+					getAvailability(userFriends);
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return the friends of a user
+	 */
+	public CompletableFuture<List<String>> getFriends(final String user) {
+		Entry<List<String>> entry = lookup(friends, user);
+		if (entry.value.isDone() || !claim(entry))
+			return entry.value;
+		final Entry<List<String>> owned = entry;
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					complete(owned, backend.getFriends(user));
+				} catch (Exception e) {
+					fail(friends, user, owned, e);
+				}
+			}
+		});
+		return owned.value;
+	}
+
+	/**
+	 * @return the availability of the users; the ones not in the cache are
+	 *         asked in a single query
+	 */
+	public CompletableFuture<Map<String, Boolean>> getAvailability(Collection<String> users) {
+		final Map<String, CompletableFuture<Boolean>> values = new HashMap<String, CompletableFuture<Boolean>>();
+		final Map<String, Entry<Boolean>> owned = new HashMap<String, Entry<Boolean>>();
+		for (String user : users) {
+			Entry<Boolean> entry = lookup(availability, user);
+			if (!entry.value.isDone() && claim(entry))
+				owned.put(user, entry);
+			values.put(user, entry.value);
+		}
+		if (!owned.isEmpty()) {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						Map<String, Boolean> result = backend.getAvailability(owned.keySet());
+						for (Map.Entry<String, Entry<Boolean>> e : owned.entrySet())
+							complete(e.getValue(), Boolean.TRUE.equals(result.get(e.getKey())));
+					} catch (Exception ex) {
+						for (Map.Entry<String, Entry<Boolean>> e : owned.entrySet())
+							fail(availability, e.getKey(), e.getValue(), ex);
+					}
+				}
+			});
+		}
+		final CompletableFuture<Map<String, Boolean>> result = new CompletableFuture<Map<String, Boolean>>();
+		CompletableFuture.allOf(values.values().toArray(new CompletableFuture<?>[values.size()])).whenComplete(
+				new BiConsumer<Void, Throwable>() {
+					public void accept(Void v, Throwable t) {
+						if (t != null) {
+							result.completeExceptionally(t);
+							return;
+						}
+						Map<String, Boolean> map = new HashMap<String, Boolean>();
+						for (Map.Entry<String, CompletableFuture<Boolean>> e : values.entrySet())
+							map.put(e.getKey(), e.getValue().join());
+						result.complete(Collections.unmodifiableMap(map));
+					}
+				});
+		return result;
+	}
+
+	/**
+	 * Forget a user, e.g. when the presence service notifies a change
+	 */
+	public void invalidate(String user) {
+		friends.remove(user);
+		availability.remove(user);
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return the fresh or pending entry of a user, a new one if none
+	 */
+	private <V> Entry<V> lookup(ConcurrentHashMap<String, Entry<V>> cache, String user) {
+		Entry<V> entry = cache.get(user);
+		if (entry != null && entry.expires > System.currentTimeMillis())
+			return entry;
+		Entry<V> fresh = new Entry<V>();
+		if (entry == null ? cache.putIfAbsent(user, fresh) == null : cache.replace(user, entry, fresh))
+			return fresh;
+		// Another thread got there first
+		return lookup(cache, user);
+	}
+
+	/**
+	 * @return true if the caller must run the query of the entry, i.e. it is
+	 *         the first to see it pending
+	 */
+	private static boolean claim(Entry<?> entry) {
+		return entry.queried.compareAndSet(false, true);
+	}
+
+	private <V> void complete(Entry<V> entry, V value) {
+		entry.expires = System.currentTimeMillis() + ttlMillis;
+		entry.value.complete(value);
+	}
+
+	private <V> void fail(ConcurrentHashMap<String, Entry<V>> cache, String user, Entry<V> entry, Exception e) {
+		log.warn("Presence query failed for " + user + ": " + e);
+		// Not cached: the next lookup asks again
+		cache.remove(user, entry);
+		entry.value.completeExceptionally(e);
+	}
+}
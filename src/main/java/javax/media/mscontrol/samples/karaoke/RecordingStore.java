@@ -0,0 +1,423 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.karaoke;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Files of the karaoke recordings, one per singer and one per chorus.
+ * <br>
+ * A recording is placed on the configured volume with the most room left,
+ * once the recordings in progress are accounted for at their expected size,
+ * in a directory sharded on two levels of 256 so that no directory grows
+ * large. Its name is unique to the process and the file is created
+ * atomically, so that two recordings never share a file, even across
+ * restarts.
+ * <br>
+ * Each volume keeps a few spare files, allocated ahead of time to the
+ * expected size on the storage thread: a new recording is a spare linked
+ * in place, which costs no allocation on the media event thread and gives
+ * the media server contiguous blocks to record into. The files are deleted
+ * on the storage thread once their singer or chorus is released.
+ * <br>
+ * The settings are the <code>karaoke.storage.volumes</code> (comma separated
+ * directories, /mediafiles/karaoke/), <code>karaoke.storage.preallocate</code>
+ * (expected size of a recording in bytes, 1048576),
+ * <code>karaoke.storage.spares</code> (spare files per volume, 4),
+ * <code>karaoke.storage.minFree</code> (bytes left free on a volume,
+ * 67108864), <code>karaoke.storage.retention</code> (seconds a recording
+ * is kept after its release, 0) and <code>karaoke.storage.format</code>
+ * (extension of the files, wav) system properties.
+ */
+public class RecordingStore {
+
+	private static Logger log = Logger.getLogger(RecordingStore.class);
+
+	static final String SPARE_DIRECTORY = ".spare";
+
+	/**
+	 * A directory holding recordings, typically the mount point of a disk
+	 */
+	public class Volume {
+		private final File root;
+		private final File spareDirectory;
+		private final Queue<File> spares = new ConcurrentLinkedQueue<File>();
+		private final AtomicInteger recordings = new AtomicInteger();
+		private final AtomicBoolean refilling = new AtomicBoolean();
+
+		Volume(File root) {
+			this.root = root;
+			spareDirectory = new File(root, SPARE_DIRECTORY);
+			spareDirectory.mkdirs();
+			// Spares left by a previous run
+			File[] files = spareDirectory.listFiles();
+			if (files != null) {
+				for (File file : files)
+					spares.add(file);
+			}
+		}
+
+		public File getRoot() {
+			return root;
+		}
+
+		/**
+		 * @return recordings placed on this volume and not deleted yet
+		 */
+		public int getRecordings() {
+			return recordings.get();
+		}
+
+		public int getSpares() {
+			return spares.size();
+		}
+
+		/**
+		 * @return bytes left once the recordings in progress reach their
+		 *         expected size
+		 */
+		long getRoom() {
+			return root.getUsableSpace() - (long) recordings.get() * preallocate;
+		}
+
+		/**
+		 * Create the file of a recording, from a spare if any and asked for
+		 */
+		File create(String name, boolean fromSpare) throws IOException {
+			String shard = shard(name);
+			File directory = new File(new File(root, shard.substring(0, 2)), shard.substring(2));
+			directory.mkdirs();
+			File file = new File(directory, name);
+			File spare = fromSpare ? spares.poll() : null;
+			if (fromSpare)
+				refill();
+			if (spare != null) {
+				try {
+					// A link, unlike a rename, never replaces an existing
+					// recording
+					Files.createLink(file.toPath(), spare.toPath());
+					spare.delete();
+					return file;
+				} catch (FileAlreadyExistsException e) {
+					spares.add(spare);
+					throw e;
+				} catch (IOException e) {
+					log.warn("Cannot use spare " + spare + ": " + e);
+					spares.add(spare);
+				} catch (UnsupportedOperationException e) {
+					log.warn("Cannot use spare " + spare + ": " + e);
+					spares.add(spare);
+				}
+			}
+			Files.createFile(file.toPath());
+			return file;
+		}
+
+		/**
+		 * Top up the spares on the storage thread
+		 */
+		void refill() {
+			if (spares.size() >= spareCount || !refilling.compareAndSet(false, true))
+				return;
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						while (spares.size() < spareCount && getRoom() - preallocate > minFree)
+							spares.add(preallocate(new File(spareDirectory, "spare-" + nextId())));
+					} catch (IOException e) {
+						log.error("Cannot preallocate a recording on " + root, e);
+					} finally {
+						refilling.set(false);
+					}
+				}
+			});
+		}
+
+		@Override
+		public String toString() {
+			return root + ": recordings=" + getRecordings() + " spares=" + getSpares() + " room="
+					+ getRoom() / (1024 * 1024) + "MB";
+		}
+	}
+
+	/**
+	 * The file of a singer or of a chorus
+	 */
+	private static class Recording {
+		final Volume volume;
+		final File file;
+		final URI uri;
+
+		Recording(Volume volume, File file) {
+			this.volume = volume;
+			this.file = file;
+			this.uri = file.toURI();
+		}
+	}
+
+	private final List<Volume> volumes = new ArrayList<Volume>();
+	private final long preallocate;
+	private final int spareCount;
+	private final long minFree;
+	private final long retentionMillis;
+	private final String format;
+	/** By owner, then by kind */
+	private final ConcurrentHashMap<Object, ConcurrentHashMap<String, Recording>> recordings = new ConcurrentHashMap<Object, ConcurrentHashMap<String, Recording>>();
+	private final ScheduledExecutorService executor;
+	/** Unique to this process, so that the names do not collide across restarts */
+	private final String prefix;
+	private final AtomicLong counter = new AtomicLong();
+
+	/**
+	 * @param roots
+	 *            directories of the volumes
+	 * @param preallocate
+	 *            expected size of a recording, in bytes
+	 * @param spareCount
+	 *            files kept preallocated per volume
+	 * @param minFree
+	 *            bytes left free on each volume
+	 * @param retentionMillis
+	 *            time a recording is kept after its release
+	 * @param format
+	 *            extension of the files, which tells the media server the
+	 *            format to record in
+	 */
+	public RecordingStore(List<File> roots, long preallocate, int spareCount, long minFree, long retentionMillis,
+			String format) {
+		this(roots, preallocate, spareCount, minFree, retentionMillis, format, Long.toString(System
+				.currentTimeMillis(), 36));
+	}
+
+	/**
+	 * @param prefix
+	 *            start of the names of the recordings, unique to the process
+	 */
+	RecordingStore(List<File> roots, long preallocate, int spareCount, long minFree, long retentionMillis,
+			String format, String prefix) {
+		this.prefix = prefix;
+		this.format = format;
+		this.preallocate = preallocate;
+		this.spareCount = spareCount;
+		this.minFree = minFree;
+		this.retentionMillis = retentionMillis;
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "karaoke-storage");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		for (File root : roots) {
+			Volume volume = new Volume(root);
+			volumes.add(volume);
+			volume.refill();
+		}
+	}
+
+	/**
+	 * Store configured by the system properties
+	 */
+	public static RecordingStore fromSystemProperties() {
+		List<File> roots = new ArrayList<File>();
+		for (String root : System.getProperty("karaoke.storage.volumes", "/mediafiles/karaoke/").split(",")) {
+			if (root.trim().length() > 0)
+				roots.add(new File(root.trim()));
+		}
+		return new RecordingStore(roots, Long.getLong("karaoke.storage.preallocate", 1024 * 1024),
+				Integer.getInteger("karaoke.storage.spares", 4),
+				Long.getLong("karaoke.storage.minFree", 64 * 1024 * 1024),
+				Long.getLong("karaoke.storage.retention", 0) * 1000, System.getProperty("karaoke.storage.format", "wav"));
+	}
+
+	/**
+	 * @param owner
+	 *            Singer or ChorusSession
+	 * @param kind
+	 *            what the file holds, e.g. "singer" or "mix": an owner has
+	 *            one file of each kind
+	 * @return the file of the owner, created on first use
+	 * @throws IOException
+	 *             if no volume has room for it
+	 */
+	public URI getURI(Object owner, String kind) throws IOException {
+		return getURI(owner, kind, format);
+	}
+
+	/**
+	 * @param extension
+	 *            extension of the file: only the files of the recording
+	 *            format are preallocated
+	 * @return the file of the owner, created on first use
+	 * @throws IOException
+	 *             if no volume has room for it
+	 */
+	public URI getURI(Object owner, final String kind, final String extension) throws IOException {
+		ConcurrentHashMap<String, Recording> files = recordings.get(owner);
+		if (files == null)
+			files = recordings.computeIfAbsent(owner,
+					new Function<Object, ConcurrentHashMap<String, Recording>>() {
+						public ConcurrentHashMap<String, Recording> apply(Object o) {
+							return new ConcurrentHashMap<String, Recording>();
+						}
+					});
+		Recording recording = files.get(kind);
+		if (recording != null)
+			return recording.uri;
+		final IOException[] failure = new IOException[1];
+		recording = files.computeIfAbsent(kind, new Function<String, Recording>() {
+			public Recording apply(String k) {
+				try {
+					return create(kind, extension);
+				} catch (IOException e) {
+					failure[0] = e;
+					return null;
+				}
+			}
+		});
+		if (recording == null)
+			throw failure[0];
+		return recording.uri;
+	}
+
+	/**
+	 * @return the file of an owner, null if not created
+	 */
+	public File getFile(Object owner, String kind) {
+		Map<String, Recording> files = recordings.get(owner);
+		Recording recording = files == null ? null : files.get(kind);
+		return recording == null ? null : recording.file;
+	}
+
+	private Recording create(String kind, String extension) throws IOException {
+		Volume volume = place();
+		for (int attempt = 0;; attempt++) {
+			try {
+				Recording recording = new Recording(volume, volume.create(kind + "-" + nextId() + "." + extension,
+						extension.equals(format)));
+				volume.recordings.incrementAndGet();
+				return recording;
+			} catch (FileAlreadyExistsException e) {
+				// left by a run with the same prefix
+				if (attempt == 10)
+					throw e;
+			}
+		}
+	}
+
+	/**
+	 * @return the volume with the most room
+	 */
+	private Volume place() throws IOException {
+		Volume best = null;
+		long bestRoom = 0;
+		for (Volume volume : volumes) {
+			long room = volume.getRoom() - preallocate;
+			if (room > minFree && (best == null || room > bestRoom)) {
+				best = volume;
+				bestRoom = room;
+			}
+		}
+		if (best == null)
+			throw new IOException("No karaoke storage volume with room for a recording: " + volumes);
+		return best;
+	}
+
+	/**
+	 * Delete the files of a released Singer or ChorusSession, on the
+	 * storage thread. Releasing twice is harmless.
+	 */
+	public void release(Object owner) {
+		final Map<String, Recording> files = recordings.remove(owner);
+		if (files == null)
+			return;
+		executor.schedule(new Runnable() {
+			public void run() {
+				for (Recording recording : files.values()) {
+					if (!recording.file.delete() && recording.file.exists())
+						log.warn("Cannot delete recording " + recording.file);
+					recording.volume.recordings.decrementAndGet();
+				}
+			}
+		}, retentionMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public List<Volume> getVolumes() {
+		return volumes;
+	}
+
+	/**
+	 * Stop the storage thread. The recordings not deleted yet are left on
+	 * the volumes.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private String nextId() {
+		return prefix + "-" + counter.incrementAndGet();
+	}
+
+	/**
+	 * @return four hex digits, spread evenly whatever the name
+	 */
+	static String shard(String name) {
+		int h = name.hashCode();
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return String.format("%04x", h & 0xffff);
+	}
+
+	/**
+	 * Create a file of the expected size, its blocks written so that the
+	 * file system really allocates them
+	 */
+	private File preallocate(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer zeros = ByteBuffer.allocate(64 * 1024);
+			for (long position = 0; position < preallocate;) {
+				zeros.clear();
+				zeros.limit((int) Math.min(zeros.capacity(), preallocate - position));
+				position += channel.write(zeros, position);
+			}
+		} finally {
+			raf.close();
+		}
+		return file;
+	}
+}
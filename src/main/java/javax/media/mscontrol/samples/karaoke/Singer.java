@@ -24,11 +24,13 @@ import javax.media.mscontrol.mediagroup.MediaGroup;
 import javax.media.mscontrol.mediagroup.Player;
 import javax.media.mscontrol.mediagroup.PlayerEvent;
 import javax.media.mscontrol.mediagroup.Recorder;
+import javax.media.mscontrol.mediagroup.RecorderEvent;
 import javax.media.mscontrol.mediagroup.signals.SignalDetectorEvent;
 import javax.media.mscontrol.mixer.MediaMixer;
 import javax.media.mscontrol.networkconnection.NetworkConnection;
 import javax.media.mscontrol.networkconnection.SdpPortManager;
 import javax.media.mscontrol.resource.RTC;
+import javax.media.mscontrol.samples.common.MediaSessionRegistry;
 import javax.servlet.sip.SipSession;
 
 import org.apache.log4j.Logger;
@@ -80,6 +82,8 @@ public abstract class Singer {
 				new MainMediaGroupPlayerListener());
 		myMainMediaGroup.getSignalDetector().addListener(
 				new MainMediaGroupSignalDetectorListener());
+		myMainMediaGroup.getRecorder().addListener(
+				new MainMediaGroupRecorderListener());
 		myNetworkConnection.join(Joinable.Direction.DUPLEX, myMainMediaGroup);
 	}
 
@@ -117,20 +121,36 @@ public abstract class Singer {
 
 	/**
 	 * Start ChorusSession on the Singer side (start single singer streams
-	 * record)
+	 * record). The recording starts paused, until
+	 * {@link #resumeRecordingMe()}, so that the recordings of all the singers
+	 * start together.
 	 */
 	public void recordMeInChorusSession() throws MsControlException {
 		myState = State.KaraokeStarted;
+		Parameters params = myMainMediaGroup.createParameters();
+		params.put(Recorder.START_IN_PAUSED_MODE, Boolean.TRUE);
 		myMainMediaGroup.getRecorder().record(
-				StorageManager.getMyKaraokeRecordURI(this), RTC.NO_RTC,
-				Parameters.NO_PARAMETER);
+				StorageManager.getMyKaraokeRecordURI(this), RTC.NO_RTC, params);
+	}
+
+	/**
+	 * Start the recording armed by {@link #recordMeInChorusSession()}
+	 */
+	public void resumeRecordingMe() {
+		myMainMediaGroup.triggerAction(Recorder.RESUME);
 	}
 
 	/**
 	 * Stop recording singer inside ChorusSession
 	 */
 	public void stopRecordingMe() throws MsControlException {
-		myMainMediaGroup.stop();
+		myMainMediaGroup.getRecorder().stop();
+	}
+
+	/**
+	 * Propose the chorus listening options, once the chorus is over
+	 */
+	public void promptChorusListening() throws MsControlException {
 		myState = State.SelectChorusListeningOption;
 		playPrompt(URI.create("/prompt/listenChorus.3gp"));
 	}
@@ -150,6 +170,13 @@ public abstract class Singer {
 			// single singer if here
 			// Single singer
 			if (option.equals("1")) {
+				URI mix = StorageManager.getMixdownURI(this);
+				if (mix != null) {
+					// Already mixed offline: one Player, no MediaMixer
+					myMainMediaGroup.getPlayer().play(mix, RTC.NO_RTC,
+							Parameters.NO_PARAMETER);
+					return;
+				}
 				// Original audio stream and UA recorded audio stream must
 				// be merged through a MediaMixer
 				instantiateMix();
@@ -180,8 +207,16 @@ public abstract class Singer {
 	 */
 	public void listenChorus(int option) throws MediaConfigException,
 			MsControlException {
+		URI mix;
 		switch (option) {
 		case (1):
+			mix = StorageManager.getMixdownURI(myChorusSession);
+			if (mix != null) {
+				// Already mixed offline: one Player, no MediaMixer
+				myMainMediaGroup.getPlayer().play(mix, RTC.NO_RTC,
+						Parameters.NO_PARAMETER);
+				break;
+			}
 			instantiateMix();
 			// Play original karaoke
 			myMainMediaGroup.getPlayer().play(
@@ -189,13 +224,21 @@ public abstract class Singer {
 					Parameters.NO_PARAMETER);
 			// Play whole chorus singers audio streams
 			myPlayerMediaGroup.getPlayer().play(
-					StorageManager.getConfKaraokeRecordURI(myChorusSession),
+					StorageManager.getConfKaraokeRecordURIs(myChorusSession),
 					RTC.NO_RTC, Parameters.NO_PARAMETER);
+			break;
 		case (2):
 			myMainMediaGroup.getPlayer().play(
-					StorageManager.getConfKaraokeRecordURI(myChorusSession),
+					StorageManager.getConfKaraokeRecordURIs(myChorusSession),
 					RTC.NO_RTC, Parameters.NO_PARAMETER);
+			break;
 		case (3):
+			mix = StorageManager.getMixdownURI(this);
+			if (mix != null) {
+				myMainMediaGroup.getPlayer().play(mix, RTC.NO_RTC,
+						Parameters.NO_PARAMETER);
+				break;
+			}
 			instantiateMix();
 			// Play original karaoke
 			myMainMediaGroup.getPlayer().play(
@@ -205,10 +248,12 @@ public abstract class Singer {
 			myPlayerMediaGroup.getPlayer().play(
 					StorageManager.getMyKaraokeRecordURI(this), RTC.NO_RTC,
 					Parameters.NO_PARAMETER);
+			break;
 		case (4):
 			myMainMediaGroup.getPlayer().play(
 					StorageManager.getMyKaraokeRecordURI(this), RTC.NO_RTC,
 					Parameters.NO_PARAMETER);
+			break;
 		}
 	}
 
@@ -318,14 +363,14 @@ public abstract class Singer {
 			log.error("Unexpected player event: " + event + " in state "
 					+ this + " - releasing");
 			//anEvent.getSession().release();
-			event.getSource().getMediaSession().release();
+			MediaSessionRegistry.getInstance().release(event.getSource().getMediaSession());
 		}
 
 		public void onSignalDetectorEvent(SignalDetectorEvent event, Singer s)
 				throws MsControlException {
 			log.error("Unexpected signal detector event: " + event
 					+ " in state " + this + " - releasing");
-			event.getSource().getMediaSession().release();
+			MediaSessionRegistry.getInstance().release(event.getSource().getMediaSession());
 		}
 
 	};
@@ -365,11 +410,12 @@ public abstract class Singer {
 	 */
 	public void release(String msg) {
 		log.info("Releasing Singer MediaSession: " + msg);
-		myKaraokeServlet.removeSinger(mySipSession);
+		myKaraokeServlet.removeSinger(this);
 		if (myChorusSession != null) {
 			myChorusSession.bye(this);
 		}
-		myMediaSession.release();
+		MediaSessionRegistry.getInstance().release(myMediaSession);
+		StorageManager.release(this);
 	}
 
 	/**
@@ -386,6 +432,20 @@ public abstract class Singer {
 		}
 	}
 
+	/**
+	 * MediaGroup RecorderListener: acknowledge the chorus start and stop, and
+	 * mix the replay as soon as the recording is complete
+	 */
+	class MainMediaGroupRecorderListener implements MediaEventListener<RecorderEvent> {
+		public void onEvent(RecorderEvent event) {
+			log.debug(event);
+			if (myChorusSession != null)
+				myChorusSession.recorderEvent(Singer.this, event);
+			if (event.getEventType().equals(RecorderEvent.RECORD_COMPLETED) && event.isSuccessful())
+				StorageManager.mixdown(Singer.this);
+		}
+	}
+
 	/**
 	 * MediaGroup SignalDetectorListener
 	 */
@@ -0,0 +1,136 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.karaoke;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+import javax.servlet.sip.SipSession;
+
+/**
+ * Karaoke singers, by SipSession and by ChorusSession
+ * <br>
+ * Lookups are constant time in both directions (SipSession to Singer and
+ * Singer to SipSession) and by chorus. There is no global lock: an update
+ * only locks the hash bin of the singer, or of the chorus, it changes, so
+ * that the container threads handling thousands of calls do not queue on
+ * the registry. While a singer moves to another SipSession it can briefly
+ * be found under both, never under none.
+ */
+public class SingerRegistry {
+
+	private final ConcurrentHashMap<SipSession, Singer> bySipSession = new ConcurrentHashMap<SipSession, Singer>();
+	private final ConcurrentHashMap<Singer, SipSession> sipSessions = new ConcurrentHashMap<Singer, SipSession>();
+	private final ConcurrentHashMap<ChorusSession, Set<Singer>> byChorus = new ConcurrentHashMap<ChorusSession, Set<Singer>>();
+
+	/**
+	 * @return the singer of a call leg, null if unknown or gone
+	 */
+	public Singer get(SipSession sipSession) {
+		return bySipSession.get(sipSession);
+	}
+
+	/**
+	 * @return the SipSession of a singer, null if unknown or gone
+	 */
+	public SipSession getSipSession(Singer singer) {
+		return sipSessions.get(singer);
+	}
+
+	/**
+	 * Bind a singer to the SipSession of its call leg. The SipSession it was
+	 * bound to, if any, is replaced atomically, e.g. when the 200 OK of an
+	 * outgoing call comes on a derived SipSession.
+	 */
+	public void bind(final Singer singer, final SipSession sipSession) {
+		sipSessions.compute(singer, new BiFunction<Singer, SipSession, SipSession>() {
+			public SipSession apply(Singer s, SipSession previous) {
+				bySipSession.put(sipSession, singer);
+				if (previous != null && previous != sipSession)
+					bySipSession.remove(previous, singer);
+				return sipSession;
+			}
+		});
+	}
+
+	/**
+	 * Remove a singer, whatever its SipSession
+	 */
+	public void remove(final Singer singer) {
+		sipSessions.computeIfPresent(singer, new BiFunction<Singer, SipSession, SipSession>() {
+			public SipSession apply(Singer s, SipSession sipSession) {
+				bySipSession.remove(sipSession, singer);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Remove the singer of a call leg
+	 *
+	 * @return the singer removed, null if none
+	 */
+	public Singer remove(SipSession sipSession) {
+		Singer singer = bySipSession.get(sipSession);
+		if (singer != null)
+			remove(singer);
+		return singer;
+	}
+
+	/**
+	 * @return number of singers with a call leg
+	 */
+	public int size() {
+		return sipSessions.size();
+	}
+
+	/**
+	 * Add a singer to a chorus
+	 */
+	public void joinChorus(final Singer singer, ChorusSession chorus) {
+		byChorus.compute(chorus, new BiFunction<ChorusSession, Set<Singer>, Set<Singer>>() {
+			public Set<Singer> apply(ChorusSession c, Set<Singer> singers) {
+				if (singers == null)
+					singers = ConcurrentHashMap.<Singer> newKeySet();
+				singers.add(singer);
+				return singers;
+			}
+		});
+	}
+
+	/**
+	 * Remove a singer from a chorus
+	 *
+	 * @return true if the singer was the last one of the chorus
+	 */
+	public boolean leaveChorus(final Singer singer, ChorusSession chorus) {
+		final boolean[] last = new boolean[1];
+		byChorus.computeIfPresent(chorus, new BiFunction<ChorusSession, Set<Singer>, Set<Singer>>() {
+			public Set<Singer> apply(ChorusSession c, Set<Singer> singers) {
+				last[0] = singers.remove(singer) && singers.isEmpty();
+				return singers.isEmpty() ? null : singers;
+			}
+		});
+		return last[0];
+	}
+
+	/**
+	 * @return the singers of a chorus, a live view that can be iterated
+	 *         while singers join or leave
+	 */
+	public Set<Singer> getSingers(ChorusSession chorus) {
+		Set<Singer> singers = byChorus.get(chorus);
+		return singers == null ? Collections.<Singer> emptySet() : Collections.unmodifiableSet(singers);
+	}
+}
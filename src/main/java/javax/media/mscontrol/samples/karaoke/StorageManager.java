@@ -11,44 +11,169 @@
  */
 package javax.media.mscontrol.samples.karaoke;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.URI;
-import java.util.Vector;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.samples.common.SegmentedRecording;
 
 /**
- * Centralizing fake data needed in the karaoke sample
+ * Centralizing data needed in the karaoke sample: the recordings, see
+ * {@link RecordingStore}, and the presence of the friends, see
+ * {@link PresenceCache}
  */
 public class StorageManager {
 
-	// Dynamic storage system simulation
+	private static final RecordingStore theStore = RecordingStore.fromSystemProperties();
+
+	static RecordingStore getStore() {
+		return theStore;
+	}
+
+	private static final MixdownService theMixdown = MixdownService.fromSystemProperties(theStore);
+
+	static MixdownService getMixdown() {
+		return theMixdown;
+	}
+
 	/**
-	 * Returns single singer record path
+	 * Returns single singer record path, the same until the singer is
+	 * released
 	 * 
 	 * @param s
 	 *            singer
+	 * @throws MsControlException
+	 *             if the recording cannot be stored
 	 */
-	public static URI getMyKaraokeRecordURI(Singer s) {
-		return null;
+	public static URI getMyKaraokeRecordURI(Singer s) throws MsControlException {
+		try {
+			return theStore.getURI(s, "singer");
+		} catch (IOException e) {
+			throw new MsControlException("Cannot store the recording of " + s, e);
+		}
 	}
 
 	/**
-	 * Returns chorus session record path
-	 * 
+	 * Returns where the segments of the recording of a chorus session go,
+	 * the same until the chorus session is released
+	 *
 	 * @param cs
 	 *            chorus session
 	 */
-	public static URI getConfKaraokeRecordURI(ChorusSession cs) {
-		return null;
+	public static SegmentedRecording.Storage getConfKaraokeRecordStorage(final ChorusSession cs) {
+		return new SegmentedRecording.Storage() {
+			public URI getSegment(int index) throws IOException {
+				return theStore.getURI(cs, "chorus." + index);
+			}
+
+			public File getManifest() throws IOException {
+				theStore.getURI(cs, "chorus", "manifest");
+				return theStore.getFile(cs, "chorus");
+			}
+		};
+	}
+
+	/**
+	 * Returns the segments of the chorus session recording, in order
+	 *
+	 * @param cs
+	 *            chorus session
+	 */
+	public static URI[] getConfKaraokeRecordURIs(ChorusSession cs) {
+		return cs.getRecording().getURIs();
+	}
+
+	/**
+	 * Mix the karaoke music with the recording of a singer, in the
+	 * background, once the recording is complete
+	 */
+	public static void mixdown(Singer s) {
+		theMixdown.mix(s, "singer");
+	}
+
+	/**
+	 * Mix the karaoke music with the recordings of the singers of a chorus
+	 * session, each aligned on the music, in the background, once the
+	 * recordings are complete
+	 */
+	public static void mixdown(ChorusSession cs, List<Singer> singers) {
+		theMixdown.mixAligned(cs, singers, "singer");
+	}
+
+	/**
+	 * @return the recording of a singer mixed with the music, null if not
+	 *         ready: the replay must be mixed live
+	 */
+	public static URI getMixdownURI(Singer s) {
+		return theMixdown.getMix(s);
 	}
 
-	// Presence server simulation
 	/**
-	 * Returns available friends (suppose retrieved from a server presence)
+	 * @return the recording of a chorus session mixed with the music, null if
+	 *         not ready: the replay must be mixed live
+	 */
+	public static URI getMixdownURI(ChorusSession cs) {
+		return theMixdown.getMix(cs);
+	}
+
+	/**
+	 * Delete the recording of a released singer, in the background
+	 */
+	public static void release(Singer s) {
+		theMixdown.release(s);
+		theStore.release(s);
+	}
+
+	/**
+	 * Delete the recording of a released chorus session, in the background
+	 */
+	public static void release(ChorusSession cs) {
+		theMixdown.release(cs);
+		theStore.release(cs);
+	}
+
+	// Presence server, an in-memory stand-in by default
+	private static final PresenceCache thePresence = new PresenceCache(LocalPresence.fromSystemProperties());
+
+	static PresenceCache getPresence() {
+		return thePresence;
+	}
+
+	/**
+	 * Returns available friends (retrieved from a presence server, or from
+	 * the cache). Does not wait for the presence server.
 	 * 
 	 * @param s
 	 *            singer friends list
-	 * @return IP addresses
+	 * @return SIP addresses, once known
+	 */
+	public static CompletableFuture<List<String>> getAvailableFriends(Singer s) {
+		String user = getUser(s);
+		if (user == null)
+			return CompletableFuture.completedFuture(Collections.<String> emptyList());
+		return thePresence.getAvailableFriends(user);
+	}
+
+	/**
+	 * Look up the friends of a singer and their presence ahead of time, in
+	 * case the singer creates a chorus
+	 */
+	public static void prefetchFriends(Singer s) {
+		String user = getUser(s);
+		if (user != null)
+			thePresence.prefetch(Collections.singleton(user));
+	}
+
+	/**
+	 * @return the SIP address of the singer, null if unknown
 	 */
-	public static Vector<String> getAvailableFriends(Singer s) {
-		return null;
+	private static String getUser(Singer s) {
+		if (s.mySipSession == null || s.mySipSession.getRemoteParty() == null)
+			return null;
+		return s.mySipSession.getRemoteParty().getURI().toString();
 	}
 }
@@ -0,0 +1,117 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.loadtest;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Heap and garbage collector measures of a load run.
+ * <br>
+ * GC pauses come from the collectors notifications, when the JVM sends
+ * them (HotSpot does); concurrent cycles are not pauses and are left out.
+ * The heap per call is the growth of the heap live after a full
+ * collection, divided by the calls up at that time. Stop the monitor
+ * before, so that this collection is not counted as a pause.
+ */
+public class JvmMonitor implements NotificationListener {
+
+	private static Logger log = Logger.getLogger(JvmMonitor.class);
+
+	static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+
+	private final LatencyHistogram pauses = new LatencyHistogram();
+	private final List<NotificationEmitter> emitters = new ArrayList<NotificationEmitter>();
+	private volatile boolean measuring;
+	private long baselineHeap;
+
+	public void start() {
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (gc instanceof NotificationEmitter) {
+				((NotificationEmitter) gc).addNotificationListener(this, null, null);
+				emitters.add((NotificationEmitter) gc);
+			}
+		}
+		if (emitters.isEmpty())
+			log.warn("No GC notifications in this JVM: GC pauses will not be measured");
+		baselineHeap = liveHeap();
+	}
+
+	/**
+	 * Start counting the GC pauses, e.g. at the end of the warmup
+	 */
+	public void startMeasuring() {
+		measuring = true;
+	}
+
+	public void stop() {
+		measuring = false;
+		for (NotificationEmitter emitter : emitters) {
+			try {
+				emitter.removeNotificationListener(this);
+			} catch (ListenerNotFoundException e) {
+			}
+		}
+		emitters.clear();
+	}
+
+	public void handleNotification(Notification notification, Object handback) {
+		if (!measuring || !GC_NOTIFICATION.equals(notification.getType())
+				|| !(notification.getUserData() instanceof CompositeData))
+			return;
+		CompositeData data = (CompositeData) notification.getUserData();
+		String name = String.valueOf(data.get("gcName"));
+		if (name.contains("Concurrent") || name.endsWith("Cycles"))
+			return;
+		Object info = data.get("gcInfo");
+		if (info instanceof CompositeData) {
+			Object duration = ((CompositeData) info).get("duration");
+			if (duration instanceof Number)
+				pauses.record(((Number) duration).longValue() * 1000000);
+		}
+	}
+
+	public LatencyHistogram getPauses() {
+		return pauses;
+	}
+
+	/**
+	 * Force a full collection and measure the heap growth since
+	 * {@link #start()}
+	 *
+	 * @param calls
+	 *            calls up
+	 * @return bytes per call, -1 if no call is up
+	 */
+	public long heapPerCall(int calls) {
+		long heap = liveHeap();
+		return calls <= 0 ? -1 : Math.max(0, heap - baselineHeap) / calls;
+	}
+
+	/**
+	 * @return heap used after a full collection
+	 */
+	private static long liveHeap() {
+		System.gc();
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+}
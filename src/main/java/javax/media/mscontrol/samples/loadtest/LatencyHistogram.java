@@ -0,0 +1,83 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.loadtest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations, with 100 microseconds buckets up to 10
+ * seconds. Longer durations only count in the maximum and the overflow.
+ */
+public class LatencyHistogram {
+
+	private static final int BUCKET_MICROS = 100;
+	private static final int BUCKETS = 100000;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS + 1);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalMicros = new AtomicLong();
+	private final AtomicLong maxMicros = new AtomicLong();
+
+	public void record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		counts.incrementAndGet((int) Math.min(BUCKETS, micros / BUCKET_MICROS));
+		count.incrementAndGet();
+		totalMicros.addAndGet(micros);
+		long max;
+		while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros))
+			;
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @param percent
+	 *            e.g. 99.9
+	 * @return the duration in ms under which this percentage of the samples
+	 *         fall, rounded up to the bucket
+	 */
+	public double percentile(double percent) {
+		long n = count.get();
+		if (n == 0)
+			return 0;
+		long rank = (long) Math.ceil(n * percent / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return (i + 1) * BUCKET_MICROS / 1000.0;
+		}
+		return getMax();
+	}
+
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : totalMicros.get() / 1000.0 / n;
+	}
+
+	public double getMax() {
+		return maxMicros.get() / 1000.0;
+	}
+
+	public double getTotal() {
+		return totalMicros.get() / 1000.0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("n=%d mean=%.1f p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f ms", getCount(),
+				getMean(), percentile(50), percentile(90), percentile(99), percentile(99.9), getMax());
+	}
+}
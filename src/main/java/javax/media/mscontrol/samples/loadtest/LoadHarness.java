@@ -0,0 +1,248 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.loadtest;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.media.mscontrol.samples.common.MediaSessionRegistry;
+import javax.media.mscontrol.samples.simulator.SimConfig;
+import javax.media.mscontrol.samples.simulator.SimDriver;
+import javax.media.mscontrol.samples.simulator.SimScheduler;
+import javax.media.mscontrol.samples.simulator.SimStats;
+import javax.servlet.ServletException;
+import javax.servlet.sip.SipServlet;
+import javax.servlet.sip.SipServletRequest;
+import javax.servlet.sip.SipServletResponse;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Headless load generator for the sample servlets.
+ * <br>
+ * The servlets run unchanged in this JVM, on top of the simulated media
+ * server and of in-memory SIP stand-ins ({@link SipStandIns}). Simulated
+ * callers ({@link SimulatedCall}) follow a {@link Scenario} at a fixed call
+ * rate. The report gives the sustained call rate, the call setup latency
+ * percentiles (INVITE to 200 OK), the heap per call and the GC pauses, and
+ * the media server resources still allocated at the end, i.e. leaks, with
+ * the MediaSessions by creation site ({@link MediaSessionRegistry}).
+ * <br>
+ * Usage: <code>java javax.media.mscontrol.samples.loadtest.LoadHarness --scenario=deposit,listen --cps=50</code>,
+ * see {@link LoadOptions}.
+ */
+public class LoadHarness {
+
+	private static Logger log = Logger.getLogger(LoadHarness.class);
+
+	/**
+	 * A servlet and its container stand-ins. Answers the INVITEs the servlet
+	 * sends, e.g. to the friends of a karaoke singer.
+	 */
+	class Service implements SipStandIns.Endpoint {
+		final SipServlet servlet;
+		final SipStandIns sip = new SipStandIns();
+
+		Service(SipServlet servlet) throws ServletException {
+			this.servlet = servlet;
+			sip.setDefaultEndpoint(this);
+			servlet.init(sip.createServletConfig(servlet.getClass().getSimpleName()));
+		}
+
+		public void requestSent(SipServletRequest request) {
+			if (!"INVITE".equals(request.getMethod()))
+				return;
+			stats.outgoingInvite();
+			byte[] answer = ("v=0\r\no=friend 1 1 IN IP4 127.0.0.1\r\ns=-\r\nc=IN IP4 127.0.0.1\r\nt=0 0\r\n"
+					+ "m=audio 30000 RTP/AVP 0\r\na=rtpmap:0 PCMU/8000\r\n").getBytes();
+			final SipServletResponse ok = sip.createResponse(request, 200, answer);
+			container.schedule(container.newSerial(), 0, new Runnable() {
+				public void run() {
+					try {
+						servlet.service(null, ok);
+					} catch (Exception e) {
+						stats.failure("200 INVITE (outgoing): " + e.getClass().getSimpleName());
+					}
+				}
+			});
+		}
+
+		public void responseSent(SipServletResponse response) {
+		}
+	}
+
+	private final LoadOptions options;
+	private final LoadStats stats;
+	private final SimScheduler container;
+	private final Map<Scenario, Service> services = new EnumMap<Scenario, Service>(Scenario.class);
+	private final Set<SimulatedCall> calls = ConcurrentHashMap.<SimulatedCall> newKeySet();
+	private final JvmMonitor jvm = new JvmMonitor();
+	private SimDriver driver;
+
+	public LoadHarness(LoadOptions options) {
+		this.options = options;
+		this.stats = new LoadStats(options.warmupSeconds, options.durationSeconds);
+		this.container = new SimScheduler(options.threads);
+	}
+
+	LoadOptions getOptions() {
+		return options;
+	}
+
+	LoadStats getStats() {
+		return stats;
+	}
+
+	SimScheduler getContainer() {
+		return container;
+	}
+
+	Service getService(Scenario scenario) {
+		return services.get(scenario);
+	}
+
+	void callEnded(SimulatedCall call) {
+		calls.remove(call);
+	}
+
+	/**
+	 * Install the simulator and deploy the servlets of the scenarios. Each
+	 * servlet class is deployed once.
+	 */
+	void deploy() throws ServletException {
+		driver = SimDriver.install(new SimConfig(options.simulator));
+		if (options.ttlMillis > 0)
+			MediaSessionRegistry.getInstance().setTtl(options.ttlMillis);
+		Map<Class<?>, Service> deployed = new HashMap<Class<?>, Service>();
+		for (Scenario scenario : options.scenarios) {
+			SipServlet servlet = scenario.newServlet();
+			Service service = deployed.get(servlet.getClass());
+			if (service == null) {
+				service = new Service(servlet);
+				deployed.put(servlet.getClass(), service);
+			}
+			services.put(scenario, service);
+		}
+	}
+
+	/**
+	 * Destroy the servlets, which release the media they keep across calls
+	 */
+	void undeploy() {
+		for (Service service : new HashSet<Service>(services.values()))
+			service.servlet.destroy();
+	}
+
+	/**
+	 * Generate the calls, then wait for them to end
+	 */
+	void run() throws InterruptedException {
+		jvm.start();
+		long period = (long) (1000000000L / options.cps);
+		long start = System.nanoTime();
+		long end = start + options.durationSeconds * 1000000000L;
+		long warmupEnd = start + options.warmupSeconds * 1000000000L;
+		long maxLag = 0;
+		int deposits = 0;
+		int placed;
+		for (int i = 0;; i++) {
+			long next = start + i * period;
+			if (next >= end) {
+				placed = i;
+				break;
+			}
+			long now = System.nanoTime();
+			if (next > now)
+				Thread.sleep((next - now) / 1000000, (int) ((next - now) % 1000000));
+			else
+				maxLag = Math.max(maxLag, now - next);
+			if (next >= warmupEnd)
+				jvm.startMeasuring();
+			Scenario scenario = options.scenarios.get(i % options.scenarios.size());
+			if (scenario == Scenario.DEPOSIT)
+				deposits++;
+			SimulatedCall call = new SimulatedCall(this, scenario, i);
+			calls.add(call);
+			call.start();
+		}
+		jvm.stop();
+		int live = stats.getLive();
+		long heapPerCall = jvm.heapPerCall(live);
+
+		// Let the calls in progress end
+		long drainEnd = System.nanoTime() + (options.holdMillis + options.setupTimeoutMillis) * 1000000L
+				+ options.drainSeconds * 1000000000L;
+		while (!calls.isEmpty() && System.nanoTime() < drainEnd)
+			Thread.sleep(100);
+		int stuck = calls.size();
+		for (SimulatedCall call : calls)
+			call.abort("still up after the drain");
+		for (int i = 0; i < 50 && !calls.isEmpty(); i++)
+			Thread.sleep(100);
+		undeploy();
+
+		System.out.println(options);
+		System.out.println(stats);
+		if (maxLag > 1000000)
+			System.out.printf("generator fell behind by up to %.1f ms%n", maxLag / 1000000.0);
+		System.out.println("GC pauses: " + jvm.getPauses() + String.format(" total=%.1f ms", jvm.getPauses().getTotal()));
+		if (heapPerCall >= 0)
+			System.out.printf("heap per call: %.1f KB (%d calls up)%n", heapPerCall / 1024.0, live);
+		if (stuck > 0)
+			System.out.println("calls still up after the drain: " + stuck);
+		SimStats media = driver.getDefaultFactory().getStats();
+		System.out.println("media server after the run: " + media);
+		if (placed > 0) {
+			// The voicemail needs one per deposit, none to listen
+			long recorders = media.getCreated(SimStats.Kind.RECORDER);
+			System.out.printf("recorders: created=%d peak=%d, for %d calls placed (%.2f per call)", recorders,
+					media.getPeak(SimStats.Kind.RECORDER), placed, (double) recorders / placed);
+			if (deposits > 0)
+				System.out.printf(", %d deposits (%.2f per deposit)", deposits, (double) recorders / deposits);
+			System.out.println();
+		}
+		System.out.println(MediaSessionRegistry.getInstance());
+	}
+
+	void shutdown() {
+		container.shutdown();
+		MediaSessionRegistry.getInstance().shutdown();
+		if (driver != null)
+			driver.getDefaultFactory().shutdown();
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoadOptions options;
+		try {
+			options = LoadOptions.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(LoadOptions.USAGE);
+			System.exit(2);
+			return;
+		}
+		LoadHarness harness = new LoadHarness(options);
+		try {
+			harness.deploy();
+			harness.run();
+		} catch (Exception e) {
+			log.fatal("Load run failed", e);
+			System.exit(1);
+		} finally {
+			harness.shutdown();
+		}
+	}
+}
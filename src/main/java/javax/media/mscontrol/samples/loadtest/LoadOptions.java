@@ -0,0 +1,119 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Settings of a load run, from <code>--name=value</code> arguments.
+ * Arguments starting with <code>--sim.</code>, and system properties
+ * starting with <code>sim.</code>, configure the simulated media server.
+ */
+public class LoadOptions {
+
+	static final String USAGE = "Arguments (--name=value):\n"
+			+ "  scenario   comma separated mix of deposit, listen, conference, dialin, minimal, sing, play, addressbook (deposit)\n"
+			+ "  cps        new calls per second (10)\n"
+			+ "  duration   seconds of call generation (60)\n"
+			+ "  warmup     seconds excluded from the measures (10)\n"
+			+ "  hold       seconds after the ACK before the caller hangs up, 0 to wait for the service (30)\n"
+			+ "  drain      seconds to wait for the calls to end, after the hold time (60)\n"
+			+ "  setupTimeout  ms to wait for the final response to the INVITE (5000)\n"
+			+ "  users      voicemail user IDs, more than the concurrent voicemail calls (1000)\n"
+			+ "  rooms      conference rooms (10)\n"
+			+ "  record     ms of speech in recordings (3000)\n"
+			+ "  threads    container threads (available processors)\n"
+			+ "  ttl        seconds after which an orphan MediaSession of a call is reaped (mediasession.ttl, 3600)\n"
+			+ "  sim.*      simulated media server settings, e.g. --sim.timeScale=0.1";
+
+	List<Scenario> scenarios = new ArrayList<Scenario>();
+	double cps = 10;
+	int durationSeconds = 60;
+	int warmupSeconds = 10;
+	long holdMillis = 30000;
+	int drainSeconds = 60;
+	long setupTimeoutMillis = 5000;
+	int users = 1000;
+	int rooms = 10;
+	long recordMillis = 3000;
+	int threads = Runtime.getRuntime().availableProcessors();
+	/** 0 to keep the registry setting */
+	long ttlMillis;
+	Properties simulator = new Properties();
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             on unknown or malformed arguments
+	 */
+	static LoadOptions parse(String[] args) {
+		LoadOptions o = new LoadOptions();
+		for (String name : System.getProperties().stringPropertyNames()) {
+			if (name.startsWith("sim."))
+				o.simulator.setProperty(name, System.getProperty(name));
+		}
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (!arg.startsWith("--") || eq < 0)
+				throw new IllegalArgumentException("Expected --name=value: " + arg);
+			String name = arg.substring(2, eq);
+			String value = arg.substring(eq + 1);
+			try {
+				if (name.startsWith("sim."))
+					o.simulator.setProperty(name, value);
+				else if (name.equals("scenario")) {
+					for (String s : value.split(","))
+						o.scenarios.add(Scenario.valueOf(s.trim().toUpperCase()));
+				} else if (name.equals("cps"))
+					o.cps = Double.parseDouble(value);
+				else if (name.equals("duration"))
+					o.durationSeconds = Integer.parseInt(value);
+				else if (name.equals("warmup"))
+					o.warmupSeconds = Integer.parseInt(value);
+				else if (name.equals("hold"))
+					o.holdMillis = (long) (Double.parseDouble(value) * 1000);
+				else if (name.equals("drain"))
+					o.drainSeconds = Integer.parseInt(value);
+				else if (name.equals("setupTimeout"))
+					o.setupTimeoutMillis = Long.parseLong(value);
+				else if (name.equals("users"))
+					o.users = Integer.parseInt(value);
+				else if (name.equals("rooms"))
+					o.rooms = Integer.parseInt(value);
+				else if (name.equals("record"))
+					o.recordMillis = Long.parseLong(value);
+				else if (name.equals("threads"))
+					o.threads = Integer.parseInt(value);
+				else if (name.equals("ttl"))
+					o.ttlMillis = (long) (Double.parseDouble(value) * 1000);
+				else
+					throw new IllegalArgumentException("Unknown argument " + arg);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid value: " + arg);
+			}
+		}
+		if (o.scenarios.isEmpty())
+			o.scenarios.add(Scenario.DEPOSIT);
+		if (o.cps <= 0 || o.durationSeconds <= 0 || o.warmupSeconds < 0 || o.warmupSeconds >= o.durationSeconds)
+			throw new IllegalArgumentException("Need cps > 0 and 0 <= warmup < duration");
+		if (o.users < 2 || o.users > 9000 || o.rooms < 1 || o.rooms > 9000)
+			throw new IllegalArgumentException("users must be in [2, 9000], rooms in [1, 9000]");
+		return o;
+	}
+
+	@Override
+	public String toString() {
+		return "scenario=" + scenarios + " cps=" + cps + " duration=" + durationSeconds + "s warmup="
+				+ warmupSeconds + "s hold=" + holdMillis + "ms threads=" + threads + " " + simulator;
+	}
+}
@@ -0,0 +1,158 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.loadtest;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Call counters of a load run.
+ * <br>
+ * Only the calls started after the warmup count in the setup latency and
+ * the sustained rate. The sustained rate is the number of these calls
+ * established, over the measure window; the worst second of the window is
+ * reported as well, since a mean hides stalls.
+ */
+public class LoadStats {
+
+	private final long startNanos = System.nanoTime();
+	private final int warmupSeconds;
+	private final int durationSeconds;
+
+	private final LongAdder attempted = new LongAdder();
+	private final LongAdder established = new LongAdder();
+	private final LongAdder measured = new LongAdder();
+	private final LongAdder completed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder serverHangups = new LongAdder();
+	private final LongAdder outgoingInvites = new LongAdder();
+	private final Map<String, LongAdder> failures = new ConcurrentHashMap<String, LongAdder>();
+	private final LatencyHistogram setup = new LatencyHistogram();
+	/** measured calls established, by second since the start */
+	private final AtomicLongArray perSecond;
+	private final AtomicInteger live = new AtomicInteger();
+	private final AtomicInteger peakLive = new AtomicInteger();
+
+	public LoadStats(int warmupSeconds, int durationSeconds) {
+		this.warmupSeconds = warmupSeconds;
+		this.durationSeconds = durationSeconds;
+		perSecond = new AtomicLongArray(durationSeconds);
+	}
+
+	/**
+	 * @return true if a call started now is measured
+	 */
+	boolean isMeasuring() {
+		return second(System.nanoTime()) >= warmupSeconds;
+	}
+
+	void callStarted() {
+		attempted.increment();
+		int now = live.incrementAndGet();
+		int peak;
+		while (now > (peak = peakLive.get()) && !peakLive.compareAndSet(peak, now))
+			;
+	}
+
+	void callEstablished(long startedAt, boolean measure) {
+		long now = System.nanoTime();
+		established.increment();
+		if (measure) {
+			measured.increment();
+			setup.record(now - startedAt);
+			int s = second(now);
+			if (s < durationSeconds)
+				perSecond.incrementAndGet(s);
+		}
+	}
+
+	/**
+	 * @param failure
+	 *            reason, null if the call went through
+	 */
+	void callEnded(String failure, boolean byService) {
+		live.decrementAndGet();
+		if (failure == null)
+			completed.increment();
+		else {
+			failed.increment();
+			failure(failure);
+		}
+		if (byService)
+			serverHangups.increment();
+	}
+
+	/**
+	 * An error that may not end the call, e.g. an exception on ACK
+	 */
+	void failure(String reason) {
+		LongAdder count = failures.get(reason);
+		if (count == null) {
+			failures.putIfAbsent(reason, new LongAdder());
+			count = failures.get(reason);
+		}
+		count.increment();
+	}
+
+	void outgoingInvite() {
+		outgoingInvites.increment();
+	}
+
+	public int getLive() {
+		return live.get();
+	}
+
+	public LatencyHistogram getSetupLatency() {
+		return setup;
+	}
+
+	/**
+	 * @return measured calls established per second
+	 */
+	public double getSustainedCps() {
+		return (double) measured.sum() / (durationSeconds - warmupSeconds);
+	}
+
+	/**
+	 * @return calls established in the worst second of the measure window
+	 */
+	public long getWorstSecond() {
+		long worst = Long.MAX_VALUE;
+		for (int s = warmupSeconds; s < durationSeconds; s++)
+			worst = Math.min(worst, perSecond.get(s));
+		return worst == Long.MAX_VALUE ? 0 : worst;
+	}
+
+	private int second(long nanos) {
+		return (int) ((nanos - startNanos) / 1000000000L);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("calls: attempted=").append(attempted.sum()).append(" established=").append(established.sum())
+				.append(" completed=").append(completed.sum()).append(" failed=").append(failed.sum())
+				.append(" hung up by service=").append(serverHangups.sum()).append(" peak concurrent=")
+				.append(peakLive.get());
+		if (outgoingInvites.sum() > 0)
+			sb.append(" outgoing INVITEs=").append(outgoingInvites.sum());
+		sb.append(String.format("%nsustained: %.1f cps (worst second %d)", getSustainedCps(), getWorstSecond()));
+		sb.append("\nsetup latency: ").append(setup);
+		for (Map.Entry<String, LongAdder> e : new TreeMap<String, LongAdder>(failures).entrySet())
+			sb.append("\n  error ").append(e.getKey()).append(": ").append(e.getValue().sum());
+		return sb.toString();
+	}
+}
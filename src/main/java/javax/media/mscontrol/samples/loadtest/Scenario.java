@@ -0,0 +1,174 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.loadtest;
+
+import javax.media.mscontrol.samples.addressbook.AddressBookServlet;
+import javax.media.mscontrol.samples.basic.PlayerServlet;
+import javax.media.mscontrol.samples.karaoke.KaraokeServlet;
+import javax.media.mscontrol.samples.multiparty.ConferenceServlet;
+import javax.media.mscontrol.samples.multiparty.MinimalConferenceServlet;
+import javax.media.mscontrol.samples.voicemail.VoiceMailServlet;
+import javax.servlet.sip.SipServlet;
+
+/**
+ * What a simulated caller does: which servlet it calls, and what it types,
+ * as a script for the simulated media server (see
+ * {@link javax.media.mscontrol.samples.simulator.DtmfScript}).
+ * <br>
+ * Scenarios ending with a BYE from the service (deposit, listen, play) do
+ * not need a hold time; the others are hung up by the caller.
+ */
+public enum Scenario {
+
+	/** Leave a voice message to another user */
+	DEPOSIT {
+		@Override
+		String dtmfScript(int call, LoadOptions options) {
+			return "play/welcome:* signals:" + user(call, options) + " play/voiceMailMenu:1 signals:"
+					+ user(call + options.users / 2 + 1, options) + " signals:* record+" + options.recordMillis
+					+ ":# play/voiceMailMenu:0";
+		}
+
+		@Override
+		SipServlet newServlet() {
+			return new VoiceMailServlet();
+		}
+	},
+
+	/** Listen to the first message of the mailbox, if any */
+	LISTEN {
+		@Override
+		String dtmfScript(int call, LoadOptions options) {
+			return "play/welcome:* signals:" + user(call, options)
+					+ " play/voiceMailMenu:2 play/choiceListen:* play/messages/:1 play/voiceMailMenu:0";
+		}
+
+		@Override
+		SipServlet newServlet() {
+			return new VoiceMailServlet();
+		}
+	},
+
+	/** Join a conference room, say one's name, then mute and unmute */
+	CONFERENCE {
+		@Override
+		String dtmfScript(int call, LoadOptions options) {
+			return "play/EnterYourConferenceID:" + (1000 + call % options.rooms) + " record/ParticipantName+"
+					+ options.recordMillis + ":# signals+5000:6 signals+5000:1";
+		}
+
+		@Override
+		SipServlet newServlet() {
+			return new ConferenceServlet();
+		}
+	},
+
+	/** Dial a conference room by number, say one's name, then mute and unmute */
+	DIALIN {
+		@Override
+		String dtmfScript(int call, LoadOptions options) {
+			return "record/ParticipantName+" + options.recordMillis + ":# signals+5000:6 signals+5000:1";
+		}
+
+		@Override
+		SipServlet newServlet() {
+			return new ConferenceServlet();
+		}
+
+		@Override
+		String to(int call, LoadOptions options) {
+			return "sip:" + (1000 + call % options.rooms) + "@conference.samples.invalid";
+		}
+	},
+
+	/**
+	 * Join the minimal conference, and listen; the To URI is one of the
+	 * rooms, for the <code>to</code> routing key of its partitions
+	 */
+	MINIMAL {
+		@Override
+		String dtmfScript(int call, LoadOptions options) {
+			return null;
+		}
+
+		@Override
+		SipServlet newServlet() {
+			return new MinimalConferenceServlet();
+		}
+
+		@Override
+		String to(int call, LoadOptions options) {
+			return "sip:" + (1000 + call % options.rooms) + "@minimal.samples.invalid";
+		}
+	},
+
+	/** Single singer karaoke */
+	SING {
+		@Override
+		String dtmfScript(int call, LoadOptions options) {
+			return "play/intro:1 play/listen:2";
+		}
+
+		@Override
+		SipServlet newServlet() {
+			return new KaraokeServlet();
+		}
+	},
+
+	/** Listen to a prompt */
+	PLAY {
+		@Override
+		String dtmfScript(int call, LoadOptions options) {
+			return null;
+		}
+
+		@Override
+		SipServlet newServlet() {
+			return new PlayerServlet();
+		}
+	},
+
+	/** VoiceXML address book */
+	ADDRESSBOOK {
+		@Override
+		String dtmfScript(int call, LoadOptions options) {
+			return null;
+		}
+
+		@Override
+		SipServlet newServlet() {
+			return new AddressBookServlet();
+		}
+	};
+
+	/**
+	 * @return the DTMF script of the caller, null if it types nothing
+	 */
+	abstract String dtmfScript(int call, LoadOptions options);
+
+	abstract SipServlet newServlet();
+
+	/**
+	 * @return a four digits voicemail user ID
+	 */
+	static int user(int call, LoadOptions options) {
+		return 1000 + call % options.users;
+	}
+
+	String from(int call) {
+		return "sip:caller" + call + "@loadtest.invalid";
+	}
+
+	String to(int call, LoadOptions options) {
+		return "sip:" + name().toLowerCase() + "@samples.invalid";
+	}
+}
@@ -0,0 +1,213 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.loadtest;
+
+import javax.media.mscontrol.samples.simulator.SimNetworkConnection;
+import javax.media.mscontrol.samples.simulator.SimScheduler;
+import javax.servlet.sip.SipServletRequest;
+import javax.servlet.sip.SipServletResponse;
+import javax.servlet.sip.SipSession;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A simulated user agent calling a sample servlet: INVITE with an SDP offer
+ * carrying the DTMF script of the scenario, ACK on the 200 OK, BYE after the
+ * hold time unless the service hangs up first.
+ * <br>
+ * All the messages of a call, both ways, are handled one at a time on its
+ * serial queue, as a SIP container does for a dialog.
+ */
+class SimulatedCall implements SipStandIns.Endpoint {
+
+	private static Logger log = Logger.getLogger(SimulatedCall.class);
+
+	private enum State {
+		INVITING, CONNECTED, HANGING_UP, ENDED
+	}
+
+	private final LoadHarness harness;
+	private final LoadHarness.Service service;
+	private final Scenario scenario;
+	private final int call;
+	private final SimScheduler.Serial serial;
+	private final boolean measured;
+
+	private SipSession session;
+	private long startedAt;
+	private State state = State.INVITING;
+
+	SimulatedCall(LoadHarness harness, Scenario scenario, int call) {
+		this.harness = harness;
+		this.service = harness.getService(scenario);
+		this.scenario = scenario;
+		this.call = call;
+		this.serial = harness.getContainer().newSerial();
+		this.measured = harness.getStats().isMeasuring();
+	}
+
+	void start() {
+		serial.execute(new Runnable() {
+			public void run() {
+				startedAt = System.nanoTime();
+				harness.getStats().callStarted();
+				SipStandIns sip = service.sip;
+				session = sip.createSession(sip.createApplicationSession(), SimulatedCall.this, scenario.from(call),
+						scenario.to(call, harness.getOptions()));
+				SipServletRequest invite = sip.createRequest(session, "INVITE", true,
+						sdp(scenario.dtmfScript(call, harness.getOptions())));
+				harness.getContainer().schedule(serial, harness.getOptions().setupTimeoutMillis, new Runnable() {
+					public void run() {
+						if (state == State.INVITING)
+							end("INVITE timeout");
+					}
+				});
+				deliver(invite, null);
+			}
+		});
+	}
+
+	public void responseSent(final SipServletResponse response) {
+		serial.execute(new Runnable() {
+			public void run() {
+				onResponse(response);
+			}
+		});
+	}
+
+	public void requestSent(final SipServletRequest request) {
+		serial.execute(new Runnable() {
+			public void run() {
+				if (state != State.ENDED && "BYE".equals(request.getMethod())) {
+					if (state == State.INVITING)
+						end("BYE before the answer", true);
+					else
+						end(null, true);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Hang up now, e.g. at the end of the run
+	 */
+	void abort(final String reason) {
+		serial.execute(new Runnable() {
+			public void run() {
+				if (state == State.CONNECTED)
+					hangup(reason);
+				else if (state == State.INVITING)
+					end(reason);
+			}
+		});
+	}
+
+	private void onResponse(SipServletResponse response) {
+		if (state == State.ENDED)
+			return;
+		if ("BYE".equals(response.getMethod())) {
+			end(null);
+			return;
+		}
+		int status = response.getStatus();
+		if (!"INVITE".equals(response.getMethod()) || status < 200 || state != State.INVITING)
+			return;
+		if (status >= 300) {
+			end("INVITE " + status);
+			return;
+		}
+		state = State.CONNECTED;
+		harness.getStats().callEstablished(startedAt, measured);
+		if (!deliver(service.sip.createRequest(session, "ACK", false, null), null)) {
+			hangup(null);
+			return;
+		}
+		long hold = harness.getOptions().holdMillis;
+		if (hold > 0) {
+			harness.getContainer().schedule(serial, hold, new Runnable() {
+				public void run() {
+					if (state == State.CONNECTED)
+						hangup(null);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Send a BYE. The samples do not all answer it: the call ends once the
+	 * servlet has handled it.
+	 */
+	private void hangup(String failure) {
+		state = State.HANGING_UP;
+		deliver(service.sip.createRequest(session, "BYE", false, null), null);
+		end(failure);
+	}
+
+	/**
+	 * Hand a message to the servlet, as the container would
+	 *
+	 * @return false if the servlet failed
+	 */
+	private boolean deliver(SipServletRequest request, SipServletResponse response) {
+		try {
+			service.servlet.service(request, response);
+			return true;
+		} catch (Exception e) {
+			Throwable cause = e;
+			while (cause.getCause() != null)
+				cause = cause.getCause();
+			String what = request != null ? request.getMethod() : response.getStatus() + " " + response.getMethod();
+			if (state == State.INVITING && request != null)
+				end(what + ": " + cause.getClass().getSimpleName());
+			else
+				harness.getStats().failure(what + ": " + cause.getClass().getSimpleName());
+			if (log.isDebugEnabled())
+				log.debug(scenario + " call " + call + ": " + what + " failed", e);
+			return false;
+		}
+	}
+
+	private void end(String failure) {
+		end(failure, false);
+	}
+
+	private void end(String failure, boolean byService) {
+		if (state == State.ENDED)
+			return;
+		state = State.ENDED;
+		// As the container does once the dialog is over
+		if (session != null)
+			session.invalidate();
+		harness.getStats().callEnded(failure, byService);
+		harness.callEnded(this);
+	}
+
+	private byte[] sdp(String script) {
+		StringBuilder sdp = new StringBuilder();
+		sdp.append("v=0\r\n");
+		sdp.append("o=caller").append(call).append(" ").append(call).append(" 1 IN IP4 127.0.0.1\r\n");
+		sdp.append("s=-\r\n");
+		sdp.append("c=IN IP4 127.0.0.1\r\n");
+		sdp.append("t=0 0\r\n");
+		sdp.append("m=audio ").append(10000 + 2 * (call % 20000)).append(" RTP/AVP 0 101\r\n");
+		sdp.append("a=rtpmap:0 PCMU/8000\r\n");
+		sdp.append("a=rtpmap:101 telephone-event/8000\r\n");
+		if (script != null)
+			sdp.append(SimNetworkConnection.DTMF_SCRIPT_ATTRIBUTE).append(script).append("\r\n");
+		return sdp.toString().getBytes();
+	}
+
+	@Override
+	public String toString() {
+		return scenario + " call " + call + " " + state;
+	}
+}
@@ -0,0 +1,519 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.loadtest;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.sip.Address;
+import javax.servlet.sip.SipApplicationSession;
+import javax.servlet.sip.SipFactory;
+import javax.servlet.sip.SipServletRequest;
+import javax.servlet.sip.SipServletResponse;
+import javax.servlet.sip.SipSession;
+import javax.servlet.sip.SipURI;
+
+/**
+ * In-memory stand-ins for the SIP Servlet container objects used by the
+ * samples: ServletConfig, ServletContext, SipFactory, application sessions,
+ * SIP sessions, requests, responses and addresses.
+ * <br>
+ * They are dynamic proxies implementing only what the samples call. Other
+ * methods do nothing when they return void, and throw an
+ * UnsupportedOperationException otherwise. Nothing goes to the network:
+ * what a servlet sends is handed to the {@link Endpoint} of its SipSession.
+ */
+public class SipStandIns {
+
+	public static final String SIP_FACTORY = "javax.servlet.sip.SipFactory";
+
+	/**
+	 * The simulated user agent on the other side of a SipSession
+	 */
+	public interface Endpoint {
+		/** The servlet sent a response to a request of this endpoint */
+		void responseSent(SipServletResponse response);
+
+		/** The servlet sent a request in a session of this endpoint */
+		void requestSent(SipServletRequest request);
+	}
+
+	private static final Object UNHANDLED = new Object();
+	private static final Object[] NO_ARGS = new Object[0];
+
+	private final AtomicLong ids = new AtomicLong();
+	private final ServletContext context;
+	private final SipFactory sipFactory;
+	private volatile Endpoint defaultEndpoint;
+
+	public SipStandIns() {
+		context = proxy(ServletContext.class, new ContextHandler());
+		sipFactory = proxy(SipFactory.class, new FactoryHandler());
+		context.setAttribute(SIP_FACTORY, sipFactory);
+	}
+
+	public ServletContext getServletContext() {
+		return context;
+	}
+
+	public SipFactory getSipFactory() {
+		return sipFactory;
+	}
+
+	/**
+	 * @param endpoint
+	 *            answers the requests the servlets create with the
+	 *            SipFactory, e.g. outgoing INVITEs
+	 */
+	public void setDefaultEndpoint(Endpoint endpoint) {
+		defaultEndpoint = endpoint;
+	}
+
+	public ServletConfig createServletConfig(final String name) {
+		return proxy(ServletConfig.class, new Handler() {
+			@Override
+			Object handle(String method, Object[] args) {
+				if (method.equals("getServletName"))
+					return name;
+				if (method.equals("getServletContext"))
+					return context;
+				if (method.equals("getInitParameter"))
+					return null;
+				if (method.equals("getInitParameterNames"))
+					return Collections.enumeration(Collections.<String> emptyList());
+				return UNHANDLED;
+			}
+
+			@Override
+			public String toString() {
+				return "ServletConfig " + name;
+			}
+		});
+	}
+
+	public SipApplicationSession createApplicationSession() {
+		return proxy(SipApplicationSession.class, new AppSessionHandler("app-" + ids.incrementAndGet()));
+	}
+
+	/**
+	 * @param from
+	 *            URI of the user agent
+	 * @param to
+	 *            URI of the service
+	 */
+	public SipSession createSession(SipApplicationSession app, Endpoint endpoint, String from, String to) {
+		SessionHandler h = new SessionHandler(app, endpoint, createAddress(from), createAddress(to));
+		SipSession session = proxy(SipSession.class, h);
+		((AppSessionHandler) Proxy.getInvocationHandler(app)).sessions.add(session);
+		return session;
+	}
+
+	/**
+	 * @return a request from the endpoint of the session to the servlet
+	 */
+	public SipServletRequest createRequest(SipSession session, String method, boolean initial, byte[] sdp) {
+		MessageHandler h = new MessageHandler(session, method, false);
+		h.initial = initial;
+		h.setContent(sdp);
+		return proxy(SipServletRequest.class, h);
+	}
+
+	/**
+	 * @return a response from the endpoint to a request the servlet sent
+	 */
+	public SipServletResponse createResponse(SipServletRequest request, int status, byte[] sdp) {
+		MessageHandler req = (MessageHandler) Proxy.getInvocationHandler(request);
+		MessageHandler h = new MessageHandler(req.session, req.method, false);
+		h.status = status;
+		h.request = request;
+		h.setContent(sdp);
+		return proxy(SipServletResponse.class, h);
+	}
+
+	public Address createAddress(String uri) {
+		String u = uri.trim();
+		if (u.startsWith("<") && u.endsWith(">"))
+			u = u.substring(1, u.length() - 1);
+		final SipURI target = createURI(u);
+		return proxy(Address.class, new Handler() {
+			@Override
+			Object handle(String method, Object[] args) {
+				if (method.equals("getURI"))
+					return target;
+				if (method.equals("getDisplayName"))
+					return null;
+				return UNHANDLED;
+			}
+
+			@Override
+			public String toString() {
+				return "<" + target + ">";
+			}
+		});
+	}
+
+	private SipURI createURI(final String uri) {
+		int colon = uri.indexOf(':');
+		final String scheme = colon < 0 ? "sip" : uri.substring(0, colon);
+		String rest = uri.substring(colon + 1);
+		int at = rest.indexOf('@');
+		final String user = at < 0 ? null : rest.substring(0, at);
+		String hostPort = rest.substring(at + 1);
+		int semi = hostPort.indexOf(';');
+		if (semi >= 0)
+			hostPort = hostPort.substring(0, semi);
+		int port = hostPort.lastIndexOf(':');
+		final String host = port < 0 ? hostPort : hostPort.substring(0, port);
+		return proxy(SipURI.class, new Handler() {
+			@Override
+			Object handle(String method, Object[] args) {
+				if (method.equals("getScheme"))
+					return scheme;
+				if (method.equals("isSipURI"))
+					return scheme.startsWith("sip");
+				if (method.equals("getUser"))
+					return user;
+				if (method.equals("getHost"))
+					return host;
+				return UNHANDLED;
+			}
+
+			@Override
+			public String toString() {
+				return uri;
+			}
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(Class<T> type, Handler handler) {
+		T p = (T) Proxy.newProxyInstance(SipStandIns.class.getClassLoader(), new Class<?>[] { type }, handler);
+		handler.self = p;
+		return p;
+	}
+
+	/**
+	 * Common part of the stand-ins: identity, toString and attributes
+	 */
+	private abstract static class Handler implements InvocationHandler {
+		final Map<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+		/** the proxy */
+		Object self;
+
+		public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+			String name = m.getName();
+			Object[] a = args == null ? NO_ARGS : args;
+			if (name.equals("equals") && a.length == 1)
+				return proxy == a[0];
+			if (name.equals("hashCode") && a.length == 0)
+				return System.identityHashCode(proxy);
+			if (name.equals("toString") && a.length == 0)
+				return toString();
+			if (name.equals("getAttribute") && a.length == 1)
+				return attributes.get(a[0]);
+			if (name.equals("setAttribute") && a.length == 2) {
+				if (a[1] == null)
+					attributes.remove(a[0]);
+				else
+					attributes.put((String) a[0], a[1]);
+				return null;
+			}
+			if (name.equals("removeAttribute") && a.length == 1) {
+				attributes.remove(a[0]);
+				return null;
+			}
+			if (name.equals("getAttributeNames") && a.length == 0) {
+				List<String> names = new ArrayList<String>(attributes.keySet());
+				if (m.getReturnType() == Enumeration.class)
+					return Collections.enumeration(names);
+				return names.iterator();
+			}
+			Object result = handle(name, a);
+			if (result != UNHANDLED)
+				return result;
+			if (m.getReturnType() == void.class)
+				return null;
+			throw new UnsupportedOperationException(m.getDeclaringClass().getSimpleName() + "." + name
+					+ " is not supported by the load harness");
+		}
+
+		abstract Object handle(String method, Object[] args) throws Exception;
+	}
+
+	private class ContextHandler extends Handler {
+		@Override
+		Object handle(String method, Object[] args) {
+			if (method.equals("getServletContextName"))
+				return "loadtest";
+			if (method.equals("getServerInfo"))
+				return "JSR 309 samples load harness";
+			if (method.equals("getInitParameter"))
+				return null;
+			return UNHANDLED;
+		}
+
+		@Override
+		public String toString() {
+			return "ServletContext loadtest";
+		}
+	}
+
+	private class FactoryHandler extends Handler {
+		@Override
+		Object handle(String method, Object[] args) {
+			if (method.equals("createApplicationSession"))
+				return createApplicationSession();
+			if (method.equals("createAddress") && args[0] instanceof String)
+				return createAddress((String) args[0]);
+			if (method.equals("createAddress"))
+				return createAddress(args[0].toString());
+			if (method.equals("createURI"))
+				return createURI((String) args[0]);
+			if (method.equals("createSipURI"))
+				return createURI("sip:" + args[0] + "@" + args[1]);
+			if (method.equals("createRequest") && args.length == 4) {
+				// from and to are Addresses, URIs or Strings
+				SipSession session = createSession((SipApplicationSession) args[0], defaultEndpoint,
+						args[3].toString(), args[2].toString());
+				MessageHandler h = new MessageHandler(session, (String) args[1], true);
+				h.initial = true;
+				return proxy(SipServletRequest.class, h);
+			}
+			return UNHANDLED;
+		}
+
+		@Override
+		public String toString() {
+			return "SipFactory loadtest";
+		}
+	}
+
+	private class AppSessionHandler extends Handler {
+		final String id;
+		final List<SipSession> sessions = new CopyOnWriteArrayList<SipSession>();
+		final long created = System.currentTimeMillis();
+		volatile boolean valid = true;
+
+		AppSessionHandler(String id) {
+			this.id = id;
+		}
+
+		@Override
+		Object handle(String method, Object[] args) {
+			if (method.equals("getId"))
+				return id;
+			if (method.equals("getSessions"))
+				return sessions.iterator();
+			if (method.equals("invalidate")) {
+				valid = false;
+				return null;
+			}
+			if (method.equals("isValid"))
+				return valid;
+			if (method.equals("getCreationTime") || method.equals("getLastAccessedTime"))
+				return created;
+			return UNHANDLED;
+		}
+
+		@Override
+		public String toString() {
+			return "SipApplicationSession " + id;
+		}
+	}
+
+	private class SessionHandler extends Handler {
+		final String id = "call-" + ids.incrementAndGet();
+		final SipApplicationSession app;
+		final Endpoint endpoint;
+		/** the user agent side */
+		final Address remote;
+		/** the service side */
+		final Address local;
+		final long created = System.currentTimeMillis();
+		/** time of the last message of the dialog, either way */
+		volatile long lastAccessed = created;
+		volatile boolean valid = true;
+
+		SessionHandler(SipApplicationSession app, Endpoint endpoint, Address remote, Address local) {
+			this.app = app;
+			this.endpoint = endpoint;
+			this.remote = remote;
+			this.local = local;
+		}
+
+		@Override
+		Object handle(String method, Object[] args) {
+			if (method.equals("getId") || method.equals("getCallId"))
+				return id;
+			if (method.equals("getApplicationSession"))
+				return app;
+			if (method.equals("getLocalParty"))
+				return local;
+			if (method.equals("getRemoteParty"))
+				return remote;
+			if (method.equals("createRequest")) {
+				return proxy(SipServletRequest.class, new MessageHandler((SipSession) self, (String) args[0], true));
+			}
+			if (method.equals("invalidate")) {
+				valid = false;
+				return null;
+			}
+			if (method.equals("isValid"))
+				return valid;
+			if (method.equals("getCreationTime"))
+				return created;
+			if (method.equals("getLastAccessedTime"))
+				return lastAccessed;
+			return UNHANDLED;
+		}
+
+		@Override
+		public String toString() {
+			return "SipSession " + id + " " + remote;
+		}
+	}
+
+	/**
+	 * A request or a response
+	 */
+	private class MessageHandler extends Handler {
+		final SipSession session;
+		final String method;
+		/** created by the servlet, as opposed to received from the endpoint */
+		final boolean outgoing;
+		final Map<String, String> headers = new ConcurrentHashMap<String, String>();
+		boolean initial;
+		int status;
+		String reason;
+		SipServletRequest request;
+		byte[] content;
+		String contentType;
+		volatile boolean sent;
+
+		MessageHandler(SipSession session, String method, boolean outgoing) {
+			this.session = session;
+			this.method = method;
+			this.outgoing = outgoing;
+			SessionHandler s = sessionHandler();
+			s.lastAccessed = System.currentTimeMillis();
+			headers.put("from", outgoing ? s.local.toString() : s.remote.toString());
+			headers.put("to", outgoing ? s.remote.toString() : s.local.toString());
+			headers.put("call-id", s.id);
+		}
+
+		SessionHandler sessionHandler() {
+			return (SessionHandler) Proxy.getInvocationHandler(session);
+		}
+
+		void setContent(byte[] body) {
+			content = body;
+			contentType = body == null ? null : "application/sdp";
+		}
+
+		@Override
+		Object handle(String name, Object[] args) throws Exception {
+			SessionHandler s = sessionHandler();
+			if (name.equals("getSession"))
+				return session;
+			if (name.equals("getApplicationSession"))
+				return s.app;
+			if (name.equals("getMethod"))
+				return method;
+			if (name.equals("isInitial"))
+				return initial;
+			if (name.equals("getCallId"))
+				return s.id;
+			if (name.equals("getHeader"))
+				return headers.get(((String) args[0]).toLowerCase());
+			if (name.equals("setHeader") || name.equals("addHeader")) {
+				headers.put(((String) args[0]).toLowerCase(), (String) args[1]);
+				return null;
+			}
+			if (name.equals("getFrom"))
+				return outgoing ? s.local : s.remote;
+			if (name.equals("getTo"))
+				return outgoing ? s.remote : s.local;
+			if (name.equals("getRequestURI"))
+				return (outgoing ? s.remote : s.local).getURI();
+			if (name.equals("getRawContent") || name.equals("getContent"))
+				return content;
+			if (name.equals("getContentType"))
+				return contentType;
+			if (name.equals("getContentLength"))
+				return content == null ? 0 : content.length;
+			if (name.equals("setContent")) {
+				content = args[0] instanceof String ? ((String) args[0]).getBytes("UTF-8") : (byte[]) args[0];
+				contentType = (String) args[1];
+				return null;
+			}
+			if (name.equals("createResponse")) {
+				MessageHandler h = new MessageHandler(session, method, true);
+				h.status = (Integer) args[0];
+				h.reason = args.length > 1 ? (String) args[1] : null;
+				h.request = (SipServletRequest) self;
+				return proxy(SipServletResponse.class, h);
+			}
+			if (name.equals("getStatus"))
+				return status;
+			if (name.equals("getReasonPhrase"))
+				return reason;
+			if (name.equals("getRequest"))
+				return request;
+			if (name.equals("isBranchResponse"))
+				return false;
+			if (name.equals("createAck"))
+				return proxy(SipServletRequest.class, new MessageHandler(session, "ACK", true));
+			if (name.equals("createCancel"))
+				return proxy(SipServletRequest.class, new MessageHandler(session, "CANCEL", true));
+			if (name.equals("isCommitted"))
+				return sent;
+			if (name.equals("send")) {
+				send();
+				return null;
+			}
+			return UNHANDLED;
+		}
+
+		private void send() {
+			if (!outgoing)
+				throw new IllegalStateException("Cannot send a received message: " + this);
+			if (sent)
+				throw new IllegalStateException("Already sent: " + this);
+			sent = true;
+			Endpoint endpoint = sessionHandler().endpoint;
+			if (endpoint == null)
+				return;
+			if (request != null)
+				endpoint.responseSent((SipServletResponse) self);
+			else
+				endpoint.requestSent((SipServletRequest) self);
+		}
+
+		@Override
+		public String toString() {
+			if (request != null)
+				return status + (reason == null ? "" : " " + reason) + " (" + method + " " + sessionHandler().id + ")";
+			return method + " " + sessionHandler().id;
+		}
+	}
+}
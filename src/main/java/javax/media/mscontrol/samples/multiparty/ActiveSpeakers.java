@@ -0,0 +1,235 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ * 
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.multiparty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.media.mscontrol.MediaEventListener;
+import javax.media.mscontrol.MediaSession;
+import javax.media.mscontrol.Parameters;
+import javax.media.mscontrol.join.Joinable;
+import javax.media.mscontrol.mixer.MediaMixer;
+import javax.media.mscontrol.mixer.MixerEvent;
+import javax.media.mscontrol.samples.common.CascadedMixer;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The participants talking in a room, loudest first.
+ * <br>
+ * The mixers of the room are created with the <code>AUDIO_EVENTS</code>
+ * configuration and a <code>MAX_ACTIVE_INPUTS</code> of N, see
+ * {@link #getMixerParameters(MediaSession, int)}: the media server mixes
+ * the N loudest inputs only, and tells the active ones with
+ * <code>ACTIVE_INPUTS_CHANGED</code>, loudest first. The active inputs of
+ * the root mixer are expanded into those of the leaf mixers it mixes, see
+ * {@link CascadedMixer}, so that the speakers are ranked across the room;
+ * the inputs that are not participants, e.g. the announcements Player, are
+ * left out.
+ * <br>
+ * The speakers are an immutable list, replaced as they change: readers do
+ * not lock. The {@link Listener}s are told of each change, in order.
+ * <br>
+ * N is given by the <code>conference.speakers</code> system property (3),
+ * 0 to mix everyone without tracking the speakers.
+ */
+public class ActiveSpeakers implements MediaEventListener<MixerEvent> {
+
+	private static Logger log = Logger.getLogger(ActiveSpeakers.class);
+
+	public static final String SPEAKERS_PROPERTY = "conference.speakers";
+
+	private static final AtomicLong changes = new AtomicLong();
+
+	/**
+	 * Told of the speaker changes
+	 */
+	public interface Listener {
+		/**
+		 * The speakers changed; the dominant speaker is the first one
+		 *
+		 * @param speakers
+		 *            participants talking, loudest first
+		 * @param previous
+		 *            the speakers before the change
+		 */
+		void speakersChanged(List<Participant> speakers, List<Participant> previous);
+	}
+
+	private final String confId;
+	private final CascadedMixer mixer;
+	private final MediaMixer root;
+	private final int max;
+	private final Map<Joinable, Participant> members = new ConcurrentHashMap<Joinable, Participant>();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	/** Active inputs of each mixer of the room, loudest first */
+	private final Map<MediaMixer, Joinable[]> inputs = new HashMap<MediaMixer, Joinable[]>();
+	private volatile List<Participant> speakers = Collections.emptyList();
+
+	/**
+	 * Track the speakers of a cascade created with the parameters of
+	 * {@link #getMixerParameters(MediaSession, int)}
+	 *
+	 * @param max
+	 *            speakers tracked
+	 */
+	public ActiveSpeakers(String confId, CascadedMixer mixer, int max) {
+		this.confId = confId;
+		this.mixer = mixer;
+		root = mixer.getRoot();
+		this.max = max;
+		mixer.addListener(this);
+	}
+
+	/**
+	 * @return the speakers tracked, from the system property
+	 */
+	public static int getMaxSpeakers() {
+		return Integer.getInteger(SPEAKERS_PROPERTY, 3);
+	}
+
+	/**
+	 * @return parameters of the mixers of a room mixing the loudest inputs
+	 */
+	public static Parameters getMixerParameters(MediaSession ms, int max) {
+		Parameters params = ms.createParameters();
+		params.put(MediaMixer.MAX_ACTIVE_INPUTS, Integer.valueOf(max));
+		return params;
+	}
+
+	/**
+	 * @return speaker changes of all the rooms so far
+	 */
+	public static long getChanges() {
+		return changes.get();
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @return the participants talking, loudest first: an immutable list
+	 */
+	public List<Participant> getSpeakers() {
+		return speakers;
+	}
+
+	/**
+	 * @return the loudest participant, null if nobody talks
+	 */
+	public Participant getDominantSpeaker() {
+		List<Participant> current = speakers;
+		return current.isEmpty() ? null : current.get(0);
+	}
+
+	/**
+	 * A participant joined the room through a mixer input
+	 */
+	void add(Joinable input, Participant participant) {
+		members.put(input, participant);
+		update();
+	}
+
+	/**
+	 * A participant left the room
+	 */
+	void remove(Joinable input) {
+		if (members.remove(input) != null)
+			update();
+	}
+
+	/**
+	 * The room is destroyed: stop listening to its mixers, which may serve
+	 * another room
+	 */
+	void close() {
+		mixer.removeListener(this);
+	}
+
+	public void onEvent(MixerEvent event) {
+		if (!MixerEvent.ACTIVE_INPUTS_CHANGED.equals(event.getEventType()))
+			return;
+		Joinable[] active = event.getActiveInputs();
+		synchronized (this) {
+			if (active == null || active.length == 0)
+				inputs.remove(event.getSource());
+			else
+				inputs.put(event.getSource(), active);
+		}
+		update();
+	}
+
+	/**
+	 * Rank the participants of the active inputs, and tell the listeners if
+	 * they changed
+	 */
+	private synchronized void update() {
+		List<Participant> ranked = new ArrayList<Participant>(max);
+		Set<MediaMixer> expanded = new HashSet<MediaMixer>();
+		expand(root, ranked, expanded);
+		// Leaves not active on the root yet
+		for (MediaMixer mixer : new ArrayList<MediaMixer>(inputs.keySet()))
+			expand(mixer, ranked, expanded);
+		if (ranked.equals(speakers))
+			return;
+		List<Participant> previous = speakers;
+		speakers = Collections.unmodifiableList(ranked);
+		changes.incrementAndGet();
+		if (log.isDebugEnabled()) {
+			List<Object> names = new ArrayList<Object>(ranked.size());
+			for (Participant participant : ranked)
+				names.add(participant.getName());
+			log.debug("Speakers of conference " + confId + ": " + names);
+		}
+		for (Listener listener : listeners) {
+			try {
+				listener.speakersChanged(speakers, previous);
+			} catch (RuntimeException e) {
+				log.error("Speaker listener failed in conference " + confId, e);
+			}
+		}
+	}
+
+	/**
+	 * Add the participants of the active inputs of a mixer, those of the
+	 * mixers among them in their place
+	 */
+	private void expand(MediaMixer mixer, List<Participant> ranked, Set<MediaMixer> expanded) {
+		Joinable[] active = inputs.get(mixer);
+		if (active == null || !expanded.add(mixer))
+			return;
+		for (Joinable input : active) {
+			if (ranked.size() >= max)
+				return;
+			Participant participant = members.get(input);
+			if (participant != null && !ranked.contains(participant))
+				ranked.add(participant);
+			else if (input instanceof MediaMixer)
+				expand((MediaMixer) input, ranked, expanded);
+		}
+	}
+}
@@ -0,0 +1,253 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ * 
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.multiparty;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.media.mscontrol.MediaEventListener;
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.Parameters;
+import javax.media.mscontrol.mediagroup.Player;
+import javax.media.mscontrol.mediagroup.PlayerEvent;
+import javax.media.mscontrol.resource.RTC;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The join and leave announcements of a room, on the Player of the room.
+ * <br>
+ * The joins and leaves are collected during a window, then announced in
+ * one playlist: "X has joined", "X and Y have joined", "X, Y and 3 others
+ * have joined", and the same for the leaves. No playlist starts before
+ * the previous one is over, the joins and leaves meanwhile waiting for the
+ * next one: a room plays at most one announcement per window, whatever
+ * the rate of joins. A participant leaving before its join is announced is
+ * not announced at all.
+ * <br>
+ * The name of a participant that left is deleted once its leave is
+ * announced, see {@link NameStore}.
+ * <br>
+ * The settings are the <code>conference.announce.window</code> (ms, 2000)
+ * and <code>conference.announce.names</code> (names spoken in a playlist,
+ * the others being counted, 2) system properties.
+ */
+public class Announcements implements MediaEventListener<PlayerEvent> {
+
+	private static Logger log = Logger.getLogger(Announcements.class);
+
+	private static final String PROMPTS = "/prompts/";
+	private static final URI AND = URI.create(PROMPTS + "And.3gp");
+	private static final URI OTHERS = URI.create(PROMPTS + "Others.3gp");
+	private static final URI HAS_JOINED = URI.create(PROMPTS + "HasJoinedTheConference.3gp");
+	private static final URI HAVE_JOINED = URI.create(PROMPTS + "HaveJoinedTheConference.3gp");
+	private static final URI HAS_LEFT = URI.create(PROMPTS + "HasLeftTheConference.3gp");
+	private static final URI HAVE_LEFT = URI.create(PROMPTS + "HaveLeftTheConference.3gp");
+
+	private static final ScheduledExecutorService scheduler = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "conference-announcements");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	private static final AtomicLong events = new AtomicLong();
+	private static final AtomicLong playlists = new AtomicLong();
+
+	private final Player player;
+	private final NameStore names;
+	private final long windowMillis;
+	private final int maxNames;
+
+	private final List<URI> joins = new ArrayList<URI>();
+	private final List<URI> leaves = new ArrayList<URI>();
+	/** Names of the leaves being announced, deleted afterwards */
+	private List<URI> announcedLeaves = new ArrayList<URI>();
+	private ScheduledFuture<?> flush;
+	private boolean playing;
+	private boolean closed;
+
+	public Announcements(Player player, NameStore names, long windowMillis, int maxNames) {
+		this.player = player;
+		this.names = names;
+		this.windowMillis = windowMillis;
+		this.maxNames = maxNames;
+		player.addListener(this);
+	}
+
+	/**
+	 * Announcements of the settings of the system properties
+	 */
+	public Announcements(Player player, NameStore names) {
+		this(player, names, Long.getLong("conference.announce.window", 2000), Integer.getInteger(
+				"conference.announce.names", 2));
+	}
+
+	/**
+	 * A participant entered the room
+	 */
+	public synchronized void joined(URI name) {
+		if (closed)
+			return;
+		events.incrementAndGet();
+		joins.add(name);
+		schedule();
+	}
+
+	/**
+	 * A participant that entered the room left it
+	 */
+	public void left(URI name) {
+		synchronized (this) {
+			if (!closed) {
+				events.incrementAndGet();
+				if (!joins.remove(name)) {
+					leaves.add(name);
+					schedule();
+					return;
+				}
+			}
+		}
+		// Never announced
+		names.delete(name);
+	}
+
+	/**
+	 * The room is destroyed: nothing more to announce
+	 */
+	public void close() {
+		List<URI> unused = new ArrayList<URI>();
+		boolean stop;
+		synchronized (this) {
+			closed = true;
+			stop = playing;
+			if (flush != null)
+				flush.cancel(false);
+			unused.addAll(leaves);
+			unused.addAll(announcedLeaves);
+			leaves.clear();
+			announcedLeaves.clear();
+			joins.clear();
+		}
+		// The Player may announce for another room next
+		player.removeListener(this);
+		if (stop)
+			player.stop(true);
+		for (URI name : unused)
+			names.delete(name);
+	}
+
+	public void onEvent(PlayerEvent event) {
+		if (event.getEventType().equals(PlayerEvent.PLAY_COMPLETED))
+			played();
+	}
+
+	/**
+	 * Announce the pending joins and leaves after the window, unless
+	 * already planned or waiting for the playlist in progress
+	 */
+	private void schedule() {
+		if (closed || playing || flush != null || joins.isEmpty() && leaves.isEmpty())
+			return;
+		flush = scheduler.schedule(new Runnable() {
+			public void run() {
+				flush();
+			}
+		}, windowMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void flush() {
+		List<URI> playlist = new ArrayList<URI>();
+		synchronized (this) {
+			flush = null;
+			if (closed || playing)
+				return;
+			sentence(playlist, joins, HAS_JOINED, HAVE_JOINED);
+			sentence(playlist, leaves, HAS_LEFT, HAVE_LEFT);
+			if (playlist.isEmpty())
+				return;
+			announcedLeaves.addAll(leaves);
+			joins.clear();
+			leaves.clear();
+			playing = true;
+		}
+		playlists.incrementAndGet();
+		try {
+			player.play(playlist.toArray(new URI[playlist.size()]), RTC.NO_RTC, Parameters.NO_PARAMETER);
+		} catch (MsControlException e) {
+			log.warn("Cannot announce " + playlist + ": " + e);
+			played();
+		}
+	}
+
+	/**
+	 * The playlist is over: delete the names of the leaves, and go on with
+	 * the joins and leaves meanwhile
+	 */
+	private void played() {
+		List<URI> done;
+		synchronized (this) {
+			playing = false;
+			done = announcedLeaves;
+			announcedLeaves = new ArrayList<URI>();
+			schedule();
+		}
+		for (URI name : done)
+			names.delete(name);
+	}
+
+	/**
+	 * "X has joined", "X and Y have joined", "X, Y and 3 others have
+	 * joined"
+	 */
+	private void sentence(List<URI> playlist, List<URI> who, URI one, URI several) {
+		int n = who.size();
+		if (n == 0)
+			return;
+		// Naming one more is as short as counting one other
+		int named = n <= maxNames + 1 ? n : maxNames;
+		for (int i = 0; i < named; i++) {
+			if (i > 0 && i == n - 1)
+				playlist.add(AND);
+			playlist.add(who.get(i));
+		}
+		if (named < n) {
+			playlist.add(AND);
+			playlist.add(URI.create(PROMPTS + "numbers/" + (n - named) + ".3gp"));
+			playlist.add(OTHERS);
+		}
+		playlist.add(n == 1 ? one : several);
+	}
+
+	/**
+	 * @return joins and leaves, all rooms
+	 */
+	public static long getEvents() {
+		return events.get();
+	}
+
+	/**
+	 * @return playlists played, all rooms
+	 */
+	public static long getPlaylists() {
+		return playlists.get();
+	}
+}
@@ -0,0 +1,186 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ * 
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.multiparty;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.media.mscontrol.MediaEventListener;
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.Parameter;
+import javax.media.mscontrol.Parameters;
+import javax.media.mscontrol.Qualifier;
+import javax.media.mscontrol.mediagroup.signals.SignalDetector;
+import javax.media.mscontrol.mediagroup.signals.SignalDetectorEvent;
+import javax.media.mscontrol.resource.RTC;
+import javax.media.mscontrol.resource.Resource;
+import javax.media.mscontrol.resource.ResourceEvent;
+import javax.media.mscontrol.resource.common.VolumeConstants;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The DTMF commands of a participant in a room, detected by its
+ * SignalDetector.
+ * <br>
+ * The commands of {@link Command} are armed at once, one pattern each, in
+ * a receiveSignals without timeout: the participant can type any of them at
+ * any time. A receiveSignals completes on the first match, so it is armed
+ * again before the command is executed; the DTMFs typed meanwhile are kept
+ * in the buffer of the SignalDetector, and matched in order by the next
+ * one. The patterns must be prefix free, e.g. no "*" command next to "*6".
+ */
+public class ConferenceCommands implements MediaEventListener<SignalDetectorEvent> {
+
+	private static Logger log = Logger.getLogger(ConferenceCommands.class);
+
+	/**
+	 * The commands, by DTMF pattern
+	 */
+	public enum Command {
+		VOLUME_DOWN("4", true) {
+			void execute(Participant participant) throws MsControlException {
+				participant.getMixerAdapter().triggerAction(VolumeConstants.VOLUME_DOWN);
+			}
+		},
+		VOLUME_UP("7", true) {
+			void execute(Participant participant) throws MsControlException {
+				participant.getMixerAdapter().triggerAction(VolumeConstants.VOLUME_UP);
+			}
+		},
+		MUTE("6", true) {
+			void execute(Participant participant) throws MsControlException {
+				participant.mute(true);
+			}
+		},
+		UNMUTE("1", true) {
+			void execute(Participant participant) throws MsControlException {
+				participant.mute(false);
+			}
+		},
+		/** Leave the room, the service hangs up */
+		LEAVE("**", false) {
+			void execute(Participant participant) throws MsControlException {
+				participant.leave();
+			}
+		};
+
+		final String pattern;
+		final boolean adapterAction;
+
+		Command(String pattern, boolean adapterAction) {
+			this.pattern = pattern;
+			this.adapterAction = adapterAction;
+		}
+
+		public String getPattern() {
+			return pattern;
+		}
+
+		/**
+		 * @return true if the command acts on the MixerAdapter of the
+		 *         participant
+		 */
+		public boolean isAdapterAction() {
+			return adapterAction;
+		}
+
+		abstract void execute(Participant participant) throws MsControlException;
+	}
+
+	private static final Command[] COMMANDS = Command.values();
+	private static final Parameter[] PATTERNS = Arrays.copyOf(SignalDetector.PATTERN, COMMANDS.length);
+
+	private static final AtomicLong executed = new AtomicLong();
+	private static final AtomicLong armed = new AtomicLong();
+
+	private final Participant participant;
+	private final SignalDetector detector;
+	private final RoomMetrics metrics;
+	private final Parameters params;
+	private volatile boolean stopped;
+
+	ConferenceCommands(Participant participant, SignalDetector detector, RoomMetrics metrics) {
+		this.participant = participant;
+		this.detector = detector;
+		this.metrics = metrics;
+		params = detector.getContainer().createParameters();
+		for (int i = 0; i < COMMANDS.length; i++)
+			params.put(PATTERNS[i], COMMANDS[i].pattern);
+		params.put(SignalDetector.INITIAL_TIMEOUT, Resource.FOREVER);
+		params.put(SignalDetector.INTER_SIG_TIMEOUT, Resource.FOREVER);
+	}
+
+	/**
+	 * Start detecting the commands
+	 */
+	void start() throws MsControlException {
+		stopped = false;
+		arm();
+	}
+
+	/**
+	 * Stop detecting the commands
+	 */
+	void stop() {
+		stopped = true;
+		detector.stop();
+	}
+
+	public void onEvent(SignalDetectorEvent event) {
+		if (stopped || !event.getEventType().equals(SignalDetectorEvent.RECEIVE_SIGNALS_COMPLETED))
+			return;
+		if (!event.isSuccessful()) {
+			log.warn("Command detection failed, stopped: " + event.getErrorText());
+			stopped = true;
+			return;
+		}
+		Qualifier qualifier = event.getQualifier();
+		if (ResourceEvent.STOPPED.equals(qualifier))
+			return;
+		try {
+			// Keep on detecting while executing
+			arm();
+			for (int i = 0; i < COMMANDS.length; i++) {
+				if (SignalDetectorEvent.PATTERN_MATCHING[i].equals(qualifier)) {
+					executed.incrementAndGet();
+					// Before: leaving may destroy the room
+					metrics.command(COMMANDS[i]);
+					log.debug("Command " + COMMANDS[i] + " of " + participant);
+					COMMANDS[i].execute(participant);
+					break;
+				}
+			}
+		} catch (MsControlException e) {
+			participant.terminate(e);
+		}
+	}
+
+	private void arm() throws MsControlException {
+		armed.incrementAndGet();
+		detector.receiveSignals(-1, PATTERNS, RTC.NO_RTC, params);
+	}
+
+	/**
+	 * @return commands executed, all participants
+	 */
+	public static long getExecuted() {
+		return executed.get();
+	}
+
+	/**
+	 * @return receiveSignals issued, all participants
+	 */
+	public static long getArmed() {
+		return armed.get();
+	}
+}
@@ -0,0 +1,115 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.multiparty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.media.mscontrol.MsControlException;
+
+/**
+ * Conference rooms, by conference identifier
+ * <br>
+ * Joining creates the room if needed, atomically: callers entering the
+ * same identifier at the same moment all end up in the same room. The
+ * room is destroyed, atomically too, when its last participant leaves; a
+ * caller joining at that moment gets a new room. There is no lock: a
+ * room is created by a put-if-absent, and its participants are counted
+ * with compare-and-set, the count being closed for good once it drops to
+ * zero. The media objects of a room are created by the caller that created
+ * it, the others joining meanwhile wait for them only when they need the
+ * mixer; the creator joins the room first, so that it is not destroyed, by
+ * the others leaving, before it has its media.
+ * <br>
+ * The metrics of a room are added to the totals of the closed rooms when it
+ * is destroyed, see {@link RoomMetrics}.
+ */
+public class ConferenceDirectory {
+
+	private final ConcurrentHashMap<String, ConferenceSession> rooms = new ConcurrentHashMap<String, ConferenceSession>();
+	private final RoomMetrics closed = new RoomMetrics(null);
+
+	/**
+	 * Add a participant to a room, created if it does not exist
+	 *
+	 * @return the room joined
+	 * @throws MsControlException
+	 *             if the room cannot be created
+	 */
+	public ConferenceSession join(String confId, Participant participant) throws MsControlException {
+		while (true) {
+			ConferenceSession room = rooms.get(confId);
+			if (room == null) {
+				ConferenceSession created = new ConferenceSession(confId, this);
+				room = rooms.putIfAbsent(confId, created);
+				if (room == null) {
+					// Joined before the media are taken: the others leaving
+					// meanwhile cannot destroy the room
+					created.addParticipant(participant);
+					try {
+						created.open();
+					} catch (MsControlException e) {
+						rooms.remove(confId, created);
+						throw e;
+					}
+					return created;
+				}
+			}
+			if (room.addParticipant(participant))
+				return room;
+			// Destroyed by its last participant meanwhile
+			rooms.remove(confId, room);
+		}
+	}
+
+	/**
+	 * @return the room of an identifier, null if none
+	 */
+	public ConferenceSession get(String confId) {
+		return rooms.get(confId);
+	}
+
+	/**
+	 * @return number of rooms
+	 */
+	public int size() {
+		return rooms.size();
+	}
+
+	/**
+	 * @return the metrics of each room now, e.g. for a scrape
+	 */
+	public List<RoomMetrics.Snapshot> getMetrics() {
+		List<RoomMetrics.Snapshot> metrics = new ArrayList<RoomMetrics.Snapshot>(rooms.size());
+		for (ConferenceSession room : rooms.values())
+			metrics.add(room.getMetricsSnapshot());
+		return metrics;
+	}
+
+	/**
+	 * @return the totals of the rooms destroyed so far
+	 */
+	public RoomMetrics.Snapshot getClosedMetrics() {
+		return closed.snapshot(0);
+	}
+
+	/**
+	 * Forget a room whose last participant left, keeping its counts in the
+	 * totals
+	 */
+	void destroyed(ConferenceSession room) {
+		// Maybe removed already, by a caller that found it destroyed
+		rooms.remove(room.getConfId(), room);
+		closed.add(room.getMetrics());
+	}
+}
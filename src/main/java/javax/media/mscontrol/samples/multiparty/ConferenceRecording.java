@@ -0,0 +1,301 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ * 
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.multiparty;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.media.mscontrol.MediaSession;
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.join.Joinable;
+import javax.media.mscontrol.mediagroup.MediaGroup;
+import javax.media.mscontrol.resource.RTC;
+import javax.media.mscontrol.samples.common.ArchiveWriter;
+import javax.media.mscontrol.samples.common.CascadedMixer;
+import javax.media.mscontrol.samples.common.SegmentedRecording;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Recording of a conference room: a Recorder joined to the mixer of the
+ * room records what the participants hear, in segments, see
+ * {@link SegmentedRecording}, into a spool directory. The complete
+ * segments are moved to the archive by the {@link ArchiveWriter}, never on
+ * the SIP or media event threads: the segments waiting for it are handed
+ * off together, in one task per recording.
+ * <br>
+ * Each recording has an archive directory, <i>room</i>/<i>start</i>, with
+ * its segments and an index, index.tsv, written as the segments are
+ * archived. Its lines are: time (ms since the epoch), offset in the
+ * recording (ms), segment, offset in the segment (ms; its length for a
+ * segment line), event and subject. The events are start, segment (the
+ * file of the segment), joined and left (the caller) and end; the lines of
+ * a segment follow the segment line, in time order, so that a position in
+ * the recording, or the time a participant joined, is found in one pass.
+ * <br>
+ * The rooms recorded are given by the <code>conference.record</code>
+ * system property, comma separated room identifiers or * for all (none by
+ * default), the directories by <code>conference.recordings</code>
+ * (/mediafiles/conference/recordings/) and <code>conference.archive</code>
+ * (/mediafiles/conference/archive/).
+ */
+public class ConferenceRecording implements SegmentedRecording.Listener {
+
+	private static Logger log = Logger.getLogger(ConferenceRecording.class);
+
+	private static final String SEGMENT_EXTENSION = ".wav";
+
+	/**
+	 * A participant event, written to the index with its segment
+	 */
+	private static class Event {
+		final long time;
+		final String name;
+		final String subject;
+
+		Event(long time, String name, String subject) {
+			this.time = time;
+			this.name = name;
+			this.subject = subject;
+		}
+	}
+
+	private final String confId;
+	private final CascadedMixer mixer;
+	private final MediaGroup recorder;
+	private final SegmentedRecording recording;
+	private final ArchiveWriter archiver;
+	private final long start;
+	private final File spool;
+	private final File archive;
+
+	/** Participants joined and not left, each logged once */
+	private final Set<Participant> present = new HashSet<Participant>();
+	/** Participant events not written yet, in time order */
+	private final List<Event> events = new ArrayList<Event>();
+	/** Complete segments not archived yet */
+	private final Deque<SegmentedRecording.Segment> completed = new ArrayDeque<SegmentedRecording.Segment>();
+	/** A hand-off task is submitted to the archiver */
+	private boolean handing;
+	private boolean stopped;
+
+	private final Runnable handOff = new Runnable() {
+		public void run() {
+			handOff();
+		}
+	};
+
+	private ConferenceRecording(String confId, MediaSession ms, CascadedMixer mixer, ArchiveWriter archiver,
+			File spoolRoot, File archiveRoot) throws MsControlException {
+		this.confId = confId;
+		this.mixer = mixer;
+		this.archiver = archiver;
+		start = System.currentTimeMillis();
+		spool = new File(spoolRoot, confId + "-" + start);
+		archive = new File(new File(archiveRoot, confId), String.valueOf(start));
+		if (!spool.isDirectory() && !spool.mkdirs())
+			throw new MsControlException("Cannot create the recording directory " + spool);
+		recorder = ms.createMediaGroup(MediaGroup.PLAYER_RECORDER_SIGNALDETECTOR);
+		recording = new SegmentedRecording(recorder.getRecorder(), new SegmentedRecording.Storage() {
+			public URI getSegment(int index) {
+				return new File(spool, index + SEGMENT_EXTENSION).toURI();
+			}
+
+			public File getManifest() {
+				// The index replaces it
+				return null;
+			}
+		});
+		recording.addListener(this);
+	}
+
+	/**
+	 * @return true if the room is to be recorded, according to the system
+	 *         property
+	 */
+	public static boolean isEnabled(String confId) {
+		String rooms = System.getProperty("conference.record");
+		if (rooms == null)
+			return false;
+		List<String> ids = Arrays.asList(rooms.split("\\s*,\\s*"));
+		return ids.contains("*") || ids.contains(confId);
+	}
+
+	/**
+	 * Start recording the mix of a room
+	 *
+	 * @throws MsControlException
+	 *             if the recording cannot start
+	 */
+	public static ConferenceRecording start(String confId, MediaSession ms, CascadedMixer mixer,
+			ArchiveWriter archiver) throws MsControlException {
+		ConferenceRecording recording = new ConferenceRecording(confId, ms, mixer, archiver, new File(System
+				.getProperty("conference.recordings", "/mediafiles/conference/recordings/")), new File(System
+				.getProperty("conference.archive", "/mediafiles/conference/archive/")));
+		try {
+			mixer.join(Joinable.Direction.SEND, recording.recorder);
+			recording.recording.start(RTC.NO_RTC, null);
+		} catch (MsControlException e) {
+			recording.release();
+			throw e;
+		}
+		log.info("Recording conference " + confId + " into " + recording.archive);
+		return recording;
+	}
+
+	/**
+	 * A participant entered the room, if not logged already
+	 */
+	public synchronized void joined(Participant participant) {
+		if (present.add(participant))
+			event("joined", participant.getCaller());
+	}
+
+	/**
+	 * A participant that entered the room left it
+	 */
+	public synchronized void left(Participant participant) {
+		if (present.remove(participant))
+			event("left", participant.getCaller());
+	}
+
+	/**
+	 * Stop recording: the segment in progress is the last one
+	 */
+	public void stop() {
+		synchronized (this) {
+			if (stopped)
+				return;
+			stopped = true;
+		}
+		recording.stop();
+	}
+
+	/**
+	 * @return the archive directory of the recording
+	 */
+	public File getArchive() {
+		return archive;
+	}
+
+	public void segmentCompleted(SegmentedRecording recording, SegmentedRecording.Segment segment) {
+		if (segment.isLast())
+			release();
+		synchronized (this) {
+			completed.add(segment);
+			if (handing)
+				return;
+			handing = true;
+		}
+		if (!archiver.submit(handOff)) {
+			synchronized (this) {
+				handing = false;
+			}
+			log.warn("Archive shut down, segments of conference " + confId + " left in " + spool);
+		}
+	}
+
+	private synchronized void event(String name, String subject) {
+		events.add(new Event(System.currentTimeMillis(), name, subject));
+	}
+
+	/**
+	 * Archive the complete segments, and index them with their events. On
+	 * the archiver thread.
+	 */
+	private void handOff() {
+		while (true) {
+			SegmentedRecording.Segment segment;
+			List<Event> written = new ArrayList<Event>();
+			synchronized (this) {
+				segment = completed.poll();
+				if (segment == null) {
+					handing = false;
+					return;
+				}
+				// The events between two segments go with the next one
+				while (!events.isEmpty() && (segment.isLast() || events.get(0).time < segment.getEnd()))
+					written.add(events.remove(0));
+			}
+			File source = new File(segment.getURI());
+			File target = new File(archive, "segment-" + segment.getIndex() + SEGMENT_EXTENSION);
+			try {
+				archiver.move(source, target);
+			} catch (IOException e) {
+				archiver.failed(source, e);
+				target = source;
+			}
+			index(segment, target, written);
+		}
+	}
+
+	/**
+	 * Append a segment and its events to the index
+	 */
+	private void index(SegmentedRecording.Segment segment, File file, List<Event> segmentEvents) {
+		File index = new File(archive, "index.tsv");
+		try {
+			if (!archive.isDirectory() && !archive.mkdirs())
+				throw new IOException("Cannot create " + archive);
+			boolean first = !index.exists();
+			Writer out = new OutputStreamWriter(new FileOutputStream(index, true), StandardCharsets.UTF_8);
+			try {
+				if (first) {
+					out.write("# time\toffset\tsegment\tat\tevent\tsubject\n");
+					line(out, start, 0, 0, "start", confId);
+				}
+				line(out, segment.getStart(), segment.getIndex(), segment.getEnd() - segment.getStart(), "segment",
+						file.getPath());
+				for (Event event : segmentEvents)
+					line(out, event.time, segment.getIndex(), Math.max(0, event.time - segment.getStart()),
+							event.name, event.subject);
+				if (segment.isLast())
+					line(out, segment.getEnd(), segment.getIndex(), segment.getEnd() - segment.getStart(), "end",
+							confId);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			log.error("Cannot index segment " + segment.getIndex() + " of conference " + confId + " in " + index, e);
+		}
+		if (segment.isLast()) {
+			if (!spool.delete())
+				log.debug("Recording directory " + spool + " not empty");
+			log.info("Recording of conference " + confId + " archived in " + archive);
+		}
+	}
+
+	private void line(Writer out, long time, int segment, long at, String event, String subject)
+			throws IOException {
+		out.write(time + "\t" + (time - start) + "\t" + segment + "\t" + at + "\t" + event + "\t" + subject + "\n");
+	}
+
+	/**
+	 * Unjoin and release the recorder, once its last segment is complete
+	 */
+	private void release() {
+		mixer.leave(recorder);
+		recorder.release();
+	}
+}
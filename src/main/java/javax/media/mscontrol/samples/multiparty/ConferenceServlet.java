@@ -12,27 +12,44 @@
 package javax.media.mscontrol.samples.multiparty;
 
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.media.mscontrol.MsControlFactory;
 import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.samples.common.ArchiveWriter;
 import javax.media.mscontrol.spi.DriverManager;
 import javax.servlet.ServletException;
 import javax.servlet.sip.SipServlet;
 import javax.servlet.sip.SipServletRequest;
 import javax.servlet.sip.SipServletResponse;
 import javax.servlet.sip.SipSession;
+import javax.servlet.sip.SipURI;
+import javax.servlet.sip.URI;
+
+import org.apache.log4j.Logger;
 
 /**
  * Servlet answering SIP conference service incoming calls
+ * <br>
+ * A caller dialing a room number, e.g. sip:1234@conference.example.com,
+ * enters that room; the others are asked for the conference identifier.
+ * <br>
+ * The metrics of the rooms can be scraped locally, see
+ * {@link MetricsEndpoint}.
  */
 @SuppressWarnings("serial")
 public class ConferenceServlet extends SipServlet {
 
+	private static Logger log = Logger.getLogger(ConferenceServlet.class);
+
 	// Store Participants linked to this Servlet
 	private Map<SipSession, Participant> myParticipants;
-	private static Map<String, ConferenceSession> theConferences;
+	private static final ConferenceDirectory theConferences = new ConferenceDirectory();
+	private static final NameStore theNames = NameStore.fromSystemProperties();
+	private static RoomMediaPool thePool;
+	private static ArchiveWriter theArchive;
+	private static MetricsEndpoint theMetricsEndpoint;
 
 	// Common factory for JSR 309 objects used by all service classes
 	public static MsControlFactory theMsControlFactory;
@@ -42,8 +59,9 @@ public class ConferenceServlet extends SipServlet {
 		try {
 			super.init();
 			theMsControlFactory = DriverManager.getDrivers().next().getFactory(null);
-			myParticipants = new HashMap<SipSession, Participant>();
-			theConferences = new HashMap<String, ConferenceSession>();
+			getMediaPool();
+			startMetricsEndpoint();
+			myParticipants = new ConcurrentHashMap<SipSession, Participant>();
 		} catch (Exception msce) {
 			throw new ServletException(
 					"Cannot initialize ConferenceServlet due to internale service error",
@@ -51,12 +69,47 @@ public class ConferenceServlet extends SipServlet {
 		}
 	}
 
+	@Override
+	public void destroy() {
+		synchronized (ConferenceServlet.class) {
+			if (thePool != null) {
+				thePool.shutdown();
+				thePool = null;
+			}
+			if (theArchive != null) {
+				theArchive.shutdown();
+				theArchive = null;
+			}
+			if (theMetricsEndpoint != null) {
+				theMetricsEndpoint.shutdown();
+				theMetricsEndpoint = null;
+			}
+		}
+		log.info("Conference metrics, " + theConferences.getClosedMetrics());
+		super.destroy();
+	}
+
+	/**
+	 * Start the scrape endpoint of the metrics, if configured and not
+	 * started by another instance; the service goes on without it if its
+	 * port cannot be bound
+	 */
+	private static synchronized void startMetricsEndpoint() {
+		if (theMetricsEndpoint != null)
+			return;
+		try {
+			theMetricsEndpoint = MetricsEndpoint.fromSystemProperties(theConferences);
+		} catch (IOException e) {
+			log.error("Cannot start the metrics endpoint, going on without it", e);
+		}
+	}
+
 	@Override
 	protected void doInvite(SipServletRequest arg0) throws ServletException,
 			IOException {
 		try {
-			// Create a new Participant
-			Participant newParticipant = new Participant(arg0, this);
+			// Create a new Participant, in the room if dialed
+			Participant newParticipant = new Participant(arg0, this, dialedConference(arg0));
 			myParticipants.put(arg0.getSession(), newParticipant);
 		} catch (Exception e) {
 			throw new ServletException(e);
@@ -74,8 +127,9 @@ public class ConferenceServlet extends SipServlet {
 	protected void doBye(SipServletRequest arg0) throws ServletException,
 			IOException {
 		// Terminate the service
-		myParticipants.get(arg0.getSession()).release();
-		myParticipants.remove(arg0.getSession());
+		Participant participant = myParticipants.remove(arg0.getSession());
+		if (participant != null)
+			participant.release();
 		// Send 200 OK to the UA
 		SipServletResponse resp = arg0.createResponse(SipServletResponse.SC_OK);
 		resp.send();
@@ -83,26 +137,64 @@ public class ConferenceServlet extends SipServlet {
 
 	/**
 	 * Add a participant to the give conference room, create the
-	 * ConferenceSession if not existing
+	 * ConferenceSession if not existing, atomically
 	 * 
 	 * @param confId
 	 * @param participant
-	 * @return
+	 * @return the conference room joined
 	 * @throws MsControlException
 	 */
 	public ConferenceSession addParticipant(String confId,
 			Participant participant) throws MsControlException {
-		ConferenceSession confRoom;
-		if (!theConferences.containsKey(confId)) {
-			// ConferenceSession does not exist, create a new one
-			confRoom = new ConferenceSession(confId, participant);
-			theConferences.put(confId, confRoom);
-		} else {
-			// Add the participant to existing conference
-			confRoom = theConferences.get(confId);
-			confRoom.addParticipant(participant);
+		return theConferences.join(confId, participant);
+	}
+
+	/**
+	 * @return the conference identifier dialed, e.g. 1234 for
+	 *         sip:1234@conference.example.com, null if the caller must type it
+	 */
+	static String dialedConference(SipServletRequest req) {
+		URI uri = req.getRequestURI();
+		if (uri == null || !uri.isSipURI())
+			return null;
+		String user = ((SipURI) uri).getUser();
+		return user != null && user.matches("[0-9]+") ? user : null;
+	}
+
+	/**
+	 * @return the conference rooms of the service
+	 */
+	public static ConferenceDirectory getConferences() {
+		return theConferences;
+	}
+
+	/**
+	 * @return the media of the rooms, created for the factory in use
+	 */
+	public static synchronized RoomMediaPool getMediaPool() {
+		if (thePool == null || thePool.getFactory() != theMsControlFactory) {
+			if (thePool != null)
+				thePool.shutdown();
+			thePool = RoomMediaPool.fromSystemProperties(theMsControlFactory, theConferences);
 		}
-		return confRoom;
+		return thePool;
+	}
+
+	/**
+	 * @return the writer of the conference recordings into the archive,
+	 *         created when first used and shut down with the servlet
+	 */
+	public static synchronized ArchiveWriter getArchive() {
+		if (theArchive == null)
+			theArchive = ArchiveWriter.fromSystemProperties();
+		return theArchive;
+	}
+
+	/**
+	 * @return the recorded names of the participants
+	 */
+	public static NameStore getNames() {
+		return theNames;
 	}
 
 	/**
@@ -11,51 +11,102 @@
  */
 package javax.media.mscontrol.samples.multiparty;
 
-import java.util.List;
-import java.util.Vector;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.media.mscontrol.MediaSession;
 import javax.media.mscontrol.MsControlException;
-import javax.media.mscontrol.mixer.MediaMixer;
+import javax.media.mscontrol.samples.common.CascadedMixer;
+
+import org.apache.log4j.Logger;
 
 /**
- * Conference room - Has its own MediaSession, and a MediaMixer
+ * Conference room - Has its own MediaSession, shared with the participants
+ * that dialed the room, a MediaMixer, cascaded
+ * into several once the room outgrows one, see {@link CascadedMixer}, that
+ * mixes the loudest participants only, see {@link ActiveSpeakers}, and
+ * a Player for the join and leave announcements, see {@link Announcements},
+ * and, if the room is recorded, a Recorder, see {@link ConferenceRecording}.
+ * These media objects are taken from the {@link RoomMediaPool} when the
+ * room is created, and given back to it when the room is destroyed.
+ * Created and destroyed by the {@link ConferenceDirectory}. Counted by its
+ * {@link RoomMetrics}.
  */
 public class ConferenceSession {
 
-	// Conference JSR 309 objects
-	private final MediaSession myMediaSession;
-	private final MediaMixer myMediaMixer;
+	private static Logger log = Logger.getLogger(ConferenceSession.class);
+
+	// Conference JSR 309 objects, created by the first participant
+	private final CompletableFuture<CascadedMixer> myMixer = new CompletableFuture<CascadedMixer>();
+	private volatile RoomMediaPool.RoomMedia myMedia;
+	private volatile MediaSession myMediaSession;
+	private volatile Announcements myAnnouncements;
+	private volatile ActiveSpeakers mySpeakers;
+	private ConferenceRecording myRecording;
+	/** The recording of the room is started, or being started */
+	private final AtomicBoolean recordingRequested = new AtomicBoolean();
 
 	// Conference identifier and participants list
 	private final String confId;
-	private List<Participant> myParticipants;
+	private final ConferenceDirectory myDirectory;
+	private final Set<Participant> myParticipants = ConcurrentHashMap.<Participant> newKeySet();
+	/** Participants in the room, -1 once destroyed */
+	private final AtomicInteger myCount = new AtomicInteger();
+	private final RoomMetrics myMetrics;
+
+	ConferenceSession(String confId, ConferenceDirectory directory) {
+		this.confId = confId;
+		myDirectory = directory;
+		myMetrics = new RoomMetrics(confId);
+	}
 
 	/**
-	 * Constructor - Instantiate JSR 309 objects, add the creator to the
-	 * Participants list
+	 * Take the JSR 309 objects of the room
 	 * 
-	 * @param confId
-	 * @param participant
 	 * @throws MsControlException
 	 */
-	public ConferenceSession(String confId, Participant participant)
-			throws MsControlException {
-		this.confId = confId;
-		myParticipants = new Vector<Participant>();
-		myMediaSession = ConferenceServlet.theMsControlFactory
-				.createMediaSession();
-		myMediaMixer = myMediaSession.createMediaMixer(MediaMixer.AUDIO);
-		this.addParticipant(participant);
+	void open() throws MsControlException {
+		RoomMediaPool pool = ConferenceServlet.getMediaPool();
+		try {
+			myMedia = pool.take(confId);
+			myMediaSession = myMedia.getMediaSession();
+			CascadedMixer mixer = myMedia.getMixer();
+			mySpeakers = new ActiveSpeakers(confId, mixer, ActiveSpeakers.getMaxSpeakers());
+			myAnnouncements = new Announcements(myMedia.getAnnouncer().getPlayer(), ConferenceServlet.getNames());
+			myMixer.complete(mixer);
+		} catch (MsControlException e) {
+			myCount.set(-1);
+			if (mySpeakers != null)
+				mySpeakers.close();
+			if (myMedia != null)
+				pool.discard(myMedia);
+			myMixer.completeExceptionally(e);
+			throw e;
+		}
 	}
 
 	/**
 	 * Add a participant to this conference room
 	 * 
 	 * @param participant
+	 * @return false if the room is destroyed already
 	 */
-	public void addParticipant(Participant participant) {
-		myParticipants.add(myParticipants.size(), participant);
+	boolean addParticipant(Participant participant) {
+		while (true) {
+			int count = myCount.get();
+			if (count < 0)
+				return false;
+			if (myCount.compareAndSet(count, count + 1))
+				break;
+		}
+		myParticipants.add(participant);
+		myMetrics.joined();
+		return true;
 	}
 
 	/**
@@ -65,17 +116,172 @@ public class ConferenceSession {
 	 * @param participant
 	 */
 	public void removeParticipant(Participant participant) {
-		myParticipants.remove(participant);
-		if (myParticipants.size() == 0)
-			myMediaSession.release();
+		if (!myParticipants.remove(participant))
+			return;
+		myMetrics.left();
+		if (participant.getMixerAdapter() != null) {
+			mySpeakers.remove(participant.getMixerAdapter());
+			ConferenceRecording recording = getRecording();
+			if (recording != null)
+				recording.left(participant);
+			myMixer.join().leave(participant.getMixerAdapter());
+			myAnnouncements.left(participant.getName());
+		} else
+			ConferenceServlet.getNames().delete(participant.getName());
+		if (myCount.decrementAndGet() == 0 && myCount.compareAndSet(0, -1)) {
+			myDirectory.destroyed(this);
+			if (myAnnouncements != null)
+				myAnnouncements.close();
+			if (mySpeakers != null)
+				mySpeakers.close();
+			stopRecording();
+			if (myMedia != null)
+				ConferenceServlet.getMediaPool().give(confId, myMedia);
+		}
+	}
+
+	/**
+	 * A participant entered the room, to be announced
+	 */
+	void entered(Participant participant) throws MsControlException {
+		getMixer();
+		myMetrics.conferenced(participant.getInvitedAt());
+		mySpeakers.add(participant.getMixerAdapter(), participant);
+		myAnnouncements.joined(participant.getName());
+		ConferenceRecording recording = getRecording();
+		if (recording != null)
+			recording.joined(participant);
+		else if (ConferenceRecording.isEnabled(confId) && recordingRequested.compareAndSet(false, true)) {
+			// Not on the media event thread: the recording joins the mixer
+			ConferenceServlet.getArchive().submit(new Runnable() {
+				public void run() {
+					try {
+						startRecording();
+					} catch (MsControlException e) {
+						log.error("Cannot record conference " + confId + ", going on without recording", e);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Record the room, until {@link #stopRecording()} or its destruction.
+	 * The participants in the room are logged as joined.
+	 * 
+	 * @return the recording, started or in progress
+	 * @throws MsControlException
+	 *             if the recording cannot start, or the room is destroyed
+	 */
+	public ConferenceRecording startRecording() throws MsControlException {
+		synchronized (this) {
+			if (myRecording != null)
+				return myRecording;
+			if (myCount.get() < 0)
+				throw new MsControlException("Conference " + confId + " is destroyed");
+		}
+		ConferenceRecording recording = ConferenceRecording.start(confId, getMediaSession(), getMixer(),
+				ConferenceServlet.getArchive());
+		ConferenceRecording current;
+		boolean destroyed;
+		synchronized (this) {
+			// Destroyed, or started by another caller, in the meantime
+			current = myRecording;
+			destroyed = myCount.get() < 0;
+			if (current == null && !destroyed)
+				myRecording = recording;
+		}
+		if (current != null || destroyed) {
+			recording.stop();
+			if (current == null)
+				throw new MsControlException("Conference " + confId + " is destroyed");
+			return current;
+		}
+		for (Participant participant : myParticipants)
+			if (participant.getMixerAdapter() != null)
+				recording.joined(participant);
+		return recording;
+	}
+
+	/**
+	 * Stop recording the room, if recorded
+	 */
+	public void stopRecording() {
+		ConferenceRecording recording;
+		synchronized (this) {
+			recording = myRecording;
+			myRecording = null;
+		}
+		if (recording != null)
+			recording.stop();
+	}
+
+	/**
+	 * @return the recording in progress, null if none
+	 */
+	public synchronized ConferenceRecording getRecording() {
+		return myRecording;
+	}
+
+	/**
+	 * @return the participants, a live view that can be iterated while
+	 *         participants join or leave
+	 */
+	public Set<Participant> getParticipants() {
+		return Collections.unmodifiableSet(myParticipants);
+	}
+
+	/**
+	 * @return the mixer, once created by the first participant
+	 * @throws MsControlException
+	 *             if it cannot be created
+	 */
+	public CascadedMixer getMixer() throws MsControlException {
+		try {
+			return myMixer.get();
+		} catch (ExecutionException e) {
+			throw new MsControlException("Conference " + confId + " has no mixer", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MsControlException("Interrupted while waiting for the mixer of conference " + confId);
+		}
+	}
+
+	/**
+	 * @return the participants talking, once the mixer is created by the
+	 *         first participant
+	 * @throws MsControlException
+	 *             if it cannot be created
+	 */
+	public ActiveSpeakers getActiveSpeakers() throws MsControlException {
+		getMixer();
+		return mySpeakers;
 	}
 
-	public MediaMixer getMediaMixer() {
-		return myMediaMixer;
+	/**
+	 * @return the MediaSession of the room, once created by the first
+	 *         participant, shared by the participants that dialed the room
+	 * @throws MsControlException
+	 *             if it cannot be created
+	 */
+	public MediaSession getMediaSession() throws MsControlException {
+		getMixer();
+		return myMediaSession;
 	}
 
 	public String getConfId() {
 		return confId;
 	}
 
+	RoomMetrics getMetrics() {
+		return myMetrics;
+	}
+
+	/**
+	 * @return the metrics of the room now
+	 */
+	public RoomMetrics.Snapshot getMetricsSnapshot() {
+		return myMetrics.snapshot(Math.max(0, myCount.get()));
+	}
+
 }
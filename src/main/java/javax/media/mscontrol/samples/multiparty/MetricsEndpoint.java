@@ -0,0 +1,147 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ * 
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.multiparty;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local scrape endpoint of the conference metrics: <code>GET /metrics</code>
+ * on the loopback interface answers the {@link RoomMetrics} of each room,
+ * labeled by room, and the totals of the closed rooms, in the Prometheus
+ * text format. The scraper computes the rates from the counters; a scrape
+ * takes one snapshot per room and does not stop the rooms.
+ * <br>
+ * Started by the {@link ConferenceServlet} on the port given by the
+ * <code>conference.metrics.port</code> system property, 0 (the default) for
+ * no endpoint.
+ */
+public class MetricsEndpoint {
+
+	private static Logger log = Logger.getLogger(MetricsEndpoint.class);
+
+	public static final String PORT_PROPERTY = "conference.metrics.port";
+
+	private final HttpServer server;
+
+	/**
+	 * @param port
+	 *            port on the loopback interface, 0 for any free one
+	 */
+	public MetricsEndpoint(final ConferenceDirectory directory, int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/metrics", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					if (!"GET".equals(exchange.getRequestMethod())) {
+						exchange.sendResponseHeaders(405, -1);
+						return;
+					}
+					byte[] body = format(directory).getBytes(StandardCharsets.UTF_8);
+					exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+					exchange.sendResponseHeaders(200, body.length);
+					OutputStream out = exchange.getResponseBody();
+					out.write(body);
+					out.close();
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+		log.info("Conference metrics on http://" + server.getAddress().getHostString() + ":" + getPort()
+				+ "/metrics");
+	}
+
+	/**
+	 * @return the endpoint on the port of the system property, null if none
+	 * @throws IOException
+	 *             if the port cannot be bound
+	 */
+	public static MetricsEndpoint fromSystemProperties(ConferenceDirectory directory) throws IOException {
+		int port = Integer.getInteger(PORT_PROPERTY, 0);
+		return port > 0 ? new MetricsEndpoint(directory, port) : null;
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public void shutdown() {
+		server.stop(0);
+	}
+
+	/**
+	 * @return the metrics of the rooms, in the Prometheus text format
+	 */
+	static String format(ConferenceDirectory directory) {
+		List<RoomMetrics.Snapshot> rooms = directory.getMetrics();
+		RoomMetrics.Snapshot closed = directory.getClosedMetrics();
+		StringBuilder sb = new StringBuilder(256 + rooms.size() * 512);
+		sb.append("# TYPE conference_rooms gauge\nconference_rooms ").append(rooms.size()).append('\n');
+		sb.append("# TYPE conference_participants gauge\n");
+		for (RoomMetrics.Snapshot room : rooms)
+			line(sb, "conference_participants", room, room.getParticipants());
+		sb.append("# TYPE conference_joins_total counter\n");
+		for (RoomMetrics.Snapshot room : rooms)
+			line(sb, "conference_joins_total", room, room.getJoins());
+		sb.append("# TYPE conference_leaves_total counter\n");
+		for (RoomMetrics.Snapshot room : rooms)
+			line(sb, "conference_leaves_total", room, room.getLeaves());
+		sb.append("# TYPE conference_commands_total counter\n");
+		for (RoomMetrics.Snapshot room : rooms)
+			line(sb, "conference_commands_total", room, room.getCommands());
+		sb.append("# TYPE conference_adapter_actions_total counter\n");
+		for (RoomMetrics.Snapshot room : rooms)
+			line(sb, "conference_adapter_actions_total", room, room.getAdapterActions());
+		sb.append("# TYPE conference_time_to_conference_seconds summary\n");
+		for (RoomMetrics.Snapshot room : rooms) {
+			line(sb, "conference_time_to_conference_seconds_sum", room, room.conferenceNanos / 1e9);
+			line(sb, "conference_time_to_conference_seconds_count", room, room.getConferenced());
+		}
+		sb.append("# TYPE conference_time_to_conference_max_seconds gauge\n");
+		for (RoomMetrics.Snapshot room : rooms)
+			line(sb, "conference_time_to_conference_max_seconds", room, room.maxConferenceNanos / 1e9);
+		sb.append("# TYPE conference_closed_rooms_total counter\nconference_closed_rooms_total ")
+				.append(closed.getRooms()).append('\n');
+		sb.append("# TYPE conference_closed_joins_total counter\nconference_closed_joins_total ")
+				.append(closed.getJoins()).append('\n');
+		sb.append("# TYPE conference_closed_leaves_total counter\nconference_closed_leaves_total ")
+				.append(closed.getLeaves()).append('\n');
+		sb.append("# TYPE conference_closed_commands_total counter\nconference_closed_commands_total ")
+				.append(closed.getCommands()).append('\n');
+		sb.append("# TYPE conference_closed_adapter_actions_total counter\nconference_closed_adapter_actions_total ")
+				.append(closed.getAdapterActions()).append('\n');
+		return sb.toString();
+	}
+
+	private static void line(StringBuilder sb, String name, RoomMetrics.Snapshot room, double value) {
+		sb.append(name).append("{room=\"")
+				.append(room.getConfId().replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+				.append("\"} ");
+		if (value == Math.rint(value))
+			sb.append((long) value);
+		else
+			sb.append(value);
+		sb.append('\n');
+	}
+}
@@ -12,46 +12,202 @@
 package javax.media.mscontrol.samples.multiparty;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.media.mscontrol.MediaEventListener;
 import javax.media.mscontrol.MediaSession;
+import javax.media.mscontrol.MsControlException;
 import javax.media.mscontrol.MsControlFactory;
 import javax.media.mscontrol.join.Joinable;
+import javax.media.mscontrol.join.TooManyJoineesException;
 import javax.media.mscontrol.mixer.MediaMixer;
 import javax.media.mscontrol.networkconnection.NetworkConnection;
 import javax.media.mscontrol.networkconnection.SdpPortManager;
 import javax.media.mscontrol.networkconnection.SdpPortManagerEvent;
+import javax.media.mscontrol.samples.common.MediaSessionRegistry;
 import javax.media.mscontrol.spi.DriverManager;
 import javax.servlet.ServletException;
 import javax.servlet.sip.SipServlet;
 import javax.servlet.sip.SipServletMessage;
 import javax.servlet.sip.SipServletRequest;
+import javax.servlet.sip.SipSession;
 
 import org.apache.log4j.Logger;
 
 /**
  * The minimal conference service: all callers are conferenced together.
  * A single conference for all, everybody can talk/listen.
+ * <br>
+ * A single MediaSession has the media server process the commands of all
+ * the callers one after the other, and a single mixer bounds their number.
+ * In partitioned mode, the callers are spread over K partitions, each a
+ * MediaSession with its own mixer: the callers of a partition are
+ * conferenced together, those of different partitions are not. The
+ * partition of a caller is chosen by hashing a routing key of its INVITE.
+ * The To URI, the default, keeps the callers who dial the same address in
+ * the same conference, K conferences at most. The Call-ID, or the From URI,
+ * spreads the callers evenly but puts them in separate conferences at
+ * random: use them only where the callers need not hear each other.
+ * <br>
+ * A full partition, by its size or because its mixer refused a caller
+ * (TooManyJoineesException), overflows to a new partition, whose mixer is
+ * joined to the mixer of the full one (a bridge between the two
+ * MediaSessions): the callers still hear each other. A size below the
+ * ports of a mixer keeps a port for that link; a mixer that refused a
+ * caller refuses the link too, and its overflow partition is a conference
+ * of its own. A mixer that refused a caller takes callers again once one
+ * of its callers leaves; one that refused its first caller does not
+ * overflow, the media server is out of ports and the call fails. Overflow
+ * partitions are kept, for the overflow of later callers, until the
+ * servlet is destroyed.
+ * <br>
+ * Settings, system properties: <code>minimalconference.partitions</code>
+ * (1, the single conference), <code>minimalconference.partition.size</code>
+ * (callers per partition, 0 for no bound) and
+ * <code>minimalconference.partition.key</code> (<code>to</code>, the
+ * default, <code>call-id</code> or <code>from</code>).
  */
 @SuppressWarnings("serial")
 public class MinimalConferenceServlet extends SipServlet {
 
 	/**
-	 * Use a single MediaSession, hosting the mixer, and all NetworkConnections
+	 * A MediaSession, hosting a mixer and the NetworkConnections of its
+	 * callers
 	 */
-	MediaSession theMediaSession; 
-	MediaMixer theMixer;
+	class Partition {
+		final int index;
+		final MediaSession mediaSession;
+		final MediaMixer mixer;
+		/** Callers joined or being joined */
+		final AtomicInteger callers = new AtomicInteger();
+		/** Callers, fewer than configured while the mixer refuses them */
+		volatile int capacity;
+		final int configured;
+		private Partition overflow;
+
+		Partition(int index) throws MsControlException {
+			this.index = index;
+			configured = partitionSize > 0 ? partitionSize : Integer.MAX_VALUE;
+			capacity = configured;
+			mediaSession = MediaSessionRegistry.getInstance().createShared(theMsControlFactory);
+			try {
+				mixer = mediaSession.createMediaMixer(MediaMixer.AUDIO);
+			} catch (MsControlException e) {
+				MediaSessionRegistry.getInstance().release(mediaSession);
+				throw e;
+			}
+		}
+
+		/**
+		 * Take a place for a caller, here or in the overflow partitions
+		 *
+		 * @return the partition of the place
+		 */
+		Partition reserve() throws MsControlException {
+			Partition partition = this;
+			while (!partition.tryReserve())
+				partition = partition.overflow();
+			return partition;
+		}
+
+		private boolean tryReserve() {
+			while (true) {
+				int n = callers.get();
+				if (n >= capacity)
+					return false;
+				if (callers.compareAndSet(n, n + 1))
+					return true;
+			}
+		}
+
+		/**
+		 * Give back the place of a caller
+		 *
+		 * @param departed
+		 *            a joined caller hung up, rather than a join failed: a
+		 *            mixer found full has a free port again
+		 */
+		void leave(boolean departed) {
+			callers.decrementAndGet();
+			if (departed && capacity < configured) {
+				capacity = configured;
+				log.info("Mixer back to " + (configured == Integer.MAX_VALUE ? "no bound" : configured + " callers")
+						+ ", " + this);
+			}
+		}
+
+		/**
+		 * The mixer refused a caller: no more callers than it has
+		 *
+		 * @return false if the mixer had no other caller: overflowing to a
+		 *         new mixer would not help
+		 */
+		boolean refused() {
+			int others = callers.decrementAndGet();
+			if (others == 0) {
+				log.warn("Mixer refused its first caller, " + this);
+				return false;
+			}
+			capacity = others;
+			log.warn("Mixer full at " + capacity + " callers, " + this);
+			return true;
+		}
+
+		/**
+		 * @return the partition taking the callers this one cannot, created
+		 *         and linked to this one if needed
+		 */
+		private synchronized Partition overflow() throws MsControlException {
+			if (overflow == null) {
+				Partition created = new Partition(nextIndex.getAndIncrement());
+				allPartitions.add(created);
+				try {
+					created.mixer.join(Joinable.Direction.DUPLEX, mixer);
+				} catch (MsControlException e) {
+					log.warn("Cannot link overflow " + created + " to " + this + ", it is a conference of its own", e);
+				}
+				overflow = created;
+				log.info("New overflow " + created + " of " + this);
+			}
+			return overflow;
+		}
+
+		@Override
+		public String toString() {
+			return "partition " + index + " (" + callers.get() + " callers)";
+		}
+	}
+
+	MsControlFactory theMsControlFactory;
+	int partitionSize;
+	String routingKey;
+	/** Partitions chosen by the routing key */
+	Partition[] thePartitions;
+	/** Overflow partitions included */
+	final List<Partition> allPartitions = new CopyOnWriteArrayList<Partition>();
+	final AtomicInteger nextIndex = new AtomicInteger();
 
 	@Override
 	public void init() throws ServletException {
 		super.init();
-		MsControlFactory theMsControlFactory = null;
+		int count = Math.max(1, Integer.getInteger("minimalconference.partitions", 1));
+		partitionSize = Integer.getInteger("minimalconference.partition.size", 0);
+		routingKey = System.getProperty("minimalconference.partition.key", "to");
+		if (!routingKey.equals("call-id") && !routingKey.equals("from") && !routingKey.equals("to"))
+			throw new ServletException("Unknown routing key: " + routingKey);
 		try {
 			theMsControlFactory = DriverManager.getDrivers().next().getFactory(null);
-			theMediaSession = theMsControlFactory.createMediaSession();
-			theMixer = theMediaSession.createMediaMixer(MediaMixer.AUDIO);
+			thePartitions = new Partition[count];
+			for (int i = 0; i < count; i++) {
+				thePartitions[i] = new Partition(nextIndex.getAndIncrement());
+				allPartitions.add(thePartitions[i]);
+			}
 		} catch (Exception e) {
 			log.fatal("Cannot create MediaSession or MediaSessionFactory :", e);
+			releasePartitions();
 			throw new ServletException(e);
 		}
 	}
@@ -62,17 +218,13 @@ public class MinimalConferenceServlet extends SipServlet {
 	@Override
 	protected void doInvite(final SipServletRequest req) throws ServletException, IOException {
 		try {
-			// Create a NetworkConnection that will handle the RTP streams of the new caller
-			final NetworkConnection myNetworkConnection = theMediaSession.createNetworkConnection(NetworkConnection.BASIC);
-			// Save the NetworkConnection reference as an attribute of the SipSession
-			req.getSession().setAttribute("media-connection", myNetworkConnection);
-						
-			// Join the NetworkConnection to the conference
-			theMixer.join(Joinable.Direction.DUPLEX , myNetworkConnection);
-			
+			// Create a NetworkConnection that will handle the RTP streams of the new caller,
+			// and join it to the conference of its partition
+			final NetworkConnection myNetworkConnection = join(req.getSession(), route(req));
+
 			// Get the RTP ports manager
 			final SdpPortManager mySDPPortSet = myNetworkConnection.getSdpPortManager();
-			
+
 			// Register a listener to the RTP ports, to define what we'll do when the connection is setup.
 			MediaEventListener<SdpPortManagerEvent> mySDPPortSetListener = new MediaEventListener<SdpPortManagerEvent>() {
 
@@ -88,22 +240,22 @@ public class MinimalConferenceServlet extends SipServlet {
 						} else {
 							// SDP not accepted
 							req.createResponse(500, "Unsupported Media Type").send();
-							myNetworkConnection.release();
+							hangUp(req.getSession());
 						}
 					} catch (Exception e) {
-						myNetworkConnection.release();
+						hangUp(req.getSession());
 					}
 				}
 			};
 			mySDPPortSet.addListener(mySDPPortSetListener);
-			
+
 			// Request the media server to start SDP negociation
 			// Assume that all INVITE's carry an SDP offer
 			mySDPPortSet.processSdpOffer(req.getRawContent());
-			
+
 		} catch (Exception e) {
 			throw new ServletException(e);
-		}		
+		}
 	}
 
 	/**
@@ -111,15 +263,98 @@ public class MinimalConferenceServlet extends SipServlet {
 	 */
 	@Override
 	protected void doBye(SipServletRequest req) throws ServletException, IOException {
-		final NetworkConnection myNetworkConnection = (NetworkConnection)req.getSession().getAttribute("media-connection");
+		hangUp(req.getSession());
+	}
+
+	/**
+	 * @return the partition of a caller, by its routing key
+	 */
+	Partition route(SipServletRequest req) {
+		String key;
+		if (routingKey.equals("from"))
+			key = req.getFrom().getURI().toString();
+		else if (routingKey.equals("to"))
+			key = req.getTo().getURI().toString();
+		else
+			key = req.getCallId();
+		return thePartitions[Math.floorMod(key.hashCode(), thePartitions.length)];
+	}
+
+	/**
+	 * Join a new caller to a partition, or to its overflow if it is full
+	 *
+	 * @return the NetworkConnection of the caller, saved with its partition
+	 *         as attributes of the SipSession
+	 */
+	private NetworkConnection join(SipSession session, Partition partition) throws MsControlException {
+		while (true) {
+			partition = partition.reserve();
+			NetworkConnection nc;
+			try {
+				nc = partition.mediaSession.createNetworkConnection(NetworkConnection.BASIC);
+			} catch (MsControlException e) {
+				partition.leave(false);
+				throw e;
+			}
+			try {
+				partition.mixer.join(Joinable.Direction.DUPLEX, nc);
+			} catch (TooManyJoineesException e) {
+				nc.release();
+				if (!partition.refused())
+					throw e;
+				continue;
+			} catch (MsControlException e) {
+				nc.release();
+				partition.leave(false);
+				throw e;
+			}
+			session.setAttribute("media-partition", partition);
+			session.setAttribute("media-connection", nc);
+			return nc;
+		}
+	}
+
+	/**
+	 * Release the NetworkConnection of a caller, and give back its place,
+	 * once
+	 */
+	private void hangUp(SipSession session) {
+		NetworkConnection myNetworkConnection;
+		Partition partition;
+		synchronized (session) {
+			myNetworkConnection = (NetworkConnection) session.getAttribute("media-connection");
+			partition = (Partition) session.getAttribute("media-partition");
+			session.removeAttribute("media-connection");
+			session.removeAttribute("media-partition");
+		}
+		if (myNetworkConnection == null)
+			return;
 		myNetworkConnection.release();
+		partition.leave(true);
+	}
+
+	/**
+	 * @return the callers of each partition, overflow partitions included
+	 */
+	public List<Integer> getCallers() {
+		List<Integer> callers = new ArrayList<Integer>();
+		for (Partition partition : allPartitions)
+			callers.add(partition.callers.get());
+		return callers;
 	}
 
 	@Override
 	public void destroy() {
-		theMediaSession.release();
+		log.info("Destroyed with " + allPartitions);
+		releasePartitions();
 		super.destroy();
 	}
 
+	private void releasePartitions() {
+		for (Partition partition : allPartitions)
+			MediaSessionRegistry.getInstance().release(partition.mediaSession);
+		allPartitions.clear();
+	}
+
 	static Logger log = Logger.getLogger(MinimalConferenceServlet.class);
 }
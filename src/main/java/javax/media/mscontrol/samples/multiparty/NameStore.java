@@ -0,0 +1,64 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ * 
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.multiparty;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The recorded names of the participants, one file per call, named after
+ * its Call-ID, so that two participants never overwrite each other's name.
+ * <br>
+ * The directory, shared with the media server, is given by the
+ * <code>conference.names</code> system property
+ * (/mediafiles/conference/names/).
+ */
+public class NameStore {
+
+	private static Logger log = Logger.getLogger(NameStore.class);
+
+	private final File root;
+
+	public NameStore(File root) {
+		this.root = root;
+		if (!root.isDirectory() && !root.mkdirs())
+			log.warn("Cannot create the names directory " + root);
+	}
+
+	public static NameStore fromSystemProperties() {
+		return new NameStore(new File(System.getProperty("conference.names", "/mediafiles/conference/names/")));
+	}
+
+	/**
+	 * @return where to record the name of the caller of a call
+	 */
+	public URI getURI(String callId) {
+		try {
+			return new File(root, URLEncoder.encode(callId, "UTF-8") + ".3gp").toURI();
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Delete a name, once it is not announced any more
+	 */
+	public void delete(URI name) {
+		File file = new File(name);
+		if (!file.delete() && file.exists())
+			log.warn("Cannot delete the name " + file);
+	}
+}
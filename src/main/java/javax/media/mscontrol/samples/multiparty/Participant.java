@@ -13,6 +13,7 @@ package javax.media.mscontrol.samples.multiparty;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.media.mscontrol.MediaEvent;
 import javax.media.mscontrol.MediaEventListener;
@@ -32,36 +33,75 @@ import javax.media.mscontrol.networkconnection.NetworkConnection;
 import javax.media.mscontrol.networkconnection.SdpPortManager;
 import javax.media.mscontrol.networkconnection.SdpPortManagerEvent;
 import javax.media.mscontrol.resource.RTC;
+import javax.media.mscontrol.samples.common.MediaSessionRegistry;
 import javax.servlet.ServletException;
 import javax.servlet.sip.SipServletMessage;
 import javax.servlet.sip.SipServletRequest;
 import javax.servlet.sip.SipSession;
-import javax.media.mscontrol.resource.common.VolumeConstants;
 
 import org.apache.log4j.Logger;
 
 /**
  * Conference Participant - Own a MediaSession, a MediaGroup, a MixerAdapter,
  * and of course a NetworkConnection
+ * <br>
+ * A participant that dialed its room directly is created in the
+ * MediaSession of the room instead: its NetworkConnection is joined to the
+ * mixer without a bridge between two MediaSessions, and a room of N such
+ * participants uses one MediaSession instead of N + 1. A participant typing
+ * its conference identifier needs a MediaSession of its own to be asked for
+ * it, JSR 309 objects cannot move to another MediaSession afterwards.
+ * <br>
+ * Once in the room, a participant only needs to detect its DTMF commands:
+ * its MediaGroup is replaced by a SignalDetector only one, which frees its
+ * Player and Recorder, and its name, recorded in the {@link NameStore}, is
+ * announced to the room by the Player of the room, see
+ * {@link Announcements}. The <code>conference.lightweight</code> system
+ * property set to false keeps the whole MediaGroup instead.
  */
 public class Participant {
 
 	public static Logger log = Logger.getLogger(Participant.class);
 
+	private static final boolean LIGHTWEIGHT = Boolean.parseBoolean(System.getProperty("conference.lightweight",
+			"true"));
+
 	private final ConferenceServlet myConferenceServlet;
 	private ConferenceSession myConferenceSession;
 	private final SipSession mySipSession;
 
 	private final NetworkConnection myNetworkConnection;
-	private final MediaGroup myMediaGroup;
+	/** Replaced by a SignalDetector only MediaGroup in the room */
+	private volatile MediaGroup myMediaGroup;
+	private final URI myName;
 	private final MediaSession myMediaSession;
+	/** True if myMediaSession is the one of the room */
+	private final boolean inRoomSession;
 	private MixerAdapter myMixerAdapter;
+	private ConferenceCommands myCommands;
+	private final AtomicBoolean released = new AtomicBoolean();
+	/** System.nanoTime() of the INVITE */
+	private final long invitedAt = System.nanoTime();
 
 	public Participant(final SipServletRequest req, ConferenceServlet servlet) throws ServletException {
+		this(req, servlet, null);
+	}
+
+	/**
+	 * @param confId
+	 *            conference identifier dialed, null to ask for it
+	 */
+	public Participant(final SipServletRequest req, ConferenceServlet servlet, String confId) throws ServletException {
+		inRoomSession = confId != null;
 		try {
 			mySipSession = req.getSession();
 			myConferenceServlet = servlet;
-			myMediaSession = ConferenceServlet.theMsControlFactory.createMediaSession();
+			myName = ConferenceServlet.getNames().getURI(req.getCallId());
+			if (inRoomSession) {
+				myConferenceSession = servlet.addParticipant(confId, this);
+				myMediaSession = myConferenceSession.getMediaSession();
+			} else
+				myMediaSession = MediaSessionRegistry.getInstance().create(ConferenceServlet.theMsControlFactory, mySipSession);
 
 			myNetworkConnection = myMediaSession.createNetworkConnection(NetworkConnection.BASIC);
 
@@ -90,7 +130,7 @@ public class Participant {
 							req.createResponse(500, "Unsupported Media Type").send();
 						}
 					} catch (Exception e) {
-						myMediaSession.release();
+						release();
 					}
 				}
 			});
@@ -99,11 +139,21 @@ public class Participant {
 			mySDPPortSet.processSdpOffer(req.getRawContent());
 		} catch (Exception e) {
 			log.fatal("Cannot create MediaSession or MediaSessionFactory :", e);
+			release();
 			throw new ServletException(e);
 		}
 	}
 
 	public void start() {
+		if (myConferenceSession != null) {
+			// Dialed its room
+			try {
+				askName();
+			} catch (Exception e) {
+				terminate(e);
+			}
+			return;
+		}
 		setState(State.EnterConfId);
 		try {
 			myMediaGroup.getPlayer().play(
@@ -118,19 +168,47 @@ public class Participant {
 	}
 
 	/**
-	 * Release Participant from its conference and release its MediaSession
+	 * Release Participant from its conference, if it entered one, and release
+	 * its MediaSession, or its objects in the MediaSession of the room
 	 */
 	public void release() {
-		myConferenceSession.removeParticipant(this);
-		myMediaSession.release();
+		if (!released.compareAndSet(false, true))
+			return;
+		if (inRoomSession) {
+			// Before leaving: the last one out releases the MediaSession
+			if (myMediaGroup != null)
+				myMediaGroup.release();
+			if (myNetworkConnection != null)
+				myNetworkConnection.release();
+		}
+		if (myConferenceSession != null)
+			myConferenceSession.removeParticipant(this);
+		else if (myName != null)
+			ConferenceServlet.getNames().delete(myName);
+		if (!inRoomSession && myMediaSession != null)
+			MediaSessionRegistry.getInstance().release(myMediaSession);
 	}
 
 	/**
 	 * Delete Participant because of unexpected error
 	 */
 	public void terminate(Exception e) {
-		myConferenceSession.removeParticipant(this);
-		myMediaSession.release();
+		log.error("Participant terminated", e);
+		hangUp();
+	}
+
+	/**
+	 * Leave the room, on the participant's request
+	 */
+	void leave() {
+		hangUp();
+	}
+
+	/**
+	 * Release Participant and send a SIP BYE
+	 */
+	private void hangUp() {
+		release();
 		try {
 			myConferenceServlet.sendBye(mySipSession);
 		} catch (IOException ioe) {
@@ -167,10 +245,7 @@ public class Participant {
 			public void onSignalDetectorEvent(SignalDetectorEvent event,
 					Participant part) throws MsControlException {
 				part.getConferenceSession(event.getSignalString());
-				part.setState(PleaseSayYourName);
-				part.myMediaGroup.getPlayer().play(
-						URI.create("/prompts/PleaseSayYourNameEndWith#.3gp"),
-						RTC.NO_RTC, Parameters.NO_PARAMETER);
+				part.askName();
 			}
 		},
 		PleaseSayYourName {
@@ -178,7 +253,7 @@ public class Participant {
 					Participant part) throws MsControlException {
 				if (event.getQualifier().equals(PlayerEvent.END_OF_PLAY_LIST)) {
 					part.myMediaGroup.getRecorder().record(
-							URI.create("/prompts/MyParticipantName.3gp"),
+							part.myName,
 							new RTC[] { new RTC(
 									SignalDetector.DETECTION_OF_ONE_SIGNAL,
 									Recorder.STOP) },
@@ -194,32 +269,13 @@ public class Participant {
 						event.isSuccessful()) {
 					part.setState(Conferencing);
 					part.enterConference();
-					part.myMediaGroup.getSignalDetector().receiveSignals(1, SignalDetector.NO_PATTERN,
-							RTC.NO_RTC, Parameters.NO_PARAMETER);
 				}
 			}
 		},
 		Conferencing {
 			public void onSignalDetectorEvent(SignalDetectorEvent event,
 					Participant part) throws MsControlException {
-				if (event.getSignalString().equalsIgnoreCase("4")) {
-					// Increase participant volume
-					part.myMixerAdapter.triggerAction(VolumeConstants.VOLUME_DOWN);
-				}
-				else if (event.getSignalString().equalsIgnoreCase("7")) {
-					// Decrease volume
-					part.myMixerAdapter.triggerAction(VolumeConstants.VOLUME_UP);
-				}
-				else if (event.getSignalString().equalsIgnoreCase("6")) {
-					// Mute participant line
-					part.myNetworkConnection.join(Joinable.Direction.RECV, part.myMixerAdapter);
-				}
-				else if (event.getSignalString().equalsIgnoreCase("1")) {
-					// Unmute line
-					part.myNetworkConnection.join(Joinable.Direction.DUPLEX, part.myMixerAdapter);
-				}
-				part.myMediaGroup.getSignalDetector().receiveSignals(1, SignalDetector.NO_PATTERN,
-						RTC.NO_RTC, Parameters.NO_PARAMETER);
+				part.myCommands.onEvent(event);
 			}
 		};
 
@@ -227,21 +283,21 @@ public class Participant {
 				throws MsControlException {
 			Participant.log.error("Unexpected player event: " + event
 					+ " in state " + this + " - releasing");
-			event.getSource().getMediaSession().release();
+			part.release();
 		}
 
 		public void onRecorderEvent(RecorderEvent event, Participant part)
 				throws MsControlException {
 			Participant.log.error("Unexpected recorder event: " + event
 					+ " in state " + this + " - releasing");
-			event.getSource().getMediaSession().release();
+			part.release();
 		}
 
 		public void onSignalDetectorEvent(SignalDetectorEvent event,
 				Participant part) throws MsControlException {
 			Participant.log.error("Unexpected signal detector event: "
 					+ event + " in state " + this + " - releasing");
-			event.getSource().getMediaSession().release();
+			part.release();
 		}
 	}
 
@@ -252,19 +308,75 @@ public class Participant {
 		myState = newState;
 	}
 
+	private void askName() throws MsControlException {
+		setState(State.PleaseSayYourName);
+		myMediaGroup.getPlayer().play(URI.create("/prompts/PleaseSayYourNameEndWith#.3gp"), RTC.NO_RTC,
+				Parameters.NO_PARAMETER);
+	}
+
 	/**
 	 * Enter conference room
 	 */
 	private void enterConference() {
 		try {
-			myMixerAdapter = myConferenceSession.getMediaMixer()
+			myMixerAdapter = myConferenceSession.getMixer()
 					.createMixerAdapter(MixerAdapter.DTMFCLAMP_VOLUME);
 			myNetworkConnection.join(Joinable.Direction.DUPLEX, myMixerAdapter);
+			if (LIGHTWEIGHT)
+				keepSignalDetector();
+			myConferenceSession.entered(this);
+			myCommands = new ConferenceCommands(this, myMediaGroup.getSignalDetector(), myConferenceSession.getMetrics());
+			myCommands.start();
 		} catch (Exception e) {
 			terminate(e);
 		}
 	}
 
+	/**
+	 * Replace the MediaGroup by one with a SignalDetector only, the Player
+	 * and Recorder being of no more use
+	 */
+	private void keepSignalDetector() throws MsControlException {
+		MediaGroup detector = myMediaSession.createMediaGroup(MediaGroup.SIGNALDETECTOR);
+		detector.getSignalDetector().addListener(new ConfListener<SignalDetectorEvent>());
+		myNetworkConnection.join(Joinable.Direction.SEND, detector);
+		MediaGroup full = myMediaGroup;
+		myMediaGroup = detector;
+		full.release();
+	}
+
+	/**
+	 * @return the recorded name
+	 */
+	URI getName() {
+		return myName;
+	}
+
+	/**
+	 * @return the SIP URI of the caller
+	 */
+	String getCaller() {
+		return mySipSession.getRemoteParty().getURI().toString();
+	}
+
+	/**
+	 * @return System.nanoTime() of the INVITE
+	 */
+	long getInvitedAt() {
+		return invitedAt;
+	}
+
+	MixerAdapter getMixerAdapter() {
+		return myMixerAdapter;
+	}
+
+	/**
+	 * Stop or resume sending to the room, still hearing it
+	 */
+	void mute(boolean mute) throws MsControlException {
+		myNetworkConnection.join(mute ? Joinable.Direction.RECV : Joinable.Direction.DUPLEX, myMixerAdapter);
+	}
+
 	/**
 	 * Set conference session reference from given identifier
 	 * 
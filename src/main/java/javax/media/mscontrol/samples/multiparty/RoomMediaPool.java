@@ -0,0 +1,402 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ * 
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.multiparty;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.media.mscontrol.MediaSession;
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.MsControlFactory;
+import javax.media.mscontrol.join.Joinable;
+import javax.media.mscontrol.mediagroup.MediaGroup;
+import javax.media.mscontrol.mixer.MediaMixer;
+import javax.media.mscontrol.samples.common.CascadedMixer;
+import javax.media.mscontrol.samples.common.MediaSessionRegistry;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The media of the conference rooms, created ahead of the callers: the
+ * first caller into a room finds its MediaSession, mixer and announcements
+ * Player ready instead of creating them.
+ * <br>
+ * A room takes, in order: the media it left less than a TTL ago, the
+ * media provisioned for it if it is scheduled, an idle media of the warm
+ * pool, refilled in the background, or else new media. A scheduled room,
+ * possibly recurring, gets its media a lead time before each start, see
+ * {@link #schedule(String, long, long)}. The media of a room that emptied,
+ * or of a scheduled room nobody entered, is kept for the room during the
+ * TTL, then goes back to the warm pool if it is short, or is released.
+ * <br>
+ * The settings are the <code>conference.pool.size</code> (idle media kept
+ * warm, 2), <code>conference.pool.ttl</code> (ms, 60000) and
+ * <code>conference.schedule.lead</code> (ms, 60000) system properties;
+ * <code>conference.schedule</code> lists scheduled rooms, comma separated,
+ * as <code>id@start[/period]</code>, the start being a local date and time
+ * (e.g. <code>1000@2026-10-20T09:00/1440</code>) and the period, for a
+ * recurring room, in minutes.
+ */
+public class RoomMediaPool {
+
+	private static Logger log = Logger.getLogger(RoomMediaPool.class);
+
+	/**
+	 * The media objects of a room
+	 */
+	public static class RoomMedia {
+		final MediaSession mediaSession;
+		final CascadedMixer mixer;
+		final MediaGroup announcer;
+		/** Return to the pool or release, while kept for a room */
+		ScheduledFuture<?> expiry;
+
+		RoomMedia(MediaSession mediaSession, CascadedMixer mixer, MediaGroup announcer) {
+			this.mediaSession = mediaSession;
+			this.mixer = mixer;
+			this.announcer = announcer;
+		}
+
+		public MediaSession getMediaSession() {
+			return mediaSession;
+		}
+
+		public CascadedMixer getMixer() {
+			return mixer;
+		}
+
+		/**
+		 * @return the Player MediaGroup of the announcements, joined to the
+		 *         mixer
+		 */
+		public MediaGroup getAnnouncer() {
+			return announcer;
+		}
+	}
+
+	private final MsControlFactory factory;
+	private final ConferenceDirectory directory;
+	private final int size;
+	private final long ttlMillis;
+	private final long leadMillis;
+	private final ScheduledExecutorService executor;
+
+	private final Deque<RoomMedia> idle = new ArrayDeque<RoomMedia>();
+	/** Media kept for a room: left less than a TTL ago, or provisioned */
+	private final Map<String, RoomMedia> reserved = new HashMap<String, RoomMedia>();
+	private final List<ScheduledFuture<?>> schedules = new ArrayList<ScheduledFuture<?>>();
+	private boolean closed;
+
+	private final LongAdder created = new LongAdder();
+	private final LongAdder kept = new LongAdder();
+	private final LongAdder warm = new LongAdder();
+	private final LongAdder cold = new LongAdder();
+
+	/**
+	 * @param size
+	 *            idle media kept warm
+	 * @param ttlMillis
+	 *            how long the media of an empty room is kept for it
+	 * @param leadMillis
+	 *            how long before its start a scheduled room is provisioned
+	 */
+	public RoomMediaPool(MsControlFactory factory, ConferenceDirectory directory, int size, long ttlMillis,
+			long leadMillis) {
+		this.factory = factory;
+		this.directory = directory;
+		this.size = size;
+		this.ttlMillis = ttlMillis;
+		this.leadMillis = leadMillis;
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "conference-media-pool");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		refillLater();
+	}
+
+	/**
+	 * Pool of the settings of the system properties, with the scheduled
+	 * rooms of <code>conference.schedule</code>
+	 */
+	public static RoomMediaPool fromSystemProperties(MsControlFactory factory, ConferenceDirectory directory) {
+		RoomMediaPool pool = new RoomMediaPool(factory, directory, Integer.getInteger("conference.pool.size", 2),
+				Long.getLong("conference.pool.ttl", 60000), Long.getLong("conference.schedule.lead", 60000));
+		String schedule = System.getProperty("conference.schedule");
+		if (schedule != null) {
+			for (String room : schedule.split(",")) {
+				try {
+					pool.schedule(room.trim());
+				} catch (RuntimeException e) {
+					log.error("Bad scheduled room " + room + " in conference.schedule", e);
+				}
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * Provision the media of a room a lead time before its start(s)
+	 *
+	 * @param start
+	 *            first start, ms since the epoch
+	 * @param periodMillis
+	 *            time between two starts of a recurring room, 0 for once
+	 */
+	public void schedule(final String confId, long start, final long periodMillis) {
+		long now = System.currentTimeMillis();
+		// The next start not over yet
+		if (periodMillis > 0 && start + ttlMillis < now)
+			start += (now - start - ttlMillis) / periodMillis * periodMillis + periodMillis;
+		final long next = start;
+		synchronized (this) {
+			if (closed)
+				return;
+			for (Iterator<ScheduledFuture<?>> i = schedules.iterator(); i.hasNext();) {
+				if (i.next().isDone())
+					i.remove();
+			}
+			schedules.add(executor.schedule(new Runnable() {
+				public void run() {
+					provision(confId, next);
+					if (periodMillis > 0)
+						schedule(confId, next + periodMillis, periodMillis);
+				}
+			}, Math.max(0, next - leadMillis - now), TimeUnit.MILLISECONDS));
+		}
+		log.info("Conference " + confId + " scheduled at " + new Date(next)
+				+ (periodMillis > 0 ? ", every " + periodMillis / 60000 + " min" : ""));
+	}
+
+	/**
+	 * Take the media for a room, ready if possible
+	 *
+	 * @throws MsControlException
+	 *             if new media cannot be created
+	 */
+	public RoomMedia take(String confId) throws MsControlException {
+		RoomMedia media;
+		synchronized (this) {
+			media = reserved.remove(confId);
+			if (media != null) {
+				media.expiry.cancel(false);
+				kept.increment();
+				return media;
+			}
+			media = idle.poll();
+		}
+		if (media != null) {
+			warm.increment();
+			refillLater();
+			return media;
+		}
+		cold.increment();
+		return create();
+	}
+
+	/**
+	 * Keep the media of a room that emptied during the TTL, in case it
+	 * fills again
+	 */
+	public void give(String confId, RoomMedia media) {
+		RoomMedia replaced;
+		synchronized (this) {
+			if (closed) {
+				replaced = media;
+			} else {
+				replaced = reserved.put(confId, media);
+				expire(confId, media);
+				if (replaced != null)
+					replaced.expiry.cancel(false);
+			}
+		}
+		if (replaced != null)
+			recycle(replaced);
+	}
+
+	/**
+	 * Release the media of a room that failed
+	 */
+	public void discard(RoomMedia media) {
+		MediaSessionRegistry.getInstance().release(media.mediaSession);
+	}
+
+	/**
+	 * Release all the media, e.g. when the service is undeployed
+	 */
+	public void shutdown() {
+		List<RoomMedia> all = new ArrayList<RoomMedia>();
+		synchronized (this) {
+			closed = true;
+			for (ScheduledFuture<?> schedule : schedules)
+				schedule.cancel(false);
+			all.addAll(idle);
+			all.addAll(reserved.values());
+			idle.clear();
+			reserved.clear();
+		}
+		executor.shutdownNow();
+		for (RoomMedia media : all)
+			discard(media);
+		log.info(this);
+	}
+
+	public MsControlFactory getFactory() {
+		return factory;
+	}
+
+	/**
+	 * @return idle media of the warm pool
+	 */
+	public synchronized int getIdle() {
+		return idle.size();
+	}
+
+	/**
+	 * @return media kept for a room
+	 */
+	public synchronized int getReserved() {
+		return reserved.size();
+	}
+
+	@Override
+	public String toString() {
+		return "Room media: idle=" + getIdle() + " reserved=" + getReserved() + " created=" + created.sum()
+				+ " taken: kept=" + kept.sum() + " warm=" + warm.sum() + " cold=" + cold.sum();
+	}
+
+	/**
+	 * Parse and schedule <code>id@start[/period]</code>
+	 */
+	private void schedule(String room) {
+		int at = room.indexOf('@');
+		int slash = room.indexOf('/', at);
+		String when = slash < 0 ? room.substring(at + 1) : room.substring(at + 1, slash);
+		long start = LocalDateTime.parse(when).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		long period = slash < 0 ? 0 : Long.parseLong(room.substring(slash + 1)) * 60000;
+		schedule(room.substring(0, at), start, period);
+	}
+
+	/**
+	 * Create the media of a scheduled room, kept for it until its start
+	 * plus the TTL
+	 */
+	private void provision(String confId, long start) {
+		synchronized (this) {
+			if (closed || reserved.containsKey(confId))
+				return;
+		}
+		if (directory.get(confId) != null) {
+			log.debug("Conference " + confId + " already open, not provisioned");
+			return;
+		}
+		RoomMedia media;
+		try {
+			media = create();
+		} catch (MsControlException e) {
+			log.error("Cannot provision conference " + confId + ", its first caller will create its media", e);
+			return;
+		}
+		give(confId, media);
+		log.info("Provisioned conference " + confId);
+	}
+
+	/**
+	 * Plan the end of the reservation of media, after the TTL
+	 */
+	private void expire(final String confId, final RoomMedia media) {
+		media.expiry = executor.schedule(new Runnable() {
+			public void run() {
+				boolean expired;
+				synchronized (RoomMediaPool.this) {
+					expired = reserved.remove(confId, media);
+				}
+				if (expired)
+					recycle(media);
+			}
+		}, ttlMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Put media back into the warm pool if it is short, or release it
+	 */
+	private void recycle(RoomMedia media) {
+		synchronized (this) {
+			if (!closed && idle.size() < size) {
+				idle.push(media);
+				return;
+			}
+		}
+		discard(media);
+	}
+
+	private synchronized void refillLater() {
+		if (closed)
+			return;
+		executor.execute(new Runnable() {
+			public void run() {
+				refill();
+			}
+		});
+	}
+
+	/**
+	 * Create idle media up to the size of the pool
+	 */
+	private void refill() {
+		while (true) {
+			synchronized (this) {
+				if (closed || idle.size() >= size)
+					return;
+			}
+			try {
+				recycle(create());
+			} catch (MsControlException e) {
+				log.warn("Cannot warm up room media: " + e);
+				return;
+			}
+		}
+	}
+
+	private RoomMedia create() throws MsControlException {
+		// Shared by the participants: no owning SipSession
+		MediaSession ms = MediaSessionRegistry.getInstance().createShared(factory);
+		try {
+			int speakers = ActiveSpeakers.getMaxSpeakers();
+			CascadedMixer mixer = speakers > 0 ? new CascadedMixer(ms, MediaMixer.AUDIO_EVENTS,
+					ActiveSpeakers.getMixerParameters(ms, speakers)) : new CascadedMixer(ms, MediaMixer.AUDIO);
+			MediaGroup announcer = ms.createMediaGroup(MediaGroup.PLAYER);
+			mixer.join(Joinable.Direction.RECV, announcer);
+			created.increment();
+			return new RoomMedia(ms, mixer, announcer);
+		} catch (MsControlException e) {
+			MediaSessionRegistry.getInstance().release(ms);
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,261 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ * 
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.multiparty;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Live counters of a conference room: joins and leaves, time from the
+ * INVITE to the conference, DTMF commands and the actions they take on the
+ * MixerAdapters.
+ * <br>
+ * The counters are LongAdders, striped on contention: counting is a
+ * single uncontended add, even when all the participants of a big room
+ * type at once, and they are read by {@link #snapshot(int)} without
+ * stopping the writers. The metrics belong to their
+ * {@link ConferenceSession}, and go away with it: the
+ * {@link ConferenceDirectory} adds them to the totals of the closed rooms
+ * when the room is destroyed, so that thousands of short rooms leave no
+ * metrics behind, and no count is lost between two scrapes.
+ */
+public class RoomMetrics {
+
+	private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+		public long applyAsLong(long left, long right) {
+			return Math.max(left, right);
+		}
+	};
+
+	/**
+	 * The metrics of a room at one time
+	 */
+	public static class Snapshot {
+		final String confId;
+		final long since;
+		final long at;
+		final int rooms;
+		final int participants;
+		final long joins;
+		final long leaves;
+		final long conferenced;
+		final long conferenceNanos;
+		final long maxConferenceNanos;
+		final long commands;
+		final long adapterActions;
+
+		Snapshot(RoomMetrics metrics, int rooms, int participants) {
+			confId = metrics.confId;
+			since = metrics.since;
+			at = System.currentTimeMillis();
+			this.rooms = rooms;
+			this.participants = participants;
+			joins = metrics.joins.sum();
+			leaves = metrics.leaves.sum();
+			conferenced = metrics.conferenced.sum();
+			conferenceNanos = metrics.conferenceNanos.sum();
+			maxConferenceNanos = metrics.maxConferenceNanos.get();
+			commands = metrics.commands.sum();
+			adapterActions = metrics.adapterActions.sum();
+		}
+
+		/**
+		 * @return the conference identifier, null for the totals of several
+		 *         rooms
+		 */
+		public String getConfId() {
+			return confId;
+		}
+
+		/**
+		 * @return when the counting started, ms since the epoch
+		 */
+		public long getSince() {
+			return since;
+		}
+
+		/**
+		 * @return when the snapshot was taken, ms since the epoch
+		 */
+		public long getAt() {
+			return at;
+		}
+
+		/**
+		 * @return rooms counted: 1, or the rooms closed for the totals
+		 */
+		public int getRooms() {
+			return rooms;
+		}
+
+		/**
+		 * @return participants in the room, entered or entering
+		 */
+		public int getParticipants() {
+			return participants;
+		}
+
+		public long getJoins() {
+			return joins;
+		}
+
+		public long getLeaves() {
+			return leaves;
+		}
+
+		/**
+		 * @return participants that reached the conference, i.e. were
+		 *         joined to its mixer
+		 */
+		public long getConferenced() {
+			return conferenced;
+		}
+
+		/**
+		 * @return mean time from the INVITE to the conference, in ms
+		 */
+		public double getMeanTimeToConference() {
+			return conferenced > 0 ? (double) conferenceNanos / conferenced / 1000000 : 0;
+		}
+
+		/**
+		 * @return longest time from the INVITE to the conference, in ms
+		 */
+		public double getMaxTimeToConference() {
+			return maxConferenceNanos / 1000000.0;
+		}
+
+		/**
+		 * @return DTMF commands executed
+		 */
+		public long getCommands() {
+			return commands;
+		}
+
+		/**
+		 * @return volume changes, mutes and unmutes on the MixerAdapters
+		 */
+		public long getAdapterActions() {
+			return adapterActions;
+		}
+
+		/**
+		 * @param earlier
+		 *            an earlier snapshot of the same room, null for the mean
+		 *            rate since the counting started
+		 * @return joins per second
+		 */
+		public double getJoinRate(Snapshot earlier) {
+			return rate(joins, earlier == null ? 0 : earlier.joins, earlier);
+		}
+
+		/**
+		 * @see #getJoinRate(Snapshot)
+		 */
+		public double getLeaveRate(Snapshot earlier) {
+			return rate(leaves, earlier == null ? 0 : earlier.leaves, earlier);
+		}
+
+		/**
+		 * @see #getJoinRate(Snapshot)
+		 */
+		public double getCommandRate(Snapshot earlier) {
+			return rate(commands, earlier == null ? 0 : earlier.commands, earlier);
+		}
+
+		private double rate(long count, long earlierCount, Snapshot earlier) {
+			long millis = at - (earlier == null ? since : earlier.at);
+			return millis > 0 ? (count - earlierCount) * 1000.0 / millis : 0;
+		}
+
+		@Override
+		public String toString() {
+			return (confId == null ? rooms + " rooms" : "room " + confId) + ": participants=" + participants
+					+ " joins=" + joins + " leaves=" + leaves + " commands=" + commands + " adapter actions="
+					+ adapterActions + String.format(" time to conference: n=%d mean=%.1f max=%.1f ms", conferenced,
+							getMeanTimeToConference(), getMaxTimeToConference());
+		}
+	}
+
+	private final String confId;
+	private final long since = System.currentTimeMillis();
+	private final LongAdder joins = new LongAdder();
+	private final LongAdder leaves = new LongAdder();
+	private final LongAdder conferenced = new LongAdder();
+	private final LongAdder conferenceNanos = new LongAdder();
+	private final LongAccumulator maxConferenceNanos = new LongAccumulator(MAX, 0);
+	private final LongAdder commands = new LongAdder();
+	private final LongAdder adapterActions = new LongAdder();
+	/** Rooms added, for the totals */
+	private final LongAdder rooms = new LongAdder();
+
+	/**
+	 * @param confId
+	 *            conference identifier, null for the totals of several rooms
+	 */
+	RoomMetrics(String confId) {
+		this.confId = confId;
+	}
+
+	void joined() {
+		joins.increment();
+	}
+
+	void left() {
+		leaves.increment();
+	}
+
+	/**
+	 * A participant reached the conference
+	 *
+	 * @param invitedAt
+	 *            System.nanoTime() of its INVITE
+	 */
+	void conferenced(long invitedAt) {
+		long nanos = System.nanoTime() - invitedAt;
+		conferenced.increment();
+		conferenceNanos.add(nanos);
+		maxConferenceNanos.accumulate(nanos);
+	}
+
+	/**
+	 * A DTMF command was executed
+	 */
+	void command(ConferenceCommands.Command command) {
+		commands.increment();
+		if (command.isAdapterAction())
+			adapterActions.increment();
+	}
+
+	/**
+	 * Add the counts of a closed room to these totals
+	 */
+	void add(RoomMetrics room) {
+		rooms.increment();
+		joins.add(room.joins.sum());
+		leaves.add(room.leaves.sum());
+		conferenced.add(room.conferenced.sum());
+		conferenceNanos.add(room.conferenceNanos.sum());
+		maxConferenceNanos.accumulate(room.maxConferenceNanos.get());
+		commands.add(room.commands.sum());
+		adapterActions.add(room.adapterActions.sum());
+	}
+
+	/**
+	 * @param participants
+	 *            participants in the room now
+	 */
+	Snapshot snapshot(int participants) {
+		return new Snapshot(this, confId == null ? rooms.intValue() : 1, participants);
+	}
+}
@@ -0,0 +1,156 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.simulator;
+
+import java.util.LinkedList;
+
+/**
+ * The DTMF keys a simulated caller types, and when.
+ * <br>
+ * A script is a list of tokens separated by spaces or commas. Each token is
+ * <code>[kind[/text]][+delay]:digits</code>, or just <code>digits</code>:
+ * <ul>
+ * <li><code>kind</code> is <code>play</code>, <code>record</code>,
+ * <code>signals</code> or <code>any</code> (default): the caller waits until
+ * the MediaGroup it talks to is playing, recording, or collecting digits.</li>
+ * <li><code>text</code> must appear in the URI being played or recorded,
+ * e.g. <code>play/welcome:*</code>.</li>
+ * <li><code>delay</code> is the time in ms before typing, instead of the
+ * configured think time.</li>
+ * </ul>
+ * Example for the voicemail sample: <code>play/welcome:* signals:1234 play/voiceMailMenu:2 any:0</code>.
+ * <br>
+ * Tokens are consumed in order; a token that does not match the current
+ * phase is skipped only when a later token does.
+ */
+public class DtmfScript {
+
+	static final String ANY = "any";
+
+	static class Token {
+		final String kind;
+		final String text;
+		final long delay;
+		final String digits;
+
+		Token(String kind, String text, long delay, String digits) {
+			this.kind = kind;
+			this.text = text;
+			this.delay = delay;
+			this.digits = digits;
+		}
+
+		/**
+		 * @param phase
+		 *            "play &lt;uri&gt;", "record &lt;uri&gt;", "signals", or
+		 *            null when the MediaGroup is idle
+		 */
+		boolean matches(String phase) {
+			if (phase == null)
+				return false;
+			if (!kind.equals(ANY) && !phase.startsWith(kind))
+				return false;
+			return text == null || phase.indexOf(text) >= 0;
+		}
+
+		@Override
+		public String toString() {
+			return kind + (text == null ? "" : "/" + text) + (delay < 0 ? "" : "+" + delay) + ":" + digits;
+		}
+	}
+
+	private final LinkedList<Token> tokens = new LinkedList<Token>();
+	private boolean typing;
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the script is malformed
+	 */
+	public DtmfScript(String script) {
+		for (String t : script.trim().split("[\\s,]+")) {
+			if (t.length() > 0)
+				tokens.add(parseToken(t));
+		}
+	}
+
+	private static Token parseToken(String t) {
+		String kind = ANY;
+		String text = null;
+		long delay = -1;
+		String digits = t;
+		int colon = t.lastIndexOf(':');
+		if (colon >= 0) {
+			String head = t.substring(0, colon);
+			digits = t.substring(colon + 1);
+			int plus = head.indexOf('+');
+			if (plus >= 0) {
+				delay = Long.parseLong(head.substring(plus + 1));
+				head = head.substring(0, plus);
+			}
+			int slash = head.indexOf('/');
+			if (slash >= 0) {
+				text = head.substring(slash + 1);
+				head = head.substring(0, slash);
+			}
+			if (head.length() > 0)
+				kind = head;
+			if (!kind.equals(ANY) && !kind.equals("play") && !kind.equals("record") && !kind.equals("signals"))
+				throw new IllegalArgumentException("Unknown phase '" + kind + "' in DTMF token " + t);
+		}
+		if (!digits.matches("[0-9*#A-Da-d]+"))
+			throw new IllegalArgumentException("Invalid digits in DTMF token " + t);
+		return new Token(kind, text, delay, digits.toUpperCase());
+	}
+
+	/**
+	 * Take the first token matching the phase, dropping the tokens before it
+	 *
+	 * @return null if the caller is already typing or has nothing to type in
+	 *         this phase
+	 */
+	synchronized Token take(String phase) {
+		if (typing)
+			return null;
+		int i = 0;
+		for (Token t : tokens) {
+			if (t.matches(phase)) {
+				for (int j = 0; j <= i; j++)
+					tokens.removeFirst();
+				typing = true;
+				return t;
+			}
+			i++;
+		}
+		return null;
+	}
+
+	/**
+	 * The phase changed before the token could be typed: keep it for later
+	 */
+	synchronized void putBack(Token t) {
+		tokens.addFirst(t);
+		typing = false;
+	}
+
+	synchronized void typed() {
+		typing = false;
+	}
+
+	public synchronized boolean isDone() {
+		return tokens.isEmpty() && !typing;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return tokens.toString();
+	}
+}
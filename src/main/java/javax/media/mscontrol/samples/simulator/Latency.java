@@ -0,0 +1,118 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.simulator;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A latency distribution, in milliseconds, used by the simulated media
+ * server to delay command completions and events.
+ * <br>
+ * Distributions can be parsed from a short text form, so they can be given
+ * as driver properties:
+ * <ul>
+ * <li><code>fixed:10</code> always 10 ms</li>
+ * <li><code>uniform:5:20</code> uniformly drawn between 5 and 20 ms</li>
+ * <li><code>exp:15</code> exponentially distributed, mean 15 ms</li>
+ * <li><code>normal:40:10</code> gaussian, mean 40 ms, std deviation 10 ms
+ * (never negative)</li>
+ * </ul>
+ */
+public abstract class Latency {
+
+	public static final Latency NONE = fixed(0);
+
+	/**
+	 * Draw one sample, in milliseconds
+	 */
+	public abstract long sample(Random random);
+
+	public long sample() {
+		return sample(ThreadLocalRandom.current());
+	}
+
+	public static Latency fixed(final long millis) {
+		return new Latency() {
+			public long sample(Random random) {
+				return millis;
+			}
+
+			public String toString() {
+				return "fixed:" + millis;
+			}
+		};
+	}
+
+	public static Latency uniform(final long min, final long max) {
+		if (max < min)
+			throw new IllegalArgumentException("uniform latency: max < min");
+		return new Latency() {
+			public long sample(Random random) {
+				return min + (long) (random.nextDouble() * (max - min));
+			}
+
+			public String toString() {
+				return "uniform:" + min + ":" + max;
+			}
+		};
+	}
+
+	public static Latency exponential(final double mean) {
+		return new Latency() {
+			public long sample(Random random) {
+				return (long) (-mean * Math.log(1.0 - random.nextDouble()));
+			}
+
+			public String toString() {
+				return "exp:" + mean;
+			}
+		};
+	}
+
+	public static Latency normal(final double mean, final double deviation) {
+		return new Latency() {
+			public long sample(Random random) {
+				return Math.max(0, (long) (mean + random.nextGaussian() * deviation));
+			}
+
+			public String toString() {
+				return "normal:" + mean + ":" + deviation;
+			}
+		};
+	}
+
+	/**
+	 * Parse the text form described in the class comment
+	 *
+	 * @param spec
+	 *            e.g. "uniform:5:20"
+	 */
+	public static Latency parse(String spec) {
+		String[] f = spec.trim().split(":");
+		try {
+			if (f[0].equals("fixed") && f.length == 2)
+				return fixed(Long.parseLong(f[1]));
+			if (f[0].equals("uniform") && f.length == 3)
+				return uniform(Long.parseLong(f[1]), Long.parseLong(f[2]));
+			if (f[0].equals("exp") && f.length == 2)
+				return exponential(Double.parseDouble(f[1]));
+			if (f[0].equals("normal") && f.length == 3)
+				return normal(Double.parseDouble(f[1]), Double.parseDouble(f[2]));
+			if (f.length == 1)
+				return fixed(Long.parseLong(f[0]));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Bad latency: " + spec, e);
+		}
+		throw new IllegalArgumentException("Bad latency: " + spec);
+	}
+}
@@ -0,0 +1,55 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.simulator;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.media.mscontrol.MediaEvent;
+import javax.media.mscontrol.MediaEventListener;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Listener list of a simulated event notifier. Must be fired from the
+ * session event queue.
+ */
+class Listeners<T extends MediaEvent<?>> {
+
+	private static Logger log = Logger.getLogger(Listeners.class);
+
+	private final List<MediaEventListener<T>> listeners = new CopyOnWriteArrayList<MediaEventListener<T>>();
+	private final SimStats stats;
+
+	Listeners(SimStats stats) {
+		this.stats = stats;
+	}
+
+	void add(MediaEventListener<T> listener) {
+		listeners.add(listener);
+	}
+
+	void remove(MediaEventListener<T> listener) {
+		listeners.remove(listener);
+	}
+
+	void fire(T event) {
+		stats.event();
+		for (MediaEventListener<T> listener : listeners) {
+			try {
+				listener.onEvent(event);
+			} catch (RuntimeException e) {
+				log.error("Listener failed on " + event, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,330 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.simulator;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Behaviour of the simulated media server: latencies, media durations,
+ * failure injection and scheduler sizing.
+ * <br>
+ * All durations are in milliseconds of "media time", and are multiplied by
+ * <code>timeScale</code> before being scheduled. A time scale of 0.01 runs a
+ * one minute call in 600 ms of wall clock time.
+ * <br>
+ * A SimConfig can be built programmatically, or from the Properties given to
+ * <code>Driver.getFactory()</code>, see {@link #SimConfig(Properties)}.
+ */
+public class SimConfig {
+
+	/**
+	 * Media server operations that can be delayed or made to fail
+	 */
+	public enum Operation {
+		/** create a MediaSession or one of its objects (synchronous) */
+		CREATE,
+		/** synchronous join/unjoin */
+		JOIN,
+		/**
+		 * join between objects of two MediaSessions: the internal bridge the
+		 * media server sets up between them, on top of JOIN
+		 */
+		BRIDGE,
+		/** SDP offer/answer processing */
+		SDP,
+		/** Player.play */
+		PLAY,
+		/** Recorder.record */
+		RECORD,
+		/** SignalDetector.receiveSignals */
+		SIGNALS,
+		/** VxmlDialog.prepare/start */
+		VXML
+	}
+
+	private final Map<Operation, Latency> latencies = new EnumMap<Operation, Latency>(Operation.class);
+	private final Map<Operation, Double> failureRates = new EnumMap<Operation, Double>(Operation.class);
+
+	// Media durations
+	private Latency promptDuration = Latency.uniform(2000, 6000);
+	private Latency maxRecordDuration = Latency.fixed(60000);
+	private Latency vxmlDialogDuration = Latency.uniform(20000, 60000);
+	private Latency dtmfThinkTime = Latency.uniform(500, 1500);
+	private Latency interDigitDelay = Latency.fixed(150);
+	private Latency talkSpurt = Latency.uniform(1000, 5000);
+	private Latency silence = Latency.uniform(5000, 30000);
+	private Latency sessionServiceTime = Latency.NONE;
+	private long signalTimeout = 15000;
+
+	private double timeScale = 1.0;
+	private int schedulerThreads = Runtime.getRuntime().availableProcessors();
+	private int mixerMaxPorts = 0;
+	private int recordBytesPerSecond = 0;
+	private String defaultDtmfScript = null;
+
+	public SimConfig() {
+		for (Operation op : Operation.values()) {
+			latencies.put(op, Latency.NONE);
+			failureRates.put(op, 0.0);
+		}
+		latencies.put(Operation.SDP, Latency.uniform(5, 20));
+		latencies.put(Operation.PLAY, Latency.uniform(5, 15));
+		latencies.put(Operation.RECORD, Latency.uniform(5, 15));
+		latencies.put(Operation.SIGNALS, Latency.uniform(2, 8));
+		latencies.put(Operation.VXML, Latency.uniform(50, 200));
+	}
+
+	/**
+	 * Build a configuration from driver properties. Recognized keys:
+	 * <ul>
+	 * <li><code>sim.latency.&lt;operation&gt;</code> e.g.
+	 * <code>sim.latency.sdp=uniform:5:20</code></li>
+	 * <li><code>sim.failure.&lt;operation&gt;</code> probability, e.g.
+	 * <code>sim.failure.play=0.001</code></li>
+	 * <li><code>sim.prompt.duration</code>, <code>sim.record.maxDuration</code>,
+	 * <code>sim.vxml.duration</code>, <code>sim.dtmf.thinkTime</code>,
+	 * <code>sim.dtmf.interDigit</code>, <code>sim.speech.talk</code>,
+	 * <code>sim.speech.silence</code>, <code>sim.session.serviceTime</code>
+	 * latency specs</li>
+	 * <li><code>sim.dtmf.script</code> default caller script, see
+	 * {@link DtmfScript}</li>
+	 * <li><code>sim.signal.timeout</code>, <code>sim.timeScale</code>,
+	 * <code>sim.threads</code>, <code>sim.mixer.maxPorts</code>,
+	 * <code>sim.record.bytesPerSecond</code></li>
+	 * </ul>
+	 */
+	public SimConfig(Properties props) {
+		this();
+		if (props == null)
+			return;
+		for (Operation op : Operation.values()) {
+			String name = op.name().toLowerCase();
+			String v = props.getProperty("sim.latency." + name);
+			if (v != null)
+				setLatency(op, Latency.parse(v));
+			v = props.getProperty("sim.failure." + name);
+			if (v != null)
+				setFailureRate(op, Double.parseDouble(v));
+		}
+		String v;
+		if ((v = props.getProperty("sim.prompt.duration")) != null)
+			promptDuration = Latency.parse(v);
+		if ((v = props.getProperty("sim.record.maxDuration")) != null)
+			maxRecordDuration = Latency.parse(v);
+		if ((v = props.getProperty("sim.vxml.duration")) != null)
+			vxmlDialogDuration = Latency.parse(v);
+		if ((v = props.getProperty("sim.dtmf.thinkTime")) != null)
+			dtmfThinkTime = Latency.parse(v);
+		if ((v = props.getProperty("sim.dtmf.interDigit")) != null)
+			interDigitDelay = Latency.parse(v);
+		if ((v = props.getProperty("sim.speech.talk")) != null)
+			talkSpurt = Latency.parse(v);
+		if ((v = props.getProperty("sim.speech.silence")) != null)
+			silence = Latency.parse(v);
+		if ((v = props.getProperty("sim.session.serviceTime")) != null)
+			sessionServiceTime = Latency.parse(v);
+		if ((v = props.getProperty("sim.dtmf.script")) != null)
+			defaultDtmfScript = v;
+		if ((v = props.getProperty("sim.signal.timeout")) != null)
+			signalTimeout = Long.parseLong(v);
+		if ((v = props.getProperty("sim.timeScale")) != null)
+			timeScale = Double.parseDouble(v);
+		if ((v = props.getProperty("sim.threads")) != null)
+			schedulerThreads = Integer.parseInt(v);
+		if ((v = props.getProperty("sim.mixer.maxPorts")) != null)
+			mixerMaxPorts = Integer.parseInt(v);
+		if ((v = props.getProperty("sim.record.bytesPerSecond")) != null)
+			recordBytesPerSecond = Integer.parseInt(v);
+	}
+
+	/**
+	 * @return true if the given operation should fail this time
+	 */
+	boolean shouldFail(Operation op) {
+		double rate = failureRates.get(op);
+		return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+	}
+
+	/**
+	 * Sample the latency of an operation, scaled to wall clock time
+	 */
+	long delay(Operation op) {
+		return scale(latencies.get(op).sample());
+	}
+
+	long scale(long mediaMillis) {
+		return (long) (mediaMillis * timeScale);
+	}
+
+	long scaleNanos(long mediaMillis) {
+		return (long) (mediaMillis * timeScale * 1000000);
+	}
+
+	/**
+	 * @return the media time elapsed during the given wall clock time
+	 */
+	long unscale(long wallMillis) {
+		return timeScale > 0 ? (long) (wallMillis / timeScale) : 0;
+	}
+
+	public void setLatency(Operation op, Latency latency) {
+		latencies.put(op, latency);
+	}
+
+	public Latency getLatency(Operation op) {
+		return latencies.get(op);
+	}
+
+	public void setFailureRate(Operation op, double probability) {
+		failureRates.put(op, probability);
+	}
+
+	public double getFailureRate(Operation op) {
+		return failureRates.get(op);
+	}
+
+	public Latency getPromptDuration() {
+		return promptDuration;
+	}
+
+	public void setPromptDuration(Latency promptDuration) {
+		this.promptDuration = promptDuration;
+	}
+
+	public Latency getMaxRecordDuration() {
+		return maxRecordDuration;
+	}
+
+	public void setMaxRecordDuration(Latency maxRecordDuration) {
+		this.maxRecordDuration = maxRecordDuration;
+	}
+
+	public Latency getVxmlDialogDuration() {
+		return vxmlDialogDuration;
+	}
+
+	public void setVxmlDialogDuration(Latency vxmlDialogDuration) {
+		this.vxmlDialogDuration = vxmlDialogDuration;
+	}
+
+	public Latency getDtmfThinkTime() {
+		return dtmfThinkTime;
+	}
+
+	public void setDtmfThinkTime(Latency dtmfThinkTime) {
+		this.dtmfThinkTime = dtmfThinkTime;
+	}
+
+	public Latency getInterDigitDelay() {
+		return interDigitDelay;
+	}
+
+	public void setInterDigitDelay(Latency interDigitDelay) {
+		this.interDigitDelay = interDigitDelay;
+	}
+
+	/**
+	 * @return how long an input of an <code>AUDIO_EVENTS</code> mixer talks
+	 *         at a time
+	 */
+	public Latency getTalkSpurt() {
+		return talkSpurt;
+	}
+
+	public void setTalkSpurt(Latency talkSpurt) {
+		this.talkSpurt = talkSpurt;
+	}
+
+	/**
+	 * @return how long an input of an <code>AUDIO_EVENTS</code> mixer is
+	 *         silent between two talk spurts
+	 */
+	public Latency getSilence() {
+		return silence;
+	}
+
+	public void setSilence(Latency silence) {
+		this.silence = silence;
+	}
+
+	/**
+	 * @return how long a MediaSession keeps the media server busy per
+	 *         command (create, join, SDP): the commands of a MediaSession
+	 *         are processed one at a time, those of different MediaSessions
+	 *         in parallel. None by default.
+	 */
+	public Latency getSessionServiceTime() {
+		return sessionServiceTime;
+	}
+
+	public void setSessionServiceTime(Latency sessionServiceTime) {
+		this.sessionServiceTime = sessionServiceTime;
+	}
+
+	public long getSignalTimeout() {
+		return signalTimeout;
+	}
+
+	public void setSignalTimeout(long signalTimeout) {
+		this.signalTimeout = signalTimeout;
+	}
+
+	public double getTimeScale() {
+		return timeScale;
+	}
+
+	public void setTimeScale(double timeScale) {
+		this.timeScale = timeScale;
+	}
+
+	public int getSchedulerThreads() {
+		return schedulerThreads;
+	}
+
+	public void setSchedulerThreads(int schedulerThreads) {
+		this.schedulerThreads = schedulerThreads;
+	}
+
+	/**
+	 * @return maximum number of joinees per MediaMixer, 0 for unlimited
+	 */
+	public int getMixerMaxPorts() {
+		return mixerMaxPorts;
+	}
+
+	public void setMixerMaxPorts(int mixerMaxPorts) {
+		this.mixerMaxPorts = mixerMaxPorts;
+	}
+
+	/**
+	 * @return size of the files written by the simulated Recorder, 0 to
+	 *         write nothing
+	 */
+	public int getRecordBytesPerSecond() {
+		return recordBytesPerSecond;
+	}
+
+	public void setRecordBytesPerSecond(int recordBytesPerSecond) {
+		this.recordBytesPerSecond = recordBytesPerSecond;
+	}
+
+	public String getDefaultDtmfScript() {
+		return defaultDtmfScript;
+	}
+
+	public void setDefaultDtmfScript(String defaultDtmfScript) {
+		this.defaultDtmfScript = defaultDtmfScript;
+	}
+}
@@ -0,0 +1,76 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.simulator;
+
+import javax.media.mscontrol.Configuration;
+import javax.media.mscontrol.MediaConfig;
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.UnsupportedException;
+import javax.media.mscontrol.join.JoinableContainer;
+import javax.media.mscontrol.join.JoinableStream;
+import javax.media.mscontrol.resource.Action;
+import javax.media.mscontrol.resource.AllocationEventListener;
+import javax.media.mscontrol.resource.ResourceContainer;
+
+/**
+ * Common part of the simulated resource containers: NetworkConnection,
+ * MediaGroup, MediaMixer and MixerAdapter.
+ * <br>
+ * Resources are allocated when the container is created, so
+ * <code>confirm()</code> has nothing to do, and streams are not modelled.
+ */
+@SuppressWarnings("serial")
+public abstract class SimContainer extends SimJoinable implements JoinableContainer, ResourceContainer {
+
+	final Configuration<?> configuration;
+
+	SimContainer(SimMediaObject parent, SimStats.Kind kind, String name,
+			Configuration<?> configuration) {
+		super(parent, kind, name);
+		this.configuration = configuration;
+	}
+
+	public Configuration<?> getConfiguration() {
+		return configuration;
+	}
+
+	public void triggerAction(Action action) {
+		factory.getStats().command();
+	}
+
+	public <R> R getResource(Class<R> type) throws MsControlException {
+		throw new UnsupportedException(type.getName() + " not available in " + this);
+	}
+
+	public MediaConfig getConfig() {
+		return null;
+	}
+
+	public void confirm() throws MsControlException {
+		checkNotReleased();
+	}
+
+	public void addListener(AllocationEventListener listener) {
+	}
+
+	public void removeListener(AllocationEventListener listener) {
+	}
+
+	public JoinableStream getJoinableStream(JoinableStream.StreamType type)
+			throws MsControlException {
+		return null;
+	}
+
+	public JoinableStream[] getJoinableStreams() throws MsControlException {
+		return new JoinableStream[0];
+	}
+}
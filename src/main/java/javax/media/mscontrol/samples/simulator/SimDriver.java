@@ -0,0 +1,90 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.simulator;
+
+import java.util.Iterator;
+import java.util.Properties;
+
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.MsControlFactory;
+import javax.media.mscontrol.spi.Driver;
+import javax.media.mscontrol.spi.DriverManager;
+import javax.media.mscontrol.spi.PropertyInfo;
+
+/**
+ * In-process simulated JSR 309 driver, for offline load testing of the
+ * samples.
+ * <br>
+ * The samples look up their factory with
+ * <code>DriverManager.getDrivers().next().getFactory(null)</code>, so the
+ * simulator must be the only registered driver, see {@link #install()}.
+ * All calls to <code>getFactory</code> with null properties return the same
+ * default factory: the samples share one simulated media server.
+ */
+public class SimDriver implements Driver {
+
+	public static final String NAME = "simulator";
+
+	private final SimMsControlFactory defaultFactory;
+
+	public SimDriver(SimConfig config) {
+		defaultFactory = new SimMsControlFactory(config);
+	}
+
+	public MsControlFactory getFactory(Properties props) throws MsControlException {
+		if (props == null || props.isEmpty())
+			return defaultFactory;
+		return new SimMsControlFactory(new SimConfig(props), props);
+	}
+
+	public SimMsControlFactory getDefaultFactory() {
+		return defaultFactory;
+	}
+
+	public String getName() {
+		return NAME;
+	}
+
+	public PropertyInfo[] getFactoryPropertyInfo() {
+		return new PropertyInfo[] {
+				new PropertyInfo("sim.timeScale", false, "Media time to wall clock ratio", null, "1.0"),
+				new PropertyInfo("sim.threads", false, "Scheduler threads", null, null),
+				new PropertyInfo("sim.dtmf.script", false, "Default caller DTMF script", null, null),
+				new PropertyInfo("sim.mixer.maxPorts", false, "Joinees per mixer, 0 for unlimited", null, "0") };
+	}
+
+	/**
+	 * Register a new simulator with the given configuration in the
+	 * DriverManager, replacing any other driver.
+	 *
+	 * @return the registered driver
+	 */
+	public static SimDriver install(SimConfig config) {
+		try {
+			// The 1.0 DriverManager looks up providers with sun.misc.Service,
+			// which is gone since Java 9. Its first call fails, but leaves
+			// the manager initialized and usable.
+			DriverManager.getDrivers();
+		} catch (LinkageError e) {
+		}
+		Iterator<Driver> it = DriverManager.getDrivers();
+		while (it.hasNext())
+			DriverManager.deregisterDriver(it.next());
+		SimDriver driver = new SimDriver(config);
+		DriverManager.registerDriver(driver);
+		return driver;
+	}
+
+	public static SimDriver install() {
+		return install(new SimConfig());
+	}
+}
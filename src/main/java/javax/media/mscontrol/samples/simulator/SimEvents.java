@@ -0,0 +1,247 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.simulator;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.media.mscontrol.EventType;
+import javax.media.mscontrol.MediaErr;
+import javax.media.mscontrol.MediaEvent;
+import javax.media.mscontrol.Qualifier;
+import javax.media.mscontrol.Value;
+import javax.media.mscontrol.join.JoinEvent;
+import javax.media.mscontrol.join.Joinable;
+import javax.media.mscontrol.mediagroup.Player;
+import javax.media.mscontrol.mediagroup.PlayerEvent;
+import javax.media.mscontrol.mediagroup.Recorder;
+import javax.media.mscontrol.mediagroup.RecorderEvent;
+import javax.media.mscontrol.mediagroup.signals.SignalDetector;
+import javax.media.mscontrol.mediagroup.signals.SignalDetectorEvent;
+import javax.media.mscontrol.mixer.MediaMixer;
+import javax.media.mscontrol.mixer.MixerEvent;
+import javax.media.mscontrol.networkconnection.SdpPortManager;
+import javax.media.mscontrol.networkconnection.SdpPortManagerEvent;
+import javax.media.mscontrol.resource.Action;
+import javax.media.mscontrol.resource.ResourceEvent;
+import javax.media.mscontrol.resource.Trigger;
+import javax.media.mscontrol.vxml.VxmlDialog;
+import javax.media.mscontrol.vxml.VxmlDialogEvent;
+
+/**
+ * Event implementations of the simulated driver
+ */
+public final class SimEvents {
+
+	private SimEvents() {
+	}
+
+	static abstract class Base<S> implements MediaEvent<S> {
+		private final S source;
+		private final EventType type;
+		private final MediaErr error;
+		private final String errorText;
+
+		Base(S source, EventType type, MediaErr error, String errorText) {
+			this.source = source;
+			this.type = type;
+			this.error = error == null ? MediaErr.NO_ERROR : error;
+			this.errorText = errorText;
+		}
+
+		public S getSource() {
+			return source;
+		}
+
+		public EventType getEventType() {
+			return type;
+		}
+
+		public boolean isSuccessful() {
+			return error == MediaErr.NO_ERROR;
+		}
+
+		public MediaErr getError() {
+			return error;
+		}
+
+		public String getErrorText() {
+			return errorText;
+		}
+
+		@Override
+		public String toString() {
+			return getClass().getSimpleName() + "[" + type + (isSuccessful() ? "" : ", " + error + ": " + errorText)
+					+ ", source=" + source + "]";
+		}
+	}
+
+	static class Resource<S> extends Base<S> implements ResourceEvent<S> {
+		private final Qualifier qualifier;
+		private final Trigger trigger;
+
+		Resource(S source, EventType type, Qualifier qualifier, Trigger trigger,
+				MediaErr error, String errorText) {
+			super(source, type, error, errorText);
+			this.qualifier = qualifier == null ? ResourceEvent.NO_QUALIFIER : qualifier;
+			this.trigger = trigger;
+		}
+
+		public Qualifier getQualifier() {
+			return qualifier;
+		}
+
+		public Trigger getRTCTrigger() {
+			return trigger;
+		}
+
+		@Override
+		public String toString() {
+			return super.toString() + "[" + qualifier + (trigger == null ? "" : ", " + trigger) + "]";
+		}
+	}
+
+	static class SimPlayerEvent extends Resource<Player> implements PlayerEvent {
+		private final int index;
+		private final int offset;
+
+		SimPlayerEvent(Player source, EventType type, Qualifier qualifier,
+				Trigger trigger, int index, int offset, MediaErr error, String errorText) {
+			super(source, type, qualifier, trigger, error, errorText);
+			this.index = index;
+			this.offset = offset;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public int getOffset() {
+			return offset;
+		}
+
+		public Action getChangeType() {
+			return null;
+		}
+	}
+
+	static class SimRecorderEvent extends Resource<Recorder> implements RecorderEvent {
+		private final int duration;
+
+		SimRecorderEvent(Recorder source, EventType type, Qualifier qualifier,
+				Trigger trigger, int duration, MediaErr error, String errorText) {
+			super(source, type, qualifier, trigger, error, errorText);
+			this.duration = duration;
+		}
+
+		public int getDuration() {
+			return duration;
+		}
+	}
+
+	static class SimSignalDetectorEvent extends Resource<SignalDetector> implements SignalDetectorEvent {
+		private final String signals;
+		private final int patternIndex;
+
+		SimSignalDetectorEvent(SignalDetector source, EventType type,
+				Qualifier qualifier, Trigger trigger, String signals,
+				int patternIndex, MediaErr error, String errorText) {
+			super(source, type, qualifier, trigger, error, errorText);
+			this.signals = signals;
+			this.patternIndex = patternIndex;
+		}
+
+		public String getSignalString() {
+			return signals;
+		}
+
+		public Value[] getSignalBuffer() {
+			return null;
+		}
+
+		public int getPatternIndex() {
+			return patternIndex;
+		}
+	}
+
+	static class SimSdpPortManagerEvent extends Resource<SdpPortManager> implements SdpPortManagerEvent {
+		private final byte[] sdp;
+
+		SimSdpPortManagerEvent(SdpPortManager source, EventType type,
+				byte[] sdp, MediaErr error, String errorText) {
+			super(source, type, null, null, error, errorText);
+			this.sdp = sdp;
+		}
+
+		public byte[] getMediaServerSdp() {
+			return sdp;
+		}
+	}
+
+	static class SimMixerEvent extends Resource<MediaMixer> implements MixerEvent {
+		private final Joinable[] activeInputs;
+
+		SimMixerEvent(MediaMixer source, EventType type, Joinable[] activeInputs) {
+			super(source, type, null, null, null, null);
+			this.activeInputs = activeInputs;
+		}
+
+		public Joinable[] getActiveInputs() {
+			return activeInputs;
+		}
+	}
+
+	static class SimVxmlDialogEvent extends Base<VxmlDialog> implements VxmlDialogEvent {
+		private final Map<String, Object> nameList;
+		private final String eventName;
+
+		SimVxmlDialogEvent(VxmlDialog source, EventType type, String eventName,
+				Map<String, Object> nameList, MediaErr error, String errorText) {
+			super(source, type, error, errorText);
+			this.eventName = eventName;
+			this.nameList = nameList == null ? Collections.<String, Object> emptyMap() : nameList;
+		}
+
+		public Map<String, Object> getNameList() {
+			return nameList;
+		}
+
+		public String getEventName() {
+			return eventName;
+		}
+	}
+
+	static class SimJoinEvent extends Base<Joinable> implements JoinEvent {
+		private final Joinable other;
+		private final Serializable context;
+
+		SimJoinEvent(Joinable source, EventType type, Joinable other,
+				Serializable context, MediaErr error, String errorText) {
+			super(source, type, error, errorText);
+			this.other = other;
+			this.context = context;
+		}
+
+		public Joinable getOtherJoinable() {
+			return other;
+		}
+
+		public Joinable getThisJoinable() {
+			return getSource();
+		}
+
+		public Serializable getContext() {
+			return context;
+		}
+	}
+}
@@ -0,0 +1,283 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.simulator;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.media.mscontrol.MediaErr;
+import javax.media.mscontrol.MediaSession;
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.join.JoinEvent;
+import javax.media.mscontrol.join.JoinEventListener;
+import javax.media.mscontrol.join.JoinEventNotifier;
+import javax.media.mscontrol.join.JoinException;
+import javax.media.mscontrol.join.Joinable;
+import javax.media.mscontrol.samples.simulator.SimConfig.Operation;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Join graph of the simulated media server.
+ * <br>
+ * Joins are recorded on both sides, with the direction seen from each side.
+ * Except for mixers, an object receives from one joinee only: a new join
+ * that makes it receive degrades the previous ones, as described in the
+ * JSR 309 Joinable documentation (e.g. a DUPLEX join becomes SEND).
+ */
+public abstract class SimJoinable extends SimMediaObject implements Joinable, JoinEventNotifier {
+
+	private static Logger log = Logger.getLogger(SimJoinable.class);
+
+	/** Guards the join graph, which spans sessions */
+	private static final Object joinLock = new Object();
+
+	final Map<SimJoinable, Direction> joinees = new ConcurrentHashMap<SimJoinable, Direction>();
+	private final List<JoinEventListener> joinListeners = new CopyOnWriteArrayList<JoinEventListener>();
+
+	SimJoinable(SimMediaObject parent, SimStats.Kind kind, String name) {
+		super(parent, kind, name);
+	}
+
+	static Direction reverse(Direction dir) {
+		switch (dir) {
+		case SEND:
+			return Direction.RECV;
+		case RECV:
+			return Direction.SEND;
+		default:
+			return Direction.DUPLEX;
+		}
+	}
+
+	static boolean receives(Direction dir) {
+		return dir != Direction.SEND;
+	}
+
+	static boolean sends(Direction dir) {
+		return dir != Direction.RECV;
+	}
+
+	/**
+	 * @return true if this object mixes several inputs (mixers)
+	 */
+	boolean isMixing() {
+		return false;
+	}
+
+	/**
+	 * Check that a new joinee can be accepted
+	 *
+	 * @throws MsControlException
+	 *             if not, e.g. too many mixer ports
+	 */
+	void admit(SimJoinable peer) throws MsControlException {
+	}
+
+	/**
+	 * Hooks called under the join lock
+	 */
+	void onJoined(SimJoinable peer, Direction dir) {
+	}
+
+	void onUnjoined(SimJoinable peer) {
+	}
+
+	public void join(Direction dir, Joinable other) throws MsControlException {
+		checkNotReleased();
+		SimJoinable peer = peer(other);
+		factory.getStats().command();
+		factory.pause(Operation.JOIN);
+		if (bridged(peer))
+			factory.pause(Operation.BRIDGE);
+		session.await();
+		if (factory.fail(Operation.JOIN))
+			throw new JoinException("Injected join failure " + this + " -> " + other);
+		connect(dir, peer);
+	}
+
+	public void joinInitiate(final Direction dir, final Joinable other,
+			final Serializable context) throws MsControlException {
+		checkNotReleased();
+		final SimJoinable peer = peer(other);
+		factory.getStats().command();
+		long delay = factory.getConfig().delay(Operation.JOIN);
+		if (bridged(peer))
+			delay += factory.getConfig().delay(Operation.BRIDGE);
+		delay += session.occupy();
+		later(delay, new Runnable() {
+			public void run() {
+				if (released)
+					return;
+				MediaErr error = null;
+				String text = null;
+				if (factory.fail(Operation.JOIN)) {
+					error = MediaErr.RESOURCE_UNAVAILABLE;
+					text = "Injected join failure";
+				} else {
+					try {
+						connect(dir, peer);
+					} catch (MsControlException e) {
+						error = JoinEvent.TOO_MANY_JOINEES;
+						text = e.getMessage();
+					}
+				}
+				fireJoinEvent(new SimEvents.SimJoinEvent(SimJoinable.this, JoinEvent.JOINED, peer, context, error, text));
+			}
+		});
+	}
+
+	/**
+	 * A new join to an object of another MediaSession needs a bridge between
+	 * the sessions; changing the direction of a join does not
+	 *
+	 * @return true if the join needs a bridge, counted in the stats
+	 */
+	private boolean bridged(SimJoinable peer) {
+		if (peer.getMediaSession() == getMediaSession() || joinees.containsKey(peer))
+			return false;
+		factory.getStats().bridge();
+		return true;
+	}
+
+	public void unjoin(Joinable other) throws MsControlException {
+		checkNotReleased();
+		factory.getStats().command();
+		factory.pause(Operation.JOIN);
+		session.await();
+		disconnect(peer(other));
+	}
+
+	public void unjoinInitiate(final Joinable other, final Serializable context)
+			throws MsControlException {
+		checkNotReleased();
+		final SimJoinable peer = peer(other);
+		factory.getStats().command();
+		later(factory.getConfig().delay(Operation.JOIN) + session.occupy(), new Runnable() {
+			public void run() {
+				if (released)
+					return;
+				disconnect(peer);
+				fireJoinEvent(new SimEvents.SimJoinEvent(SimJoinable.this, JoinEvent.UNJOINED, peer, context, null, null));
+			}
+		});
+	}
+
+	public Joinable[] getJoinees(Direction dir) throws MsControlException {
+		List<Joinable> result = new ArrayList<Joinable>();
+		for (Map.Entry<SimJoinable, Direction> e : joinees.entrySet()) {
+			if (e.getValue() == dir || (dir != Direction.DUPLEX && e.getValue() == Direction.DUPLEX))
+				result.add(e.getKey());
+		}
+		return result.toArray(new Joinable[result.size()]);
+	}
+
+	public Joinable[] getJoinees() throws MsControlException {
+		return joinees.keySet().toArray(new Joinable[0]);
+	}
+
+	public void addListener(JoinEventListener listener) {
+		joinListeners.add(listener);
+	}
+
+	public void removeListener(JoinEventListener listener) {
+		joinListeners.remove(listener);
+	}
+
+	public MediaSession getMediaSession() {
+		return session;
+	}
+
+	void fireJoinEvent(JoinEvent event) {
+		factory.getStats().event();
+		for (JoinEventListener l : joinListeners) {
+			try {
+				l.onEvent(event);
+			} catch (RuntimeException e) {
+				log.error("Join listener failed on " + event, e);
+			}
+		}
+	}
+
+	private SimJoinable peer(Joinable other) throws MsControlException {
+		if (!(other instanceof SimJoinable))
+			throw new JoinException("Cannot join " + this + " to a foreign object: " + other);
+		SimJoinable peer = (SimJoinable) other;
+		if (peer == this)
+			throw new JoinException("Cannot join " + this + " to itself");
+		if (peer.released)
+			throw new JoinException(peer + " is released");
+		return peer;
+	}
+
+	void connect(Direction dir, SimJoinable peer) throws MsControlException {
+		synchronized (joinLock) {
+			if (!joinees.containsKey(peer)) {
+				admit(peer);
+				peer.admit(this);
+			}
+			if (receives(dir))
+				degradeInputs(peer);
+			if (sends(dir))
+				peer.degradeInputs(this);
+			joinees.put(peer, dir);
+			peer.joinees.put(this, reverse(dir));
+			onJoined(peer, dir);
+			peer.onJoined(this, reverse(dir));
+		}
+	}
+
+	/**
+	 * A non mixing object has a single input: stop receiving from any joinee
+	 * other than <code>newSource</code>
+	 */
+	private void degradeInputs(SimJoinable newSource) {
+		if (isMixing())
+			return;
+		for (Map.Entry<SimJoinable, Direction> e : joinees.entrySet()) {
+			SimJoinable other = e.getKey();
+			if (other == newSource)
+				continue;
+			if (e.getValue() == Direction.DUPLEX) {
+				joinees.put(other, Direction.SEND);
+				other.joinees.put(this, Direction.RECV);
+			} else if (e.getValue() == Direction.RECV) {
+				joinees.remove(other);
+				other.joinees.remove(this);
+				onUnjoined(other);
+				other.onUnjoined(this);
+			}
+		}
+	}
+
+	private void disconnect(SimJoinable peer) {
+		synchronized (joinLock) {
+			if (joinees.remove(peer) != null) {
+				peer.joinees.remove(this);
+				onUnjoined(peer);
+				peer.onUnjoined(this);
+			}
+		}
+	}
+
+	@Override
+	void onRelease() {
+		synchronized (joinLock) {
+			for (SimJoinable peer : joinees.keySet())
+				disconnect(peer);
+		}
+	}
+}
@@ -0,0 +1,258 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.simulator;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.media.mscontrol.Configuration;
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.Parameter;
+import javax.media.mscontrol.Parameters;
+import javax.media.mscontrol.UnsupportedException;
+import javax.media.mscontrol.mediagroup.MediaGroup;
+import javax.media.mscontrol.mediagroup.Player;
+import javax.media.mscontrol.mediagroup.Recorder;
+import javax.media.mscontrol.mediagroup.signals.SignalDetector;
+import javax.media.mscontrol.mediagroup.signals.SignalGenerator;
+import javax.media.mscontrol.resource.Action;
+import javax.media.mscontrol.resource.RTC;
+import javax.media.mscontrol.resource.ResourceEvent;
+import javax.media.mscontrol.resource.Trigger;
+
+/**
+ * Simulated MediaGroup.
+ * <br>
+ * The state of the group and of its resources is guarded by the group
+ * monitor. Events are never fired under the lock: they are queued on the
+ * session event queue. RTCs are applied synchronously, under the lock, when
+ * their trigger occurs.
+ */
+@SuppressWarnings("serial")
+public class SimMediaGroup extends SimContainer implements MediaGroup {
+
+	private final SimPlayer player;
+	private final SimRecorder recorder;
+	private final SimSignalDetector detector;
+
+	/** RTCs of the operations in progress, by resource */
+	private final Map<Object, RTC[]> rtcs = new LinkedHashMap<Object, RTC[]>();
+
+	static boolean supports(Configuration<?> cfg) {
+		return cfg == PLAYER || cfg == SIGNALDETECTOR || cfg == PLAYER_SIGNALDETECTOR
+				|| cfg == PLAYER_RECORDER_SIGNALDETECTOR || cfg == PLAYER_RECORDER_SIGNALDETECTOR_SIGNALGENERATOR;
+	}
+
+	SimMediaGroup(SimMediaSession session, Configuration<MediaGroup> cfg) {
+		super(session, SimStats.Kind.MEDIA_GROUP, session.nextName("mg"), cfg);
+		boolean full = cfg == PLAYER_RECORDER_SIGNALDETECTOR || cfg == PLAYER_RECORDER_SIGNALDETECTOR_SIGNALGENERATOR;
+		player = cfg == SIGNALDETECTOR ? null : new SimPlayer(this);
+		recorder = full ? new SimRecorder(this) : null;
+		detector = cfg == PLAYER ? null : new SimSignalDetector(this);
+	}
+
+	public Player getPlayer() throws MsControlException {
+		if (player == null)
+			throw new UnsupportedException("No Player in " + this);
+		return player;
+	}
+
+	public Recorder getRecorder() throws MsControlException {
+		if (recorder == null)
+			throw new UnsupportedException("No Recorder in " + this);
+		return recorder;
+	}
+
+	public SignalDetector getSignalDetector() throws MsControlException {
+		if (detector == null)
+			throw new UnsupportedException("No SignalDetector in " + this);
+		return detector;
+	}
+
+	public SignalGenerator getSignalGenerator() throws MsControlException {
+		throw new UnsupportedException("No SignalGenerator in the simulator");
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <R> R getResource(Class<R> type) throws MsControlException {
+		if (player != null && type.isInstance(player))
+			return (R) player;
+		if (recorder != null && type.isInstance(recorder))
+			return (R) recorder;
+		if (detector != null && type.isInstance(detector))
+			return (R) detector;
+		return super.getResource(type);
+	}
+
+	public void stop() {
+		if (player != null)
+			player.stop(true);
+		if (recorder != null)
+			recorder.stop();
+		if (detector != null)
+			detector.stop();
+	}
+
+	@Override
+	public void triggerAction(Action action) {
+		super.triggerAction(action);
+		synchronized (this) {
+			apply(action, ResourceEvent.MANUAL_TRIGGER);
+		}
+	}
+
+	/**
+	 * @return what the caller hears or is asked for, as matched by
+	 *         {@link DtmfScript}
+	 */
+	synchronized String phase() {
+		if (detector != null && detector.isActive())
+			return "signals";
+		if (recorder != null && recorder.getURI() != null)
+			return "record " + recorder.getURI();
+		if (player != null && player.getURI() != null)
+			return "play " + player.getURI();
+		return null;
+	}
+
+	/**
+	 * Let the simulated callers react to a new phase
+	 */
+	void phaseChanged() {
+		later(0, new Runnable() {
+			public void run() {
+				for (Map.Entry<SimJoinable, Direction> e : joinees.entrySet()) {
+					if (e.getKey() instanceof SimNetworkConnection && receives(e.getValue()))
+						((SimNetworkConnection) e.getKey()).phaseChanged(SimMediaGroup.this);
+				}
+			}
+		});
+	}
+
+	@Override
+	void onJoined(SimJoinable peer, Direction dir) {
+		if (peer instanceof SimNetworkConnection && receives(dir))
+			phaseChanged();
+	}
+
+	/**
+	 * A DTMF from a simulated caller
+	 */
+	void dtmf(char digit) {
+		if (detector != null)
+			detector.dtmf(digit);
+	}
+
+	void setRTCs(Object owner, RTC[] list) {
+		if (list == null || list.length == 0)
+			rtcs.remove(owner);
+		else
+			rtcs.put(owner, list);
+	}
+
+	void clearRTCs(Object owner) {
+		rtcs.remove(owner);
+	}
+
+	/**
+	 * @return the triggers the RTCs in progress are waiting for
+	 */
+	List<Trigger> armedTriggers() {
+		List<Trigger> triggers = new ArrayList<Trigger>();
+		for (RTC[] list : rtcs.values()) {
+			for (RTC rtc : list)
+				triggers.add(rtc.getTrigger());
+		}
+		return triggers;
+	}
+
+	/**
+	 * Run the actions of the RTCs waiting for this trigger. Called under the
+	 * group lock.
+	 */
+	void trigger(Trigger trigger) {
+		List<Action> actions = new ArrayList<Action>();
+		for (RTC[] list : rtcs.values()) {
+			for (RTC rtc : list) {
+				if (rtc.getTrigger().equals(trigger))
+					actions.add(rtc.getAction());
+			}
+		}
+		for (Action action : actions)
+			apply(action, trigger);
+	}
+
+	private void apply(Action action, Trigger trigger) {
+		if (player != null) {
+			if (action.equals(Player.STOP))
+				player.interrupt(trigger, false);
+			else if (action.equals(Player.STOP_ALL))
+				player.interrupt(trigger, true);
+			else if (action.equals(Player.PAUSE))
+				player.pause();
+			else if (action.equals(Player.RESUME))
+				player.resume();
+		}
+		if (recorder != null) {
+			if (action.equals(Recorder.STOP))
+				recorder.interrupt(trigger);
+			else if (action.equals(Recorder.PAUSE))
+				recorder.pause();
+			else if (action.equals(Recorder.RESUME))
+				recorder.resume();
+		}
+		if (detector != null) {
+			if (action.equals(SignalDetector.STOP))
+				detector.interrupt(trigger);
+			else if (action.equals(SignalDetector.FLUSH_BUFFER))
+				detector.flush();
+		}
+	}
+
+	/**
+	 * @return a duration parameter in ms, from the operation parameters or
+	 *         else the group parameters
+	 */
+	long millis(Parameters params, Parameter key, long defaultValue) {
+		Object value = param(params, key);
+		return value instanceof Number ? ((Number) value).longValue() : defaultValue;
+	}
+
+	Object param(Parameters params, Parameter key) {
+		Object value = SimParameters.get(params, key);
+		return value != null ? value : parameters.get(key);
+	}
+
+	@Override
+	void onRelease() {
+		super.onRelease();
+		synchronized (this) {
+			rtcs.clear();
+			if (player != null)
+				player.cancel();
+			if (recorder != null)
+				recorder.cancel();
+			if (detector != null)
+				detector.cancel();
+		}
+		SimStats stats = factory.getStats();
+		if (player != null)
+			stats.released(SimStats.Kind.PLAYER);
+		if (recorder != null)
+			stats.released(SimStats.Kind.RECORDER);
+		if (detector != null)
+			stats.released(SimStats.Kind.SIGNAL_DETECTOR);
+	}
+}
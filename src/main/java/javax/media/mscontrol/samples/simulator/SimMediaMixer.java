@@ -0,0 +1,284 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.simulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.media.mscontrol.Configuration;
+import javax.media.mscontrol.MediaConfig;
+import javax.media.mscontrol.MediaConfigException;
+import javax.media.mscontrol.MediaEventListener;
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.Parameters;
+import javax.media.mscontrol.join.Joinable;
+import javax.media.mscontrol.join.TooManyJoineesException;
+import javax.media.mscontrol.mixer.MediaMixer;
+import javax.media.mscontrol.mixer.MixerAdapter;
+import javax.media.mscontrol.mixer.MixerEvent;
+
+/**
+ * Simulated MediaMixer. Every joinee sending to the mixer is mixed, except
+ * with the <code>AUDIO_EVENTS</code> configuration: each input then
+ * alternates talk spurts and silences, see {@link SimConfig#getTalkSpurt()},
+ * with a random loudness per spurt, and the active inputs are the inputs
+ * talking, loudest first, at most <code>MAX_ACTIVE_INPUTS</code> of them if
+ * the parameter is set; only those are mixed. A MixerAdapter talks only
+ * while it receives from one of its joinees (e.g. not muted), and a mixer
+ * joined to this one talks as loud as its loudest input, this one excluded
+ * as in the mix it sends back.
+ * <code>ACTIVE_INPUTS_CHANGED</code> and
+ * <code>MOST_ACTIVE_INPUT_CHANGED</code> are fired as the active inputs
+ * change. The inputs mixed are counted as {@link SimStats.Kind#MIXED_INPUT}.
+ * <br>
+ * The number of joinees (including MixerAdapters) is limited by the
+ * <code>MAX_PORTS</code> parameter of the mixer, or else by
+ * <code>sim.mixer.maxPorts</code>.
+ */
+@SuppressWarnings("serial")
+public class SimMediaMixer extends SimContainer implements MediaMixer {
+
+	/**
+	 * An input of an AUDIO_EVENTS mixer
+	 */
+	private static class Talker {
+		volatile boolean talking;
+		volatile double loudness;
+	}
+
+	/**
+	 * An input and its loudness, at the time the active inputs are ranked
+	 */
+	private static class Ranked implements Comparable<Ranked> {
+		final SimJoinable input;
+		final double loudness;
+
+		Ranked(SimJoinable input, double loudness) {
+			this.input = input;
+			this.loudness = loudness;
+		}
+
+		public int compareTo(Ranked o) {
+			return Double.compare(o.loudness, loudness);
+		}
+	}
+
+	private final Listeners<MixerEvent> listeners;
+	private final Map<SimJoinable, Talker> talkers = new ConcurrentHashMap<SimJoinable, Talker>();
+	/** Inputs talking, loudest first (AUDIO_EVENTS only) */
+	private volatile Ranked[] ranking = new Ranked[0];
+	/** Inputs mixed, the loudest of the ranking */
+	private Joinable[] active = new Joinable[0];
+	private int mixed;
+
+	SimMediaMixer(SimMediaSession session, Configuration<MediaMixer> cfg) {
+		super(session, SimStats.Kind.MEDIA_MIXER, session.nextName("mixer"), cfg);
+		listeners = new Listeners<MixerEvent>(factory.getStats());
+	}
+
+	public MixerAdapter createMixerAdapter(Configuration<MixerAdapter> cfg)
+			throws MsControlException {
+		return createMixerAdapter(cfg, null);
+	}
+
+	public MixerAdapter createMixerAdapter(Configuration<MixerAdapter> cfg,
+			Parameters params) throws MsControlException {
+		checkNotReleased();
+		factory.getStats().command();
+		SimMixerAdapter adapter = new SimMixerAdapter(this, cfg);
+		adapter.setParameters(params);
+		try {
+			adapter.connect(Direction.DUPLEX, this);
+		} catch (MsControlException e) {
+			adapter.release();
+			throw e;
+		}
+		return adapter;
+	}
+
+	public MixerAdapter createMixerAdapter(MediaConfig cfg, Parameters params)
+			throws MsControlException {
+		throw new MediaConfigException("MediaConfig not supported by the simulator");
+	}
+
+	@Override
+	boolean isMixing() {
+		return true;
+	}
+
+	@Override
+	void admit(SimJoinable peer) throws MsControlException {
+		Object max = parameters.get(MAX_PORTS);
+		int maxPorts = max instanceof Number ? ((Number) max).intValue() : factory.getConfig().getMixerMaxPorts();
+		if (maxPorts > 0 && joinees.size() >= maxPorts)
+			throw new TooManyJoineesException(this + " has already " + joinees.size() + " joinees");
+	}
+
+	@Override
+	void onJoined(SimJoinable peer, Direction dir) {
+		if (configuration == AUDIO_EVENTS && receives(dir) && !peer.isMixing() && !talkers.containsKey(peer)) {
+			Talker talker = new Talker();
+			talkers.put(peer, talker);
+			pace(peer, talker);
+		}
+		inputsChanged();
+	}
+
+	@Override
+	void onUnjoined(SimJoinable peer) {
+		talkers.remove(peer);
+		inputsChanged();
+	}
+
+	/**
+	 * End the current talk spurt or silence of an input when due
+	 */
+	private void pace(final SimJoinable input, final Talker talker) {
+		SimConfig config = factory.getConfig();
+		long delay = config.scale((talker.talking ? config.getTalkSpurt() : config.getSilence()).sample());
+		later(delay, new Runnable() {
+			public void run() {
+				if (released || talkers.get(input) != talker)
+					return;
+				talker.talking = !talker.talking;
+				talker.loudness = ThreadLocalRandom.current().nextDouble();
+				pace(input, talker);
+				inputsChanged();
+			}
+		});
+	}
+
+	/**
+	 * Rank the inputs, and tell the listeners and the mixers this one is
+	 * joined to if the active ones changed
+	 */
+	private void inputsChanged() {
+		boolean events = configuration == AUDIO_EVENTS;
+		int receiving = 0;
+		List<Ranked> ranked = new ArrayList<Ranked>();
+		for (Map.Entry<SimJoinable, Direction> e : joinees.entrySet()) {
+			if (!receives(e.getValue()))
+				continue;
+			receiving++;
+			double loudness = events ? loudness(e.getKey()) : -1;
+			if (loudness >= 0)
+				ranked.add(new Ranked(e.getKey(), loudness));
+		}
+		Collections.sort(ranked);
+		Ranked[] all = ranked.toArray(new Ranked[ranked.size()]);
+		int max = getMaxActiveInputs();
+		Joinable[] now = new Joinable[max > 0 ? Math.min(max, all.length) : all.length];
+		for (int i = 0; i < now.length; i++)
+			now[i] = all[i].input;
+		boolean changed;
+		boolean mostActive;
+		boolean reranked;
+		synchronized (this) {
+			int count = events && max > 0 ? now.length : receiving;
+			for (; mixed < count; mixed++)
+				factory.getStats().allocated(SimStats.Kind.MIXED_INPUT);
+			for (; mixed > count; mixed--)
+				factory.getStats().released(SimStats.Kind.MIXED_INPUT);
+			changed = !Arrays.equals(active, now);
+			mostActive = (active.length > 0 ? active[0] : null) != (now.length > 0 ? now[0] : null);
+			reranked = !sameRanking(ranking, all);
+			active = now;
+			ranking = all;
+		}
+		if (!events || released)
+			return;
+		if (changed) {
+			final MixerEvent inputs = new SimEvents.SimMixerEvent(this, MixerEvent.ACTIVE_INPUTS_CHANGED, now);
+			final MixerEvent most = mostActive ? new SimEvents.SimMixerEvent(this,
+					MixerEvent.MOST_ACTIVE_INPUT_CHANGED, Arrays.copyOf(now, Math.min(1, now.length))) : null;
+			later(0, new Runnable() {
+				public void run() {
+					listeners.fire(inputs);
+					if (most != null)
+						listeners.fire(most);
+				}
+			});
+		}
+		if (!reranked)
+			return;
+		for (Map.Entry<SimJoinable, Direction> e : joinees.entrySet()) {
+			if (e.getKey() instanceof SimMediaMixer && sends(e.getValue())) {
+				final SimMediaMixer parent = (SimMediaMixer) e.getKey();
+				later(0, new Runnable() {
+					public void run() {
+						parent.inputsChanged();
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * @return loudness of an input, -1 if it does not talk
+	 */
+	private double loudness(SimJoinable input) {
+		if (input instanceof SimMediaMixer)
+			return ((SimMediaMixer) input).loudnessFor(this);
+		Talker talker = talkers.get(input);
+		if (talker == null || !talker.talking)
+			return -1;
+		if (input instanceof SimMixerAdapter) {
+			// A muted participant is joined RECV to its adapter
+			boolean fed = false;
+			for (Map.Entry<SimJoinable, Direction> e : input.joinees.entrySet())
+				fed |= e.getKey() != this && receives(e.getValue());
+			if (!fed)
+				return -1;
+		}
+		return talker.loudness;
+	}
+
+	/**
+	 * @return loudness of the mix sent to a joinee, which does not hear
+	 *         itself, -1 if silent
+	 */
+	private double loudnessFor(SimJoinable joinee) {
+		for (Ranked r : ranking) {
+			if (r.input != joinee)
+				return r.loudness;
+		}
+		return -1;
+	}
+
+	private static boolean sameRanking(Ranked[] a, Ranked[] b) {
+		if (a.length != b.length)
+			return false;
+		for (int i = 0; i < a.length; i++) {
+			if (a[i].input != b[i].input || a[i].loudness != b[i].loudness)
+				return false;
+		}
+		return true;
+	}
+
+	private int getMaxActiveInputs() {
+		Object max = parameters.get(MAX_ACTIVE_INPUTS);
+		return max instanceof Number ? ((Number) max).intValue() : 0;
+	}
+
+	public void addListener(MediaEventListener<MixerEvent> listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(MediaEventListener<MixerEvent> listener) {
+		listeners.remove(listener);
+	}
+}
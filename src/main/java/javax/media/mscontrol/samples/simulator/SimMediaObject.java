@@ -0,0 +1,150 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.simulator;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.media.mscontrol.MediaObject;
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.Parameter;
+import javax.media.mscontrol.Parameters;
+
+/**
+ * Common part of all simulated media objects: identity, parameters, children
+ * and release.
+ */
+public abstract class SimMediaObject implements MediaObject {
+
+	final SimMsControlFactory factory;
+	final SimMediaSession session;
+	final SimStats.Kind kind;
+	private final URI uri;
+	final SimParameters parameters = new SimParameters();
+	private final Set<SimMediaObject> children = ConcurrentHashMap.newKeySet();
+	private final SimMediaObject parent;
+	volatile boolean released;
+
+	/**
+	 * Constructor for a MediaSession
+	 */
+	SimMediaObject(SimMsControlFactory factory, String name) {
+		this.factory = factory;
+		this.session = (SimMediaSession) this;
+		this.parent = null;
+		this.kind = SimStats.Kind.MEDIA_SESSION;
+		this.uri = URI.create("mscontrol://simulator/" + name);
+		factory.getStats().allocated(kind);
+	}
+
+	/**
+	 * Constructor for objects living in a MediaSession
+	 *
+	 * @param parent
+	 *            object to which this one is attached, released with it
+	 */
+	SimMediaObject(SimMediaObject parent, SimStats.Kind kind, String name) {
+		this.factory = parent.factory;
+		this.session = parent.session;
+		this.parent = parent;
+		this.kind = kind;
+		this.uri = URI.create(parent.getURI() + "/" + name);
+		parent.children.add(this);
+		factory.getStats().allocated(kind);
+	}
+
+	public URI getURI() {
+		return uri;
+	}
+
+	public void release() {
+		synchronized (this) {
+			if (released)
+				return;
+			released = true;
+		}
+		for (SimMediaObject child : children)
+			child.release();
+		children.clear();
+		onRelease();
+		if (parent != null)
+			parent.children.remove(this);
+		factory.getStats().released(kind);
+	}
+
+	/**
+	 * Hook for subclasses: stop ongoing operations, cancel timers
+	 */
+	void onRelease() {
+	}
+
+	public boolean isReleased() {
+		return released;
+	}
+
+	void checkNotReleased() throws MsControlException {
+		if (released)
+			throw new MsControlException(uri + " is released");
+	}
+
+	public void setParameters(Parameters params) {
+		if (params != null)
+			parameters.putAll(params);
+	}
+
+	public Parameters getParameters(Parameter[] keys) {
+		SimParameters result = new SimParameters();
+		if (keys == null) {
+			result.putAll(parameters);
+		} else {
+			for (Parameter key : keys) {
+				Object value = parameters.get(key);
+				if (value != null)
+					result.put(key, value);
+			}
+		}
+		return result;
+	}
+
+	public Parameters createParameters() {
+		return new SimParameters();
+	}
+
+	public Iterator<MediaObject> getMediaObjects() {
+		return new ArrayList<MediaObject>(children).iterator();
+	}
+
+	public <T extends MediaObject> Iterator<T> getMediaObjects(Class<T> type) {
+		List<T> result = new ArrayList<T>();
+		for (SimMediaObject child : children) {
+			if (type.isInstance(child))
+				result.add(type.cast(child));
+		}
+		return result.iterator();
+	}
+
+	/**
+	 * Deliver a task on the session event queue, after the given delay
+	 */
+	void later(long delayMillis, Runnable task) {
+		session.schedule(delayMillis, task);
+	}
+
+	@Override
+	public String toString() {
+		return uri.toString();
+	}
+}
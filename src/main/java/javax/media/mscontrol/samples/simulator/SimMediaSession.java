@@ -0,0 +1,193 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.simulator;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.media.mscontrol.Configuration;
+import javax.media.mscontrol.MediaConfig;
+import javax.media.mscontrol.MediaConfigException;
+import javax.media.mscontrol.MediaSession;
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.Parameters;
+import javax.media.mscontrol.mediagroup.MediaGroup;
+import javax.media.mscontrol.mixer.MediaMixer;
+import javax.media.mscontrol.networkconnection.NetworkConnection;
+import javax.media.mscontrol.samples.simulator.SimConfig.Operation;
+import javax.media.mscontrol.vxml.VxmlDialog;
+
+/**
+ * Simulated MediaSession. Owns the event queue of all its media objects,
+ * and the queue of their commands on the media server, see
+ * {@link SimConfig#getSessionServiceTime()}.
+ */
+public class SimMediaSession extends SimMediaObject implements MediaSession {
+
+	private final SimScheduler.Serial serial;
+	private final Map<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+	private final AtomicInteger objectIds = new AtomicInteger();
+	/** End of the last command queued on the media server, in ns */
+	private long busyUntil;
+
+	SimMediaSession(SimMsControlFactory factory, long id) {
+		super(factory, "session." + id);
+		serial = factory.getScheduler().newSerial();
+	}
+
+	String nextName(String prefix) {
+		return prefix + "." + objectIds.incrementAndGet();
+	}
+
+	private void beforeCreate() throws MsControlException {
+		checkNotReleased();
+		factory.getStats().command();
+		factory.pause(Operation.CREATE);
+		await();
+		if (factory.fail(Operation.CREATE))
+			throw new MsControlException("Injected failure: resource unavailable in " + this);
+	}
+
+	public NetworkConnection createNetworkConnection(
+			Configuration<NetworkConnection> cfg) throws MsControlException {
+		return createNetworkConnection(cfg, null);
+	}
+
+	public NetworkConnection createNetworkConnection(
+			Configuration<NetworkConnection> cfg, Parameters params)
+			throws MsControlException {
+		beforeCreate();
+		SimNetworkConnection nc = new SimNetworkConnection(this, cfg);
+		nc.setParameters(params);
+		return nc;
+	}
+
+	public NetworkConnection createNetworkConnection(MediaConfig cfg,
+			Parameters params) throws MsControlException {
+		throw new MediaConfigException("MediaConfig not supported by the simulator");
+	}
+
+	public MediaGroup createMediaGroup(Configuration<MediaGroup> cfg)
+			throws MsControlException {
+		return createMediaGroup(cfg, null);
+	}
+
+	public MediaGroup createMediaGroup(Configuration<MediaGroup> cfg,
+			Parameters params) throws MsControlException {
+		if (!SimMediaGroup.supports(cfg))
+			throw new MediaConfigException("Unsupported MediaGroup configuration " + cfg);
+		beforeCreate();
+		SimMediaGroup mg = new SimMediaGroup(this, cfg);
+		mg.setParameters(params);
+		return mg;
+	}
+
+	public MediaGroup createMediaGroup(MediaConfig cfg, Parameters params)
+			throws MsControlException {
+		throw new MediaConfigException("MediaConfig not supported by the simulator");
+	}
+
+	public MediaMixer createMediaMixer(Configuration<MediaMixer> cfg)
+			throws MsControlException {
+		return createMediaMixer(cfg, null);
+	}
+
+	public MediaMixer createMediaMixer(Configuration<MediaMixer> cfg,
+			Parameters params) throws MsControlException {
+		beforeCreate();
+		SimMediaMixer mixer = new SimMediaMixer(this, cfg);
+		mixer.setParameters(params);
+		return mixer;
+	}
+
+	public MediaMixer createMediaMixer(MediaConfig cfg, Parameters params)
+			throws MsControlException {
+		throw new MediaConfigException("MediaConfig not supported by the simulator");
+	}
+
+	public VxmlDialog createVxmlDialog(Parameters params) throws MsControlException {
+		beforeCreate();
+		SimVxmlDialog dialog = new SimVxmlDialog(this);
+		dialog.setParameters(params);
+		return dialog;
+	}
+
+	public Object getAttribute(String name) {
+		return attributes.get(name);
+	}
+
+	public void removeAttribute(String name) {
+		attributes.remove(name);
+	}
+
+	public void setAttribute(String name, Object value) {
+		attributes.put(name, value);
+	}
+
+	public Iterator<String> getAttributeNames() {
+		return new ArrayList<String>(attributes.keySet()).iterator();
+	}
+
+	/**
+	 * Queue a task for this session, dropped if the session is released in
+	 * the meantime
+	 */
+	void schedule(long delayMillis, final Runnable task) {
+		factory.getScheduler().schedule(serial, delayMillis, new Runnable() {
+			public void run() {
+				if (!released)
+					task.run();
+			}
+		});
+	}
+
+	/**
+	 * Queue a command behind the previous ones of this session, see
+	 * {@link SimConfig#getSessionServiceTime()}
+	 *
+	 * @return ms until the command is processed
+	 */
+	long occupy() {
+		long service = factory.getConfig().scaleNanos(factory.getConfig().getSessionServiceTime().sample());
+		if (service <= 0)
+			return 0;
+		long now = System.nanoTime();
+		long end;
+		synchronized (this) {
+			end = Math.max(now, busyUntil) + service;
+			busyUntil = end;
+		}
+		return (end - now) / 1000000;
+	}
+
+	/**
+	 * Wait for a synchronous command to be processed
+	 */
+	void await() {
+		long wait = occupy();
+		if (wait > 0) {
+			try {
+				Thread.sleep(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	@Override
+	void onRelease() {
+		factory.sessionReleased(this);
+	}
+}
@@ -0,0 +1,27 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.simulator;
+
+import javax.media.mscontrol.Configuration;
+import javax.media.mscontrol.mixer.MixerAdapter;
+
+/**
+ * Simulated MixerAdapter: a port of a mixer, joined DUPLEX to it when
+ * created, and released with it.
+ */
+@SuppressWarnings("serial")
+public class SimMixerAdapter extends SimContainer implements MixerAdapter {
+
+	SimMixerAdapter(SimMediaMixer mixer, Configuration<MixerAdapter> cfg) {
+		super(mixer, SimStats.Kind.MIXER_ADAPTER, mixer.session.nextName("adapter"), cfg);
+	}
+}
@@ -0,0 +1,156 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.simulator;
+
+import java.io.Reader;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.media.mscontrol.Configuration;
+import javax.media.mscontrol.MediaConfig;
+import javax.media.mscontrol.MediaConfigException;
+import javax.media.mscontrol.MediaObject;
+import javax.media.mscontrol.MediaSession;
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.MsControlFactory;
+import javax.media.mscontrol.Parameters;
+import javax.media.mscontrol.resource.video.VideoLayout;
+import javax.media.mscontrol.samples.simulator.SimConfig.Operation;
+
+/**
+ * MsControlFactory of the simulated media server. One instance is one media
+ * server: it owns the configuration, the scheduler and the resource counters.
+ */
+public class SimMsControlFactory implements MsControlFactory {
+
+	private final Properties properties;
+	private final SimConfig config;
+	private final SimStats stats = new SimStats();
+	private final SimScheduler scheduler;
+	private final AtomicLong sessionIds = new AtomicLong();
+	private final Map<URI, SimMediaSession> sessions = new ConcurrentHashMap<URI, SimMediaSession>();
+
+	public SimMsControlFactory(SimConfig config) {
+		this(config, new Properties());
+	}
+
+	SimMsControlFactory(SimConfig config, Properties properties) {
+		this.config = config;
+		this.properties = properties;
+		this.scheduler = new SimScheduler(config.getSchedulerThreads());
+	}
+
+	public Properties getProperties() {
+		return properties;
+	}
+
+	public MediaSession createMediaSession() throws MsControlException {
+		stats.command();
+		pause(Operation.CREATE);
+		if (fail(Operation.CREATE))
+			throw new MsControlException("Injected failure: cannot create MediaSession");
+		SimMediaSession session = new SimMediaSession(this, sessionIds.incrementAndGet());
+		sessions.put(session.getURI(), session);
+		return session;
+	}
+
+	void sessionReleased(SimMediaSession session) {
+		sessions.remove(session.getURI());
+	}
+
+	public MediaConfig getMediaConfig(Configuration<?> cfg) throws MediaConfigException {
+		throw new MediaConfigException("MediaConfig not supported by the simulator");
+	}
+
+	public MediaConfig getMediaConfig(Reader xml) throws MediaConfigException {
+		throw new MediaConfigException("MediaConfig not supported by the simulator");
+	}
+
+	public Parameters createParameters() {
+		return new SimParameters();
+	}
+
+	public VideoLayout createVideoLayout(String mimeType, Reader xmlDef)
+			throws MediaConfigException {
+		throw new MediaConfigException("Video not supported by the simulator");
+	}
+
+	public VideoLayout[] getPresetLayouts(int numberOfLiveRegions)
+			throws MediaConfigException {
+		throw new MediaConfigException("Video not supported by the simulator");
+	}
+
+	public VideoLayout getPresetLayout(String type) throws MediaConfigException {
+		throw new MediaConfigException("Video not supported by the simulator");
+	}
+
+	public MediaObject getMediaObject(URI uri) {
+		return sessions.get(uri);
+	}
+
+	/**
+	 * @return the MediaSessions not released yet
+	 */
+	public Collection<MediaSession> getLiveSessions() {
+		return new ArrayList<MediaSession>(sessions.values());
+	}
+
+	public SimConfig getConfig() {
+		return config;
+	}
+
+	public SimStats getStats() {
+		return stats;
+	}
+
+	public SimScheduler getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * Simulate the round-trip of a synchronous command, on the calling thread
+	 */
+	void pause(Operation op) {
+		long delay = config.delay(op);
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @return true if the operation must fail, according to the failure
+	 *         injection rates
+	 */
+	boolean fail(Operation op) {
+		if (config.shouldFail(op)) {
+			stats.failure();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Stop the scheduler; pending events are dropped
+	 */
+	public void shutdown() {
+		scheduler.shutdown();
+	}
+}
@@ -0,0 +1,164 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.media.mscontrol.Configuration;
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.networkconnection.NetworkConnection;
+import javax.media.mscontrol.networkconnection.SdpPortManager;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Simulated NetworkConnection, i.e. the RTP endpoint of a simulated caller.
+ * <br>
+ * The caller types the DTMFs of its {@link DtmfScript}, taken from an
+ * <code>a=x-sim-dtmf:</code> line of its SDP offer, or from the configured
+ * default script. Digits reach the MediaGroups that receive from this
+ * connection.
+ */
+@SuppressWarnings("serial")
+public class SimNetworkConnection extends SimContainer implements NetworkConnection {
+
+	private static Logger log = Logger.getLogger(SimNetworkConnection.class);
+
+	public static final String DTMF_SCRIPT_ATTRIBUTE = "a=x-sim-dtmf:";
+
+	private final SimSdpPortManager sdpPortManager;
+	private volatile DtmfScript script;
+
+	SimNetworkConnection(SimMediaSession session, Configuration<NetworkConnection> cfg) {
+		super(session, SimStats.Kind.NETWORK_CONNECTION, session.nextName("nc"), cfg);
+		sdpPortManager = new SimSdpPortManager(this);
+		String defaultScript = factory.getConfig().getDefaultDtmfScript();
+		if (defaultScript != null)
+			script = new DtmfScript(defaultScript);
+	}
+
+	public SdpPortManager getSdpPortManager() throws MsControlException {
+		return sdpPortManager;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <R> R getResource(Class<R> type) throws MsControlException {
+		if (type.isInstance(sdpPortManager))
+			return (R) sdpPortManager;
+		return super.getResource(type);
+	}
+
+	public DtmfScript getDtmfScript() {
+		return script;
+	}
+
+	public void setDtmfScript(DtmfScript script) {
+		this.script = script;
+	}
+
+	/**
+	 * Look for a DTMF script in a SDP sent by the caller
+	 */
+	void parseSdp(byte[] sdp) {
+		if (sdp == null)
+			return;
+		for (String line : new String(sdp).split("\r?\n")) {
+			if (line.startsWith(DTMF_SCRIPT_ATTRIBUTE)) {
+				try {
+					script = new DtmfScript(line.substring(DTMF_SCRIPT_ATTRIBUTE.length()));
+				} catch (IllegalArgumentException e) {
+					log.warn("Ignoring DTMF script of " + this + ": " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Send DTMFs right away to the MediaGroups receiving from this connection
+	 */
+	public void sendDtmf(final String digits) {
+		for (final SimMediaGroup group : listeningGroups()) {
+			group.later(0, new Runnable() {
+				public void run() {
+					for (int i = 0; i < digits.length(); i++)
+						group.dtmf(digits.charAt(i));
+				}
+			});
+		}
+	}
+
+	/**
+	 * Called on the event queue of a MediaGroup receiving from this
+	 * connection, when it starts or stops playing, recording or collecting
+	 */
+	void phaseChanged(final SimMediaGroup group) {
+		final DtmfScript s = script;
+		if (s == null)
+			return;
+		final DtmfScript.Token token = s.take(group.phase());
+		if (token == null)
+			return;
+		SimConfig config = factory.getConfig();
+		long delay = token.delay >= 0 ? token.delay : config.getDtmfThinkTime().sample();
+		group.later(config.scale(delay), new Runnable() {
+			public void run() {
+				if (released || !token.matches(group.phase())) {
+					s.putBack(token);
+					if (!released)
+						phaseChanged(group);
+					return;
+				}
+				type(group, s, token, 0);
+			}
+		});
+	}
+
+	private void type(final SimMediaGroup group, final DtmfScript s,
+			final DtmfScript.Token token, final int index) {
+		group.dtmf(token.digits.charAt(index));
+		if (index + 1 < token.digits.length()) {
+			long delay = factory.getConfig().scale(factory.getConfig().getInterDigitDelay().sample());
+			group.later(delay, new Runnable() {
+				public void run() {
+					type(group, s, token, index + 1);
+				}
+			});
+		} else {
+			s.typed();
+			phaseChanged(group);
+		}
+	}
+
+	private Iterable<SimMediaGroup> listeningGroups() {
+		List<SimMediaGroup> groups = new ArrayList<SimMediaGroup>();
+		for (Map.Entry<SimJoinable, Direction> e : joinees.entrySet()) {
+			if (e.getKey() instanceof SimMediaGroup && sends(e.getValue()))
+				groups.add((SimMediaGroup) e.getKey());
+		}
+		return groups;
+	}
+
+	@Override
+	void onJoined(SimJoinable peer, Direction dir) {
+		if (peer instanceof SimMediaGroup && sends(dir)) {
+			final SimMediaGroup group = (SimMediaGroup) peer;
+			group.later(0, new Runnable() {
+				public void run() {
+					phaseChanged(group);
+				}
+			});
+		}
+	}
+}
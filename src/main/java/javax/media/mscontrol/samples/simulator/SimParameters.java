@@ -0,0 +1,31 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.simulator;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.media.mscontrol.Parameter;
+import javax.media.mscontrol.Parameters;
+
+/**
+ * Parameters implementation of the simulated driver
+ */
+@SuppressWarnings("serial")
+public class SimParameters extends ConcurrentHashMap<Parameter, Object> implements Parameters {
+
+	/**
+	 * Null-tolerant lookup, <code>Parameters.NO_PARAMETER</code> is null
+	 */
+	static Object get(Parameters params, Parameter key) {
+		return params == null ? null : params.get(key);
+	}
+}
@@ -0,0 +1,232 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.simulator;
+
+import java.net.URI;
+import java.util.LinkedList;
+
+import javax.media.mscontrol.MediaErr;
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.Parameters;
+import javax.media.mscontrol.Qualifier;
+import javax.media.mscontrol.mediagroup.MediaGroup;
+import javax.media.mscontrol.mediagroup.Player;
+import javax.media.mscontrol.mediagroup.PlayerEvent;
+import javax.media.mscontrol.resource.RTC;
+import javax.media.mscontrol.resource.ResourceEvent;
+import javax.media.mscontrol.resource.Trigger;
+import javax.media.mscontrol.samples.simulator.SimConfig.Operation;
+
+/**
+ * Simulated Player. Each prompt lasts a duration drawn from the configured
+ * distribution; nothing is read.
+ */
+public class SimPlayer extends SimResource<PlayerEvent> implements Player {
+
+	private class Play {
+		final URI[] uris;
+		final RTC[] rtcs;
+		/** media time of each prompt, in ms */
+		final long[] durations;
+		final long total;
+		final boolean truncated;
+		/** wall clock ms played before the last resume */
+		long played;
+		long resumedAt;
+		boolean paused;
+
+		Play(URI[] uris, RTC[] rtcs, Parameters params) {
+			this.uris = uris;
+			this.rtcs = rtcs;
+			durations = new long[uris.length];
+			long sum = 0;
+			for (int i = 0; i < uris.length; i++) {
+				durations[i] = factory.getConfig().getPromptDuration().sample();
+				sum += durations[i];
+			}
+			long max = group.millis(params, MAX_DURATION, -1);
+			truncated = max >= 0 && max < sum;
+			total = truncated ? max : sum;
+		}
+
+		long elapsed() {
+			return played + (paused ? 0 : now() - resumedAt);
+		}
+	}
+
+	private final LinkedList<Play> queue = new LinkedList<Play>();
+	private Play current;
+
+	SimPlayer(SimMediaGroup group) {
+		super(group, SimStats.Kind.PLAYER);
+	}
+
+	public MediaGroup getContainer() {
+		return group;
+	}
+
+	public void play(URI uri, RTC[] rtcs, Parameters params) throws MsControlException {
+		play(new URI[] { uri }, rtcs, params);
+	}
+
+	public void play(URI[] uris, RTC[] rtcs, Parameters params) throws MsControlException {
+		command();
+		if (uris == null || uris.length == 0)
+			throw new MsControlException("Nothing to play");
+		synchronized (group) {
+			Play play = new Play(uris, rtcs, params);
+			if (current != null) {
+				Object behaviour = group.param(params, BEHAVIOUR_IF_BUSY);
+				if (FAIL_IF_BUSY.equals(behaviour))
+					throw new MsControlException("Player of " + group + " is busy");
+				if (STOP_IF_BUSY.equals(behaviour)) {
+					queue.clear();
+					complete(ResourceEvent.STOPPED, null, null, false);
+				} else {
+					queue.add(play);
+					return;
+				}
+			}
+			start(play);
+		}
+	}
+
+	public void stop(boolean stopAll) {
+		factory.getStats().command();
+		synchronized (group) {
+			if (stopAll)
+				queue.clear();
+			if (current != null)
+				complete(ResourceEvent.STOPPED, null, null, true);
+		}
+	}
+
+	/**
+	 * @return the URI being played, null if idle
+	 */
+	URI getURI() {
+		Play play = current;
+		return play == null ? null : play.uris[index(play)];
+	}
+
+	private void start(final Play play) {
+		current = play;
+		generation++;
+		group.setRTCs(this, play.rtcs);
+		long delay = factory.getConfig().delay(Operation.PLAY);
+		if (factory.fail(Operation.PLAY)) {
+			timer(delay, new Runnable() {
+				public void run() {
+					complete(null, null, MediaErr.NOT_FOUND, true);
+				}
+			});
+		} else {
+			play.resumedAt = now() + delay;
+			schedule(delay + factory.getConfig().scale(play.total));
+		}
+		group.phaseChanged();
+	}
+
+	private void schedule(long delay) {
+		final Play play = current;
+		timer(delay, new Runnable() {
+			public void run() {
+				complete(play.truncated ? PlayerEvent.DURATION_EXCEEDED : PlayerEvent.END_OF_PLAY_LIST, null, null, true);
+			}
+		});
+	}
+
+	/**
+	 * RTC action: stop the current prompt list (and the queued ones)
+	 */
+	void interrupt(Trigger trigger, boolean all) {
+		if (current == null)
+			return;
+		if (all)
+			queue.clear();
+		complete(ResourceEvent.RTC_TRIGGERED, trigger, null, true);
+	}
+
+	void pause() {
+		Play play = current;
+		if (play == null || play.paused)
+			return;
+		play.played += now() - play.resumedAt;
+		play.paused = true;
+		generation++;
+		emit(new SimEvents.SimPlayerEvent(this, PlayerEvent.PAUSED, null, null, index(play), offset(play), null, null));
+	}
+
+	void resume() {
+		Play play = current;
+		if (play == null || !play.paused)
+			return;
+		play.paused = false;
+		play.resumedAt = now();
+		generation++;
+		schedule(Math.max(0, factory.getConfig().scale(play.total) - play.played));
+		emit(new SimEvents.SimPlayerEvent(this, PlayerEvent.RESUMED, null, null, index(play), offset(play), null, null));
+	}
+
+	/**
+	 * End the current play. Under the group lock.
+	 *
+	 * @param next
+	 *            start the next queued play
+	 */
+	private void complete(Qualifier qualifier, Trigger trigger, MediaErr error, boolean next) {
+		Play play = current;
+		current = null;
+		generation++;
+		group.clearRTCs(this);
+		boolean atEnd = PlayerEvent.END_OF_PLAY_LIST.equals(qualifier);
+		int index = atEnd ? play.uris.length - 1 : index(play);
+		int offset = atEnd ? (int) play.durations[index] : offset(play);
+		emit(new SimEvents.SimPlayerEvent(this, PlayerEvent.PLAY_COMPLETED, qualifier, trigger, index, offset,
+				error, error == null ? null : "Injected play failure"));
+		group.trigger(PLAY_COMPLETION);
+		if (next && current == null && !queue.isEmpty())
+			start(queue.removeFirst());
+		else
+			group.phaseChanged();
+	}
+
+	/**
+	 * @return the index of the prompt being played
+	 */
+	private int index(Play play) {
+		long media = factory.getConfig().unscale(play.elapsed());
+		for (int i = 0; i < play.durations.length; i++) {
+			if (media < play.durations[i])
+				return i;
+			media -= play.durations[i];
+		}
+		return play.durations.length - 1;
+	}
+
+	/**
+	 * @return the media time played in the current prompt, in ms
+	 */
+	private int offset(Play play) {
+		long media = factory.getConfig().unscale(play.elapsed());
+		for (int i = 0; i < play.durations.length - 1 && media >= play.durations[i]; i++)
+			media -= play.durations[i];
+		return (int) Math.max(0, media);
+	}
+
+	@Override
+	void cancel() {
+		queue.clear();
+		current = null;
+		generation++;
+	}
+}
@@ -0,0 +1,206 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.simulator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+
+import javax.media.mscontrol.MediaErr;
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.Parameters;
+import javax.media.mscontrol.Qualifier;
+import javax.media.mscontrol.mediagroup.MediaGroup;
+import javax.media.mscontrol.mediagroup.Recorder;
+import javax.media.mscontrol.mediagroup.RecorderEvent;
+import javax.media.mscontrol.resource.RTC;
+import javax.media.mscontrol.resource.ResourceEvent;
+import javax.media.mscontrol.resource.Trigger;
+import javax.media.mscontrol.samples.simulator.SimConfig.Operation;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Simulated Recorder. The caller speaks until the maximum duration, unless
+ * the recording is stopped before. A recording started in paused mode
+ * (<code>START_IN_PAUSED_MODE</code>) waits for the RESUME action.
+ * <br>
+ * When <code>sim.record.bytesPerSecond</code> is set, a file of the
+ * corresponding size is written for local (scheme-less or file:) URIs, so
+ * that the storage of the samples sees real I/O.
+ */
+public class SimRecorder extends SimResource<RecorderEvent> implements Recorder {
+
+	private static Logger log = Logger.getLogger(SimRecorder.class);
+
+	private URI uri;
+	private long startedAt;
+	/** ms recorded before the last pause */
+	private long recorded;
+	private boolean paused;
+	private long maxMillis;
+
+	SimRecorder(SimMediaGroup group) {
+		super(group, SimStats.Kind.RECORDER);
+	}
+
+	public MediaGroup getContainer() {
+		return group;
+	}
+
+	public void record(URI target, RTC[] rtcs, Parameters params) throws MsControlException {
+		command();
+		synchronized (group) {
+			if (uri != null)
+				throw new MsControlException("Recorder of " + group + " is busy");
+			uri = target;
+			generation++;
+			group.setRTCs(this, rtcs);
+			long delay = factory.getConfig().delay(Operation.RECORD);
+			startedAt = now() + delay;
+			recorded = 0;
+			paused = Boolean.TRUE.equals(group.param(params, START_IN_PAUSED_MODE));
+			maxMillis = factory.getConfig().scale(
+					group.millis(params, MAX_DURATION, factory.getConfig().getMaxRecordDuration().sample()));
+			if (factory.fail(Operation.RECORD)) {
+				timer(delay, new Runnable() {
+					public void run() {
+						complete(null, null, MediaErr.RESOURCE_UNAVAILABLE);
+					}
+				});
+			} else if (!paused) {
+				limit(delay + maxMillis);
+			}
+			group.phaseChanged();
+		}
+	}
+
+	public void stop() {
+		factory.getStats().command();
+		synchronized (group) {
+			if (uri != null)
+				complete(ResourceEvent.STOPPED, null, null);
+		}
+	}
+
+	/**
+	 * Pause action, e.g. an RTC. Under the group lock.
+	 */
+	void pause() {
+		if (uri == null || paused)
+			return;
+		paused = true;
+		recorded += Math.max(0, now() - startedAt);
+		// Drop the maximum duration timer
+		generation++;
+		emit(new SimEvents.SimRecorderEvent(this, RecorderEvent.PAUSED, null, null, 0, null, null));
+	}
+
+	/**
+	 * Resume action, also the start of a recording started in paused mode.
+	 * Under the group lock.
+	 */
+	void resume() {
+		if (uri == null || !paused)
+			return;
+		paused = false;
+		startedAt = now();
+		limit(Math.max(0, maxMillis - recorded));
+		emit(new SimEvents.SimRecorderEvent(this, RecorderEvent.RESUMED, null, null, 0, null, null));
+	}
+
+	/**
+	 * End the recording at its maximum duration
+	 */
+	private void limit(long delay) {
+		timer(delay, new Runnable() {
+			public void run() {
+				complete(RecorderEvent.DURATION_EXCEEDED, null, null);
+			}
+		});
+	}
+
+	/**
+	 * @return the URI being recorded, null if idle
+	 */
+	URI getURI() {
+		return uri;
+	}
+
+	/**
+	 * RTC action
+	 */
+	void interrupt(Trigger trigger) {
+		if (uri != null)
+			complete(ResourceEvent.RTC_TRIGGERED, trigger, null);
+	}
+
+	/**
+	 * End the recording. Under the group lock.
+	 */
+	private void complete(Qualifier qualifier, Trigger trigger, MediaErr error) {
+		final URI target = uri;
+		uri = null;
+		generation++;
+		group.clearRTCs(this);
+		long elapsed = recorded + (paused ? 0 : Math.max(0, now() - startedAt));
+		final int duration = error != null ? 0 : (int) factory.getConfig().unscale(elapsed);
+		final int bytesPerSecond = factory.getConfig().getRecordBytesPerSecond();
+		if (bytesPerSecond > 0 && duration > 0) {
+			group.later(0, new Runnable() {
+				public void run() {
+					write(target, (long) bytesPerSecond * duration / 1000);
+				}
+			});
+		}
+		emit(new SimEvents.SimRecorderEvent(this, RecorderEvent.RECORD_COMPLETED, qualifier, trigger, duration,
+				error, error == null ? null : "Injected record failure"));
+		group.trigger(RECORD_COMPLETION);
+		group.phaseChanged();
+	}
+
+	private void write(URI target, long size) {
+		File file;
+		if (target.getScheme() == null)
+			file = new File(target.getPath());
+		else if ("file".equals(target.getScheme()))
+			file = new File(target);
+		else
+			return;
+		byte[] buffer = new byte[8192];
+		OutputStream out = null;
+		try {
+			if (file.getParentFile() != null)
+				file.getParentFile().mkdirs();
+			out = new FileOutputStream(file);
+			for (long left = size; left > 0; left -= buffer.length)
+				out.write(buffer, 0, (int) Math.min(left, buffer.length));
+		} catch (IOException e) {
+			log.warn("Cannot write simulated recording " + file + ": " + e);
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	@Override
+	void cancel() {
+		uri = null;
+		generation++;
+	}
+}
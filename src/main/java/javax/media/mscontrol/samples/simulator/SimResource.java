@@ -0,0 +1,93 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.simulator;
+
+import javax.media.mscontrol.MediaEvent;
+import javax.media.mscontrol.MediaEventListener;
+import javax.media.mscontrol.MediaSession;
+import javax.media.mscontrol.MsControlException;
+
+/**
+ * Common part of the MediaGroup resources: Player, Recorder and
+ * SignalDetector.
+ * <br>
+ * Each operation gets a generation number; timers of an operation that was
+ * stopped or cancelled in the meantime find a different generation and do
+ * nothing.
+ */
+abstract class SimResource<E extends MediaEvent<?>> {
+
+	final SimMediaGroup group;
+	final SimMsControlFactory factory;
+	private final Listeners<E> listeners;
+	int generation;
+
+	SimResource(SimMediaGroup group, SimStats.Kind kind) {
+		this.group = group;
+		this.factory = group.factory;
+		this.listeners = new Listeners<E>(factory.getStats());
+		factory.getStats().allocated(kind);
+	}
+
+	public void addListener(MediaEventListener<E> listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(MediaEventListener<E> listener) {
+		listeners.remove(listener);
+	}
+
+	public MediaSession getMediaSession() {
+		return group.getMediaSession();
+	}
+
+	void command() throws MsControlException {
+		group.checkNotReleased();
+		factory.getStats().command();
+	}
+
+	/**
+	 * Queue an event for the listeners
+	 */
+	void emit(final E event) {
+		group.later(0, new Runnable() {
+			public void run() {
+				listeners.fire(event);
+			}
+		});
+	}
+
+	/**
+	 * Run a task of the current operation after a delay, under the group lock
+	 */
+	void timer(long delayMillis, final Runnable task) {
+		final int gen = generation;
+		group.later(delayMillis, new Runnable() {
+			public void run() {
+				synchronized (group) {
+					if (gen == generation)
+						task.run();
+				}
+			}
+		});
+	}
+
+	static long now() {
+		return System.nanoTime() / 1000000;
+	}
+
+	/**
+	 * Drop the operations in progress without events. Called under the
+	 * group lock when the group is released.
+	 */
+	abstract void cancel();
+}
@@ -0,0 +1,138 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.simulator;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Drives the whole simulated media server: every completion, event and
+ * simulated caller action is a task scheduled here.
+ * <br>
+ * As with a real JSR 309 driver, events belonging to one MediaSession are
+ * delivered one at a time and in order. Each session gets its own
+ * {@link Serial} queue, drained on the shared pool, so that thousands of
+ * sessions share a handful of threads.
+ */
+public class SimScheduler {
+
+	private static Logger log = Logger.getLogger(SimScheduler.class);
+
+	private final ScheduledThreadPoolExecutor pool;
+
+	public SimScheduler(int threads) {
+		pool = new ScheduledThreadPoolExecutor(Math.max(1, threads),
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "sim-ms-" + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		pool.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Run a task on the given serial queue, after a delay
+	 *
+	 * @param serial
+	 *            queue of the MediaSession owning the task
+	 * @param delayMillis
+	 *            wall clock delay, 0 to run as soon as possible. Tasks
+	 *            without delay are queued right away, so that they keep
+	 *            their submission order.
+	 */
+	public void schedule(final Serial serial, long delayMillis,
+			final Runnable task) {
+		if (delayMillis <= 0) {
+			serial.execute(task);
+			return;
+		}
+		pool.schedule(new Runnable() {
+			public void run() {
+				serial.execute(task);
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return a new serial queue, typically one per MediaSession
+	 */
+	public Serial newSerial() {
+		return new Serial(pool);
+	}
+
+	/**
+	 * @return number of tasks waiting for their deadline
+	 */
+	public int getQueueSize() {
+		return pool.getQueue().size();
+	}
+
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+	/**
+	 * Executes tasks one at a time, in submission order, on a shared executor
+	 */
+	public static class Serial implements Executor {
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+		private final AtomicBoolean running = new AtomicBoolean();
+		private final Executor executor;
+
+		Serial(Executor executor) {
+			this.executor = executor;
+		}
+
+		public void execute(Runnable task) {
+			tasks.add(task);
+			schedule();
+		}
+
+		private void schedule() {
+			if (!tasks.isEmpty() && running.compareAndSet(false, true)) {
+				executor.execute(new Runnable() {
+					public void run() {
+						drain();
+					}
+				});
+			}
+		}
+
+		private void drain() {
+			try {
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					try {
+						task.run();
+					} catch (Throwable t) {
+						log.error("Uncaught exception in simulated event delivery", t);
+					}
+				}
+			} finally {
+				running.set(false);
+				schedule();
+			}
+		}
+	}
+}
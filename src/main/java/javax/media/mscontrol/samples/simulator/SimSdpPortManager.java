@@ -0,0 +1,145 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.simulator;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.media.mscontrol.EventType;
+import javax.media.mscontrol.MediaErr;
+import javax.media.mscontrol.MediaEventListener;
+import javax.media.mscontrol.MediaSession;
+import javax.media.mscontrol.networkconnection.CodecPolicy;
+import javax.media.mscontrol.networkconnection.NetworkConnection;
+import javax.media.mscontrol.networkconnection.SdpPortManager;
+import javax.media.mscontrol.networkconnection.SdpPortManagerEvent;
+import javax.media.mscontrol.networkconnection.SdpPortManagerException;
+import javax.media.mscontrol.samples.simulator.SimConfig.Operation;
+
+/**
+ * Simulated SdpPortManager. Every offer is accepted, and answered with a
+ * G.711 + telephone-event audio stream.
+ */
+public class SimSdpPortManager implements SdpPortManager {
+
+	private static final AtomicInteger ports = new AtomicInteger();
+
+	private final SimNetworkConnection connection;
+	private final Listeners<SdpPortManagerEvent> listeners;
+	private final int port;
+	private volatile byte[] mediaServerSdp;
+	private volatile byte[] userAgentSdp;
+	private volatile CodecPolicy codecPolicy;
+
+	SimSdpPortManager(SimNetworkConnection connection) {
+		this.connection = connection;
+		this.listeners = new Listeners<SdpPortManagerEvent>(connection.factory.getStats());
+		this.port = 20000 + (ports.getAndAdd(2) & 0x7fffffff) % 40000;
+	}
+
+	public NetworkConnection getContainer() {
+		return connection;
+	}
+
+	public void generateSdpOffer() throws SdpPortManagerException {
+		command();
+		respond(SdpPortManagerEvent.OFFER_GENERATED, SdpPortManagerEvent.RESOURCE_UNAVAILABLE);
+	}
+
+	public void processSdpOffer(byte[] offer) throws SdpPortManagerException {
+		command();
+		userAgentSdp = offer;
+		connection.parseSdp(offer);
+		respond(SdpPortManagerEvent.ANSWER_GENERATED, SdpPortManagerEvent.SDP_NOT_ACCEPTABLE);
+	}
+
+	public void processSdpAnswer(byte[] answer) throws SdpPortManagerException {
+		command();
+		userAgentSdp = answer;
+		connection.parseSdp(answer);
+		respond(SdpPortManagerEvent.ANSWER_PROCESSED, SdpPortManagerEvent.SDP_NOT_ACCEPTABLE);
+	}
+
+	public void rejectSdpOffer() throws SdpPortManagerException {
+		command();
+	}
+
+	public byte[] getMediaServerSessionDescription() throws SdpPortManagerException {
+		return mediaServerSdp;
+	}
+
+	public byte[] getUserAgentSessionDescription() throws SdpPortManagerException {
+		return userAgentSdp;
+	}
+
+	public void setCodecPolicy(CodecPolicy codecPolicy) throws SdpPortManagerException {
+		this.codecPolicy = codecPolicy;
+	}
+
+	public CodecPolicy getCodecPolicy() {
+		return codecPolicy;
+	}
+
+	public void addListener(MediaEventListener<SdpPortManagerEvent> listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(MediaEventListener<SdpPortManagerEvent> listener) {
+		listeners.remove(listener);
+	}
+
+	public MediaSession getMediaSession() {
+		return connection.getMediaSession();
+	}
+
+	private void command() throws SdpPortManagerException {
+		if (connection.released)
+			throw new SdpPortManagerException(connection + " is released");
+		connection.factory.getStats().command();
+	}
+
+	/**
+	 * Send the result of an offer/answer operation after the SDP latency
+	 */
+	private void respond(final EventType type, final MediaErr failure) {
+		final SimMsControlFactory factory = connection.factory;
+		connection.later(factory.getConfig().delay(Operation.SDP) + connection.session.occupy(), new Runnable() {
+			public void run() {
+				if (connection.released)
+					return;
+				SdpPortManagerEvent event;
+				if (factory.fail(Operation.SDP)) {
+					event = new SimEvents.SimSdpPortManagerEvent(SimSdpPortManager.this, type, null,
+							failure, "Injected SDP failure");
+				} else {
+					if (mediaServerSdp == null)
+						mediaServerSdp = sdp();
+					event = new SimEvents.SimSdpPortManagerEvent(SimSdpPortManager.this, type, mediaServerSdp,
+							null, null);
+				}
+				listeners.fire(event);
+			}
+		});
+	}
+
+	private byte[] sdp() {
+		return ("v=0\r\n"
+				+ "o=simulator " + port + " 1 IN IP4 127.0.0.1\r\n"
+				+ "s=-\r\n"
+				+ "c=IN IP4 127.0.0.1\r\n"
+				+ "t=0 0\r\n"
+				+ "m=audio " + port + " RTP/AVP 0 8 101\r\n"
+				+ "a=rtpmap:0 PCMU/8000\r\n"
+				+ "a=rtpmap:8 PCMA/8000\r\n"
+				+ "a=rtpmap:101 telephone-event/8000\r\n"
+				+ "a=fmtp:101 0-15\r\n").getBytes();
+	}
+}
@@ -0,0 +1,304 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.simulator;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.media.mscontrol.MediaErr;
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.Parameter;
+import javax.media.mscontrol.Parameters;
+import javax.media.mscontrol.Qualifier;
+import javax.media.mscontrol.mediagroup.signals.SignalDetector;
+import javax.media.mscontrol.mediagroup.signals.SignalDetectorEvent;
+import javax.media.mscontrol.resource.RTC;
+import javax.media.mscontrol.resource.ResourceContainer;
+import javax.media.mscontrol.resource.ResourceEvent;
+import javax.media.mscontrol.resource.Trigger;
+import javax.media.mscontrol.samples.simulator.SimConfig.Operation;
+
+/**
+ * Simulated SignalDetector.
+ * <br>
+ * DTMFs are buffered, whether a <code>receiveSignals</code> is in progress
+ * or not, and consumed in order. A pattern is either a String of DTMFs, or
+ * a SRGS grammar, of which only the <code>repeat</code> count of
+ * digits is understood.
+ */
+public class SimSignalDetector extends SimResource<SignalDetectorEvent> implements SignalDetector {
+
+	private static final Pattern REPEAT = Pattern.compile("repeat=\"(\\d+)");
+
+	private final StringBuilder buffer = new StringBuilder();
+
+	// The receiveSignals in progress
+	private boolean active;
+	private int numSignals;
+	private Parameter[] patterns;
+	private Parameters params;
+	private boolean gotSignal;
+	private int timeouts;
+
+	SimSignalDetector(SimMediaGroup group) {
+		super(group, SimStats.Kind.SIGNAL_DETECTOR);
+	}
+
+	public ResourceContainer getContainer() {
+		return group;
+	}
+
+	public void receiveSignals(int numSignals, Parameter[] patterns, RTC[] rtcs,
+			Parameters params) throws MsControlException {
+		command();
+		synchronized (group) {
+			if (active)
+				throw new MsControlException("SignalDetector of " + group + " is busy");
+			active = true;
+			generation++;
+			this.numSignals = numSignals;
+			this.patterns = patterns == null ? new Parameter[0] : patterns;
+			this.params = params;
+			gotSignal = false;
+			group.setRTCs(this, rtcs);
+			SimConfig config = factory.getConfig();
+			long delay = config.delay(Operation.SIGNALS);
+			if (factory.fail(Operation.SIGNALS)) {
+				timer(delay, new Runnable() {
+					public void run() {
+						complete(null, null, "", -1, true);
+					}
+				});
+			} else {
+				timer(delay, new Runnable() {
+					public void run() {
+						check();
+					}
+				});
+				// The prompt, if any, is part of the initial timeout
+				long prompt = group.param(params, PROMPT) != null ? config.getPromptDuration().sample() : 0;
+				long timeout = timeout(INITIAL_TIMEOUT);
+				armTimeout(timeout < 0 ? -1 : delay + config.scale(prompt + timeout));
+			}
+			group.phaseChanged();
+		}
+	}
+
+	public void flushBuffer() throws MsControlException {
+		command();
+		synchronized (group) {
+			flush();
+		}
+	}
+
+	public void stop() {
+		factory.getStats().command();
+		synchronized (group) {
+			if (active)
+				complete(ResourceEvent.STOPPED, null, takeBuffer(), -1, false);
+		}
+	}
+
+	boolean isActive() {
+		return active;
+	}
+
+	/**
+	 * A DTMF from the caller. Called on the event queue.
+	 */
+	void dtmf(char digit) {
+		synchronized (group) {
+			buffer.append(digit);
+			group.trigger(DETECTION_OF_ONE_SIGNAL);
+			if (active) {
+				gotSignal = true;
+				if (!check()) {
+					long timeout = timeout(INTER_SIG_TIMEOUT);
+					armTimeout(timeout < 0 ? -1 : factory.getConfig().scale(timeout));
+				}
+			} else {
+				// Pattern RTCs of a play or record in progress
+				for (Trigger trigger : group.armedTriggers()) {
+					int i = patternIndex(trigger);
+					if (i >= 0 && match(group.param(null, PATTERN[i])) > 0)
+						group.trigger(trigger);
+				}
+			}
+		}
+	}
+
+	/**
+	 * RTC action
+	 */
+	void interrupt(Trigger trigger) {
+		if (active)
+			complete(ResourceEvent.RTC_TRIGGERED, trigger, takeBuffer(), -1, false);
+	}
+
+	void flush() {
+		buffer.setLength(0);
+		emit(new SimEvents.SimSignalDetectorEvent(this, SignalDetectorEvent.FLUSH_BUFFER_COMPLETED, null, null,
+				null, -1, null, null));
+	}
+
+	/**
+	 * Complete the receiveSignals if the buffer holds enough DTMFs or a
+	 * pattern. The buffer is consumed in order, up to the first match: the
+	 * DTMFs after it are left for the next receiveSignals.
+	 *
+	 * @return true if completed
+	 */
+	private boolean check() {
+		if (!active)
+			return false;
+		for (int end = 1; end <= buffer.length(); end++) {
+			for (Parameter pattern : patterns) {
+				int i = patternIndex(pattern);
+				if (i < 0)
+					continue;
+				int length = match(group.param(params, pattern), end);
+				if (length > 0) {
+					String signals = buffer.substring(end - length, end);
+					buffer.delete(0, end);
+					group.trigger(PATTERN_MATCH[i]);
+					if (active)
+						complete(SignalDetectorEvent.PATTERN_MATCHING[i], null, signals, i, false);
+					return true;
+				}
+			}
+			if (end == numSignals) {
+				String signals = buffer.substring(0, numSignals);
+				buffer.delete(0, numSignals);
+				complete(SignalDetectorEvent.NUM_SIGNALS_DETECTED, null, signals, -1, false);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return a timeout parameter in ms, -1 for {@link #FOREVER}
+	 */
+	private long timeout(Parameter key) {
+		Object value = group.param(params, key);
+		if (FOR_EVER.equals(value) || value instanceof Number && ((Number) value).longValue() == FOREVER)
+			return -1;
+		return value instanceof Number ? ((Number) value).longValue() : factory.getConfig().getSignalTimeout();
+	}
+
+	/**
+	 * Replace the timeout in progress
+	 *
+	 * @param delay
+	 *            -1 for none
+	 */
+	private void armTimeout(long delay) {
+		final int timeout = ++timeouts;
+		if (delay < 0)
+			return;
+		timer(delay, new Runnable() {
+			public void run() {
+				if (timeout == timeouts)
+					complete(gotSignal ? SignalDetectorEvent.INTER_SIG_TIMEOUT_EXCEEDED
+							: SignalDetectorEvent.INITIAL_TIMEOUT_EXCEEDED, null, takeBuffer(), -1, false);
+			}
+		});
+	}
+
+	private String takeBuffer() {
+		String signals = buffer.toString();
+		buffer.setLength(0);
+		return signals;
+	}
+
+	/**
+	 * End the receiveSignals. Under the group lock.
+	 */
+	private void complete(Qualifier qualifier, Trigger trigger, String signals,
+			int patternIndex, boolean failed) {
+		active = false;
+		generation++;
+		group.clearRTCs(this);
+		emit(new SimEvents.SimSignalDetectorEvent(this, SignalDetectorEvent.RECEIVE_SIGNALS_COMPLETED,
+				qualifier, trigger, signals, patternIndex,
+				failed ? MediaErr.RESOURCE_UNAVAILABLE : null,
+				failed ? "Injected detector failure" : null));
+		group.trigger(RECEIVE_SIGNALS_COMPLETION);
+		group.phaseChanged();
+	}
+
+	/**
+	 * @return the number of DTMFs at the end of the buffer matching the
+	 *         pattern, 0 if no match
+	 */
+	private int match(Object pattern) {
+		return match(pattern, buffer.length());
+	}
+
+	/**
+	 * @return the number of DTMFs before <code>end</code> in the buffer
+	 *         matching the pattern, 0 if no match
+	 */
+	private int match(Object pattern, int end) {
+		if (pattern == null)
+			return 0;
+		String text = pattern.toString();
+		if (pattern instanceof URI || text.startsWith("data:") || text.indexOf("<grammar") >= 0) {
+			int count = 1;
+			try {
+				Matcher m = REPEAT.matcher(URLDecoder.decode(text, "UTF-8"));
+				if (m.find())
+					count = Integer.parseInt(m.group(1));
+			} catch (UnsupportedEncodingException e) {
+			} catch (IllegalArgumentException e) {
+				// not URL-encoded
+				Matcher m = REPEAT.matcher(text);
+				if (m.find())
+					count = Integer.parseInt(m.group(1));
+			}
+			if (end < count)
+				return 0;
+			for (int i = end - count; i < end; i++) {
+				if (!Character.isDigit(buffer.charAt(i)))
+					return 0;
+			}
+			return count;
+		}
+		return text.length() > 0 && end >= text.length() && buffer.substring(end - text.length(), end).equals(text) ? text
+				.length() : 0;
+	}
+
+	private static int patternIndex(Parameter pattern) {
+		for (int i = 0; i < PATTERN.length; i++) {
+			if (PATTERN[i].equals(pattern))
+				return i;
+		}
+		return -1;
+	}
+
+	private static int patternIndex(Trigger trigger) {
+		for (int i = 0; i < PATTERN_MATCH.length; i++) {
+			if (PATTERN_MATCH[i].equals(trigger))
+				return i;
+		}
+		return -1;
+	}
+
+	@Override
+	void cancel() {
+		active = false;
+		generation++;
+	}
+}
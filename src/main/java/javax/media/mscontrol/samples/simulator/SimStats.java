@@ -0,0 +1,134 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.simulator;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Media server resource accounting: how many objects of each kind are
+ * allocated right now, at peak, and in total. Used by the load harness to
+ * report the media cost of each service.
+ */
+public class SimStats {
+
+	/**
+	 * Kinds of media server resources
+	 */
+	public enum Kind {
+		MEDIA_SESSION, NETWORK_CONNECTION, MEDIA_GROUP, PLAYER, RECORDER,
+		SIGNAL_DETECTOR, MEDIA_MIXER, MIXER_ADAPTER, VXML_DIALOG,
+		/** an input a MediaMixer is mixing: the mixing cost */
+		MIXED_INPUT
+	}
+
+	private static class Counter {
+		final LongAdder created = new LongAdder();
+		final AtomicLong live = new AtomicLong();
+		final AtomicLong peak = new AtomicLong();
+	}
+
+	private final Map<Kind, Counter> counters = new EnumMap<Kind, Counter>(Kind.class);
+
+	private final LongAdder commands = new LongAdder();
+	private final LongAdder events = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder bridges = new LongAdder();
+
+	public SimStats() {
+		for (Kind k : Kind.values())
+			counters.put(k, new Counter());
+	}
+
+	void allocated(Kind kind) {
+		Counter c = counters.get(kind);
+		c.created.increment();
+		long now = c.live.incrementAndGet();
+		long peak;
+		while (now > (peak = c.peak.get()) && !c.peak.compareAndSet(peak, now))
+			;
+	}
+
+	void released(Kind kind) {
+		counters.get(kind).live.decrementAndGet();
+	}
+
+	void command() {
+		commands.increment();
+	}
+
+	void event() {
+		events.increment();
+	}
+
+	void failure() {
+		failures.increment();
+	}
+
+	void bridge() {
+		bridges.increment();
+	}
+
+	public long getLive(Kind kind) {
+		return counters.get(kind).live.get();
+	}
+
+	public long getPeak(Kind kind) {
+		return counters.get(kind).peak.get();
+	}
+
+	public long getCreated(Kind kind) {
+		return counters.get(kind).created.sum();
+	}
+
+	public long getCommands() {
+		return commands.sum();
+	}
+
+	public long getEvents() {
+		return events.sum();
+	}
+
+	public long getInjectedFailures() {
+		return failures.sum();
+	}
+
+	/**
+	 * @return joins between objects of two MediaSessions
+	 */
+	public long getBridges() {
+		return bridges.sum();
+	}
+
+	/**
+	 * Reset peaks to the current values, e.g. at the end of a warm-up phase
+	 */
+	public void resetPeaks() {
+		for (Counter c : counters.values())
+			c.peak.set(c.live.get());
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Kind k : Kind.values()) {
+			Counter c = counters.get(k);
+			sb.append(String.format("%-20s live=%-6d peak=%-6d created=%d%n", k,
+					c.live.get(), c.peak.get(), c.created.sum()));
+		}
+		sb.append(String.format("commands=%d events=%d injectedFailures=%d bridges=%d%n",
+				getCommands(), getEvents(), getInjectedFailures(), getBridges()));
+		return sb.toString();
+	}
+}
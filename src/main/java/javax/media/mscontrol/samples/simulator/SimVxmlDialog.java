@@ -0,0 +1,119 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.simulator;
+
+import java.net.URL;
+import java.util.Map;
+
+import javax.media.mscontrol.EventType;
+import javax.media.mscontrol.MediaErr;
+import javax.media.mscontrol.MediaEventListener;
+import javax.media.mscontrol.Parameters;
+import javax.media.mscontrol.join.Joinable;
+import javax.media.mscontrol.samples.simulator.SimConfig.Operation;
+import javax.media.mscontrol.vxml.VxmlDialog;
+import javax.media.mscontrol.vxml.VxmlDialogEvent;
+
+/**
+ * Simulated VxmlDialog. No VoiceXML is fetched: the dialog is prepared after
+ * the VXML latency, and exits after a duration drawn from
+ * <code>sim.vxml.duration</code>, returning the start parameters as its
+ * name list.
+ */
+public class SimVxmlDialog extends SimJoinable implements VxmlDialog {
+
+	private final Listeners<VxmlDialogEvent> listeners;
+	private int generation;
+
+	SimVxmlDialog(SimMediaSession session) {
+		super(session, SimStats.Kind.VXML_DIALOG, session.nextName("vxml"));
+		listeners = new Listeners<VxmlDialogEvent>(factory.getStats());
+	}
+
+	public void prepare(URL url, Parameters params, Map<String, Object> nameList) {
+		prepare(String.valueOf(url), params, nameList);
+	}
+
+	public void prepare(String document, Parameters params, Map<String, Object> nameList) {
+		factory.getStats().command();
+		setParameters(params);
+		final int gen = nextGeneration();
+		later(factory.getConfig().delay(Operation.VXML), new Runnable() {
+			public void run() {
+				if (current(gen)) {
+					if (factory.fail(Operation.VXML))
+						fire(VxmlDialogEvent.PREPARED, null, MediaErr.NOT_FOUND, "Injected VXML failure");
+					else
+						fire(VxmlDialogEvent.PREPARED, null, null, null);
+				}
+			}
+		});
+	}
+
+	public void start(final Map<String, Object> nameList) {
+		factory.getStats().command();
+		final int gen = nextGeneration();
+		final long delay = factory.getConfig().delay(Operation.VXML);
+		later(delay, new Runnable() {
+			public void run() {
+				if (!current(gen))
+					return;
+				fire(VxmlDialogEvent.STARTED, null, null, null);
+				later(factory.getConfig().scale(factory.getConfig().getVxmlDialogDuration().sample()), new Runnable() {
+					public void run() {
+						if (current(gen))
+							fire(VxmlDialogEvent.EXITED, nameList, null, null);
+					}
+				});
+			}
+		});
+	}
+
+	public void terminate(boolean immediate) {
+		factory.getStats().command();
+		final int gen = nextGeneration();
+		later(0, new Runnable() {
+			public void run() {
+				if (current(gen))
+					fire(VxmlDialogEvent.EXITED, null, null, null);
+			}
+		});
+	}
+
+	public void acceptEvent(String name, Map<String, Object> nameList) {
+		factory.getStats().command();
+	}
+
+	public Joinable[] getJoinables() {
+		return joinees.keySet().toArray(new Joinable[0]);
+	}
+
+	public void addListener(MediaEventListener<VxmlDialogEvent> listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(MediaEventListener<VxmlDialogEvent> listener) {
+		listeners.remove(listener);
+	}
+
+	private synchronized int nextGeneration() {
+		return ++generation;
+	}
+
+	private synchronized boolean current(int gen) {
+		return gen == generation;
+	}
+
+	private void fire(EventType type, Map<String, Object> nameList, MediaErr error, String text) {
+		listeners.fire(new SimEvents.SimVxmlDialogEvent(this, type, null, nameList, error, text));
+	}
+}
@@ -19,8 +19,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Vector;
 
+import javax.media.mscontrol.Configuration;
 import javax.media.mscontrol.EventType;
 import javax.media.mscontrol.MediaEventListener;
+import javax.media.mscontrol.MsControlException;
 import javax.media.mscontrol.Parameter;
 import javax.media.mscontrol.Parameters;
 import javax.media.mscontrol.Qualifier;
@@ -34,6 +36,7 @@ import javax.media.mscontrol.mediagroup.signals.SignalDetector;
 import javax.media.mscontrol.mediagroup.signals.SignalDetectorEvent;
 import javax.media.mscontrol.resource.RTC;
 import javax.media.mscontrol.resource.Trigger;
+import javax.media.mscontrol.samples.common.MediaSessionRegistry;
 import javax.servlet.sip.SipSession;
 
 import org.apache.log4j.Logger;
@@ -55,7 +58,7 @@ public class CoreMailSession extends VoiceMailSession {
 	/* ***************************************************************************** */
 	MediaGroup myMediaGroup;
 	Player myPlayer;
-	Recorder myRecorder;
+	Recorder myRecorder; // null until the caller deposits a message
 	SignalDetector mySignalDetector;
 
 	String userID;
@@ -397,16 +400,56 @@ public class CoreMailSession extends VoiceMailSession {
 	@Override
 	public void initDialog() throws Exception {
 		// Create a MediaGroup, set it up and join it to the NetworkConnection.
-		myMediaGroup = myMediaSession.createMediaGroup(MediaGroup.PLAYER_RECORDER_SIGNALDETECTOR);
-		myPlayer = myMediaGroup.getPlayer();
-		myPlayer.addListener(new VoiceMailPlayerListener());
-		myRecorder = myMediaGroup.getRecorder();
-		myRecorder.addListener(new VoiceMailRecorderListener());
-		mySignalDetector = myMediaGroup.getSignalDetector();
-		mySignalDetector.addListener(new VoiceMailSignalDetectorListener());
-
+		// Most callers only listen: no recorder until one is needed.
+		setMediaGroup(createMediaGroup(MediaGroup.PLAYER_SIGNALDETECTOR));
 		myNetworkConnection.join(Joinable.Direction.DUPLEX, myMediaGroup);
-		myMediaGroup.setParameters(patterns);
+	}
+
+	/**
+	 * Create a MediaGroup with the voicemail listeners and DTMF patterns
+	 */
+	MediaGroup createMediaGroup(Configuration<MediaGroup> config) throws MsControlException {
+		MediaGroup group = myMediaSession.createMediaGroup(config);
+		group.getPlayer().addListener(new VoiceMailPlayerListener());
+		group.getSignalDetector().addListener(new VoiceMailSignalDetectorListener());
+		if (config == MediaGroup.PLAYER_RECORDER_SIGNALDETECTOR)
+			group.getRecorder().addListener(new VoiceMailRecorderListener());
+		group.setParameters(patterns);
+		return group;
+	}
+
+	void setMediaGroup(MediaGroup group) throws MsControlException {
+		myMediaGroup = group;
+		myPlayer = group.getPlayer();
+		mySignalDetector = group.getSignalDetector();
+	}
+
+	/**
+	 * Upgrade the MediaGroup to one with a recorder, when the caller is about
+	 * to deposit a message. JSR 309 cannot add a resource to a MediaGroup:
+	 * the new group is joined to the NetworkConnection before the old one is
+	 * released (make before break), between two prompts, so that the call leg
+	 * stays up and the caller hears no gap. <br>
+	 * If anything goes wrong, release the session/call.
+	 */
+	void acquireRecorder() {
+		if (myRecorder != null)
+			return;
+		try {
+			MediaGroup group = createMediaGroup(MediaGroup.PLAYER_RECORDER_SIGNALDETECTOR);
+			// Make: the new group hears the caller
+			group.join(Joinable.Direction.RECV, myNetworkConnection);
+			MediaGroup oldGroup = myMediaGroup;
+			setMediaGroup(group);
+			myRecorder = group.getRecorder();
+			// Break, then let the new group talk to the caller as well
+			oldGroup.release();
+			myNetworkConnection.join(Joinable.Direction.DUPLEX, group);
+		} catch (Exception e) {
+			log.error("Unexpected exception " + e, e);
+			myCurrentState = released;
+			release();
+		}
 	}
 
 	/*
@@ -427,7 +470,7 @@ public class CoreMailSession extends VoiceMailSession {
 	 */
 	@Override
 	public void terminateDialog() {
-		myMediaSession.release();
+		MediaSessionRegistry.getInstance().release(myMediaSession);
 	}
 
 	/** Release on application's request */
@@ -653,6 +696,9 @@ public class CoreMailSession extends VoiceMailSession {
 			} else if ((event.getQualifier().equals(endOfListQualifier))
 					&& (userDestinationList.size() != 0)) {
 				log.debug("before play recordMessage");
+				acquireRecorder();
+				if (myCurrentState == released)
+					return released;
 				playPrompt(recordMessage);
 				return setState(send_Message);
 			}
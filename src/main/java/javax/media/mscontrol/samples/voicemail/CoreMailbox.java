@@ -37,13 +37,21 @@ class CoreMailbox {
 	private static final String MESSAGE_PREFIX = "message";
 	private int userNb;
 
+	/**
+	 * System property giving the directory of the mailboxes
+	 */
+	static final String ROOT_PROPERTY = "voicemail.mailboxes";
+	static final String DEFAULT_ROOT = "/mediafiles/voicemailboxes/";
+
 	public CoreMailbox(String uid) {
 		userNb = 0;
-		String pathName = "/mediafiles/voicemailboxes/";
+		String pathName = System.getProperty(ROOT_PROPERTY, DEFAULT_ROOT);
+		if (!pathName.endsWith("/"))
+			pathName = pathName + "/";
 
 		path = new File(pathName);
 		if (!path.exists())
-			path.mkdir();
+			path.mkdirs();
 		pathName = pathName + uid + "/";
 		path = new File(pathName);
 		if (!path.exists())
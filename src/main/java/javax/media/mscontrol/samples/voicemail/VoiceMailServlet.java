@@ -48,10 +48,10 @@ public class VoiceMailServlet extends SipServlet {
 			// Store media session reference
 			sipSession.setAttribute("media-service", service);
 			try {
-				// Initialize mediasession and networkconnection
+				// Initialize mediasession and networkconnection. The dialog
+				// (this part is dialog-type dependent) is initialized once
+				// the SDP answer is generated.
 				service.init(req);
-				// Initialize the dialog (this part is dialog-type dependent)
-				service.initDialog();
 			} catch (Exception e) {
 				service.release();
 				throw new ServletException(e);
@@ -63,7 +63,7 @@ public class VoiceMailServlet extends SipServlet {
 	@Override
 	protected void doAck(SipServletRequest req) throws ServletException {
 
-		final CoreMailSession service = (CoreMailSession) req.getSession().getAttribute("media-service");
+		final VoiceMailSession service = (VoiceMailSession) req.getSession().getAttribute("media-service");
 		// Start playing
 		service.startDialog(params);
 	}
@@ -71,7 +71,7 @@ public class VoiceMailServlet extends SipServlet {
 	/** released by the network */
 	@Override
 	protected void doBye(SipServletRequest req) throws ServletException {
-		final CoreMailSession service = (CoreMailSession) req.getSession().getAttribute("media-service");
+		final VoiceMailSession service = (VoiceMailSession) req.getSession().getAttribute("media-service");
 		service.terminateDialog();
 	}
 
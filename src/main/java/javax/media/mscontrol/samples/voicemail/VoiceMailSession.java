@@ -19,6 +19,7 @@ import javax.media.mscontrol.MsControlFactory;
 import javax.media.mscontrol.networkconnection.NetworkConnection;
 import javax.media.mscontrol.networkconnection.SdpPortManager;
 import javax.media.mscontrol.networkconnection.SdpPortManagerEvent;
+import javax.media.mscontrol.samples.common.MediaSessionRegistry;
 import javax.media.mscontrol.spi.DriverManager;
 import javax.servlet.sip.SipServletMessage;
 import javax.servlet.sip.SipServletRequest;
@@ -50,7 +51,7 @@ public abstract class VoiceMailSession {
 
     public void init(final SipServletRequest req) throws Exception {
         // First, create a MediaSession that will host the media objects
-        myMediaSession = myMsControlFactory.createMediaSession();
+        myMediaSession = MediaSessionRegistry.getInstance().create(myMsControlFactory, mySipSession);
 
         // Create a NetworkConnection that will handle the UA's RTP streams
         myNetworkConnection = myMediaSession.createNetworkConnection(NetworkConnection.BASIC);
@@ -79,7 +80,7 @@ public abstract class VoiceMailSession {
                         req.createResponse(500, "Unsupported Media Type").send();
                     }
                 } catch (Exception e) {
-                    myMediaSession.release();
+                    MediaSessionRegistry.getInstance().release(myMediaSession);
                 }
             }
         };
@@ -92,7 +93,7 @@ public abstract class VoiceMailSession {
 
     void release() {
         if (myMediaSession != null)
-            myMediaSession.release();
+            MediaSessionRegistry.getInstance().release(myMediaSession);
     }
 
     /** ***************************************************************************************** */
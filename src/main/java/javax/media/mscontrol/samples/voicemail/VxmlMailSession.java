@@ -16,6 +16,7 @@ import java.util.Map;
 
 import javax.media.mscontrol.MediaEventListener;
 import javax.media.mscontrol.join.Joinable;
+import javax.media.mscontrol.samples.common.MediaSessionRegistry;
 import javax.media.mscontrol.vxml.VxmlDialog;
 import javax.media.mscontrol.vxml.VxmlDialogEvent;
 import javax.servlet.sip.SipSession;
@@ -102,7 +103,7 @@ public class VxmlMailSession extends VoiceMailSession {
 				setState(DialogState.STARTED);
 			} else if (event.getEventType().equals(VxmlDialogEvent.EXITED)) {
 				setState(DialogState.TERMINATED);
-				myMediaSession.release();
+				MediaSessionRegistry.getInstance().release(myMediaSession);
 				Map<String, Object> dialogResults = event.getNameList();
 				@SuppressWarnings("unused")
 				String newBalance = (String) dialogResults.get("New balance");
@@ -0,0 +1,222 @@
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Copyright (c) 2008 Hewlett-Packard, Inc. All rights reserved.
+ * Copyright (c) 2008 Oracle and/or its affiliates. All rights reserved.
+ *
+ * Use is subject to license terms.
+ *
+ * This code should only be used for further understanding of the
+ * specifications and is not of production quality in terms of robustness,
+ * scalability etc.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ */
+package javax.media.mscontrol.samples.karaoke;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * RecordingStore on temporary directories as volumes
+ */
+public class RecordingStoreTest {
+
+	private static final long TIMEOUT = 5000;
+
+	private final List<RecordingStore> stores = new ArrayList<RecordingStore>();
+	private final List<File> directories = new ArrayList<File>();
+
+	@After
+	public void tearDown() {
+		for (RecordingStore store : stores)
+			store.shutdown();
+		for (File directory : directories)
+			delete(directory);
+	}
+
+	@Test
+	public void namesAreUnique() throws IOException {
+		RecordingStore store = store(Arrays.asList(volume()), 0, 0, 0, "p");
+		Set<File> files = new HashSet<File>();
+		for (int i = 0; i < 100; i++) {
+			Object owner = new Object();
+			store.getURI(owner, "singer");
+			store.getURI(owner, "mix");
+			assertTrue(files.add(store.getFile(owner, "singer")));
+			assertTrue(files.add(store.getFile(owner, "mix")));
+		}
+		for (File file : files)
+			assertTrue(file.isFile());
+	}
+
+	@Test
+	public void namesAreUniqueAcrossARestartedPrefix() throws IOException {
+		File root = volume();
+		RecordingStore first = store(Arrays.asList(root), 0, 0, 0, "p");
+		Set<File> files = new HashSet<File>();
+		for (int i = 0; i < 5; i++) {
+			Object owner = new Object();
+			first.getURI(owner, "singer");
+			files.add(first.getFile(owner, "singer"));
+		}
+		first.shutdown();
+
+		// Same prefix, its counter back to the start: the files left are
+		// not taken over
+		RecordingStore second = store(Arrays.asList(root), 0, 0, 0, "p");
+		for (int i = 0; i < 5; i++) {
+			Object owner = new Object();
+			second.getURI(owner, "singer");
+			assertTrue(files.add(second.getFile(owner, "singer")));
+		}
+		assertEquals(10, files.size());
+	}
+
+	@Test
+	public void filesAreSharded() throws IOException {
+		File root = volume();
+		RecordingStore store = store(Arrays.asList(root), 0, 0, 0, "p");
+		Object owner = new Object();
+		store.getURI(owner, "singer");
+		File file = store.getFile(owner, "singer");
+		String shard = RecordingStore.shard(file.getName());
+		assertEquals(4, shard.length());
+		assertEquals(new File(new File(new File(root, shard.substring(0, 2)), shard.substring(2)), file.getName()),
+				file);
+
+		Set<String> directories = new HashSet<String>();
+		for (int i = 0; i < 4096; i++)
+			directories.add(RecordingStore.shard("singer-p-" + i + ".wav").substring(0, 2));
+		assertTrue("first level directories used: " + directories.size(), directories.size() > 200);
+	}
+
+	@Test
+	public void recordingsAreLinkedSparesAndTheSparesRefilled() throws Exception {
+		File root = volume();
+		RecordingStore store = store(Arrays.asList(root), 4096, 2, 0, "p");
+		RecordingStore.Volume volume = store.getVolumes().get(0);
+		awaitSpares(volume, 2);
+		Set<String> spares = new HashSet<String>(Arrays.asList(new File(root, RecordingStore.SPARE_DIRECTORY)
+				.list()));
+
+		Object owner = new Object();
+		store.getURI(owner, "singer");
+		File file = store.getFile(owner, "singer");
+		assertEquals(4096, file.length());
+		Set<String> left = new HashSet<String>(Arrays.asList(new File(root, RecordingStore.SPARE_DIRECTORY)
+				.list()));
+		// One of the spares is the recording now
+		assertEquals(1, spares.size() - countIn(left, spares));
+		awaitSpares(volume, 2);
+
+		// Other formats are not preallocated
+		store.getURI(owner, "lyrics", "txt");
+		assertEquals(0, store.getFile(owner, "lyrics").length());
+	}
+
+	@Test
+	public void sparesLeftByAPreviousRunAreUsed() throws Exception {
+		File root = volume();
+		RecordingStore first = store(Arrays.asList(root), 4096, 2, 0, "p");
+		awaitSpares(first.getVolumes().get(0), 2);
+		first.shutdown();
+
+		RecordingStore second = store(Arrays.asList(root), 4096, 2, 0, "q");
+		assertEquals(2, second.getVolumes().get(0).getSpares());
+	}
+
+	@Test
+	public void recordingsArePlacedOnTheVolumeWithTheMostRoom() throws IOException {
+		File a = volume();
+		File b = volume();
+		// Both on the same file system: the recordings in progress decide
+		RecordingStore store = store(Arrays.asList(a, b), 1024 * 1024, 0, 0, "p");
+		for (int i = 0; i < 6; i++)
+			store.getURI(new Object(), "singer");
+		assertEquals(3, store.getVolumes().get(0).getRecordings());
+		assertEquals(3, store.getVolumes().get(1).getRecordings());
+	}
+
+	@Test
+	public void noVolumeWithRoomFails() throws IOException {
+		RecordingStore store = store(Arrays.asList(volume()), 1024, 0, Long.MAX_VALUE, "p");
+		Object owner = new Object();
+		try {
+			store.getURI(owner, "singer");
+			fail("placed without room");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(null, store.getFile(owner, "singer"));
+		assertEquals(0, store.getVolumes().get(0).getRecordings());
+	}
+
+	@Test
+	public void filesAreDeletedAfterReleaseAndRetention() throws Exception {
+		RecordingStore store = new RecordingStore(Arrays.asList(volume()), 0, 0, 0, 500, "wav", "p");
+		stores.add(store);
+		Object owner = new Object();
+		store.getURI(owner, "singer");
+		File file = store.getFile(owner, "singer");
+		RecordingStore.Volume volume = store.getVolumes().get(0);
+		assertEquals(1, volume.getRecordings());
+
+		store.release(owner);
+		store.release(owner);
+		assertEquals(null, store.getFile(owner, "singer"));
+		assertTrue("deleted before the retention", file.exists());
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while ((file.exists() || volume.getRecordings() > 0) && System.currentTimeMillis() < deadline)
+			Thread.sleep(20);
+		assertFalse(file.exists());
+		assertEquals(0, volume.getRecordings());
+	}
+
+	private RecordingStore store(List<File> roots, long preallocate, int spares, long minFree, String prefix) {
+		RecordingStore store = new RecordingStore(roots, preallocate, spares, minFree, 0, "wav", prefix);
+		stores.add(store);
+		return store;
+	}
+
+	private File volume() throws IOException {
+		File directory = Files.createTempDirectory("recordings").toFile();
+		directories.add(directory);
+		return directory;
+	}
+
+	private static void awaitSpares(RecordingStore.Volume volume, int spares) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (volume.getSpares() < spares && System.currentTimeMillis() < deadline)
+			Thread.sleep(20);
+		assertEquals(spares, volume.getSpares());
+	}
+
+	private static int countIn(Set<String> names, Set<String> in) {
+		int count = 0;
+		for (String name : names)
+			if (in.contains(name))
+				count++;
+		return count;
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files)
+				delete(child);
+		}
+		file.delete();
+	}
+}